@@ -50,6 +50,75 @@ public enum ConfigKeys
     /** The maximum retention period for TAP asynchronous job results, seconds */
     TAP_RETENTION_PERIOD_HARD("tap.retention.period.hard"),
 
+    /** Maximum number of translated TAP queries to keep in the compiled query cache. */
+    TAP_QUERY_CACHE_SIZE("tap.query.cache.size"),
+
+    /** Time a translated TAP query may be reused for, seconds. */
+    TAP_QUERY_CACHE_TTL("tap.query.cache.ttl"),
+
+    /** Flag to supply a user's project ids to TAP queries as a single array parameter rather than as a list. */
+    TAP_BIND_PROJECT_IDS("tap.bind.project.ids"),
+
+    /** How to estimate the total rows of TAP results which are cut off: none, explain or count. */
+    TAP_ROW_ESTIMATE("tap.row.estimate"),
+
+    /** The most rows that will be counted when estimating the total rows of TAP results by count. */
+    TAP_ROW_ESTIMATE_COUNT_LIMIT("tap.row.estimate.count.limit"),
+
+    /** The most a synchronous TAP query may cost, by its query plan, to be run. 0 for no limit. */
+    TAP_SYNC_MAX_COST("tap.sync.max.cost"),
+
+    /** The most seconds a request for a TAP asynchronous job will wait, with WAIT, for the job to change phase. */
+    TAP_ASYNC_MAX_WAIT("tap.async.max.wait"),
+
+    /** Flag to adjust the number of running TAP asynchronous jobs by how quickly the database answers them. */
+    TAP_ASYNC_CONCURRENCY_ADAPTIVE("tap.async.concurrency.adaptive"),
+
+    /** The fewest TAP asynchronous jobs the adaptive limit will allow to run at once. */
+    TAP_ASYNC_CONCURRENCY_MIN("tap.async.concurrency.min"),
+
+    /** The most TAP asynchronous jobs the adaptive limit will allow to run at once. */
+    TAP_ASYNC_CONCURRENCY_MAX("tap.async.concurrency.max"),
+
+    /** Flag to estimate the cost of each TAP asynchronous job from its query plan when it is queued. */
+    TAP_ASYNC_COST_ESTIMATE("tap.async.cost.estimate"),
+
+    /** The query plan cost from which a TAP asynchronous job is run in the expensive lane. */
+    TAP_ASYNC_EXPENSIVE_COST("tap.async.expensive.cost"),
+
+    /** Maximum number of expensive TAP asynchronous jobs running at once. */
+    TAP_ASYNC_MAX_EXPENSIVE_JOBS("tap.async.max.expensive.jobs"),
+
+    /** Share of the TAP asynchronous job slots for particular owners, as owner=weight pairs. Others have weight 1. */
+    TAP_ASYNC_OWNER_WEIGHTS("tap.async.owner.weights"),
+
+    /** The most characters output for each character value in FITS results. */
+    TAP_FITS_STRING_WIDTH("tap.fits.string.width"),
+
+    /** The most rows written out in each record batch of Arrow results. */
+    TAP_ARROW_BATCH_ROWS("tap.arrow.batch.rows"),
+
+    /** The most bytes of values held in each record batch of Arrow results before it is written out. */
+    TAP_ARROW_BATCH_BYTES("tap.arrow.batch.bytes"),
+
+    /** The number of bytes of TAP results buffered before they are written to the response or result file. */
+    TAP_RESULT_BUFFER_SIZE("tap.result.buffer.size"),
+
+    /** Database session settings for synchronous TAP queries, as setting=value pairs. */
+    TAP_SESSION_PROFILE_SYNC("tap.session.profile.sync"),
+
+    /** Database session settings for asynchronous TAP jobs, as setting=value pairs. */
+    TAP_SESSION_PROFILE_ASYNC("tap.session.profile.async"),
+
+    /** Database session settings for SIAP queries, as setting=value pairs. */
+    TAP_SESSION_PROFILE_SIAP("tap.session.profile.siap"),
+
+    /** Database session settings for DataLink access checks, as setting=value pairs. */
+    TAP_SESSION_PROFILE_DATALINK("tap.session.profile.datalink"),
+
+    /** Database session settings for cone search queries, as setting=value pairs. */
+    SCS_SESSION_PROFILE("scs.session.profile"),
+
     /** Location of the config file describing the surveys enabled for siA1 access */
     SIA1_SURVEYS_CONFIG_FILE("sia1.surveys.config.file"), 
 
@@ -64,7 +133,31 @@ public enum ConfigKeys
     SIA1_OUTPUT_LIMIT("sia1.outputLimit.hard"), 
     
     /** Key for the service configured default SIA1 maxrec value. */ 
-    SIA1_DEFAULT_MAX_REC("sia1.max.records");
+    SIA1_DEFAULT_MAX_REC("sia1.max.records"),
+
+    /** How often the project code to id map is reloaded in the background, seconds. */
+    PROJECT_CACHE_REFRESH_INTERVAL("project.cache.refresh.interval"),
+
+    /** Maximum age of the project code to id map before a lookup must reload it, seconds. */
+    PROJECT_CACHE_TTL("project.cache.ttl"),
+
+    /** Maximum number of connections in the metadata (configuration, datalink and health) connection pool. */
+    CONNECTION_POOL_METADATA_SIZE("connection.pool.metadata.size"),
+
+    /** Maximum number of connections in the sync TAP and SCS connection pool. */
+    CONNECTION_POOL_SYNC_SIZE("connection.pool.sync.size"),
+
+    /** Maximum number of connections in the async TAP connection pool. */
+    CONNECTION_POOL_ASYNC_SIZE("connection.pool.async.size"),
+
+    /** Minimum number of idle connections each connection pool tries to keep open. */
+    CONNECTION_POOL_MIN_IDLE("connection.pool.min.idle"),
+
+    /** Maximum time to wait for a connection from a pool before failing, milliseconds. */
+    CONNECTION_POOL_ACQUIRE_TIMEOUT("connection.pool.acquire.timeout"),
+
+    /** Maximum lifetime of a pooled connection before it is retired, milliseconds. */
+    CONNECTION_POOL_MAX_LIFETIME("connection.pool.max.lifetime");
     
     private final String key;
 
@@ -389,6 +389,16 @@ public interface ConfigurationDAO
      */
     public JdbcTemplate getTemplate();
 
+    /**
+     * Get a JdbcTemplate backed by the connection pool for the given workload. The template returned by
+     * {@link #getTemplate()} uses the metadata pool.
+     * 
+     * @param pool
+     *            the workload the template will be used for
+     * @return JdbcTemplate for the workload's connection pool
+     */
+    public JdbcTemplate getTemplate(ConnectionPool pool);
+
     /**
      * Get schema name
      * 
@@ -419,5 +429,16 @@ public interface ConfigurationDAO
      * @return projectIds List of project ids for codes
      */
     public List<Long> convertProjectCodesToIds(List<String> projectCodes, String schema);
+
+    /**
+     * Find the ids of projects by their codes
+     * 
+     * @param projectCodes
+     *            the project codes to look up, or null for all projects
+     * @param schema
+     *            Schema of the projects table
+     * @return map of project code to project id, codes which do not match a project are not included
+     */
+    public Map<String, Long> findProjectIdsByCode(Collection<String> projectCodes, String schema);
     
 }
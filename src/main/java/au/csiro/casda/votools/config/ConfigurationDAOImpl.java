@@ -20,7 +20,10 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -37,7 +40,11 @@ import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.namedparam.SqlParameterSource;
-import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+import com.zaxxer.hikari.HikariDataSource;
 
 import au.csiro.casda.votools.jpa.TapColumn;
 import au.csiro.casda.votools.jpa.TapColumnPK;
@@ -61,6 +68,12 @@ public class ConfigurationDAOImpl implements ConfigurationDAO
     
     private NamedParameterJdbcTemplate  namedParameterJdbcTemplate;
 
+    private final Map<ConnectionPool, JdbcTemplate> poolTemplates = new EnumMap<>(ConnectionPool.class);
+
+    private DataSourceTransactionManager transactionManager;
+
+    private final ThreadLocal<Deque<TransactionStatus>> transactions = ThreadLocal.withInitial(ArrayDeque::new);
+
     /** TAP metadata schemas table */
     public static final String SCHEMAS_TABLE_NAME = "tap_schemas";
 
@@ -145,15 +158,13 @@ public class ConfigurationDAOImpl implements ConfigurationDAO
      */
     private void init() throws ConfigurationException
     {
-        DriverManagerDataSource dataSource = new DriverManagerDataSource();
-        dataSource.setUrl(config.get(ConfigValueKeys.CONNECTION_URL));
-        dataSource.setUsername(config.get("connection.username"));
-        dataSource.setPassword(config.get("connection.password"));
-        dataSource.setDriverClassName(config.get("connection.driverClassName", "org.postgresql.Driver"));
+        HikariDataSource dataSource = ConnectionPoolManager.getDataSource(ConnectionPool.METADATA, config);
         template = new JdbcTemplate(dataSource);
         namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+        transactionManager = new DataSourceTransactionManager(dataSource);
+        poolTemplates.put(ConnectionPool.METADATA, template);
         tapCache.setConfiguration(config);
-        logger.info("Initialised connection to " + dataSource.getUrl());
+        logger.info("Initialised connection to " + dataSource.getJdbcUrl());
     }
 
     @Override
@@ -228,6 +239,14 @@ public class ConfigurationDAOImpl implements ConfigurationDAO
             tapConfig.put("connection.username", config.get("connection.username"));
             tapConfig.put("connection.password", config.get("connection.password"));
             tapConfig.put("connection.driverClassName", config.get("connection.driverClassName"));
+            for (Map.Entry<String, String> option : config.getOptions().entrySet())
+            {
+                // keep the pool settings the same so that the shared pools are not rebuilt
+                if (option.getKey().startsWith("connection.pool."))
+                {
+                    tapConfig.put(option.getKey(), option.getValue());
+                }
+            }
             tapConfig.setChangeLevel(config.getChangeLevel());
             tapConfig.initDao();
             String text = parser.serialise(tapConfig);
@@ -883,7 +902,13 @@ public class ConfigurationDAOImpl implements ConfigurationDAO
     @Override
     public void begin()
     {
-        execute("BEGIN READ WRITE");
+        if (transactionManager == null)
+        {
+            execute("BEGIN READ WRITE");
+            return;
+        }
+        // A pooled connection is only held for the duration of a statement, so bind one to this thread instead
+        transactions.get().push(transactionManager.getTransaction(new DefaultTransactionDefinition()));
     }
 
     /*
@@ -894,7 +919,16 @@ public class ConfigurationDAOImpl implements ConfigurationDAO
     @Override
     public void commit()
     {
-        execute("COMMIT");
+        if (transactionManager == null)
+        {
+            execute("COMMIT");
+            return;
+        }
+        Deque<TransactionStatus> stack = transactions.get();
+        if (!stack.isEmpty())
+        {
+            transactionManager.commit(stack.pop());
+        }
     }
 
     public Configuration getConfig()
@@ -915,7 +949,16 @@ public class ConfigurationDAOImpl implements ConfigurationDAO
     @Override
     public void rollback()
     {
-        execute("ROLLBACK");
+        if (transactionManager == null)
+        {
+            execute("ROLLBACK");
+            return;
+        }
+        Deque<TransactionStatus> stack = transactions.get();
+        if (!stack.isEmpty())
+        {
+            transactionManager.rollback(stack.pop());
+        }
     }
 
     /**
@@ -1272,6 +1315,8 @@ public class ConfigurationDAOImpl implements ConfigurationDAO
 
         case "geometry":
         case "spoly":
+        case "scircle":
+        case "spoint":
             return "REGION";
 
         case "text":
@@ -1415,6 +1460,28 @@ public class ConfigurationDAOImpl implements ConfigurationDAO
         return template;
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see au.csiro.casda.votools.config.ConfigurationDAO#getTemplate(au.csiro.casda.votools.config.ConnectionPool)
+     */
+    @Override
+    public synchronized JdbcTemplate getTemplate(ConnectionPool pool)
+    {
+        if (transactionManager == null)
+        {
+            // Not managing our own connections, so everything shares the supplied template
+            return template;
+        }
+        JdbcTemplate poolTemplate = poolTemplates.get(pool);
+        if (poolTemplate == null)
+        {
+            poolTemplate = new JdbcTemplate(ConnectionPoolManager.getDataSource(pool, config));
+            poolTemplates.put(pool, poolTemplate);
+        }
+        return poolTemplate;
+    }
+
     public void setTemplate(JdbcTemplate template)
     {
         this.template = template;
@@ -1624,4 +1691,32 @@ public class ConfigurationDAOImpl implements ConfigurationDAO
 
         return projectIds;
     }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see au.csiro.casda.votools.config.ConfigurationDAO#findProjectIdsByCode(java.util.Collection,
+     * java.lang.String)
+     */
+    @Override
+    public Map<String, Long> findProjectIdsByCode(Collection<String> projectCodes, String schema)
+    {
+        Map<String, Long> projectIds = new HashMap<>();
+        if (projectCodes != null && projectCodes.isEmpty())
+        {
+            return projectIds;
+        }
+
+        String sql = "select opal_code, id from " + schema + "." + VoKeys.STR_PROJECT_TABLE_NAME;
+        MapSqlParameterSource parameters = new MapSqlParameterSource();
+        if (projectCodes != null)
+        {
+            sql += " where opal_code in (:codes)";
+            parameters.addValue("codes", projectCodes);
+        }
+        namedParameterJdbcTemplate.query(sql, parameters, (ResultSet rs) -> {
+            projectIds.put(rs.getString(1), rs.getLong(2));
+        });
+        return projectIds;
+    }
 }
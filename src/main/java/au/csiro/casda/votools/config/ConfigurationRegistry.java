@@ -18,6 +18,7 @@ import java.util.List;
 import java.util.Set;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -335,6 +336,16 @@ public class ConfigurationRegistry
         }
     }
 
+    /**
+     * Close the database connection pools, so their connections and threads are not left behind when the application
+     * is undeployed.
+     */
+    @PreDestroy
+    public void shutdown()
+    {
+        ConnectionPoolManager.closeAll();
+    }
+
     /**
      * Register configurable object to keep it informed of configuration changes
      * 
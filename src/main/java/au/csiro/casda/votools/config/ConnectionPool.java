@@ -0,0 +1,61 @@
+package au.csiro.casda.votools.config;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * The database connection pools used by the VO tools. Each workload has its own pool so that, for example, a burst
+ * of long running async queries cannot starve the metadata lookups needed to serve sync requests.
+ * <p>
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public enum ConnectionPool
+{
+    /** Pool for configuration, TAP metadata, datalink and health check queries. */
+    METADATA("casda-vo-metadata", ConfigKeys.CONNECTION_POOL_METADATA_SIZE, 4),
+
+    /** Pool for synchronous TAP and cone search queries. */
+    SYNC("casda-vo-sync", ConfigKeys.CONNECTION_POOL_SYNC_SIZE, 10),
+
+    /** Pool for asynchronous TAP jobs. */
+    ASYNC("casda-vo-async", ConfigKeys.CONNECTION_POOL_ASYNC_SIZE, 6);
+
+    private final String poolName;
+
+    private final ConfigKeys sizeKey;
+
+    private final int defaultSize;
+
+    private ConnectionPool(String poolName, ConfigKeys sizeKey, int defaultSize)
+    {
+        this.poolName = poolName;
+        this.sizeKey = sizeKey;
+        this.defaultSize = defaultSize;
+    }
+
+    public String getPoolName()
+    {
+        return poolName;
+    }
+
+    /**
+     * Retrieve the maximum number of connections this pool may hold.
+     * 
+     * @param config
+     *            the configuration to read the size from
+     * @return the configured pool size, or the default if not configured
+     */
+    public int getMaxSize(Options config)
+    {
+        return config.getInt(sizeKey.getKey(), defaultSize);
+    }
+}
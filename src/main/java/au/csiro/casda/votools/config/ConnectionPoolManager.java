@@ -0,0 +1,146 @@
+package au.csiro.casda.votools.config;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Holds the JDBC connection pools shared by all ConfigurationDAOImpl instances. Configuration objects are created and
+ * discarded frequently (e.g. while exporting or applying a configuration) so the pools live here rather than in the
+ * DAO. A pool is only rebuilt when the connection details or the pool settings for its workload change, at which
+ * point the old pool is closed and its metrics are withdrawn.
+ * <p>
+ * Pool gauges (active, idle, pending, acquire time etc) are published to the global Micrometer registry, tagged with
+ * the pool name.
+ * <p>
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+final class ConnectionPoolManager
+{
+    private static Logger logger = LoggerFactory.getLogger(ConnectionPoolManager.class);
+
+    /** Default minimum number of idle connections per pool. */
+    static final int DEFAULT_MIN_IDLE = 1;
+
+    /** Default time to wait for a connection, milliseconds. */
+    static final long DEFAULT_ACQUIRE_TIMEOUT = 30000L;
+
+    /** Default maximum lifetime of a connection, milliseconds. */
+    static final long DEFAULT_MAX_LIFETIME = 1800000L;
+
+    private static final Map<ConnectionPool, PoolEntry> POOLS = new EnumMap<>(ConnectionPool.class);
+
+    private ConnectionPoolManager()
+    {
+    }
+
+    /**
+     * Retrieve the data source for the given workload, creating (or replacing) the pool if needed.
+     * 
+     * @param pool
+     *            the workload the connections will be used for
+     * @param config
+     *            the configuration holding the connection details and pool settings
+     * @return the pooled data source
+     */
+    static synchronized HikariDataSource getDataSource(ConnectionPool pool, Options config)
+    {
+        HikariConfig hikariConfig = buildPoolConfig(pool, config);
+        String signature = getSignature(hikariConfig);
+        PoolEntry entry = POOLS.get(pool);
+        if (entry != null && !entry.dataSource.isClosed() && entry.signature.equals(signature))
+        {
+            return entry.dataSource;
+        }
+        if (entry != null)
+        {
+            logger.info("Closing connection pool {} as its settings have changed", pool.getPoolName());
+            entry.dataSource.close();
+        }
+
+        HikariDataSource dataSource = new HikariDataSource(hikariConfig);
+        POOLS.put(pool, new PoolEntry(signature, dataSource));
+        logger.info("Created connection pool {} to {} with up to {} connections", pool.getPoolName(),
+                hikariConfig.getJdbcUrl(), hikariConfig.getMaximumPoolSize());
+        return dataSource;
+    }
+
+    /**
+     * Close all connection pools. Called when the configuration registry is shut down, and by tests.
+     */
+    static synchronized void closeAll()
+    {
+        for (PoolEntry entry : POOLS.values())
+        {
+            entry.dataSource.close();
+        }
+        POOLS.clear();
+    }
+
+    private static HikariConfig buildPoolConfig(ConnectionPool pool, Options config)
+    {
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setPoolName(pool.getPoolName());
+        hikariConfig.setJdbcUrl(config.get(ConfigValueKeys.CONNECTION_URL));
+        hikariConfig.setUsername(config.get("connection.username"));
+        hikariConfig.setPassword(config.get("connection.password"));
+        hikariConfig.setDriverClassName(config.get("connection.driverClassName", "org.postgresql.Driver"));
+        int maxSize = pool.getMaxSize(config);
+        hikariConfig.setMaximumPoolSize(maxSize);
+        hikariConfig.setMinimumIdle(
+                Math.min(maxSize, config.getInt(ConfigKeys.CONNECTION_POOL_MIN_IDLE.getKey(), DEFAULT_MIN_IDLE)));
+        hikariConfig.setConnectionTimeout(
+                config.getLong(ConfigKeys.CONNECTION_POOL_ACQUIRE_TIMEOUT.getKey(), DEFAULT_ACQUIRE_TIMEOUT));
+        hikariConfig.setMaxLifetime(
+                config.getLong(ConfigKeys.CONNECTION_POOL_MAX_LIFETIME.getKey(), DEFAULT_MAX_LIFETIME));
+        // Don't connect until first use, a missing database is reported when it is first queried
+        hikariConfig.setInitializationFailTimeout(-1);
+        hikariConfig.setMetricRegistry(Metrics.globalRegistry);
+        return hikariConfig;
+    }
+
+    private static String getSignature(HikariConfig hikariConfig)
+    {
+        return String.join("|", Objects.toString(hikariConfig.getJdbcUrl()),
+                Objects.toString(hikariConfig.getUsername()), Objects.toString(hikariConfig.getPassword()),
+                hikariConfig.getDriverClassName(), String.valueOf(hikariConfig.getMaximumPoolSize()),
+                String.valueOf(hikariConfig.getMinimumIdle()), String.valueOf(hikariConfig.getConnectionTimeout()),
+                String.valueOf(hikariConfig.getMaxLifetime()));
+    }
+
+    /**
+     * A pool together with the settings it was built from.
+     */
+    private static class PoolEntry
+    {
+        private final String signature;
+
+        private final HikariDataSource dataSource;
+
+        PoolEntry(String signature, HikariDataSource dataSource)
+        {
+            this.signature = signature;
+            this.dataSource = dataSource;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package au.csiro.casda.votools.config;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * The database session settings used for each workload. Each profile is configured in its end point as a comma
+ * separated list of setting=value pairs, e.g. <code>work_mem=64MB, jit=off, application_name=casda-vo-tap-sync</code>,
+ * which are applied for the current transaction only, as with SET LOCAL.
+ * <p>
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public enum SessionProfile
+{
+    /** Synchronous TAP queries. */
+    TAP_SYNC("tap-sync", "TAP", ConfigKeys.TAP_SESSION_PROFILE_SYNC),
+
+    /** Asynchronous TAP jobs. */
+    TAP_ASYNC("tap-async", "TAP", ConfigKeys.TAP_SESSION_PROFILE_ASYNC),
+
+    /** Cone search queries. */
+    SCS("scs", "SCS", ConfigKeys.SCS_SESSION_PROFILE),
+
+    /** SIAP queries, which are run by the TAP service. */
+    SIAP("siap", "TAP", ConfigKeys.TAP_SESSION_PROFILE_SIAP),
+
+    /** DataLink access checks. */
+    DATALINK("datalink", "TAP", ConfigKeys.TAP_SESSION_PROFILE_DATALINK);
+
+    private static Logger logger = LoggerFactory.getLogger(SessionProfile.class);
+
+    /** Names of settings, which cannot be supplied as parameters */
+    private static final Pattern SETTING_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)?");
+
+    private final String profileName;
+
+    private final String endPointName;
+
+    private final ConfigKeys key;
+
+    private SessionProfile(String profileName, String endPointName, ConfigKeys key)
+    {
+        this.profileName = profileName;
+        this.endPointName = endPointName;
+        this.key = key;
+    }
+
+    public String getProfileName()
+    {
+        return profileName;
+    }
+
+    public ConfigKeys getKey()
+    {
+        return key;
+    }
+
+    /**
+     * Read the settings of this profile from its end point.
+     * 
+     * @param config
+     *            the current configuration
+     * @return the settings in the order they are configured, empty if there are none
+     */
+    public Map<String, String> getSettings(Configuration config)
+    {
+        EndPoint endPoint = config == null ? null : config.getEndPoint(endPointName);
+        if (endPoint == null)
+        {
+            return Collections.emptyMap();
+        }
+        return parseSettings(endPoint.getList(key.getKey()));
+    }
+
+    /**
+     * Parse a list of setting=value pairs. Entries which are not valid are logged and skipped.
+     * 
+     * @param entries
+     *            the configured entries
+     * @return the settings in the order they are listed
+     */
+    static Map<String, String> parseSettings(List<String> entries)
+    {
+        Map<String, String> settings = new LinkedHashMap<>();
+        for (String entry : entries)
+        {
+            if (StringUtils.isBlank(entry))
+            {
+                continue;
+            }
+            String name = StringUtils.substringBefore(entry, "=");
+            String value = StringUtils.substringAfter(entry, "=");
+            if (!entry.contains("=") || !SETTING_NAME.matcher(name).matches())
+            {
+                logger.warn("Ignoring invalid session setting '{}'", entry);
+                continue;
+            }
+            settings.put(name, value);
+        }
+        return settings;
+    }
+
+    /**
+     * Apply settings to the current transaction of a connection. The settings revert when the transaction ends, so the
+     * connection must not be in auto commit mode.
+     * 
+     * @param connection
+     *            the connection to be configured
+     * @param settings
+     *            the settings to apply
+     * @throws SQLException
+     *             if a setting could not be applied, e.g. it is not known to the database
+     */
+    public static void apply(Connection connection, Map<String, String> settings) throws SQLException
+    {
+        if (settings.isEmpty())
+        {
+            return;
+        }
+        // set_config(name, value, true) is equivalent to SET LOCAL, but allows the values to be parameters
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (int i = 0; i < settings.size(); i++)
+        {
+            sql.append(i == 0 ? "" : ", ").append("set_config(?, ?, true)");
+        }
+        try (PreparedStatement statement = connection.prepareStatement(sql.toString()))
+        {
+            int index = 1;
+            for (Map.Entry<String, String> setting : settings.entrySet())
+            {
+                statement.setString(index++, setting.getKey());
+                statement.setString(index++, setting.getValue());
+            }
+            try (ResultSet rs = statement.executeQuery())
+            {
+                // The result is just the new values
+                rs.next();
+            }
+        }
+    }
+}
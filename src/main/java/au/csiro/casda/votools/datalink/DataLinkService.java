@@ -3,8 +3,8 @@ package au.csiro.casda.votools.datalink;
 import java.io.IOException;
 import java.io.Writer;
 import java.time.ZonedDateTime;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -23,6 +23,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.context.annotation.ScopedProxyMode;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 
@@ -33,6 +34,7 @@ import au.csiro.casda.votools.config.Configuration;
 import au.csiro.casda.votools.config.ConfigurationException;
 import au.csiro.casda.votools.config.ConfigurationRegistry;
 import au.csiro.casda.votools.config.DataLinkResourceType;
+import au.csiro.casda.votools.config.SessionProfile;
 import au.csiro.casda.votools.jpa.repository.VoTableRepositoryService;
 import au.csiro.casda.votools.logging.CasdaVoToolsEvents;
 import au.csiro.casda.votools.result.VotableError;
@@ -105,6 +107,7 @@ public class DataLinkService extends Configurable
     private List<String> visibilityResource;
     private List<String> scanResource;
     private Map<DataLinkResourceType, List<String>> resourceMap;
+    private Map<String, String> sessionSettings = Collections.emptyMap();
 
     /**
      * Constructor
@@ -226,6 +229,7 @@ public class DataLinkService extends Configurable
         {
             authTrustedIp = config.getList("auth.trusted.ip");
             baseUrl = config.get(ConfigValueKeys.APP_BASE_URL);
+            sessionSettings = SessionProfile.DATALINK.getSettings(config);
             ready = true;
         }
         return ready;
@@ -295,11 +299,21 @@ public class DataLinkService extends Configurable
             else
             {
                 builder.withResultsTable();
-                // For each id, add row with pointer to data access
-                for (String id : requestedIds)
+                boolean session = beginSession();
+                try
                 {
-                    buildDataAccessForId(builder, id, userId, loginSystem, projectIds, casdaAdmin,
-                            casdaLargeWebDownload, accessTime);
+                    // For each id, add row with pointer to data access
+                    for (String id : requestedIds)
+                    {
+                        buildDataAccessForId(builder, id, userId, loginSystem, projectIds, casdaAdmin,
+                                casdaLargeWebDownload, accessTime);
+                    }
+                    endSession(session, true);
+                }
+                catch (Exception e)
+                {
+                    endSession(session, false);
+                    throw e;
                 }
             }
 
@@ -536,8 +550,20 @@ public class DataLinkService extends Configurable
             
             Long dataProductId = Long.parseLong(requestedId.split("-")[1]);
 
-            boolean allowAccessDataLink = isAccessAllowed(casdaAdmin, userId, projectIds, table, dataProductId);
-            long contentLengthKb = getContentLength(table, dataProductId);
+            boolean allowAccessDataLink;
+            long contentLengthKb;
+            boolean session = beginSession();
+            try
+            {
+                allowAccessDataLink = isAccessAllowed(casdaAdmin, userId, projectIds, table, dataProductId);
+                contentLengthKb = getContentLength(table, dataProductId);
+                endSession(session, true);
+            }
+            catch (RuntimeException e)
+            {
+                endSession(session, false);
+                throw e;
+            }
             
             if(allowAccessDataLink && contentLengthKb > 0)
         	{
@@ -556,6 +582,59 @@ public class DataLinkService extends Configurable
     	return builder;
     }
     
+    /**
+     * Starts a transaction for the lookups of a request and applies the datalink session profile to it, so that the
+     * settings only last as long as the request's queries. Without any settings the lookups are run as before, each
+     * in its own transaction, so no transaction is started.
+     * 
+     * @return true if a transaction was started, which must be ended with endSession
+     */
+    private boolean beginSession()
+    {
+        if (sessionSettings.isEmpty())
+        {
+            return false;
+        }
+        config.gtDao().begin();
+        try
+        {
+            config.gtDao().getTemplate().execute((ConnectionCallback<Void>) con -> {
+                SessionProfile.apply(con, sessionSettings);
+                return null;
+            });
+        }
+        catch (RuntimeException e)
+        {
+            config.gtDao().rollback();
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Ends the transaction started by beginSession, if there is one.
+     * 
+     * @param session
+     *            true if beginSession started a transaction
+     * @param commit
+     *            true to commit the transaction, false to roll it back
+     */
+    private void endSession(boolean session, boolean commit)
+    {
+        if (!session)
+        {
+            return;
+        }
+        if (commit)
+        {
+            config.gtDao().commit();
+        }
+        else
+        {
+            config.gtDao().rollback();
+        }
+    }
+
     private long getContentLength(String table, Long dataProductId)
     {
 
@@ -592,25 +671,20 @@ public class DataLinkService extends Configurable
         }
         else if (authenticated)
         {
-            if (CollectionUtils.isEmpty(projectIds))
-            {
-                projectIds = new ArrayList<>();
-                projectIds.add(-1L);
-            }
-
+            /*
+             * The project ids are supplied as a single array literal so the query text is the same for every user no
+             * matter how many projects they belong to.
+             */
             String query = "select id from " + table + " where id = ?"
-                    + " and (released_date < CURRENT_TIMESTAMP or project_id in ("
-                    /*
-                     * adding the ids as a string here is ok because ids are Longs and data is from a trusted
-                     * source
-                     */
-                    + projectIds.stream().map(String::valueOf).collect(Collectors.joining(",")) + "))";
+                    + " and (released_date < CURRENT_TIMESTAMP or project_id = ANY(CAST(? AS bigint[])))";
+            String projectIdArray = CollectionUtils.isEmpty(projectIds) ? "{}"
+                    : projectIds.stream().map(String::valueOf).collect(Collectors.joining(",", "{", "}"));
 
             String result;
             try
             {
-                result = config.gtDao().getTemplate().queryForObject(query, new Object[] { dataProductId },
-                        String.class);
+                result = config.gtDao().getTemplate().queryForObject(query,
+                        new Object[] { dataProductId, projectIdArray }, String.class);
             }
             catch (EmptyResultDataAccessException e)
             {
@@ -0,0 +1,275 @@
+package au.csiro.casda.votools.jpa.repository;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.collections4.CollectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.csiro.casda.votools.config.ConfigurationDAO;
+
+/**
+ * An in-memory map of project codes to project ids. All projects are loaded in one query and the map is reloaded in
+ * the background, so resolving a user's projects is normally just a map lookup. Codes which are not in the map (e.g.
+ * projects created since the last load) are looked up in a single query and added to the map.
+ * <p>
+ * If the map has not been reloaded within its time to live (e.g. because the database was unavailable) the next lookup
+ * reloads it before answering.
+ * <p>
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class ProjectIdCache
+{
+    private static Logger logger = LoggerFactory.getLogger(ProjectIdCache.class);
+
+    private final long ttlMillis;
+
+    private final long refreshIntervalSeconds;
+
+    private ConfigurationDAO dao;
+
+    private volatile Snapshot snapshot;
+
+    private ScheduledExecutorService refresher;
+
+    /**
+     * Create a new, empty cache.
+     * 
+     * @param refreshIntervalSeconds
+     *            how often the map is reloaded in the background, seconds. 0 disables background reloading.
+     * @param ttlSeconds
+     *            how long a loaded map may be used for before it must be reloaded, seconds
+     */
+    public ProjectIdCache(long refreshIntervalSeconds, long ttlSeconds)
+    {
+        this.refreshIntervalSeconds = refreshIntervalSeconds;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+    }
+
+    /**
+     * Set the database access object used to load projects. Any projects loaded through the previous DAO are
+     * discarded.
+     * 
+     * @param dao
+     *            the DAO to use, may be null if there is no valid configuration
+     */
+    public synchronized void setDao(ConfigurationDAO dao)
+    {
+        this.dao = dao;
+        snapshot = null;
+    }
+
+    /**
+     * Discard all loaded projects. They will be reloaded by the next lookup.
+     */
+    public void invalidate()
+    {
+        snapshot = null;
+    }
+
+    /**
+     * Convert project codes to project ids.
+     * 
+     * @param projectCodes
+     *            list of project codes
+     * @param schema
+     *            Schema of the projects table
+     * @return the ids of the projects matching the codes, or null if no codes were supplied
+     */
+    public List<Long> getProjectIds(List<String> projectCodes, String schema)
+    {
+        if (CollectionUtils.isEmpty(projectCodes))
+        {
+            return null;
+        }
+
+        Map<String, Long> projectIds = getProjectIdMap(projectCodes, schema);
+        Set<Long> ids = new LinkedHashSet<>();
+        for (String code : projectCodes)
+        {
+            Long id = projectIds.get(code);
+            if (id != null)
+            {
+                ids.add(id);
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * Find the ids of projects by their codes.
+     * 
+     * @param projectCodes
+     *            the project codes to look up
+     * @param schema
+     *            Schema of the projects table
+     * @return map of project code to project id, codes which do not match a project are not included
+     */
+    public Map<String, Long> getProjectIdMap(Collection<String> projectCodes, String schema)
+    {
+        Map<String, Long> projectIds = new HashMap<>();
+        if (CollectionUtils.isEmpty(projectCodes))
+        {
+            return projectIds;
+        }
+
+        Snapshot current = getSnapshot(schema);
+        List<String> missing = new ArrayList<>();
+        for (String code : projectCodes)
+        {
+            Long id = current.projectIds.get(code);
+            if (id != null)
+            {
+                projectIds.put(code, id);
+            }
+            else if (!missing.contains(code))
+            {
+                missing.add(code);
+            }
+        }
+
+        if (!missing.isEmpty())
+        {
+            Map<String, Long> found = getDao().findProjectIdsByCode(missing, schema);
+            if (!found.isEmpty())
+            {
+                projectIds.putAll(found);
+                addProjects(current, found);
+            }
+        }
+        return projectIds;
+    }
+
+    /**
+     * Reload all projects now.
+     * 
+     * @param schema
+     *            Schema of the projects table
+     */
+    public void reload(String schema)
+    {
+        Map<String, Long> projectIds = getDao().findProjectIdsByCode(null, schema);
+        snapshot = new Snapshot(schema, projectIds, System.currentTimeMillis());
+        logger.debug("Loaded {} project ids", projectIds.size());
+    }
+
+    /**
+     * Stop reloading projects in the background.
+     */
+    public synchronized void shutdown()
+    {
+        if (refresher != null)
+        {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+    }
+
+    private Snapshot getSnapshot(String schema)
+    {
+        Snapshot current = snapshot;
+        if (current == null || !Objects.equals(current.schema, schema)
+                || System.currentTimeMillis() - current.loadedAt > ttlMillis)
+        {
+            reload(schema);
+            current = snapshot;
+            startRefresher();
+        }
+        return current;
+    }
+
+    private synchronized void addProjects(Snapshot current, Map<String, Long> found)
+    {
+        // only add to the map if it hasn't been replaced while we were querying
+        if (snapshot == current)
+        {
+            Map<String, Long> projectIds = new HashMap<>(current.projectIds);
+            projectIds.putAll(found);
+            snapshot = new Snapshot(current.schema, projectIds, current.loadedAt);
+        }
+    }
+
+    private synchronized ConfigurationDAO getDao()
+    {
+        if (dao == null)
+        {
+            throw new IllegalStateException("Project ids cannot be loaded without a valid configuration");
+        }
+        return dao;
+    }
+
+    private synchronized void startRefresher()
+    {
+        if (refresher != null || refreshIntervalSeconds <= 0)
+        {
+            return;
+        }
+        refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "project-id-cache");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(this::backgroundReload, refreshIntervalSeconds, refreshIntervalSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    private void backgroundReload()
+    {
+        Snapshot current = snapshot;
+        if (current == null)
+        {
+            // invalidated, the next lookup will reload
+            return;
+        }
+        try
+        {
+            reload(current.schema);
+        }
+        catch (RuntimeException e)
+        {
+            logger.warn("Unable to reload project ids, will retry in {} seconds", refreshIntervalSeconds, e);
+        }
+    }
+
+    /**
+     * An immutable set of loaded projects.
+     */
+    private static final class Snapshot
+    {
+        private final String schema;
+
+        private final Map<String, Long> projectIds;
+
+        private final long loadedAt;
+
+        Snapshot(String schema, Map<String, Long> projectIds, long loadedAt)
+        {
+            this.schema = schema;
+            this.projectIds = Collections.unmodifiableMap(projectIds);
+            this.loadedAt = loadedAt;
+        }
+    }
+}
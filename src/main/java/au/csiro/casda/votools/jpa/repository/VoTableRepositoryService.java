@@ -13,13 +13,18 @@ package au.csiro.casda.votools.jpa.repository;
  */
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PreDestroy;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.context.annotation.ScopedProxyMode;
 import org.springframework.stereotype.Service;
 
+import au.csiro.casda.votools.config.ConfigKeys;
 import au.csiro.casda.votools.config.Configurable;
 import au.csiro.casda.votools.config.Configuration;
 import au.csiro.casda.votools.config.ConfigurationDAO;
@@ -42,9 +47,16 @@ import au.csiro.casda.votools.jpa.TapTable;
 @Scope(proxyMode = ScopedProxyMode.NO)
 public class VoTableRepositoryService extends Configurable
 {
+    private static final long DEFAULT_PROJECT_CACHE_REFRESH_INTERVAL = 300;
+
+    private static final long DEFAULT_PROJECT_CACHE_TTL = 900;
+
     /** database access */
     private ConfigurationDAO dao;
 
+    /** project code to id lookups */
+    private ProjectIdCache projectIdCache;
+
 
     /**
      * A constructor
@@ -64,6 +76,10 @@ public class VoTableRepositoryService extends Configurable
     public void refreshObjectCache()
     {
         dao.refreshObjectCache();
+        if (projectIdCache != null)
+        {
+            projectIdCache.invalidate();
+        }
     }
     
     /**
@@ -228,6 +244,15 @@ public class VoTableRepositoryService extends Configurable
         {
             dao = null; // must be incomplete configuration
         }
+        if (projectIdCache != null)
+        {
+            projectIdCache.shutdown();
+        }
+        projectIdCache = new ProjectIdCache(
+                config.getLong(ConfigKeys.PROJECT_CACHE_REFRESH_INTERVAL.getKey(),
+                        DEFAULT_PROJECT_CACHE_REFRESH_INTERVAL),
+                config.getLong(ConfigKeys.PROJECT_CACHE_TTL.getKey(), DEFAULT_PROJECT_CACHE_TTL));
+        projectIdCache.setDao(dao);
     }
 
     /*
@@ -263,7 +288,41 @@ public class VoTableRepositoryService extends Configurable
      */
     public List<Long> fetchProjectIdsFromCodes(List<String> projectCodes, String schema)
     {
-        return dao.convertProjectCodesToIds(projectCodes, schema);
+        if (projectIdCache == null)
+        {
+            return dao.convertProjectCodesToIds(projectCodes, schema);
+        }
+        return projectIdCache.getProjectIds(projectCodes, schema);
+    }
+
+    /**
+     * Fetch the project ids for project codes, keeping track of which code each id belongs to
+     * 
+     * @param projectCodes
+     *            Project codes
+     * @param schema
+     *            Database schema
+     * @return map of project code to project id, codes which do not match a project are not included
+     */
+    public Map<String, Long> fetchProjectIdMapFromCodes(Collection<String> projectCodes, String schema)
+    {
+        if (projectIdCache == null)
+        {
+            return dao.findProjectIdsByCode(projectCodes, schema);
+        }
+        return projectIdCache.getProjectIdMap(projectCodes, schema);
+    }
+
+    /**
+     * Stop the background reloading of project ids.
+     */
+    @PreDestroy
+    public void shutdown()
+    {
+        if (projectIdCache != null)
+        {
+            projectIdCache.shutdown();
+        }
     }
 
     // TODO - Rather than getFromKeyColumns(), getTargetKeyColumns(), getFromKeys(), getTargetKeys() etc... we more
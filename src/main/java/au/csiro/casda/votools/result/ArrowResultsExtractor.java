@@ -0,0 +1,529 @@
+package au.csiro.casda.votools.result;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.OutOfMemoryException;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float4Vector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.SmallIntVector;
+import org.apache.arrow.vector.TimeStampMilliTZVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowStreamWriter;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+/**
+ * Outputs the results of a query as an Apache Arrow IPC stream, a columnar binary format which can be read by pandas,
+ * polars, DuckDB and other data frame tools without conversion. The type of each column is taken from its TAP
+ * datatype, as given in the field definitions, falling back on the SQL type for columns not in the TAP metadata.
+ * <p>
+ * The rows are read from the cursor into one batch of column vectors at a time, and each batch is written out once it
+ * reaches the maximum number of rows or bytes, so memory use is bounded by the batch size rather than the number of
+ * rows. The vectors are reused for each batch. The stream format does not need the number of rows up front, so the
+ * output is written in a single pass for both sync and async queries.
+ * <p>
+ * Arrow has no place for an error message or overflow status, so these are not output. Instances are not reusable.
+ *
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class ArrowResultsExtractor extends ResultsExtractor implements ResultSetExtractor<Boolean>
+{
+    private static Logger logger = LoggerFactory.getLogger(ArrowResultsExtractor.class);
+
+    private static final int OUTPUT_BUFFER_SIZE = 65536;
+
+    /** The TAP timestamps are in UTC, as for the text formats. */
+    private static final String TIMESTAMP_ZONE = "UTC";
+
+    private static final String[] FIELD_METADATA_ATTRIBUTES = { "unit", "ucd", "utype", "xtype" };
+
+    private final OutputStream out;
+
+    private final int maxRec;
+
+    private final Map<String, String> votableFieldMap;
+
+    private final int batchRows;
+
+    private final long batchBytes;
+
+    private BufferAllocator allocator;
+
+    private VectorSchemaRoot root;
+
+    private ArrowStreamWriter streamWriter;
+
+    private ValueWriter[] valueWriters = new ValueWriter[0];
+
+    private int rowsInBatch;
+
+    private long bytesInBatch;
+
+    /**
+     * Writes the value of a column for the current row into the column's vector.
+     */
+    @FunctionalInterface
+    interface ValueWriter
+    {
+        /**
+         * Write the value of a column in the current row, or a null.
+         *
+         * @param rs
+         *            The result set positioned at the row to be output.
+         * @param columnIndex
+         *            The index of the column to be read.
+         * @param row
+         *            The index of the row in the batch.
+         * @return The number of bytes the value takes in the batch.
+         * @throws SQLException
+         *             If the value cannot be read.
+         */
+        int write(ResultSet rs, int columnIndex, int row) throws SQLException;
+    }
+
+    /**
+     * Binds a column to the vector which holds its values in each batch.
+     */
+    @FunctionalInterface
+    interface VectorBinder
+    {
+        /**
+         * @param vector
+         *            The vector for the column, of the column's type.
+         * @return The writer of the column's values into the vector.
+         */
+        ValueWriter bind(FieldVector vector);
+    }
+
+    /**
+     * The Arrow type of a result column and how its values are written.
+     */
+    static class ArrowColumn
+    {
+        private final ArrowType type;
+
+        private final VectorBinder binder;
+
+        ArrowColumn(ArrowType type, VectorBinder binder)
+        {
+            this.type = type;
+            this.binder = binder;
+        }
+
+        ArrowType getType()
+        {
+            return type;
+        }
+    }
+
+    /**
+     * Creates a new instance of ArrowResultsExtractor for use outputting a single query only.
+     *
+     * @param outputStream
+     *            The stream to output the query results to.
+     * @param maxRec
+     *            The maximum number of records the user has requested.
+     * @param votableFieldMap
+     *            The map of field definitions for this query, used to find the column types. May be null.
+     * @param batchRows
+     *            The most rows to be held and written out as one batch.
+     * @param batchBytes
+     *            The most bytes of values to be held and written out as one batch. A batch is written once it reaches
+     *            this size.
+     * @param baseUrl
+     *            The web address at which this VO Tools instance can be found.
+     * @param proxyUrl
+     *            The web address at which this VO Proxy instance can be found.
+     */
+    public ArrowResultsExtractor(OutputStream outputStream, int maxRec, Map<String, String> votableFieldMap,
+            int batchRows, long batchBytes, String baseUrl, String proxyUrl)
+    {
+        super(baseUrl, proxyUrl);
+        this.out = new BufferedOutputStream(outputStream, OUTPUT_BUFFER_SIZE);
+        this.maxRec = maxRec;
+        this.votableFieldMap = votableFieldMap == null ? Collections.<String, String>emptyMap() : votableFieldMap;
+        this.batchRows = Math.max(1, batchRows);
+        this.batchBytes = Math.max(1, batchBytes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Boolean extractData(ResultSet rs) throws SQLException, DataAccessException
+    {
+        setCutoff(false);
+        setProcessedCount(0);
+
+        try
+        {
+            outputHeader(rs.getMetaData());
+            while (getProcessedCount() < maxRec && rs.next())
+            {
+                for (int i = 1; i < valueWriters.length; i++)
+                {
+                    bytesInBatch += valueWriters[i].write(rs, i, rowsInBatch);
+                }
+                rowsInBatch++;
+                setProcessedCount(getProcessedCount() + 1);
+                if (rowsInBatch >= batchRows || bytesInBatch >= batchBytes)
+                {
+                    writeBatch();
+                }
+            }
+            checkForOverflow(rs, maxRec);
+            outputFooter(isCutoff(), "");
+        }
+        catch (IOException | OutOfMemoryException e)
+        {
+            logger.error("Error outputting query results.", e);
+            throw new ProcessingException("Unable to write out results", e);
+        }
+        finally
+        {
+            release();
+        }
+        return isCutoff();
+    }
+
+    /**
+     * Writes the schema of the stream, which describes each column.
+     *
+     * @param metaData
+     *            The result set metadata.
+     * @throws SQLException
+     *             If the metadata cannot be retrieved.
+     * @throws IOException
+     *             If the schema cannot be written.
+     */
+    @Override
+    protected void outputHeader(ResultSetMetaData metaData) throws SQLException, IOException
+    {
+        ColumnEncoder[] encoders = getColumnEncoders(metaData);
+        int columnCount = metaData.getColumnCount();
+        ArrowColumn[] columns = new ArrowColumn[columnCount + 1];
+        List<Field> fields = new ArrayList<>(columnCount);
+        for (int i = 1; i <= columnCount; i++)
+        {
+            Map<String, String> attributes = JsonResultsExtractor
+                    .getFieldAttributes(VoTableResultsExtractor.findFieldDef(votableFieldMap, metaData, i));
+            columns[i] = getArrowColumn(metaData, i, attributes.get("datatype"), encoders[i]);
+            Map<String, String> fieldMetadata = new HashMap<>();
+            for (String attribute : FIELD_METADATA_ATTRIBUTES)
+            {
+                if (StringUtils.isNotEmpty(attributes.get(attribute)))
+                {
+                    fieldMetadata.put(attribute, attributes.get(attribute));
+                }
+            }
+            fields.add(new Field(metaData.getColumnName(i).toLowerCase(),
+                    new FieldType(true, columns[i].getType(), null, fieldMetadata), null));
+        }
+
+        allocator = new RootAllocator();
+        root = VectorSchemaRoot.create(new Schema(fields), allocator);
+        root.allocateNew();
+        valueWriters = new ValueWriter[columnCount + 1];
+        for (int i = 1; i <= columnCount; i++)
+        {
+            valueWriters[i] = columns[i].binder.bind(root.getVector(i - 1));
+        }
+        rowsInBatch = 0;
+        bytesInBatch = 0;
+        streamWriter = new ArrowStreamWriter(root, null, out);
+        streamWriter.start();
+    }
+
+    private void writeBatch() throws IOException
+    {
+        root.setRowCount(rowsInBatch);
+        streamWriter.writeBatch();
+        for (FieldVector vector : root.getFieldVectors())
+        {
+            // Keeps the buffers for the next batch
+            vector.reset();
+        }
+        rowsInBatch = 0;
+        bytesInBatch = 0;
+    }
+
+    /**
+     * Writes any rows not yet output and ends the stream.
+     *
+     * @param overflow
+     *            Are there more results than available than were output.
+     * @param error
+     *            An optional error message, which is ignored.
+     * @throws IOException
+     *             If the stream cannot be completed.
+     */
+    @Override
+    protected void outputFooter(boolean overflow, String error) throws IOException
+    {
+        try
+        {
+            if (rowsInBatch > 0)
+            {
+                writeBatch();
+            }
+            // The output stream belongs to the caller, so the stream is ended without closing the writer
+            streamWriter.end();
+            out.flush();
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    /**
+     * Frees the memory held by the vectors.
+     */
+    private void release()
+    {
+        if (root != null)
+        {
+            root.close();
+            root = null;
+        }
+        if (allocator != null)
+        {
+            allocator.close();
+            allocator = null;
+        }
+    }
+
+    /**
+     * Chooses the Arrow type of a result column from its TAP datatype. Columns whose SQL type cannot be read as the
+     * TAP datatype, and timestamps and bit strings, which TAP describes as text, are typed from the SQL type.
+     *
+     * @param metaData
+     *            The result set metadata.
+     * @param columnIndex
+     *            The index of the column.
+     * @param datatype
+     *            The VOTable datatype of the column, from its TAP datatype. May be null.
+     * @param encoder
+     *            The encoder for the text value of the column.
+     * @return The Arrow description of the column.
+     * @throws SQLException
+     *             If the metadata cannot be retrieved.
+     */
+    ArrowColumn getArrowColumn(ResultSetMetaData metaData, int columnIndex, String datatype, ColumnEncoder encoder)
+            throws SQLException
+    {
+        final int longBits = 64;
+        final int intBits = 32;
+        final int shortBits = 16;
+
+        int sqlType = metaData.getColumnType(columnIndex);
+        String typeName = metaData.getColumnTypeName(columnIndex);
+        if (sqlType == Types.TIMESTAMP)
+        {
+            return new ArrowColumn(new ArrowType.Timestamp(TimeUnit.MILLISECOND, TIMESTAMP_ZONE), vector -> {
+                TimeStampMilliTZVector values = (TimeStampMilliTZVector) vector;
+                Calendar utc = Calendar.getInstance(TimeZone.getTimeZone(TIMESTAMP_ZONE));
+                return (rs, col, row) -> {
+                    Timestamp value = rs.getTimestamp(col, utc);
+                    if (value == null)
+                    {
+                        values.setNull(row);
+                        return 0;
+                    }
+                    values.setSafe(row, value.getTime());
+                    return Long.BYTES;
+                };
+            });
+        }
+        if ("varbit".equals(typeName))
+        {
+            return new ArrowColumn(new ArrowType.Int(intBits, true), vector -> {
+                IntVector values = (IntVector) vector;
+                return (rs, col, row) -> {
+                    String value = encoder.encode(rs, col);
+                    if (value == null)
+                    {
+                        values.setNull(row);
+                        return 0;
+                    }
+                    values.setSafe(row, Integer.parseInt(value));
+                    return Integer.BYTES;
+                };
+            });
+        }
+        if ("bool".equals(typeName) || sqlType == Types.BOOLEAN)
+        {
+            return new ArrowColumn(ArrowType.Bool.INSTANCE, vector -> {
+                BitVector values = (BitVector) vector;
+                return (rs, col, row) -> {
+                    boolean value = rs.getBoolean(col);
+                    if (rs.wasNull())
+                    {
+                        values.setNull(row);
+                        return 0;
+                    }
+                    values.setSafe(row, value ? 1 : 0);
+                    return 1;
+                };
+            });
+        }
+
+        switch (isNumeric(sqlType) ? StringUtils.defaultString(datatype) : "char")
+        {
+        case "long":
+            return new ArrowColumn(new ArrowType.Int(longBits, true), vector -> {
+                BigIntVector values = (BigIntVector) vector;
+                return (rs, col, row) -> {
+                    long value = rs.getLong(col);
+                    if (rs.wasNull())
+                    {
+                        values.setNull(row);
+                        return 0;
+                    }
+                    values.setSafe(row, value);
+                    return Long.BYTES;
+                };
+            });
+
+        case "int":
+            return new ArrowColumn(new ArrowType.Int(intBits, true), vector -> {
+                IntVector values = (IntVector) vector;
+                return (rs, col, row) -> {
+                    int value = rs.getInt(col);
+                    if (rs.wasNull())
+                    {
+                        values.setNull(row);
+                        return 0;
+                    }
+                    values.setSafe(row, value);
+                    return Integer.BYTES;
+                };
+            });
+
+        case "short":
+            return new ArrowColumn(new ArrowType.Int(shortBits, true), vector -> {
+                SmallIntVector values = (SmallIntVector) vector;
+                return (rs, col, row) -> {
+                    short value = rs.getShort(col);
+                    if (rs.wasNull())
+                    {
+                        values.setNull(row);
+                        return 0;
+                    }
+                    values.setSafe(row, value);
+                    return Short.BYTES;
+                };
+            });
+
+        case "double":
+            return new ArrowColumn(new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE), vector -> {
+                Float8Vector values = (Float8Vector) vector;
+                return (rs, col, row) -> {
+                    double value = rs.getDouble(col);
+                    if (rs.wasNull())
+                    {
+                        values.setNull(row);
+                        return 0;
+                    }
+                    values.setSafe(row, value);
+                    return Double.BYTES;
+                };
+            });
+
+        case "float":
+            return new ArrowColumn(new ArrowType.FloatingPoint(FloatingPointPrecision.SINGLE), vector -> {
+                Float4Vector values = (Float4Vector) vector;
+                return (rs, col, row) -> {
+                    float value = rs.getFloat(col);
+                    if (rs.wasNull())
+                    {
+                        values.setNull(row);
+                        return 0;
+                    }
+                    values.setSafe(row, value);
+                    return Float.BYTES;
+                };
+            });
+
+        default:
+            return new ArrowColumn(ArrowType.Utf8.INSTANCE, vector -> {
+                VarCharVector values = (VarCharVector) vector;
+                return (rs, col, row) -> {
+                    String value = encoder.encode(rs, col);
+                    if (value == null)
+                    {
+                        values.setNull(row);
+                        return 0;
+                    }
+                    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                    values.setSafe(row, bytes);
+                    // Each value also has an offset
+                    return bytes.length + Integer.BYTES;
+                };
+            });
+        }
+    }
+
+    private static boolean isNumeric(int sqlType)
+    {
+        switch (sqlType)
+        {
+        case Types.BIGINT:
+        case Types.INTEGER:
+        case Types.SMALLINT:
+        case Types.TINYINT:
+        case Types.DOUBLE:
+        case Types.FLOAT:
+        case Types.REAL:
+        case Types.NUMERIC:
+        case Types.DECIMAL:
+            return true;
+
+        default:
+            return false;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package au.csiro.casda.votools.result;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Builds up the text of one row of output at a time in a reusable buffer, escaping cell values for XML as they are
+ * added. A row is only passed to the writer once it is complete, so a failure while reading a row never leaves partial
+ * output, and no intermediate strings are created for the row or its escaped values.
+ * <p>
+ * The escaping matches commons-lang ESCAPE_XML11 combined with numeric entities for all characters from 0x7f up, which
+ * is how cell values have always been output. Values which contain no characters needing escaping are copied straight
+ * into the buffer. Instances are not thread safe.
+ *
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class CellWriter
+{
+    private static final int INITIAL_CAPACITY = 8192;
+
+    /** The first character which is output as a numeric entity, all characters from here on are escaped. */
+    private static final char FIRST_NUMERIC_ESCAPE = 0x7f;
+
+    /** Marks a character which is dropped from the output. */
+    private static final char[] REMOVE = new char[0];
+
+    /** Replacement text for each character below FIRST_NUMERIC_ESCAPE, or null if it is output unchanged. */
+    private static final char[][] ESCAPES = buildEscapes();
+
+    private final Writer writer;
+
+    private char[] buffer = new char[INITIAL_CAPACITY];
+
+    private int length;
+
+    /**
+     * Create a new CellWriter.
+     *
+     * @param writer
+     *            The destination for completed rows.
+     */
+    public CellWriter(Writer writer)
+    {
+        this.writer = writer;
+    }
+
+    private static char[][] buildEscapes()
+    {
+        char[][] escapes = new char[FIRST_NUMERIC_ESCAPE][];
+        for (char c = 0; c < ' '; c++)
+        {
+            if (c != '\t' && c != '\n' && c != '\r')
+            {
+                escapes[c] = ("&#" + (int) c + ";").toCharArray();
+            }
+        }
+        escapes[0] = REMOVE;
+        escapes['"'] = "&quot;".toCharArray();
+        escapes['&'] = "&amp;".toCharArray();
+        escapes['<'] = "&lt;".toCharArray();
+        escapes['>'] = "&gt;".toCharArray();
+        escapes['\''] = "&apos;".toCharArray();
+        return escapes;
+    }
+
+    /**
+     * Add text to the row as is.
+     *
+     * @param text
+     *            The text to be added, which must already be valid for the output format.
+     */
+    public void append(String text)
+    {
+        int textLength = text.length();
+        ensureCapacity(textLength);
+        text.getChars(0, textLength, buffer, length);
+        length += textLength;
+    }
+
+    /**
+     * Add text to the row as is.
+     *
+     * @param text
+     *            The text to be added, which must already be valid for the output format.
+     */
+    public void append(CharSequence text)
+    {
+        int textLength = text.length();
+        ensureCapacity(textLength);
+        for (int i = 0; i < textLength; i++)
+        {
+            buffer[length++] = text.charAt(i);
+        }
+    }
+
+    /**
+     * Add text to a delimited row as is, enclosing it in double quotes if it contains the separator or a new line.
+     *
+     * @param text
+     *            The text to be added, which must already be valid for the output format and contain no double quotes.
+     * @param separator
+     *            The character separating values in the row.
+     */
+    public void appendDelimited(CharSequence text, char separator)
+    {
+        int start = length;
+        append(text);
+        quoteIfDelimited(start, separator);
+    }
+
+    /**
+     * Add a single character to the row as is.
+     *
+     * @param c
+     *            The character to be added.
+     */
+    public void append(char c)
+    {
+        ensureCapacity(1);
+        buffer[length++] = c;
+    }
+
+    /**
+     * Add a double to the row as the shortest text which reads back as the same value, see {@link NumberFormatter}.
+     *
+     * @param value
+     *            The value to be added.
+     */
+    public void appendDouble(double value)
+    {
+        ensureCapacity(NumberFormatter.MAX_DOUBLE_LENGTH);
+        length = NumberFormatter.format(value, buffer, length);
+    }
+
+    /**
+     * Add a float to the row as the shortest text which reads back as the same value, see {@link NumberFormatter}.
+     *
+     * @param value
+     *            The value to be added.
+     */
+    public void appendFloat(float value)
+    {
+        ensureCapacity(NumberFormatter.MAX_FLOAT_LENGTH);
+        length = NumberFormatter.format(value, buffer, length);
+    }
+
+    /**
+     * Add a point in time to the row as a UTC timestamp, see {@link TimestampFormatter}.
+     *
+     * @param formatter
+     *            The formatter holding the cached date for the previous timestamp.
+     * @param epochMillis
+     *            The number of milliseconds since 1970-01-01T00:00:00Z.
+     */
+    public void appendTimestamp(TimestampFormatter formatter, long epochMillis)
+    {
+        ensureCapacity(TimestampFormatter.MAX_LENGTH);
+        length = formatter.format(epochMillis, buffer, length);
+    }
+
+    /**
+     * Add a value to the row, escaping it for XML.
+     *
+     * @param value
+     *            The value to be added, null is treated as an empty value.
+     */
+    public void appendEscaped(String value)
+    {
+        if (value == null)
+        {
+            return;
+        }
+        int valueLength = value.length();
+        int clean = 0;
+        while (clean < valueLength && !needsEscape(value.charAt(clean)))
+        {
+            clean++;
+        }
+        ensureCapacity(valueLength);
+        value.getChars(0, clean, buffer, length);
+        length += clean;
+
+        for (int i = clean; i < valueLength; i++)
+        {
+            char c = value.charAt(i);
+            if (!needsEscape(c))
+            {
+                ensureCapacity(1);
+                buffer[length++] = c;
+            }
+            else if (c < FIRST_NUMERIC_ESCAPE)
+            {
+                appendChars(ESCAPES[c]);
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < valueLength
+                    && Character.isLowSurrogate(value.charAt(i + 1)))
+            {
+                appendNumericEntity(Character.toCodePoint(c, value.charAt(++i)));
+            }
+            else if (!Character.isSurrogate(c) && c != '\uFFFE' && c != '\uFFFF')
+            {
+                appendNumericEntity(c);
+            }
+            // Unpaired surrogates and the non-characters fffe and ffff are dropped
+        }
+    }
+
+    /**
+     * Add a value to a delimited row, escaping it for XML and enclosing it in double quotes if it contains the
+     * separator or a new line.
+     *
+     * @param value
+     *            The value to be added, null is treated as an empty value.
+     * @param separator
+     *            The character separating values in the row.
+     */
+    public void appendEscapedDelimited(String value, char separator)
+    {
+        int start = length;
+        appendEscaped(value);
+        // double quotes will already have been escaped
+        quoteIfDelimited(start, separator);
+    }
+
+    /**
+     * Pass the completed row to the writer and start a new row.
+     *
+     * @throws IOException
+     *             If the row cannot be written.
+     */
+    public void writeRow() throws IOException
+    {
+        writer.write(buffer, 0, length);
+        length = 0;
+    }
+
+    /**
+     * Throw away the current row without writing it, e.g. after an error reading its values.
+     */
+    public void discardRow()
+    {
+        length = 0;
+    }
+
+    private void quoteIfDelimited(int start, char separator)
+    {
+        for (int i = start; i < length; i++)
+        {
+            if (buffer[i] == separator || buffer[i] == '\n')
+            {
+                ensureCapacity(2);
+                System.arraycopy(buffer, start, buffer, start + 1, length - start);
+                buffer[start] = '"';
+                length++;
+                buffer[length++] = '"';
+                return;
+            }
+        }
+    }
+
+    private static boolean needsEscape(char c)
+    {
+        return c >= FIRST_NUMERIC_ESCAPE || ESCAPES[c] != null;
+    }
+
+    private void appendChars(char[] chars)
+    {
+        ensureCapacity(chars.length);
+        System.arraycopy(chars, 0, buffer, length, chars.length);
+        length += chars.length;
+    }
+
+    private void appendNumericEntity(int codePoint)
+    {
+        final int maxDigits = 7;
+        ensureCapacity(maxDigits + 3);
+        buffer[length++] = '&';
+        buffer[length++] = '#';
+        int digits = 1;
+        for (int remainder = codePoint / 10; remainder > 0; remainder /= 10)
+        {
+            digits++;
+        }
+        int value = codePoint;
+        for (int i = length + digits - 1; i >= length; i--)
+        {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+        buffer[length++] = ';';
+    }
+
+    private void ensureCapacity(int extra)
+    {
+        if (length + extra > buffer.length)
+        {
+            char[] larger = new char[Math.max(buffer.length * 2, length + extra)];
+            System.arraycopy(buffer, 0, larger, 0, length);
+            buffer = larger;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package au.csiro.casda.votools.result;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Converts the value of one column of a result set into its text form for output. An encoder is chosen for each column
+ * once per result set, based on the column's type, so no type checks are needed as each row is output.
+ *
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+@FunctionalInterface
+public interface ColumnEncoder
+{
+    /**
+     * Read the value of the column from the current row and convert it to text. The text is not escaped.
+     *
+     * @param rs
+     *            The result set positioned at the row to be output.
+     * @param columnIndex
+     *            The index of the column to be read.
+     * @return The text of the value, or null if the value is null.
+     * @throws SQLException
+     *             If the value cannot be read.
+     */
+    String encode(ResultSet rs, int columnIndex) throws SQLException;
+
+    /**
+     * Read the value of the column from the current row and add it to a row of text output, escaped for XML. Encoders
+     * of values which never need escaping, such as numbers, override this to format the value straight into the row.
+     *
+     * @param rs
+     *            The result set positioned at the row to be output.
+     * @param columnIndex
+     *            The index of the column to be read.
+     * @param cellWriter
+     *            The row being built.
+     * @throws SQLException
+     *             If the value cannot be read.
+     */
+    default void appendTo(ResultSet rs, int columnIndex, CellWriter cellWriter) throws SQLException
+    {
+        cellWriter.appendEscaped(encode(rs, columnIndex));
+    }
+
+    /**
+     * Read the value of the column from the current row and add it to a delimited row of text output, escaped for XML
+     * and quoted if it contains the separator, as for {@link CellWriter#appendEscapedDelimited(String, char)}.
+     *
+     * @param rs
+     *            The result set positioned at the row to be output.
+     * @param columnIndex
+     *            The index of the column to be read.
+     * @param cellWriter
+     *            The row being built.
+     * @param separator
+     *            The character separating values in the row.
+     * @throws SQLException
+     *             If the value cannot be read.
+     */
+    default void appendDelimitedTo(ResultSet rs, int columnIndex, CellWriter cellWriter, char separator)
+            throws SQLException
+    {
+        cellWriter.appendEscapedDelimited(encode(rs, columnIndex), separator);
+    }
+}
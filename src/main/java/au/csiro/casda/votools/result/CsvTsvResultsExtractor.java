@@ -93,20 +93,17 @@ public class CsvTsvResultsExtractor extends ResultsExtractor implements ResultSe
         try
         {
             outputHeader(rs.getMetaData());
-            int[] dataTypes = getDataTypes(rs.getMetaData());
+            ColumnEncoder[] encoders = getColumnEncoders(rs.getMetaData());
+            CellWriter cellWriter = new CellWriter(writer);
             try
             {
                 while (getProcessedCount() < maxRec && rs.next())
                 {
-                    writer.append(buildRowOutput(rs, columnCount, dataTypes));
+                    buildRowOutput(cellWriter, rs, columnCount, encoders);
+                    cellWriter.writeRow();
                     setProcessedCount(getProcessedCount() + 1);
                 }
-                setCutoff(!(rs.isLast() || rs.isAfterLast()));
-                setResultSize(getProcessedCount());
-                if (isCutoff())
-                {
-                    setResultSize(rs);
-                }
+                checkForOverflow(rs, maxRec);
             }
             catch (SQLException e)
             {
@@ -124,33 +121,32 @@ public class CsvTsvResultsExtractor extends ResultsExtractor implements ResultSe
     }
 
     /**
-     * Build up the response for a single row of data.
+     * Build up the response for a single row of data in the cell writer's buffer.
      * 
+     * @param cellWriter
+     *            The cell writer to build the row in
      * @param rs
      *            The ResultSet to extract data from
      * @param columnCount
      *            The number of columns in the result.
-     * @param dataTypes
-     *            A list of the data types for each column
-     * @return The text of the row to be output.
+     * @param encoders
+     *            The encoder for each column
      * @throws SQLException
      *             If the data cannot be read
      */
-    private String buildRowOutput(ResultSet rs, int columnCount, int[] dataTypes) throws SQLException
+    private void buildRowOutput(CellWriter cellWriter, ResultSet rs, int columnCount, ColumnEncoder[] encoders)
+            throws SQLException
     {
-        StringBuilder rowOutput = new StringBuilder();
+        cellWriter.discardRow();
         for (int i = 1; i <= columnCount; i++)
         {
-            String value = getFieldValue(rs, dataTypes[i], i);
-            value = escapeValue(value);
-            rowOutput.append(value);
+            encoders[i].appendDelimitedTo(rs, i, cellWriter, outputType.separator);
             if (i < columnCount)
             {
-                rowOutput.append(outputType.separator);
+                cellWriter.append(outputType.separator);
             }
         }
-        rowOutput.append("\r\n");
-        return rowOutput.toString();
+        cellWriter.append("\r\n");
     }
 
     /**
@@ -0,0 +1,504 @@
+package au.csiro.casda.votools.result;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collections;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.text.StringEscapeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+import nom.tam.fits.FitsException;
+import nom.tam.fits.Header;
+import nom.tam.fits.header.Standard;
+import nom.tam.util.BufferedDataOutputStream;
+
+/**
+ * Outputs the results of a query as a FITS file holding a single binary table (BINTABLE) extension. The header is
+ * built from the result set metadata and the rows are streamed as fixed width binary records, so the table is never
+ * held in memory.
+ * <p>
+ * The FITS header must give the number of rows before the data. When writing to a file the header is written with no
+ * rows and the row count is rewritten in place once all rows are output. Other destinations, such as a synchronous
+ * response, cannot be rewritten so the rows are counted before they are output, using the supplied row counter. If
+ * fewer rows are then read than were counted, the table is filled out with null rows.
+ * <p>
+ * Character columns are output as fixed width ASCII, limited to the maximum string width. Instances are not reusable.
+ *
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class FitsResultsExtractor extends ResultsExtractor implements ResultSetExtractor<Boolean>
+{
+    private static Logger logger = LoggerFactory.getLogger(FitsResultsExtractor.class);
+
+    /** FITS files are made up of blocks of this many bytes. */
+    private static final int FITS_BLOCK_SIZE = 2880;
+
+    private static final int OUTPUT_BUFFER_SIZE = 65536;
+
+    /** The width of a timestamp formatted as yyyy-MM-dd'T'HH:mm:ss.SSS'Z' */
+    private static final int TIMESTAMP_WIDTH = 24;
+
+    private static final Pattern UNIT = Pattern.compile("unit\\s*=\\s*\"([^\"]*)\"");
+
+    private final DataOutputStream out;
+
+    /** The channel of the output file, null if the output cannot be rewritten. */
+    private final FileChannel channel;
+
+    private final int maxRec;
+
+    private final Map<String, String> votableFieldMap;
+
+    private final RowCountEstimator rowCounter;
+
+    private final int maxStringWidth;
+
+    private FitsColumn[] columns = new FitsColumn[0];
+
+    /** A whole row of null values. */
+    private byte[] nullRow = new byte[0];
+
+    private Header tableHeader;
+
+    private long tableHeaderPosition;
+
+    /** The number of rows given in the table header as written. */
+    private long headerRowCount;
+
+    private long dataBytes;
+
+    /**
+     * Writes the binary value of a column for the current row.
+     */
+    @FunctionalInterface
+    interface FieldWriter
+    {
+        /**
+         * Write the value of a column in the current row, or the column's null value.
+         *
+         * @param rs
+         *            The result set positioned at the row to be output.
+         * @param columnIndex
+         *            The index of the column to be written.
+         * @param out
+         *            The destination for the binary value.
+         * @throws SQLException
+         *             If the value cannot be read.
+         * @throws IOException
+         *             If the value cannot be written.
+         */
+        void write(ResultSet rs, int columnIndex, DataOutputStream out) throws SQLException, IOException;
+    }
+
+    /**
+     * The FITS description of a result column and how its values are written.
+     */
+    static class FitsColumn
+    {
+        private final String format;
+
+        private final Long nullValue;
+
+        private final byte[] nullBytes;
+
+        private final FieldWriter fieldWriter;
+
+        FitsColumn(String format, Long nullValue, byte[] nullBytes, FieldWriter fieldWriter)
+        {
+            this.format = format;
+            this.nullValue = nullValue;
+            this.nullBytes = nullBytes;
+            this.fieldWriter = fieldWriter;
+        }
+
+        String getFormat()
+        {
+            return format;
+        }
+
+        Long getNullValue()
+        {
+            return nullValue;
+        }
+    }
+
+    /**
+     * Creates a new instance of FitsResultsExtractor for use outputting a single query only.
+     *
+     * @param outputStream
+     *            The stream to output the query results to. If this is a file the row count will be rewritten once the
+     *            rows are output, otherwise the rows are counted first.
+     * @param maxRec
+     *            The maximum number of records the user has requested.
+     * @param votableFieldMap
+     *            The map of field definitions for this query, used to find the column units. May be null.
+     * @param rowCounter
+     *            Counts the rows of the query, up to at least one more than maxRec, when the output cannot be
+     *            rewritten. May be null when outputting to a file.
+     * @param maxStringWidth
+     *            The most characters that will be output for character values.
+     * @param baseUrl
+     *            The web address at which this VO Tools instance can be found.
+     * @param proxyUrl
+     *            The web address at which this VO Proxy instance can be found.
+     */
+    public FitsResultsExtractor(OutputStream outputStream, int maxRec, Map<String, String> votableFieldMap,
+            RowCountEstimator rowCounter, int maxStringWidth, String baseUrl, String proxyUrl)
+    {
+        super(baseUrl, proxyUrl);
+        this.out = new DataOutputStream(new BufferedOutputStream(outputStream, OUTPUT_BUFFER_SIZE));
+        this.channel =
+                outputStream instanceof FileOutputStream ? ((FileOutputStream) outputStream).getChannel() : null;
+        this.maxRec = maxRec;
+        this.votableFieldMap = votableFieldMap == null ? Collections.<String, String>emptyMap() : votableFieldMap;
+        this.rowCounter = rowCounter;
+        this.maxStringWidth = maxStringWidth;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Boolean extractData(ResultSet rs) throws SQLException, DataAccessException
+    {
+        setCutoff(false);
+        setProcessedCount(0);
+        headerRowCount = 0;
+
+        try
+        {
+            long rowLimit = maxRec;
+            if (!isRewriteable())
+            {
+                headerRowCount = Math.min(countRows(rs), maxRec);
+                rowLimit = headerRowCount;
+            }
+            outputHeader(rs.getMetaData());
+            while (getProcessedCount() < rowLimit && rs.next())
+            {
+                for (int i = 1; i < columns.length; i++)
+                {
+                    columns[i].fieldWriter.write(rs, i, out);
+                }
+                dataBytes += nullRow.length;
+                setProcessedCount(getProcessedCount() + 1);
+            }
+            if (!isRewriteable() && getProcessedCount() < headerRowCount)
+            {
+                logger.warn("Query returned {} rows but {} were counted, outputting null rows to match.",
+                        getProcessedCount(), headerRowCount);
+                for (long row = getProcessedCount(); row < headerRowCount; row++)
+                {
+                    out.write(nullRow);
+                    dataBytes += nullRow.length;
+                }
+            }
+            checkForOverflow(rs, maxRec);
+            outputFooter(isCutoff(), "");
+        }
+        catch (IOException e)
+        {
+            logger.error("Error outputting query results.", e);
+            throw new ProcessingException("Unable to write out results", e);
+        }
+        return isCutoff();
+    }
+
+    private long countRows(ResultSet rs) throws SQLException
+    {
+        Long count = rowCounter == null ? null : rowCounter.estimateRowCount(rs.getStatement().getConnection());
+        if (count == null)
+        {
+            throw new ProcessingException("Unable to count the rows for FITS output");
+        }
+        return count;
+    }
+
+    private boolean isRewriteable()
+    {
+        return channel != null;
+    }
+
+    /**
+     * Writes an empty primary header followed by the header of the binary table extension, which describes each
+     * column.
+     *
+     * @param metaData
+     *            The result set metadata.
+     * @throws SQLException
+     *             If the metadata cannot be retrieved.
+     * @throws IOException
+     *             If the header cannot be written.
+     */
+    @Override
+    protected void outputHeader(ResultSetMetaData metaData) throws SQLException, IOException
+    {
+        ColumnEncoder[] encoders = getColumnEncoders(metaData);
+        int columnCount = metaData.getColumnCount();
+        columns = new FitsColumn[columnCount + 1];
+        ByteArrayOutputStream nullValues = new ByteArrayOutputStream();
+        for (int i = 1; i <= columnCount; i++)
+        {
+            columns[i] = getFitsColumn(metaData, i, encoders[i]);
+            nullValues.write(columns[i].nullBytes);
+        }
+        nullRow = nullValues.toByteArray();
+
+        try
+        {
+            Header primaryHeader = new Header();
+            primaryHeader.addValue(Standard.SIMPLE, true);
+            primaryHeader.addValue(Standard.BITPIX, 8);
+            primaryHeader.addValue(Standard.NAXIS, 0);
+            primaryHeader.addValue(Standard.EXTEND, true);
+            out.write(toBytes(primaryHeader));
+
+            tableHeader = new Header();
+            tableHeader.addValue(Standard.XTENSION, "BINTABLE");
+            tableHeader.addValue(Standard.BITPIX, 8);
+            tableHeader.addValue(Standard.NAXIS, 2);
+            tableHeader.addValue(Standard.NAXISn.n(1), nullRow.length);
+            tableHeader.addValue(Standard.NAXISn.n(2), headerRowCount);
+            tableHeader.addValue(Standard.PCOUNT, 0);
+            tableHeader.addValue(Standard.GCOUNT, 1);
+            tableHeader.addValue(Standard.TFIELDS, columnCount);
+            for (int i = 1; i <= columnCount; i++)
+            {
+                tableHeader.addValue(Standard.TTYPEn.n(i), metaData.getColumnName(i).toLowerCase());
+                tableHeader.addValue(Standard.TFORMn.n(i), columns[i].getFormat());
+                if (columns[i].getNullValue() != null)
+                {
+                    tableHeader.addValue(Standard.TNULLn.n(i), columns[i].getNullValue());
+                }
+                String unit = getUnit(metaData, i);
+                if (StringUtils.isNotBlank(unit))
+                {
+                    tableHeader.addValue(Standard.TUNITn.n(i), unit);
+                }
+            }
+        }
+        catch (FitsException e)
+        {
+            throw new IOException("Unable to build FITS header", e);
+        }
+
+        if (isRewriteable())
+        {
+            out.flush();
+            tableHeaderPosition = channel.position();
+        }
+        out.write(toBytes(tableHeader));
+        dataBytes = 0;
+    }
+
+    /**
+     * Pads the table data to a whole number of FITS blocks and, when writing to a file, rewrites the table header with
+     * the number of rows output. FITS has no place for an error message, so any error is not output.
+     *
+     * @param overflow
+     *            Are there more results than available than were output.
+     * @param error
+     *            An optional error message, which is ignored.
+     * @throws IOException
+     *             If the file cannot be completed.
+     */
+    @Override
+    protected void outputFooter(boolean overflow, String error) throws IOException
+    {
+        int padding = (int) ((FITS_BLOCK_SIZE - dataBytes % FITS_BLOCK_SIZE) % FITS_BLOCK_SIZE);
+        out.write(new byte[padding]);
+        out.flush();
+
+        if (isRewriteable() && getProcessedCount() != headerRowCount)
+        {
+            try
+            {
+                tableHeader.addValue(Standard.NAXISn.n(2), getProcessedCount());
+            }
+            catch (FitsException e)
+            {
+                throw new IOException("Unable to update FITS header", e);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(toBytes(tableHeader));
+            long position = tableHeaderPosition;
+            while (buffer.hasRemaining())
+            {
+                position += channel.write(buffer, position);
+            }
+            headerRowCount = getProcessedCount();
+        }
+    }
+
+    private String getUnit(ResultSetMetaData metaData, int columnIndex) throws SQLException
+    {
+        String fieldDef = votableFieldMap.get(getColumnKey(metaData, columnIndex));
+        if (fieldDef == null)
+        {
+            return null;
+        }
+        Matcher matcher = UNIT.matcher(fieldDef);
+        return matcher.find() ? StringEscapeUtils.unescapeXml(matcher.group(1)) : null;
+    }
+
+    private static byte[] toBytes(Header header) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(FITS_BLOCK_SIZE);
+        try (BufferedDataOutputStream headerOut = new BufferedDataOutputStream(bytes))
+        {
+            header.write(headerOut);
+        }
+        catch (FitsException e)
+        {
+            throw new IOException("Unable to write FITS header", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Chooses the FITS format of a result column from its SQL type.
+     *
+     * @param metaData
+     *            The result set metadata.
+     * @param columnIndex
+     *            The index of the column.
+     * @param encoder
+     *            The encoder for the text value of the column.
+     * @return The FITS description of the column.
+     * @throws SQLException
+     *             If the metadata cannot be retrieved.
+     */
+    FitsColumn getFitsColumn(ResultSetMetaData metaData, int columnIndex, ColumnEncoder encoder) throws SQLException
+    {
+        final int intBytes = 4;
+        final int shortBytes = 2;
+
+        switch (metaData.getColumnType(columnIndex))
+        {
+        case Types.BIGINT:
+            return new FitsColumn("K", Long.MIN_VALUE, longBytes(Long.MIN_VALUE), (rs, col, dos) -> {
+                long value = rs.getLong(col);
+                dos.writeLong(rs.wasNull() ? Long.MIN_VALUE : value);
+            });
+
+        case Types.INTEGER:
+            return new FitsColumn("J", (long) Integer.MIN_VALUE, longBytes(Integer.MIN_VALUE, intBytes),
+                    (rs, col, dos) -> {
+                        int value = rs.getInt(col);
+                        dos.writeInt(rs.wasNull() ? Integer.MIN_VALUE : value);
+                    });
+
+        case Types.SMALLINT:
+        case Types.TINYINT:
+            return new FitsColumn("I", (long) Short.MIN_VALUE, longBytes(Short.MIN_VALUE, shortBytes),
+                    (rs, col, dos) -> {
+                        short value = rs.getShort(col);
+                        dos.writeShort(rs.wasNull() ? Short.MIN_VALUE : value);
+                    });
+
+        case Types.DOUBLE:
+            return new FitsColumn("D", null, longBytes(Double.doubleToLongBits(Double.NaN)), (rs, col, dos) -> {
+                double value = rs.getDouble(col);
+                dos.writeDouble(rs.wasNull() ? Double.NaN : value);
+            });
+
+        case Types.FLOAT:
+        case Types.REAL:
+            return new FitsColumn("E", null, longBytes(Float.floatToIntBits(Float.NaN), intBytes),
+                    (rs, col, dos) -> {
+                        float value = rs.getFloat(col);
+                        dos.writeFloat(rs.wasNull() ? Float.NaN : value);
+                    });
+
+        case Types.BIT:
+        case Types.BOOLEAN:
+            if ("bool".equals(metaData.getColumnTypeName(columnIndex)))
+            {
+                return new FitsColumn("L", null, new byte[1], (rs, col, dos) -> {
+                    boolean value = rs.getBoolean(col);
+                    dos.writeByte(rs.wasNull() ? 0 : value ? 'T' : 'F');
+                });
+            }
+            break;
+
+        case Types.OTHER:
+            if ("varbit".equals(metaData.getColumnTypeName(columnIndex)))
+            {
+                return new FitsColumn("J", (long) Integer.MIN_VALUE, longBytes(Integer.MIN_VALUE, intBytes),
+                        (rs, col, dos) -> {
+                            String value = encoder.encode(rs, col);
+                            dos.writeInt(value == null ? Integer.MIN_VALUE : Integer.parseInt(value));
+                        });
+            }
+            break;
+
+        case Types.TIMESTAMP:
+            return getCharColumn(TIMESTAMP_WIDTH, encoder);
+
+        default:
+            break;
+        }
+
+        int precision = metaData.getPrecision(columnIndex);
+        return getCharColumn(precision > 0 ? Math.min(precision, maxStringWidth) : maxStringWidth, encoder);
+    }
+
+    private static FitsColumn getCharColumn(int width, ColumnEncoder encoder)
+    {
+        return new FitsColumn(width + "A", null, new byte[width], (rs, col, dos) -> {
+            String value = StringUtils.defaultString(encoder.encode(rs, col));
+            int length = Math.min(value.length(), width);
+            for (int i = 0; i < length; i++)
+            {
+                char c = value.charAt(i);
+                // FITS character data is restricted to printable ASCII
+                dos.writeByte(c >= ' ' && c <= '~' ? c : '?');
+            }
+            for (int i = length; i < width; i++)
+            {
+                dos.writeByte(0);
+            }
+        });
+    }
+
+    private static byte[] longBytes(long value)
+    {
+        return ByteBuffer.allocate(Long.BYTES).putLong(value).array();
+    }
+
+    private static byte[] longBytes(long value, int size)
+    {
+        byte[] bytes = longBytes(value);
+        byte[] result = new byte[size];
+        System.arraycopy(bytes, bytes.length - size, result, 0, size);
+        return result;
+    }
+}
@@ -0,0 +1,368 @@
+package au.csiro.casda.votools.result;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.text.StringEscapeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Outputs the results of a query as compact JSON, for clients which want to display a table without parsing a VOTable.
+ * The output is an object holding a metadata array describing each column, a data array holding each row as an array
+ * of values, and the query status:
+ *
+ * <pre>
+ * {"metadata":[{"name":"id","datatype":"long",...},...],"data":[[1,"a"],...],"status":"OK"}
+ * </pre>
+ *
+ * The column descriptions are taken from the same FIELD definitions as the VOTable output. Numeric and boolean columns
+ * are output as JSON numbers and booleans, all other values as strings. The rows are written straight from the cursor
+ * through a streaming generator. Instances are not reusable.
+ *
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class JsonResultsExtractor extends ResultsExtractor implements ResultSetExtractor<Boolean>
+{
+    private static Logger logger = LoggerFactory.getLogger(JsonResultsExtractor.class);
+
+    private static final JsonFactory JSON_FACTORY =
+            new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    /** The FIELD attributes which are included in the column metadata, in output order */
+    private static final String[] METADATA_ATTRIBUTES = { "name", "datatype", "arraysize", "xtype", "unit", "ucd",
+            "utype" };
+
+    private static final Pattern ATTRIBUTE = Pattern.compile("(\\w+)\\s*=\\s*[\"']([^\"']*)[\"']");
+
+    /**
+     * How the values of a column are represented in JSON.
+     */
+    enum ValueType
+    {
+        /** JSON number, from the text of an integer value */
+        NUMBER,
+
+        /** JSON number, formatted from a double value */
+        DOUBLE,
+
+        /** JSON number, formatted from a float value */
+        FLOAT,
+
+        /** JSON true or false, from the postgres text form t or f */
+        BOOLEAN,
+
+        /** JSON string */
+        STRING
+    }
+
+    private final Writer writer;
+
+    private final int maxRec;
+
+    private final Map<String, String> votableFieldMap;
+
+    private JsonGenerator generator;
+
+    private ValueType[] valueTypes = new ValueType[0];
+
+    /** The values of the current row, as text for most columns and in numbers for double and float columns */
+    private String[] values;
+
+    private double[] numbers;
+
+    private final char[] numberBuffer = new char[NumberFormatter.MAX_DOUBLE_LENGTH];
+
+    /**
+     * Creates a new instance of JsonResultsExtractor for use outputting a single query only.
+     *
+     * @param writer
+     *            The writer to output the query results to.
+     * @param maxRec
+     *            The maximum number of records the user has requested.
+     * @param votableFieldMap
+     *            The map of field definitions for this query. May be null.
+     * @param baseUrl
+     *            The web address at which this VO Tools instance can be found.
+     * @param proxyUrl
+     *            The web address at which this VO Proxy instance can be found.
+     */
+    public JsonResultsExtractor(Writer writer, int maxRec, Map<String, String> votableFieldMap, String baseUrl,
+            String proxyUrl)
+    {
+        super(baseUrl, proxyUrl);
+        this.writer = writer;
+        this.maxRec = maxRec;
+        this.votableFieldMap = votableFieldMap == null ? Collections.<String, String>emptyMap() : votableFieldMap;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Boolean extractData(ResultSet rs) throws SQLException, DataAccessException
+    {
+        setCutoff(false);
+        int columnCount = rs.getMetaData().getColumnCount();
+        setProcessedCount(0);
+        String error = "";
+
+        try
+        {
+            outputHeader(rs.getMetaData());
+            ColumnEncoder[] encoders = getColumnEncoders(rs.getMetaData());
+            try
+            {
+                while (getProcessedCount() < maxRec && rs.next())
+                {
+                    // All values of a row are read before any are written, so a failure never leaves a partial row
+                    for (int i = 1; i <= columnCount; i++)
+                    {
+                        readValue(rs, i, encoders[i]);
+                    }
+                    outputRow();
+                    setProcessedCount(getProcessedCount() + 1);
+                }
+                checkForOverflow(rs, maxRec);
+            }
+            catch (SQLException e)
+            {
+                logger.error("Error running query ", e);
+                error = e.getMessage();
+            }
+            outputFooter(isCutoff(), error);
+        }
+        catch (IOException e)
+        {
+            logger.error("Error outputting query results.", e);
+            throw new ProcessingException("Unable to write out results", e);
+        }
+        return isCutoff();
+    }
+
+    private void readValue(ResultSet rs, int columnIndex, ColumnEncoder encoder) throws SQLException
+    {
+        switch (valueTypes[columnIndex])
+        {
+        case DOUBLE:
+            double doubleValue = rs.getDouble(columnIndex);
+            // null is output the same as NaN
+            numbers[columnIndex] = rs.wasNull() ? Double.NaN : doubleValue;
+            break;
+
+        case FLOAT:
+            float floatValue = rs.getFloat(columnIndex);
+            numbers[columnIndex] = rs.wasNull() ? Double.NaN : floatValue;
+            break;
+
+        default:
+            values[columnIndex] = encoder.encode(rs, columnIndex);
+            break;
+        }
+    }
+
+    private void outputRow() throws IOException
+    {
+        generator.writeStartArray();
+        for (int i = 1; i < values.length; i++)
+        {
+            if (valueTypes[i] == ValueType.DOUBLE || valueTypes[i] == ValueType.FLOAT)
+            {
+                outputNumber(numbers[i], valueTypes[i] == ValueType.FLOAT);
+                continue;
+            }
+            String value = values[i];
+            if (value == null)
+            {
+                generator.writeNull();
+                continue;
+            }
+            switch (valueTypes[i])
+            {
+            case NUMBER:
+                // JSON has no representation for NaN or infinite values
+                if (value.endsWith("NaN") || value.endsWith("Infinity"))
+                {
+                    generator.writeNull();
+                }
+                else
+                {
+                    generator.writeNumber(value);
+                }
+                break;
+
+            case BOOLEAN:
+                generator.writeBoolean("t".equals(value));
+                break;
+
+            default:
+                generator.writeString(value);
+                break;
+            }
+        }
+        generator.writeEndArray();
+    }
+
+    private void outputNumber(double value, boolean isFloat) throws IOException
+    {
+        // JSON has no representation for NaN or infinite values
+        if (Double.isNaN(value) || Double.isInfinite(value))
+        {
+            generator.writeNull();
+            return;
+        }
+        int length = isFloat ? NumberFormatter.format((float) value, numberBuffer, 0)
+                : NumberFormatter.format(value, numberBuffer, 0);
+        generator.writeNumber(numberBuffer, 0, length);
+    }
+
+    /**
+     * Starts the JSON object and outputs the description of each column.
+     *
+     * @param metaData
+     *            The result set metadata.
+     * @throws SQLException
+     *             If the metadata cannot be retrieved.
+     * @throws IOException
+     *             If the header cannot be written.
+     */
+    @Override
+    protected void outputHeader(ResultSetMetaData metaData) throws SQLException, IOException
+    {
+        generator = JSON_FACTORY.createGenerator(writer);
+        generator.writeStartObject();
+        generator.writeArrayFieldStart("metadata");
+        int columnCount = metaData.getColumnCount();
+        valueTypes = new ValueType[columnCount + 1];
+        values = new String[columnCount + 1];
+        numbers = new double[columnCount + 1];
+        for (int i = 1; i <= columnCount; i++)
+        {
+            valueTypes[i] = getValueType(metaData, i);
+            String fieldDef = VoTableResultsExtractor.findFieldDef(votableFieldMap, metaData, i);
+            Map<String, String> attributes = getFieldAttributes(fieldDef);
+            generator.writeStartObject();
+            for (String attribute : METADATA_ATTRIBUTES)
+            {
+                String value = attributes.get(attribute);
+                if (StringUtils.isNotEmpty(value))
+                {
+                    generator.writeStringField(attribute, value);
+                }
+            }
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeArrayFieldStart("data");
+    }
+
+    /**
+     * Ends the data and outputs the query status.
+     *
+     * @param overflow
+     *            Are there more results than available than were output.
+     * @param error
+     *            An optional error message to be output
+     * @throws IOException
+     *             If the footer cannot be written.
+     */
+    @Override
+    protected void outputFooter(boolean overflow, String error) throws IOException
+    {
+        generator.writeEndArray();
+        if (StringUtils.isNotBlank(error))
+        {
+            generator.writeStringField("status", "ERROR");
+            generator.writeStringField("error", error);
+        }
+        else if (overflow)
+        {
+            generator.writeStringField("status", "OVERFLOW");
+            if (getRowCountEstimate() != null)
+            {
+                generator.writeNumberField("rowCountEstimate", getRowCountEstimate());
+            }
+        }
+        else
+        {
+            generator.writeStringField("status", "OK");
+        }
+        generator.writeEndObject();
+        generator.flush();
+    }
+
+    private static ValueType getValueType(ResultSetMetaData metaData, int columnIndex) throws SQLException
+    {
+        switch (metaData.getColumnType(columnIndex))
+        {
+        case Types.DOUBLE:
+            return ValueType.DOUBLE;
+
+        case Types.FLOAT:
+        case Types.REAL:
+            return ValueType.FLOAT;
+
+        case Types.INTEGER:
+        case Types.SMALLINT:
+        case Types.TINYINT:
+        case Types.BIGINT:
+            return ValueType.NUMBER;
+
+        case Types.OTHER:
+            return "varbit".equals(metaData.getColumnTypeName(columnIndex)) ? ValueType.NUMBER : ValueType.STRING;
+
+        case Types.BIT:
+        case Types.BOOLEAN:
+            return "bool".equals(metaData.getColumnTypeName(columnIndex)) ? ValueType.BOOLEAN : ValueType.STRING;
+
+        default:
+            return ValueType.STRING;
+        }
+    }
+
+    /**
+     * Reads the attributes of a FIELD element.
+     *
+     * @param fieldDef
+     *            The FIELD element.
+     * @return The unescaped value of each attribute of the FIELD start tag, keyed by name.
+     */
+    static Map<String, String> getFieldAttributes(String fieldDef)
+    {
+        Map<String, String> attributes = new HashMap<>();
+        int tagEnd = fieldDef.indexOf('>');
+        Matcher matcher = ATTRIBUTE.matcher(tagEnd < 0 ? fieldDef : fieldDef.substring(0, tagEnd));
+        while (matcher.find())
+        {
+            attributes.put(matcher.group(1), StringEscapeUtils.unescapeXml(matcher.group(2)));
+        }
+        return attributes;
+    }
+}
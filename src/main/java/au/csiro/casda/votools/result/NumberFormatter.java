@@ -0,0 +1,685 @@
+package au.csiro.casda.votools.result;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.math.BigInteger;
+
+/**
+ * Formats doubles and floats as the shortest decimal which reads back as exactly the same value, writing the characters
+ * straight into a caller supplied buffer so no strings are created for each value. The layout is the same as
+ * Double.toString and Float.toString: plain notation with at least one digit after the point for magnitudes from 10^-3
+ * up to 10^7, and computerized scientific notation such as 1.5E-7 otherwise.
+ * <p>
+ * The digits are chosen with R. Giulietti's Schubfach algorithm ("The Schubfach way to render doubles", 2020), which
+ * newer JDKs also use for Double.toString. Java 8's own conversion sometimes outputs one more digit than is needed, or
+ * a last digit which is not the closest, so a few values are output slightly differently, but always read back as the
+ * same value.
+ *
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public final class NumberFormatter
+{
+    /** The most characters output for a double, e.g. -2.2250738585072014E-308 */
+    public static final int MAX_DOUBLE_LENGTH = 24;
+
+    /** The most characters output for a float, e.g. -1.17549435E-38 */
+    public static final int MAX_FLOAT_LENGTH = 15;
+
+    private static final int DOUBLE_PRECISION = 53;
+
+    private static final int DOUBLE_Q_MIN = -1074;
+
+    private static final long DOUBLE_C_MIN = 1L << (DOUBLE_PRECISION - 1);
+
+    private static final long DOUBLE_T_MASK = DOUBLE_C_MIN - 1;
+
+    private static final int DOUBLE_BQ_MASK = 0x7ff;
+
+    /** Subnormal significands below this need an extra digit of precision to be rendered correctly */
+    private static final long DOUBLE_C_TINY = 3;
+
+    /** The number of decimal digits the significand is scaled to before output */
+    private static final int DOUBLE_DIGITS = 17;
+
+    private static final int FLOAT_PRECISION = 24;
+
+    private static final int FLOAT_Q_MIN = -149;
+
+    private static final int FLOAT_C_MIN = 1 << (FLOAT_PRECISION - 1);
+
+    private static final int FLOAT_T_MASK = FLOAT_C_MIN - 1;
+
+    private static final int FLOAT_BQ_MASK = 0xff;
+
+    private static final int FLOAT_C_TINY = 8;
+
+    private static final int FLOAT_DIGITS = 9;
+
+    /** The range of decimal exponents the power of ten table covers */
+    private static final int K_MIN = -324;
+
+    private static final int K_MAX = 292;
+
+    /** Each table entry is a 126 bit approximation of a power of ten */
+    private static final int G_BITS = 126;
+
+    private static final int LONG_MAGNITUDE_BITS = 63;
+
+    private static final long MASK_63 = (1L << LONG_MAGNITUDE_BITS) - 1;
+
+    private static final int INT_BITS = 32;
+
+    private static final long MASK_32 = (1L << INT_BITS) - 1;
+
+    /** Digits are extracted from 8 digit blocks held as fixed point values with 28 fraction bits */
+    private static final int BLOCK_DIGITS = 8;
+
+    private static final int BLOCK_FRACTION_BITS = 28;
+
+    private static final int MASK_28 = (1 << BLOCK_FRACTION_BITS) - 1;
+
+    private static final int BLOCK_SIZE = 100_000_000;
+
+    /** Plain notation is used for decimal exponents in (PLAIN_MIN_EXPONENT, PLAIN_MAX_EXPONENT] */
+    private static final int PLAIN_MIN_EXPONENT = -3;
+
+    private static final int PLAIN_MAX_EXPONENT = 7;
+
+    /*
+     * Multipliers and shifts which replace divisions and logarithms by constants, see sections 9 and 10 of the
+     * Schubfach paper.
+     */
+    private static final long LOG10_2_MULTIPLIER = 661_971_961_083L;
+
+    private static final long LOG10_THREE_QUARTERS_ADDEND = -274_743_187_321L;
+
+    private static final int LOG10_2_SHIFT = 41;
+
+    private static final long LOG2_10_MULTIPLIER = 913_124_641_741L;
+
+    private static final int LOG2_10_SHIFT = 38;
+
+    private static final long DIV_10_MULTIPLIER = 115_292_150_460_684_698L << 4;
+
+    private static final int FLOAT_DIV_10_MULTIPLIER = 1_717_986_919;
+
+    private static final int FLOAT_DIV_10_SHIFT = 34;
+
+    private static final long DIV_1E8_MULTIPLIER = 193_428_131_138_340_668L;
+
+    private static final int DIV_1E8_SHIFT = 20;
+
+    private static final long DIGIT_DIV_1E8_MULTIPLIER = 1_441_151_881L;
+
+    private static final int DIGIT_DIV_1E8_SHIFT = 57;
+
+    private static final int DOUBLE_H_OFFSET = 2;
+
+    private static final int FLOAT_H_OFFSET = 33;
+
+    private static final int EXPONENT_DIV_100_MULTIPLIER = 1_311;
+
+    private static final int EXPONENT_DIV_100_SHIFT = 17;
+
+    private static final int EXPONENT_DIV_10_MULTIPLIER = 103;
+
+    private static final int EXPONENT_DIV_10_SHIFT = 10;
+
+    private static final int TEN = 10;
+
+    private static final int HUNDRED = 100;
+
+    private static final long[] POW10 = buildPowersOfTen();
+
+    /** g1 and g0 for each k from K_MIN up, see {@link #buildG()} */
+    private static final long[] G = buildG();
+
+    private NumberFormatter()
+    {
+    }
+
+    /**
+     * Format a double as the shortest decimal which reads back as the same value.
+     *
+     * @param value
+     *            The value to be formatted.
+     * @return The text of the value.
+     */
+    public static String toString(double value)
+    {
+        char[] buffer = new char[MAX_DOUBLE_LENGTH];
+        return new String(buffer, 0, format(value, buffer, 0));
+    }
+
+    /**
+     * Format a float as the shortest decimal which reads back as the same value.
+     *
+     * @param value
+     *            The value to be formatted.
+     * @return The text of the value.
+     */
+    public static String toString(float value)
+    {
+        char[] buffer = new char[MAX_FLOAT_LENGTH];
+        return new String(buffer, 0, format(value, buffer, 0));
+    }
+
+    /**
+     * Write a double as the shortest decimal which reads back as the same value.
+     *
+     * @param value
+     *            The value to be formatted.
+     * @param buffer
+     *            The buffer to write to, which must have at least MAX_DOUBLE_LENGTH characters free from offset.
+     * @param offset
+     *            The position of the first character to be written.
+     * @return The position after the last character written.
+     */
+    public static int format(double value, char[] buffer, int offset)
+    {
+        long bits = Double.doubleToRawLongBits(value);
+        long t = bits & DOUBLE_T_MASK;
+        int bq = (int) (bits >>> (DOUBLE_PRECISION - 1)) & DOUBLE_BQ_MASK;
+        if (bq == DOUBLE_BQ_MASK)
+        {
+            return appendSpecial(t != 0, bits < 0, buffer, offset);
+        }
+        int pos = offset;
+        if (bits < 0)
+        {
+            buffer[pos++] = '-';
+        }
+        if (bq != 0)
+        {
+            // normal value, c 2^q with q = -mq
+            int mq = -DOUBLE_Q_MIN + 1 - bq;
+            long c = DOUBLE_C_MIN | t;
+            if (0 < mq && mq < DOUBLE_PRECISION)
+            {
+                // integer values are output directly
+                long f = c >> mq;
+                if (f << mq == c)
+                {
+                    return doubleChars(f, 0, buffer, pos);
+                }
+            }
+            return doubleToDecimal(-mq, c, 0, buffer, pos);
+        }
+        if (t != 0)
+        {
+            return t < DOUBLE_C_TINY ? doubleToDecimal(DOUBLE_Q_MIN, TEN * t, -1, buffer, pos)
+                    : doubleToDecimal(DOUBLE_Q_MIN, t, 0, buffer, pos);
+        }
+        return appendZero(buffer, pos);
+    }
+
+    /**
+     * Write a float as the shortest decimal which reads back as the same value.
+     *
+     * @param value
+     *            The value to be formatted.
+     * @param buffer
+     *            The buffer to write to, which must have at least MAX_FLOAT_LENGTH characters free from offset.
+     * @param offset
+     *            The position of the first character to be written.
+     * @return The position after the last character written.
+     */
+    public static int format(float value, char[] buffer, int offset)
+    {
+        int bits = Float.floatToRawIntBits(value);
+        int t = bits & FLOAT_T_MASK;
+        int bq = (bits >>> (FLOAT_PRECISION - 1)) & FLOAT_BQ_MASK;
+        if (bq == FLOAT_BQ_MASK)
+        {
+            return appendSpecial(t != 0, bits < 0, buffer, offset);
+        }
+        int pos = offset;
+        if (bits < 0)
+        {
+            buffer[pos++] = '-';
+        }
+        if (bq != 0)
+        {
+            int mq = -FLOAT_Q_MIN + 1 - bq;
+            int c = FLOAT_C_MIN | t;
+            if (0 < mq && mq < FLOAT_PRECISION)
+            {
+                int f = c >> mq;
+                if (f << mq == c)
+                {
+                    return floatChars(f, 0, buffer, pos);
+                }
+            }
+            return floatToDecimal(-mq, c, 0, buffer, pos);
+        }
+        if (t != 0)
+        {
+            return t < FLOAT_C_TINY ? floatToDecimal(FLOAT_Q_MIN, TEN * t, -1, buffer, pos)
+                    : floatToDecimal(FLOAT_Q_MIN, t, 0, buffer, pos);
+        }
+        return appendZero(buffer, pos);
+    }
+
+    private static int doubleToDecimal(int q, long c, int dk, char[] buffer, int pos)
+    {
+        int out = (int) c & 1;
+        long cb = c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        if (c != DOUBLE_C_MIN || q == DOUBLE_Q_MIN)
+        {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        }
+        else
+        {
+            // the gap to the next lower value is half as wide at a power of two
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        int h = q + flog2pow10(-k) + DOUBLE_H_OFFSET;
+
+        long g1 = G[(k - K_MIN) << 1];
+        long g0 = G[(k - K_MIN) << 1 | 1];
+
+        long vb = rop(g1, g0, cb << h);
+        long vbl = rop(g1, g0, cbl << h);
+        long vbr = rop(g1, g0, cbr << h);
+
+        long s = vb >> 2;
+        if (s >= HUNDRED)
+        {
+            // prefer a result with one digit less if one is within the rounding interval
+            long sp10 = TEN * multiplyHigh(s, DIV_10_MULTIPLIER);
+            long tp10 = sp10 + TEN;
+            boolean upin = vbl + out <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin)
+            {
+                return doubleChars(upin ? sp10 : tp10, k, buffer, pos);
+            }
+        }
+
+        long t = s + 1;
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (t << 2) + out <= vbr;
+        if (uin != win)
+        {
+            return doubleChars(uin ? s : t, k + dk, buffer, pos);
+        }
+        // both are in the interval, so pick the closer, or the even one if they are equally close
+        long cmp = vb - ((s + t) << 1);
+        return doubleChars(cmp < 0 || cmp == 0 && (s & 1) == 0 ? s : t, k + dk, buffer, pos);
+    }
+
+    private static int floatToDecimal(int q, int c, int dk, char[] buffer, int pos)
+    {
+        int out = c & 1;
+        long cb = c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        if (c != FLOAT_C_MIN || q == FLOAT_Q_MIN)
+        {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        }
+        else
+        {
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        int h = q + flog2pow10(-k) + FLOAT_H_OFFSET;
+
+        long g = G[(k - K_MIN) << 1] + 1;
+
+        int vb = rop(g, cb << h);
+        int vbl = rop(g, cbl << h);
+        int vbr = rop(g, cbr << h);
+
+        int s = vb >> 2;
+        if (s >= HUNDRED)
+        {
+            int sp10 = TEN * (int) (s * (long) FLOAT_DIV_10_MULTIPLIER >>> FLOAT_DIV_10_SHIFT);
+            int tp10 = sp10 + TEN;
+            boolean upin = vbl + out <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin)
+            {
+                return floatChars(upin ? sp10 : tp10, k, buffer, pos);
+            }
+        }
+
+        int t = s + 1;
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (t << 2) + out <= vbr;
+        if (uin != win)
+        {
+            return floatChars(uin ? s : t, k + dk, buffer, pos);
+        }
+        int cmp = vb - ((s + t) << 1);
+        return floatChars(cmp < 0 || cmp == 0 && (s & 1) == 0 ? s : t, k + dk, buffer, pos);
+    }
+
+    /**
+     * Rounds the product of the 126 bit g and cp to odd, keeping the upper bits.
+     */
+    private static long rop(long g1, long g0, long cp)
+    {
+        long x1 = multiplyHigh(g0, cp);
+        long y0 = g1 * cp;
+        long y1 = multiplyHigh(g1, cp);
+        long z = (y0 >>> 1) + x1;
+        long vbp = y1 + (z >>> LONG_MAGNITUDE_BITS);
+        return vbp | ((z & MASK_63) + MASK_63) >>> LONG_MAGNITUDE_BITS;
+    }
+
+    private static int rop(long g, long cp)
+    {
+        long x1 = multiplyHigh(g, cp);
+        long vbp = x1 >>> (INT_BITS - 1);
+        return (int) (vbp | ((x1 & MASK_32) + MASK_32) >>> INT_BITS);
+    }
+
+    /**
+     * Output f 10^e, where f has at most 17 digits.
+     */
+    private static int doubleChars(long f, int e, char[] buffer, int pos)
+    {
+        int len = flog10pow2(Long.SIZE - Long.numberOfLeadingZeros(f));
+        if (f >= POW10[len])
+        {
+            len += 1;
+        }
+        // scale f to exactly 17 digits, with the value now 0.f 10^e
+        long scaled = f * POW10[DOUBLE_DIGITS - len];
+        int exponent = e + len;
+
+        // split into the leading digit h and two blocks of 8 digits m and l
+        long hm = multiplyHigh(scaled, DIV_1E8_MULTIPLIER) >>> DIV_1E8_SHIFT;
+        int l = (int) (scaled - BLOCK_SIZE * hm);
+        int h = (int) (hm * DIGIT_DIV_1E8_MULTIPLIER >>> DIGIT_DIV_1E8_SHIFT);
+        int m = (int) (hm - BLOCK_SIZE * h);
+
+        int end;
+        if (0 < exponent && exponent <= PLAIN_MAX_EXPONENT)
+        {
+            end = appendPlain(h, m, exponent, buffer, pos);
+        }
+        else if (PLAIN_MIN_EXPONENT < exponent && exponent <= 0)
+        {
+            end = appendPlainFraction(h, m, exponent, buffer, pos);
+        }
+        else
+        {
+            end = append8Digits(m, buffer, appendLeadingDigit(h, buffer, pos));
+        }
+        if (l != 0)
+        {
+            end = append8Digits(l, buffer, end);
+        }
+        end = removeTrailingZeroes(buffer, end);
+        if (exponent <= PLAIN_MIN_EXPONENT || exponent > PLAIN_MAX_EXPONENT)
+        {
+            end = appendExponent(exponent - 1, buffer, end);
+        }
+        return end;
+    }
+
+    /**
+     * Output f 10^e, where f has at most 9 digits.
+     */
+    private static int floatChars(int f, int e, char[] buffer, int pos)
+    {
+        int len = flog10pow2(Integer.SIZE - Integer.numberOfLeadingZeros(f));
+        if (f >= POW10[len])
+        {
+            len += 1;
+        }
+        int scaled = f * (int) POW10[FLOAT_DIGITS - len];
+        int exponent = e + len;
+
+        int h = (int) (scaled * DIGIT_DIV_1E8_MULTIPLIER >>> DIGIT_DIV_1E8_SHIFT);
+        int l = scaled - BLOCK_SIZE * h;
+
+        int end;
+        if (0 < exponent && exponent <= PLAIN_MAX_EXPONENT)
+        {
+            end = appendPlain(h, l, exponent, buffer, pos);
+        }
+        else if (PLAIN_MIN_EXPONENT < exponent && exponent <= 0)
+        {
+            end = appendPlainFraction(h, l, exponent, buffer, pos);
+        }
+        else
+        {
+            end = append8Digits(l, buffer, appendLeadingDigit(h, buffer, pos));
+        }
+        end = removeTrailingZeroes(buffer, end);
+        if (exponent <= PLAIN_MIN_EXPONENT || exponent > PLAIN_MAX_EXPONENT)
+        {
+            end = appendExponent(exponent - 1, buffer, end);
+        }
+        return end;
+    }
+
+    /**
+     * Output digit h and the block of 8 digits m with the decimal point after the first e digits, 0 &lt; e &lt;= 7.
+     */
+    private static int appendPlain(int h, int m, int e, char[] buffer, int pos)
+    {
+        int end = pos;
+        buffer[end++] = digit(h);
+        int y = blockFraction(m);
+        int i = 1;
+        for (; i < e; i++)
+        {
+            int t = TEN * y;
+            buffer[end++] = digit(t >>> BLOCK_FRACTION_BITS);
+            y = t & MASK_28;
+        }
+        buffer[end++] = '.';
+        for (; i <= BLOCK_DIGITS; i++)
+        {
+            int t = TEN * y;
+            buffer[end++] = digit(t >>> BLOCK_FRACTION_BITS);
+            y = t & MASK_28;
+        }
+        return end;
+    }
+
+    /**
+     * Output 0.0...0 followed by digit h and the block of 8 digits m, with -e zeroes after the point, where
+     * -3 &lt; e &lt;= 0.
+     */
+    private static int appendPlainFraction(int h, int m, int e, char[] buffer, int pos)
+    {
+        int end = pos;
+        buffer[end++] = '0';
+        buffer[end++] = '.';
+        for (int i = e; i < 0; i++)
+        {
+            buffer[end++] = '0';
+        }
+        buffer[end++] = digit(h);
+        return append8Digits(m, buffer, end);
+    }
+
+    private static int appendLeadingDigit(int h, char[] buffer, int pos)
+    {
+        buffer[pos] = digit(h);
+        buffer[pos + 1] = '.';
+        return pos + 2;
+    }
+
+    private static int append8Digits(int m, char[] buffer, int pos)
+    {
+        int end = pos;
+        int y = blockFraction(m);
+        for (int i = 0; i < BLOCK_DIGITS; i++)
+        {
+            int t = TEN * y;
+            buffer[end++] = digit(t >>> BLOCK_FRACTION_BITS);
+            y = t & MASK_28;
+        }
+        return end;
+    }
+
+    /**
+     * Converts a block of 8 digits to a fixed point fraction, m / 10^8, from which the digits are extracted left to
+     * right by repeated multiplication by ten.
+     */
+    private static int blockFraction(int m)
+    {
+        return (int) (multiplyHigh((long) (m + 1) << BLOCK_FRACTION_BITS, DIV_1E8_MULTIPLIER) >>> DIV_1E8_SHIFT)
+                - 1;
+    }
+
+    private static int removeTrailingZeroes(char[] buffer, int end)
+    {
+        int last = end - 1;
+        while (buffer[last] == '0')
+        {
+            last--;
+        }
+        // keep the digit directly after the point
+        if (buffer[last] == '.')
+        {
+            last++;
+        }
+        return last + 1;
+    }
+
+    private static int appendExponent(int e, char[] buffer, int pos)
+    {
+        int end = pos;
+        int exponent = e;
+        buffer[end++] = 'E';
+        if (exponent < 0)
+        {
+            buffer[end++] = '-';
+            exponent = -exponent;
+        }
+        if (exponent < TEN)
+        {
+            buffer[end++] = digit(exponent);
+            return end;
+        }
+        if (exponent >= HUNDRED)
+        {
+            int d = exponent * EXPONENT_DIV_100_MULTIPLIER >>> EXPONENT_DIV_100_SHIFT;
+            buffer[end++] = digit(d);
+            exponent -= HUNDRED * d;
+        }
+        int d = exponent * EXPONENT_DIV_10_MULTIPLIER >>> EXPONENT_DIV_10_SHIFT;
+        buffer[end++] = digit(d);
+        buffer[end++] = digit(exponent - TEN * d);
+        return end;
+    }
+
+    private static int appendSpecial(boolean nan, boolean negative, char[] buffer, int pos)
+    {
+        String text = nan ? "NaN" : negative ? "-Infinity" : "Infinity";
+        text.getChars(0, text.length(), buffer, pos);
+        return pos + text.length();
+    }
+
+    private static int appendZero(char[] buffer, int pos)
+    {
+        buffer[pos] = '0';
+        buffer[pos + 1] = '.';
+        buffer[pos + 2] = '0';
+        return pos + 3;
+    }
+
+    private static char digit(int d)
+    {
+        return (char) ('0' + d);
+    }
+
+    /** floor(log10(2^e)) */
+    private static int flog10pow2(int e)
+    {
+        return (int) (e * LOG10_2_MULTIPLIER >> LOG10_2_SHIFT);
+    }
+
+    /** floor(log10(3/4 2^e)) */
+    private static int flog10threeQuartersPow2(int e)
+    {
+        return (int) (e * LOG10_2_MULTIPLIER + LOG10_THREE_QUARTERS_ADDEND >> LOG10_2_SHIFT);
+    }
+
+    /** floor(log2(10^e)) */
+    private static int flog2pow10(int e)
+    {
+        return (int) (e * LOG2_10_MULTIPLIER >> LOG2_10_SHIFT);
+    }
+
+    /**
+     * The high 64 bits of the 128 bit product of two longs, as Math.multiplyHigh in later versions of Java.
+     */
+    static long multiplyHigh(long x, long y)
+    {
+        long x1 = x >> INT_BITS;
+        long x2 = x & MASK_32;
+        long y1 = y >> INT_BITS;
+        long y2 = y & MASK_32;
+        long z2 = x2 * y2;
+        long t = x1 * y2 + (z2 >>> INT_BITS);
+        long z1 = t & MASK_32;
+        long z0 = t >> INT_BITS;
+        z1 += x2 * y1;
+        return x1 * y1 + z0 + (z1 >> INT_BITS);
+    }
+
+    private static long[] buildPowersOfTen()
+    {
+        long[] powers = new long[DOUBLE_DIGITS + 1];
+        powers[0] = 1;
+        for (int i = 1; i < powers.length; i++)
+        {
+            powers[i] = powers[i - 1] * TEN;
+        }
+        return powers;
+    }
+
+    /**
+     * Builds the table of 126 bit approximations of powers of ten. For each k, g = floor(10^-k 2^-r) + 1 where
+     * r = floor(log2(10^-k)) - 125, so that 2^125 &lt;= g &lt; 2^126. g is stored as g1 = floor(g / 2^63) followed
+     * by g0 = g mod 2^63.
+     */
+    private static long[] buildG()
+    {
+        long[] table = new long[(K_MAX - K_MIN + 1) << 1];
+        BigInteger mask63 = BigInteger.valueOf(MASK_63);
+        for (int k = K_MIN; k <= K_MAX; k++)
+        {
+            int r = flog2pow10(-k) - (G_BITS - 1);
+            BigInteger numerator = k <= 0 ? BigInteger.TEN.pow(-k) : BigInteger.ONE;
+            BigInteger denominator = k <= 0 ? BigInteger.ONE : BigInteger.TEN.pow(k);
+            if (r < 0)
+            {
+                numerator = numerator.shiftLeft(-r);
+            }
+            else
+            {
+                denominator = denominator.shiftLeft(r);
+            }
+            BigInteger g = numerator.divide(denominator).add(BigInteger.ONE);
+            table[(k - K_MIN) << 1] = g.shiftRight(LONG_MAGNITUDE_BITS).longValue();
+            table[(k - K_MIN) << 1 | 1] = g.and(mask63).longValue();
+        }
+        return table;
+    }
+}
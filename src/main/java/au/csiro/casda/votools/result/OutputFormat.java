@@ -22,11 +22,23 @@ public enum OutputFormat
     /** A generic XML table format specified by IVOA. */
     VOTABLE("xml", "application/x-votable+xml", "text/xml", "votable", "xml"),
 
+    /** The IVOA XML table format, with the rows in the base64 encoded BINARY2 serialization. */
+    VOTABLE_BINARY2("xml", "application/x-votable+xml;serialization=binary2", "votable/b2"),
+
     /** Comma separated values format. */
     CSV("csv", "text/csv;header=present", "text/csv", "csv"),
 
     /** Tab separated values format. */
-    TSV("tsv", "text/tab-separated-values", "tsv");
+    TSV("tsv", "text/tab-separated-values", "tsv"),
+
+    /** Compact JSON with a column metadata block and the rows as arrays, for web and notebook clients. */
+    JSON("json", "application/json", "text/json", "json"),
+
+    /** The FITS file format, with the results in a binary table extension. */
+    FITS("fits", "application/fits", "fits"),
+
+    /** The Apache Arrow IPC stream format, with the results in columnar record batches, for data frame tools. */
+    ARROW("arrows", "application/vnd.apache.arrow.stream", "arrow");
 
     private List<String> identifiers;
 
@@ -46,6 +58,23 @@ public enum OutputFormat
         this.identifiers = Arrays.asList(formats);
     }
 
+    /**
+     * Find the format in which the results of a simple query protocol (SCS, SIAP or SSAP) should be returned. These
+     * protocols only support JSON as an alternative to their standard VOTable output.
+     *
+     * @param responseFormat
+     *            The requested RESPONSEFORMAT, may be null.
+     * @return JSON if it was requested, otherwise VOTABLE.
+     */
+    public static OutputFormat findResponseFormat(String responseFormat)
+    {
+        if (responseFormat != null && JSON.identifiers.contains(responseFormat.trim().toLowerCase()))
+        {
+            return JSON;
+        }
+        return VOTABLE;
+    }
+
     /**
      * @return a list of valid mime-types/short-formats that can be used to refer to this OutputFormat. @see
      *         #findMatchingFormat
@@ -79,6 +108,14 @@ public enum OutputFormat
         return identifiers.get(0);
     }
 
+    /**
+     * @return true if the format is binary, and so must be written to a byte stream rather than a character writer.
+     */
+    public boolean isBinary()
+    {
+        return this == FITS || this == ARROW;
+    }
+
     /**
      * @return The file extension to use for this output type.
      */
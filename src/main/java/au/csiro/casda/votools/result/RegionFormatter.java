@@ -0,0 +1,545 @@
+package au.csiro.casda.votools.result;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.FieldPosition;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Converts the database text of region columns into the text output for them, reading the value a character at a time
+ * and writing the result into one reused buffer, without regular expressions or intermediate geometry objects.
+ * <p>
+ * pgsphere spoint, scircle and spoly values, in the default radian output mode, are converted into STC-S POSITION,
+ * CIRCLE and POLYGON regions in degrees. PostGIS geometry values, which arrive as hex encoded (E)WKB, are converted
+ * into the same WKT text that the JTS WKTWriter produces. Geometries which JTS would treat specially, such as those
+ * with measures, non finite coordinates or invalid rings, are not converted so that the caller can fall back to JTS.
+ * <p>
+ * The text returned is only valid until the next value is converted. Instances are not thread safe.
+ *
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class RegionFormatter
+{
+    private static Logger logger = LoggerFactory.getLogger(RegionFormatter.class);
+
+    /** Accepts any geometry type, which is then written with its type name */
+    private static final int ANY_TYPE = 0;
+
+    private static final int WKB_POINT = 1;
+
+    private static final int WKB_LINESTRING = 2;
+
+    private static final int WKB_POLYGON = 3;
+
+    private static final int WKB_GEOMETRYCOLLECTION = 7;
+
+    /** The difference between the type code of a multi geometry and that of its members */
+    private static final int WKB_MULTI_OFFSET = 3;
+
+    private static final String[] WKT_NAMES = { "", "POINT", "LINESTRING", "POLYGON", "MULTIPOINT",
+            "MULTILINESTRING", "MULTIPOLYGON", "GEOMETRYCOLLECTION" };
+
+    private static final int WKB_Z_FLAG = 0x80000000;
+
+    private static final int WKB_SRID_FLAG = 0x20000000;
+
+    private static final int WKB_TYPE_MASK = 0xff;
+
+    private static final int WKB_LITTLE_ENDIAN = 1;
+
+    private static final int BYTE_BITS = 8;
+
+    private static final int INT_BYTES = 4;
+
+    private static final int DOUBLE_BYTES = 8;
+
+    private static final int HEX_RADIX = 16;
+
+    /** JTS only accepts line strings with at least 2 points, and rings with at least 4 */
+    private static final int MIN_LINE_POINTS = 2;
+
+    private static final int MIN_RING_POINTS = 4;
+
+    /** The number of decimal places JTS outputs for coordinates with floating precision */
+    private static final int WKT_DECIMAL_PLACES = 16;
+
+    private static final int TEN = 10;
+
+    /** The most significant digits of a number which can be converted exactly using a double */
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    /** Exponents are not accumulated beyond this, as any larger exponent is out of range anyway */
+    private static final int MAX_EXPONENT = 100000;
+
+    private static final double[] POWERS_OF_TEN = buildPowersOfTen();
+
+    private final StringBuilder text = new StringBuilder();
+
+    private final char[] numberBuffer = new char[NumberFormatter.MAX_DOUBLE_LENGTH];
+
+    private final DecimalFormat wktNumberFormat = createWktNumberFormat();
+
+    private final StringBuffer wktNumber = new StringBuffer();
+
+    private final FieldPosition fieldPosition = new FieldPosition(0);
+
+    private String source;
+
+    private int pos;
+
+    private int byteLength;
+
+    private boolean littleEndian;
+
+    private static double[] buildPowersOfTen()
+    {
+        // Powers of ten up to 10^22 are exactly representable as doubles
+        final int maxExactPower = 22;
+        double[] powers = new double[maxExactPower + 1];
+        powers[0] = 1;
+        for (int i = 1; i < powers.length; i++)
+        {
+            powers[i] = powers[i - 1] * TEN;
+        }
+        return powers;
+    }
+
+    private static DecimalFormat createWktNumberFormat()
+    {
+        // The same format as com.vividsolutions.jts.io.WKTWriter uses for the floating precision model
+        DecimalFormatSymbols symbols = new DecimalFormatSymbols();
+        symbols.setDecimalSeparator('.');
+        return new DecimalFormat("0." + StringUtils.repeat('#', WKT_DECIMAL_PLACES), symbols);
+    }
+
+    /**
+     * Convert a pgsphere spoint into an STC-S position, e.g. (0.1 , -0.2) into POSITION ICRS 5.729... -11.459...
+     *
+     * @param value
+     *            The text of the spoint, with angles in radians.
+     * @return The STC-S text, or null if the value is not in the expected format.
+     */
+    public CharSequence formatSpoint(String value)
+    {
+        start(value, "POSITION ICRS");
+        return appendSpoint() && isAtEnd() ? text : reportInvalid("spoint");
+    }
+
+    /**
+     * Convert a pgsphere scircle into an STC-S circle, e.g. &lt;(0.1 , -0.2) , 0.01&gt; into CIRCLE ICRS 5.729...
+     * -11.459... 0.572...
+     *
+     * @param value
+     *            The text of the scircle, with angles in radians.
+     * @return The STC-S text, or null if the value is not in the expected format.
+     */
+    public CharSequence formatScircle(String value)
+    {
+        start(value, "CIRCLE ICRS");
+        boolean valid = skipTo('<') && appendSpoint() && skipTo(',') && appendAngle() && skipTo('>');
+        return valid && isAtEnd() ? text : reportInvalid("scircle");
+    }
+
+    /**
+     * Convert a pgsphere spoly into an STC-S polygon, e.g. {(0.1 , -0.2),(0.2 , -0.2),(0.2 , -0.1)} into POLYGON ICRS
+     * 5.729... -11.459... 11.459... -11.459... 11.459... -5.729...
+     *
+     * @param value
+     *            The text of the spoly, with angles in radians.
+     * @return The STC-S text, or null if the value is not in the expected format.
+     */
+    public CharSequence formatSpoly(String value)
+    {
+        start(value, "POLYGON ICRS");
+        boolean valid = skipTo('{') && appendSpoint();
+        while (valid && skipTo(','))
+        {
+            valid = appendSpoint();
+        }
+        return valid && skipTo('}') && isAtEnd() ? text : reportInvalid("spoly");
+    }
+
+    /**
+     * Convert a hex encoded WKB or PostGIS EWKB geometry into WKT, e.g. POLYGON ((1 2, 3 4, 5 6, 1 2)). Any z
+     * coordinates and SRID are left out, as JTS does.
+     *
+     * @param value
+     *            The hex encoded geometry.
+     * @return The WKT text, or null if the geometry should be converted by JTS instead.
+     */
+    public CharSequence formatGeometry(String value)
+    {
+        start(value, "");
+        byteLength = value.length() / 2;
+        for (int i = 0; i < byteLength * 2; i++)
+        {
+            if (Character.digit(value.charAt(i), HEX_RADIX) < 0)
+            {
+                return null;
+            }
+        }
+        return appendGeometry(ANY_TYPE, 0) ? text : null;
+    }
+
+    private void start(String value, String prefix)
+    {
+        source = value;
+        pos = 0;
+        text.setLength(0);
+        text.append(prefix);
+    }
+
+    private CharSequence reportInvalid(String type)
+    {
+        logger.error("Unable to convert {} {} to STC-S, reporting raw string.", type, source);
+        return null;
+    }
+
+    private boolean appendSpoint()
+    {
+        return skipTo('(') && appendAngle() && skipTo(',') && appendAngle() && skipTo(')');
+    }
+
+    /**
+     * Skip any spaces, then the expected character.
+     */
+    private boolean skipTo(char expected)
+    {
+        skipSpaces();
+        if (pos < source.length() && source.charAt(pos) == expected)
+        {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipSpaces()
+    {
+        while (pos < source.length() && Character.isWhitespace(source.charAt(pos)))
+        {
+            pos++;
+        }
+    }
+
+    private boolean isAtEnd()
+    {
+        skipSpaces();
+        return pos == source.length();
+    }
+
+    private boolean appendAngle()
+    {
+        skipSpaces();
+        double radians = parseNumber();
+        if (Double.isNaN(radians))
+        {
+            return false;
+        }
+        text.append(' ');
+        text.append(numberBuffer, 0, NumberFormatter.format(Math.toDegrees(radians), numberBuffer, 0));
+        return true;
+    }
+
+    /**
+     * Read a decimal number at the current position. Numbers of up to 15 significant digits with small exponents, which
+     * is how pgsphere outputs them, are converted exactly with a single multiplication or division. Others are left to
+     * Double.parseDouble.
+     *
+     * @return The number, or NaN if there is no number at the current position.
+     */
+    private double parseNumber()
+    {
+        int start = pos;
+        boolean negative = false;
+        if (pos < source.length() && (source.charAt(pos) == '-' || source.charAt(pos) == '+'))
+        {
+            negative = source.charAt(pos) == '-';
+            pos++;
+        }
+        long mantissa = 0;
+        int significantDigits = 0;
+        int scale = 0;
+        boolean hasDigits = false;
+        boolean afterPoint = false;
+        for (; pos < source.length(); pos++)
+        {
+            char c = source.charAt(pos);
+            if (c == '.' && !afterPoint)
+            {
+                afterPoint = true;
+                continue;
+            }
+            if (c < '0' || c > '9')
+            {
+                break;
+            }
+            hasDigits = true;
+            if (mantissa != 0 || c != '0')
+            {
+                significantDigits++;
+            }
+            if (significantDigits <= MAX_EXACT_DIGITS)
+            {
+                mantissa = mantissa * TEN + (c - '0');
+                scale += afterPoint ? 1 : 0;
+            }
+        }
+        if (!hasDigits)
+        {
+            return Double.NaN;
+        }
+
+        int exponent = 0;
+        if (pos < source.length() && (source.charAt(pos) == 'e' || source.charAt(pos) == 'E'))
+        {
+            pos++;
+            boolean negativeExponent = false;
+            if (pos < source.length() && (source.charAt(pos) == '-' || source.charAt(pos) == '+'))
+            {
+                negativeExponent = source.charAt(pos) == '-';
+                pos++;
+            }
+            int exponentStart = pos;
+            for (; pos < source.length() && source.charAt(pos) >= '0' && source.charAt(pos) <= '9'; pos++)
+            {
+                exponent = Math.min(exponent * TEN + source.charAt(pos) - '0', MAX_EXPONENT);
+            }
+            if (pos == exponentStart)
+            {
+                return Double.NaN;
+            }
+            exponent = negativeExponent ? -exponent : exponent;
+        }
+
+        int power = exponent - scale;
+        double value;
+        if (significantDigits > MAX_EXACT_DIGITS || Math.abs(power) >= POWERS_OF_TEN.length)
+        {
+            value = Math.abs(Double.parseDouble(source.substring(start, pos)));
+        }
+        else
+        {
+            value = power < 0 ? mantissa / POWERS_OF_TEN[-power] : mantissa * POWERS_OF_TEN[power];
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Write out the WKT of the geometry at the current position, as com.vividsolutions.jts.io.WKTWriter would.
+     *
+     * @param requiredType
+     *            The type the geometry must be as a member of a multi geometry, which is then written without its
+     *            type name, or ANY_TYPE.
+     * @param depth
+     *            The number of collections the geometry is nested in.
+     * @return true if the geometry was written, false if it should be converted by JTS instead.
+     */
+    private boolean appendGeometry(int requiredType, int depth)
+    {
+        int byteOrder = readByte();
+        if (byteOrder != 0 && byteOrder != WKB_LITTLE_ENDIAN)
+        {
+            return false;
+        }
+        littleEndian = byteOrder == WKB_LITTLE_ENDIAN;
+        if (!hasBytes(INT_BYTES))
+        {
+            return false;
+        }
+        int typeCode = readInt();
+        int type = typeCode & WKB_TYPE_MASK;
+        // Measures, ISO type codes and unknown types are all left to JTS
+        if (type < WKB_POINT || type > WKB_GEOMETRYCOLLECTION
+                || (typeCode & ~(WKB_Z_FLAG | WKB_SRID_FLAG)) != type
+                || (requiredType != ANY_TYPE && type != requiredType))
+        {
+            return false;
+        }
+        int dimension = (typeCode & WKB_Z_FLAG) != 0 ? 3 : 2;
+        if ((typeCode & WKB_SRID_FLAG) != 0)
+        {
+            if (!hasBytes(INT_BYTES))
+            {
+                return false;
+            }
+            readInt();
+        }
+        if (requiredType == ANY_TYPE)
+        {
+            text.append(WKT_NAMES[type]);
+            text.append(' ');
+        }
+
+        if (type == WKB_POINT)
+        {
+            return appendCoordinates(1, dimension, false);
+        }
+        // Each point takes a coordinate per dimension, each ring at least its count, and each member at least a byte
+        int count = readCount(type == WKB_LINESTRING ? dimension * DOUBLE_BYTES : type == WKB_POLYGON ? INT_BYTES : 1);
+        if (count == 0 && depth == 0)
+        {
+            text.append("EMPTY");
+            return true;
+        }
+        if (type == WKB_LINESTRING)
+        {
+            return count >= MIN_LINE_POINTS && appendCoordinates(count, dimension, false);
+        }
+
+        // Empty members of collections are output differently by JTS, so are left to it
+        boolean valid = count > 0;
+        int mark = text.length();
+        text.append('(');
+        for (int i = 0; valid && i < count; i++)
+        {
+            if (i > 0)
+            {
+                text.append(", ");
+            }
+            if (type == WKB_POLYGON)
+            {
+                int points = readCount(dimension * DOUBLE_BYTES);
+                if (points == 0 && count == 1 && depth == 0)
+                {
+                    // JTS writes an empty polygon as a single empty ring
+                    text.setLength(mark);
+                    text.append("EMPTY");
+                    return true;
+                }
+                valid = points >= MIN_RING_POINTS && appendCoordinates(points, dimension, true);
+            }
+            else
+            {
+                int memberType = type == WKB_GEOMETRYCOLLECTION ? ANY_TYPE : type - WKB_MULTI_OFFSET;
+                valid = appendGeometry(memberType, depth + 1);
+            }
+        }
+        text.append(')');
+        return valid;
+    }
+
+    private boolean appendCoordinates(int count, int dimension, boolean isRing)
+    {
+        if (!hasBytes(count * dimension * DOUBLE_BYTES))
+        {
+            return false;
+        }
+        double firstX = 0;
+        double firstY = 0;
+        double x = 0;
+        double y = 0;
+        text.append('(');
+        for (int i = 0; i < count; i++)
+        {
+            x = readDouble();
+            y = readDouble();
+            if (dimension > 2)
+            {
+                readDouble();
+            }
+            if (Double.isNaN(x) || Double.isInfinite(x) || Double.isNaN(y) || Double.isInfinite(y))
+            {
+                return false;
+            }
+            if (i == 0)
+            {
+                firstX = x;
+                firstY = y;
+            }
+            else
+            {
+                text.append(", ");
+            }
+            appendWktNumber(x);
+            text.append(' ');
+            appendWktNumber(y);
+        }
+        text.append(')');
+        // JTS only accepts closed rings
+        return !isRing || (x == firstX && y == firstY);
+    }
+
+    private void appendWktNumber(double value)
+    {
+        wktNumber.setLength(0);
+        wktNumberFormat.format(value, wktNumber, fieldPosition);
+        text.append(wktNumber);
+    }
+
+    /**
+     * Read a count of items, checking that there are enough bytes left for them.
+     *
+     * @return The count, or -1 if it is invalid.
+     */
+    private int readCount(int bytesPerItem)
+    {
+        if (!hasBytes(INT_BYTES))
+        {
+            return -1;
+        }
+        int count = readInt();
+        return count >= 0 && hasBytes((long) count * bytesPerItem) ? count : -1;
+    }
+
+    private boolean hasBytes(long count)
+    {
+        return pos + count <= byteLength;
+    }
+
+    /**
+     * Read the next byte of the hex encoded value, which has already been checked to only contain hex digits.
+     *
+     * @return The byte as an unsigned value, or -1 if there are no more bytes.
+     */
+    private int readByte()
+    {
+        if (pos >= byteLength)
+        {
+            return -1;
+        }
+        int high = Character.digit(source.charAt(2 * pos), HEX_RADIX);
+        int low = Character.digit(source.charAt(2 * pos + 1), HEX_RADIX);
+        pos++;
+        return (high << (BYTE_BITS / 2)) | low;
+    }
+
+    private int readInt()
+    {
+        return (int) readBytes(INT_BYTES);
+    }
+
+    private double readDouble()
+    {
+        return Double.longBitsToDouble(readBytes(DOUBLE_BYTES));
+    }
+
+    /**
+     * Read an integer of the given number of bytes in the current byte order. The caller checks there are enough bytes.
+     */
+    private long readBytes(int count)
+    {
+        long value = 0;
+        for (int i = 0; i < count; i++)
+        {
+            long b = readByte();
+            value |= littleEndian ? b << (BYTE_BITS * i) : b << (BYTE_BITS * (count - 1 - i));
+        }
+        return value;
+    }
+}
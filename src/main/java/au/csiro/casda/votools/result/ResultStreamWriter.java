@@ -0,0 +1,264 @@
+package au.csiro.casda.votools.result;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * A buffered UTF-8 writer for query results which encodes characters straight into a byte buffer rather than through
+ * a charset encoder. Runs of ASCII characters, which make up almost all result output, are copied into the buffer one
+ * byte per character. Unpaired surrogates are output as '?', as the standard UTF-8 encoder does.
+ * <p>
+ * The writer also gives access to the underlying byte stream, so that binary formats such as FITS can be written to
+ * the same destination as text formats and error reports. Instances are not thread safe.
+ *
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class ResultStreamWriter extends Writer
+{
+    /** The buffer size used when none is specified, in bytes. */
+    public static final int DEFAULT_BUFFER_SIZE = 65536;
+
+    /** The longest UTF-8 encoding of a single code point. */
+    private static final int MAX_BYTES_PER_CHAR = 4;
+
+    private static final int ASCII_LIMIT = 0x80;
+
+    private static final int TWO_BYTE_LIMIT = 0x800;
+
+    private static final byte REPLACEMENT = '?';
+
+    private static final int TWO_BYTE_LEAD = 0xc0;
+
+    private static final int THREE_BYTE_LEAD = 0xe0;
+
+    private static final int FOUR_BYTE_LEAD = 0xf0;
+
+    /** Each byte after the first carries six bits of the code point, below a 10 marker */
+    private static final int CONTINUATION = 0x80;
+
+    private static final int CONTINUATION_BITS = 6;
+
+    private static final int CONTINUATION_MASK = 0x3f;
+
+    private final OutputStream outputStream;
+
+    private final byte[] buffer;
+
+    private int count;
+
+    /** A high surrogate waiting for the low surrogate which completes it, or 0 */
+    private char highSurrogate;
+
+    /**
+     * Create a new ResultStreamWriter with the default buffer size.
+     *
+     * @param outputStream
+     *            The destination for the results.
+     */
+    public ResultStreamWriter(OutputStream outputStream)
+    {
+        this(outputStream, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a new ResultStreamWriter.
+     *
+     * @param outputStream
+     *            The destination for the results.
+     * @param bufferSize
+     *            The number of bytes to buffer before writing to the stream.
+     */
+    public ResultStreamWriter(OutputStream outputStream, int bufferSize)
+    {
+        this.outputStream = outputStream;
+        this.buffer = new byte[Math.max(bufferSize, MAX_BYTES_PER_CHAR)];
+    }
+
+    @Override
+    public void write(int c) throws IOException
+    {
+        writeChar((char) c);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException
+    {
+        int end = off + len;
+        int i = off;
+        while (i < end)
+        {
+            char c = str.charAt(i);
+            if (c < ASCII_LIMIT && highSurrogate == 0)
+            {
+                if (count == buffer.length)
+                {
+                    flushBuffer();
+                }
+                int limit = Math.min(end, i + buffer.length - count);
+                while (i < limit && str.charAt(i) < ASCII_LIMIT)
+                {
+                    buffer[count++] = (byte) str.charAt(i);
+                    i++;
+                }
+            }
+            else
+            {
+                writeChar(c);
+                i++;
+            }
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException
+    {
+        int end = off + len;
+        int i = off;
+        while (i < end)
+        {
+            char c = cbuf[i];
+            if (c < ASCII_LIMIT && highSurrogate == 0)
+            {
+                if (count == buffer.length)
+                {
+                    flushBuffer();
+                }
+                int limit = Math.min(end, i + buffer.length - count);
+                while (i < limit && cbuf[i] < ASCII_LIMIT)
+                {
+                    buffer[count++] = (byte) cbuf[i];
+                    i++;
+                }
+            }
+            else
+            {
+                writeChar(c);
+                i++;
+            }
+        }
+    }
+
+    @Override
+    public Writer append(CharSequence csq) throws IOException
+    {
+        String str = String.valueOf(csq);
+        write(str, 0, str.length());
+        return this;
+    }
+
+    private void writeChar(char c) throws IOException
+    {
+        if (count > buffer.length - MAX_BYTES_PER_CHAR)
+        {
+            flushBuffer();
+        }
+        if (highSurrogate != 0)
+        {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c))
+            {
+                writeCodePoint(Character.toCodePoint(high, c));
+                return;
+            }
+            buffer[count++] = REPLACEMENT;
+            if (count > buffer.length - MAX_BYTES_PER_CHAR)
+            {
+                flushBuffer();
+            }
+        }
+
+        if (c < ASCII_LIMIT)
+        {
+            buffer[count++] = (byte) c;
+        }
+        else if (c < TWO_BYTE_LIMIT)
+        {
+            buffer[count++] = (byte) (TWO_BYTE_LEAD | (c >> CONTINUATION_BITS));
+            buffer[count++] = continuation(c, 0);
+        }
+        else if (Character.isHighSurrogate(c))
+        {
+            highSurrogate = c;
+        }
+        else if (Character.isLowSurrogate(c))
+        {
+            buffer[count++] = REPLACEMENT;
+        }
+        else
+        {
+            buffer[count++] = (byte) (THREE_BYTE_LEAD | (c >> (2 * CONTINUATION_BITS)));
+            buffer[count++] = continuation(c, 1);
+            buffer[count++] = continuation(c, 0);
+        }
+    }
+
+    private void writeCodePoint(int codePoint)
+    {
+        final int trailingBytes = 3;
+        buffer[count++] = (byte) (FOUR_BYTE_LEAD | (codePoint >> (trailingBytes * CONTINUATION_BITS)));
+        buffer[count++] = continuation(codePoint, 2);
+        buffer[count++] = continuation(codePoint, 1);
+        buffer[count++] = continuation(codePoint, 0);
+    }
+
+    private static byte continuation(int codePoint, int position)
+    {
+        return (byte) (CONTINUATION | ((codePoint >> (position * CONTINUATION_BITS)) & CONTINUATION_MASK));
+    }
+
+    private void flushBuffer() throws IOException
+    {
+        if (count > 0)
+        {
+            outputStream.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        flushBuffer();
+        outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (highSurrogate != 0)
+        {
+            highSurrogate = 0;
+            writeChar((char) REPLACEMENT);
+        }
+        flush();
+        outputStream.close();
+    }
+
+    /**
+     * Get the byte stream the writer outputs to. Any text already written is flushed first so that binary output
+     * follows it in order.
+     *
+     * @return The underlying output stream.
+     * @throws IOException
+     *             If pending text cannot be flushed.
+     */
+    public OutputStream getOutputStream() throws IOException
+    {
+        flush();
+        return outputStream;
+    }
+}
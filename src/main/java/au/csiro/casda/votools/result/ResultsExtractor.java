@@ -17,15 +17,13 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Types;
-import java.time.Instant;
-import java.time.ZoneId;
-import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Date;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
-import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.text.translate.NumericEntityEscaper;
+import org.postgresql.jdbc.PgResultSetMetaData;
 import org.postgresql.util.PGobject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,9 +43,75 @@ public abstract class ResultsExtractor
 
     private static Logger logger = LoggerFactory.getLogger(ResultsExtractor.class);
 
+    /** Formats doubles into text rows without creating a string for each value. */
+    private static final ColumnEncoder DOUBLE_ENCODER = new PlainTextEncoder()
+    {
+        @Override
+        public String encode(ResultSet rs, int columnIndex) throws SQLException
+        {
+            return getDoubleValue(rs, columnIndex);
+        }
+
+        @Override
+        public void appendTo(ResultSet rs, int columnIndex, CellWriter cellWriter) throws SQLException
+        {
+            double value = rs.getDouble(columnIndex);
+            if (!rs.wasNull())
+            {
+                cellWriter.appendDouble(value);
+            }
+        }
+    };
+
+    /** Formats floats into text rows without creating a string for each value. */
+    private static final ColumnEncoder FLOAT_ENCODER = new PlainTextEncoder()
+    {
+        @Override
+        public String encode(ResultSet rs, int columnIndex) throws SQLException
+        {
+            return getFloatValue(rs, columnIndex);
+        }
+
+        @Override
+        public void appendTo(ResultSet rs, int columnIndex, CellWriter cellWriter) throws SQLException
+        {
+            float value = rs.getFloat(columnIndex);
+            if (!rs.wasNull())
+            {
+                cellWriter.appendFloat(value);
+            }
+        }
+    };
+
     /** Common format for date/time conversion */
     private DateTimeFormatter format;
 
+    /** Converts region columns, reusing one buffer for the text of each value */
+    private final RegionFormatter regionFormatter = new RegionFormatter();
+
+    /** Formats timestamp columns, caching the date between rows */
+    private final TimestampFormatter timestampFormatter = new TimestampFormatter();
+
+    /** Formats timestamps into text rows without creating a string for each value. */
+    private final ColumnEncoder timestampEncoder = new PlainTextEncoder()
+    {
+        @Override
+        public String encode(ResultSet rs, int columnIndex) throws SQLException
+        {
+            return getTimestampValue(rs, columnIndex);
+        }
+
+        @Override
+        public void appendTo(ResultSet rs, int columnIndex, CellWriter cellWriter) throws SQLException
+        {
+            Date date = rs.getTimestamp(columnIndex);
+            if (date != null)
+            {
+                cellWriter.appendTimestamp(timestampFormatter, date.getTime());
+            }
+        }
+    };
+
     /** True if results were truncated */
     private boolean cutoff;
 
@@ -57,6 +121,12 @@ public abstract class ResultsExtractor
     /** Processed number of matching rows */
     private long processedCount;
 
+    /** Optional source of an estimate of the total rows when the results are cut off */
+    private RowCountEstimator rowCountEstimator;
+
+    /** Estimated total number of matching rows, null if not known */
+    private Long rowCountEstimate;
+
     private String baseUrl;
     
     private String proxyUrl;
@@ -102,148 +172,222 @@ public abstract class ResultsExtractor
     protected abstract void outputFooter(boolean overflow, String error) throws IOException;
 
     /**
-     * Scans the result columns and identifies those that are date/time columns.
+     * Outputs the description of the results, with no rows, from the metadata of a statement which has not been run.
      * 
      * @param metaData
-     *            The result set metadata.
-     * @return A list of dates column indexes.
+     *            The metadata of the prepared statement.
+     * @param overflow
+     *            Whether the results should be reported as cut off.
+     * @return true if the results were reported as cut off
      * @throws SQLException
-     *             If the metadata cannot be retrieved.
+     *             If the metadata cannot be read.
      */
-    protected int[] getDataTypes(ResultSetMetaData metaData) throws SQLException
+    public Boolean extractMetaData(ResultSetMetaData metaData, boolean overflow) throws SQLException
     {
-        int columnCount = metaData.getColumnCount();
-        int dataTypes[] = new int[columnCount+1];
-        for (int i = 1; i <= columnCount; i++)
+        setCutoff(overflow);
+        setProcessedCount(0);
+        setResultSize(0);
+        try
+        {
+            outputHeader(metaData);
+            outputFooter(overflow, "");
+        }
+        catch (IOException e)
         {
-            dataTypes[i] = metaData.getColumnType(i);
+            logger.error("Error outputting query description.", e);
+            throw new ProcessingException("Unable to write out results", e);
         }
-        return dataTypes;
+        return isCutoff();
     }
 
     /**
-     * Retrieves the value of a specific field from a result set row, formatting dates and handling null values.
+     * Chooses how to output each of the result columns, based on the column types. This is done once for a result set
+     * so that the type of each column does not need to be checked again for each row.
      * 
-     * @param rs
-     *            The result set we are extracting fields values from.
-     * @param dataType
-     *            The SQL data type of this field. @see Types
-     * @param columnIndex
-     *            The index of the column to get a value for.
-     * @return The value of the field in the current row.
+     * @param metaData
+     *            The result set metadata.
+     * @return The encoder for each column, indexed by column number.
      * @throws SQLException
-     *             If the value cannot be retrieved form the result set.
+     *             If the metadata cannot be retrieved.
      */
-    protected String getFieldValue(ResultSet rs, int dataType, int columnIndex) throws SQLException
-    {   
-        final int binaryRadix = 2;
-        String value = null;
+    protected ColumnEncoder[] getColumnEncoders(ResultSetMetaData metaData) throws SQLException
+    {
+        int columnCount = metaData.getColumnCount();
+        ColumnEncoder[] encoders = new ColumnEncoder[columnCount + 1];
+        for (int i = 1; i <= columnCount; i++)
+        {
+            encoders[i] = getColumnEncoder(metaData, metaData.getColumnType(i), i);
+        }
+        return encoders;
+    }
+
+    private ColumnEncoder getColumnEncoder(ResultSetMetaData metaData, int dataType, int columnIndex)
+            throws SQLException
+    {
         switch (dataType)
         {
         case Types.TIMESTAMP:
-            value = getTimestampValue(rs, columnIndex, value);
-            break;
+            return timestampEncoder;
 
         case Types.OTHER: // BIT VARYING and GEOMETRY
-            value = getOtherTypeValue(rs, columnIndex, binaryRadix, value);
-            break;
+            return getOtherTypeEncoder(metaData.getColumnTypeName(columnIndex));
 
         case Types.DOUBLE:
-            if (rs.getString(columnIndex) != null)
-            {
-                value = String.valueOf(rs.getDouble(columnIndex));
-            }
-            break;
+            return DOUBLE_ENCODER;
 
         case Types.FLOAT:
         case Types.REAL:
-            if (rs.getString(columnIndex) != null)
+            return FLOAT_ENCODER;
+
+        case Types.INTEGER:
+        case Types.SMALLINT:
+        case Types.TINYINT:
+            return ResultsExtractor::getIntValue;
+
+        case Types.BIGINT:
+            return ResultsExtractor::getLongValue;
+
+        case Types.BIT:
+        case Types.BOOLEAN:
+            if ("bool".equals(metaData.getColumnTypeName(columnIndex)))
             {
-                value = String.valueOf(rs.getFloat(columnIndex));
+                return ResultsExtractor::getBooleanValue;
             }
-            break;
+            return ResultSet::getString;
 
         default:
-            value = rs.getString(columnIndex);
-            String baseUrlPlaceholder = "#{baseUrl}";
-            if (value != null && value.startsWith(baseUrlPlaceholder))
-            {
-                value = value.replace(baseUrlPlaceholder, StringUtils.isBlank(proxyUrl) ? baseUrl : proxyUrl);
-            }
-            break;
+            // Any text may be a URL starting with the #{baseUrl} placeholder, including aliased and computed columns
+            return this::getTextValue;
         }
+    }
 
-        if (value == null)
+    /**
+     * Builds the key identifying a result column in the TAP metadata, in the form schema|table|column.
+     * 
+     * @param metaData
+     *            The result set metadata.
+     * @param columnIndex
+     *            The index of the column
+     * @return The key for the column, the schema and table will be blank if the column is not from a table.
+     * @throws SQLException
+     *             If the metadata cannot be retrieved.
+     */
+    protected static String getColumnKey(ResultSetMetaData metaData, int columnIndex) throws SQLException
+    {
+        String name = StringUtils.defaultString(metaData.getColumnName(columnIndex)).toLowerCase();
+        String schema = StringUtils.defaultString(metaData.getSchemaName(columnIndex)).toLowerCase();
+        if (StringUtils.isBlank(schema) && metaData instanceof PgResultSetMetaData)
         {
-            value = "";
+            schema = ((PgResultSetMetaData) metaData).getBaseSchemaName(columnIndex).toLowerCase();
         }
-        final int lowestNonAsciiChar = 0x7f;
-        return StringEscapeUtils.ESCAPE_XML11.with(NumericEntityEscaper.between(lowestNonAsciiChar, Integer.MAX_VALUE))
-                .translate(value);
+        String table = StringUtils.defaultString(metaData.getTableName(columnIndex)).toLowerCase();
+        return schema + "|" + table + "|" + name;
     }
 
-    private String getOtherTypeValue(ResultSet rs, int columnIndex, final int binaryRadix, String value) throws SQLException
+    private static String getDoubleValue(ResultSet rs, int columnIndex) throws SQLException
     {
-        Object pgObject = rs.getObject(columnIndex);
-        //conversion only performed on postgres var bit type 
-        if(pgObject instanceof PGobject && ((PGobject) pgObject).getType().equals("varbit"))
+        double value = rs.getDouble(columnIndex);
+        return rs.wasNull() ? null : NumberFormatter.toString(value);
+    }
+
+    private static String getFloatValue(ResultSet rs, int columnIndex) throws SQLException
+    {
+        float value = rs.getFloat(columnIndex);
+        return rs.wasNull() ? null : NumberFormatter.toString(value);
+    }
+
+    private static String getIntValue(ResultSet rs, int columnIndex) throws SQLException
+    {
+        int value = rs.getInt(columnIndex);
+        return rs.wasNull() ? null : Integer.toString(value);
+    }
+
+    private static String getLongValue(ResultSet rs, int columnIndex) throws SQLException
+    {
+        long value = rs.getLong(columnIndex);
+        return rs.wasNull() ? null : Long.toString(value);
+    }
+
+    private static String getBooleanValue(ResultSet rs, int columnIndex) throws SQLException
+    {
+        boolean value = rs.getBoolean(columnIndex);
+        // Matches the text form used by postgres
+        return rs.wasNull() ? null : value ? "t" : "f";
+    }
+
+    private String getTextValue(ResultSet rs, int columnIndex) throws SQLException
+    {
+        String value = rs.getString(columnIndex);
+        String baseUrlPlaceholder = "#{baseUrl}";
+        if (value != null && value.startsWith(baseUrlPlaceholder))
         {
-            value = String.valueOf(Integer.parseInt(((PGobject) pgObject).getValue(), binaryRadix));
+            value = value.replace(baseUrlPlaceholder, StringUtils.isBlank(proxyUrl) ? baseUrl : proxyUrl);
         }
-        else
+        return value;
+    }
+
+    private ColumnEncoder getOtherTypeEncoder(String columnTypeName)
+    {
+        switch (StringUtils.defaultString(columnTypeName))
         {
-            String rawValue = rs.getString(columnIndex);
+        case "varbit":
+            return ResultsExtractor::getVarbitValue;
 
-            if (rawValue != null)
-            {
-                String columnTypeName = rs.getMetaData().getColumnTypeName(columnIndex);
-                if ("geometry".equals(columnTypeName))
-                {
-                    // Convert the geometry field to readable text
-                    WKBReader reader = new WKBReader();
-                    try
-                    {
-                        Geometry geometry = reader.read(WKBReader.hexToBytes(rawValue));
-                        value = geometry.toText();
-                    }
-                    catch (ParseException e)
-                    {
-                        logger.error("Unable to convert geometry {} to string, reporting raw string.", rawValue, e);
-                        value = rawValue;
-                    }
-                }
-                else if ("spoly".equals(columnTypeName))
-                {
-                    // Raw value format {(ra, dec),(ra, dec)...} with values in radians
-                    String coords[] = rawValue.split("[{}(), ]+");
-                    StringBuilder polyCoords = new StringBuilder("POLYGON ICRS");
-                    for (String coord : coords) 
-                    {
-                        if (StringUtils.isNotBlank(coord))
-                        {
-                            polyCoords.append(" ");
-                            double degrees = Math.toDegrees(Double.parseDouble(coord));
-                            polyCoords.append(degrees);
-                        }
-                    }
-                    value = polyCoords.toString();
-                }
-            } 
+        case "geometry":
+            return new RegionEncoder(regionFormatter::formatGeometry, ResultsExtractor::convertGeometry);
+
+        case "spoly":
+            return new RegionEncoder(regionFormatter::formatSpoly, UnaryOperator.identity());
+
+        case "scircle":
+            return new RegionEncoder(regionFormatter::formatScircle, UnaryOperator.identity());
+
+        case "spoint":
+            return new RegionEncoder(regionFormatter::formatSpoint, UnaryOperator.identity());
+
+        default:
+            // Other types have no agreed text form, so they are output as empty
+            return (rs, columnIndex) -> null;
         }
+    }
 
-        return value;
+    private static String getVarbitValue(ResultSet rs, int columnIndex) throws SQLException
+    {
+        final int binaryRadix = 2;
+        Object pgObject = rs.getObject(columnIndex);
+        if (pgObject instanceof PGobject && ((PGobject) pgObject).getValue() != null)
+        {
+            return String.valueOf(Integer.parseInt(((PGobject) pgObject).getValue(), binaryRadix));
+        }
+        return null;
+    }
+
+    /**
+     * Convert a geometry to WKT using JTS, for geometries which RegionFormatter leaves to it.
+     */
+    private static String convertGeometry(String rawValue)
+    {
+        WKBReader reader = new WKBReader();
+        try
+        {
+            Geometry geometry = reader.read(WKBReader.hexToBytes(rawValue));
+            return geometry.toText();
+        }
+        catch (ParseException e)
+        {
+            logger.error("Unable to convert geometry {} to string, reporting raw string.", rawValue, e);
+            return rawValue;
+        }
     }
 
-    private String getTimestampValue(ResultSet rs, int columnIndex, String value) throws SQLException
+    private String getTimestampValue(ResultSet rs, int columnIndex) throws SQLException
     {
         Date date = rs.getTimestamp(columnIndex);
-        if (date != null)
+        if (date == null)
         {
-            Instant instant = date.toInstant();
-            ZonedDateTime ldt = ZonedDateTime.ofInstant(instant, ZoneId.of("UTC"));
-            value = format.format(ldt);
+            return null;
         }
-        return value;
+        return timestampFormatter.toString(date.getTime());
     }
 
     /**
@@ -289,21 +433,53 @@ public abstract class ResultsExtractor
     }
 
     /**
+     * Decide if the results have been cut off once the rows to be output have been read. This is done by reading just
+     * one more row, so the rest of the results never need to be fetched. The result size is then the number of rows
+     * output, plus one if the results were cut off. If the results were cut off and a row count estimator has been
+     * supplied, the total number of rows is also estimated.
+     * 
      * @param rs
-     *            ResultSet to take result size from
+     *            The result set being output, positioned at the last row output
+     * @param maxRec
+     *            The maximum number of rows to be output
+     * @throws SQLException
+     *             If the next row cannot be read
      */
-    public void setResultSize(ResultSet rs)
+    protected void checkForOverflow(ResultSet rs, long maxRec) throws SQLException
     {
-        try
+        setCutoff(getProcessedCount() >= maxRec && rs.next());
+        setResultSize(isCutoff() ? getProcessedCount() + 1 : getProcessedCount());
+        rowCountEstimate = null;
+        if (isCutoff() && rowCountEstimator != null)
         {
-            rs.last();
-            resultSize = rs.getRow();
-        }
-        catch (SQLException e)
-        {
-            resultSize = -1; // should not happen if called correctly
+            try
+            {
+                rowCountEstimate = rowCountEstimator.estimateRowCount(rs.getStatement().getConnection());
+            }
+            catch (SQLException | RuntimeException e)
+            {
+                logger.warn("Unable to estimate the total rows for the query.", e);
+            }
         }
+    }
 
+    public RowCountEstimator getRowCountEstimator()
+    {
+        return rowCountEstimator;
+    }
+
+    public void setRowCountEstimator(RowCountEstimator rowCountEstimator)
+    {
+        this.rowCountEstimator = rowCountEstimator;
+    }
+
+    /**
+     * @return the estimated total number of matching rows, or null if the results were not cut off or no estimate
+     *         could be made
+     */
+    public Long getRowCountEstimate()
+    {
+        return rowCountEstimate;
     }
 
     /**
@@ -338,4 +514,84 @@ public abstract class ResultsExtractor
         this.proxyUrl = proxyUrl;
     }
 
+    /**
+     * An encoder for region columns, which outputs the text from a RegionFormatter without further escaping. Values the
+     * formatter cannot convert are passed to a fallback conversion, whose text is escaped as usual.
+     */
+    private static final class RegionEncoder implements ColumnEncoder
+    {
+        private final Function<String, CharSequence> formatter;
+
+        private final UnaryOperator<String> fallback;
+
+        RegionEncoder(Function<String, CharSequence> formatter, UnaryOperator<String> fallback)
+        {
+            this.formatter = formatter;
+            this.fallback = fallback;
+        }
+
+        @Override
+        public String encode(ResultSet rs, int columnIndex) throws SQLException
+        {
+            String rawValue = rs.getString(columnIndex);
+            if (rawValue == null)
+            {
+                return null;
+            }
+            CharSequence text = formatter.apply(rawValue);
+            return text == null ? fallback.apply(rawValue) : text.toString();
+        }
+
+        @Override
+        public void appendTo(ResultSet rs, int columnIndex, CellWriter cellWriter) throws SQLException
+        {
+            String rawValue = rs.getString(columnIndex);
+            if (rawValue == null)
+            {
+                return;
+            }
+            CharSequence text = formatter.apply(rawValue);
+            if (text == null)
+            {
+                cellWriter.appendEscaped(fallback.apply(rawValue));
+            }
+            else
+            {
+                cellWriter.append(text);
+            }
+        }
+
+        @Override
+        public void appendDelimitedTo(ResultSet rs, int columnIndex, CellWriter cellWriter, char separator)
+                throws SQLException
+        {
+            String rawValue = rs.getString(columnIndex);
+            if (rawValue == null)
+            {
+                return;
+            }
+            CharSequence text = formatter.apply(rawValue);
+            if (text == null)
+            {
+                cellWriter.appendEscapedDelimited(fallback.apply(rawValue), separator);
+            }
+            else
+            {
+                cellWriter.appendDelimited(text, separator);
+            }
+        }
+    }
+
+    /**
+     * An encoder for values whose text never needs escaping or quoting, so can be added straight to any text row.
+     */
+    private abstract static class PlainTextEncoder implements ColumnEncoder
+    {
+        @Override
+        public void appendDelimitedTo(ResultSet rs, int columnIndex, CellWriter cellWriter, char separator)
+                throws SQLException
+        {
+            appendTo(rs, columnIndex, cellWriter);
+        }
+    }
 }
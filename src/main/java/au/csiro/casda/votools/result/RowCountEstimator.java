@@ -0,0 +1,37 @@
+package au.csiro.casda.votools.result;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Provides an estimate of the total number of rows a query would return, used to describe results which have been cut
+ * off at the maximum number of records. The estimate is made using the connection the query is being run on.
+ * 
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+@FunctionalInterface
+public interface RowCountEstimator
+{
+    /**
+     * Estimate the total number of rows matching the query.
+     * 
+     * @param connection
+     *            The connection the query is being run on.
+     * @return The estimated number of rows, or null if no estimate could be made.
+     * @throws SQLException
+     *             If the estimate could not be made.
+     */
+    Long estimateRowCount(Connection connection) throws SQLException;
+}
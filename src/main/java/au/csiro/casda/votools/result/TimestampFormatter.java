@@ -0,0 +1,114 @@
+package au.csiro.casda.votools.result;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Formats points in time as UTC timestamps in the form yyyy-MM-dd'T'HH:mm:ss.SSS'Z', writing the characters straight
+ * into a caller supplied buffer. The date part is formatted by a DateTimeFormatter and cached, so it is only worked out
+ * again when a value falls on a different day to the previous one. The time of day is written out digit by digit.
+ * <p>
+ * Instances are not thread safe.
+ *
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class TimestampFormatter
+{
+    /** The most characters output for a timestamp, allowing for a signed year of up to 10 digits. */
+    public static final int MAX_LENGTH = 35;
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'");
+
+    private static final long MILLIS_PER_DAY = 86400000L;
+
+    private static final int MILLIS_PER_HOUR = 3600000;
+
+    private static final int MILLIS_PER_MINUTE = 60000;
+
+    private static final int MILLIS_PER_SECOND = 1000;
+
+    private static final int MINUTES_PER_HOUR = 60;
+
+    private static final int SECONDS_PER_MINUTE = 60;
+
+    private static final int HUNDRED = 100;
+
+    private static final int TEN = 10;
+
+    private long cachedDay = Long.MIN_VALUE;
+
+    private char[] cachedDate;
+
+    /**
+     * Format a point in time as a UTC timestamp.
+     *
+     * @param epochMillis
+     *            The number of milliseconds since 1970-01-01T00:00:00Z.
+     * @return The timestamp text.
+     */
+    public String toString(long epochMillis)
+    {
+        char[] buffer = new char[MAX_LENGTH];
+        return new String(buffer, 0, format(epochMillis, buffer, 0));
+    }
+
+    /**
+     * Format a point in time as a UTC timestamp into a buffer.
+     *
+     * @param epochMillis
+     *            The number of milliseconds since 1970-01-01T00:00:00Z.
+     * @param buffer
+     *            The buffer to write to, which must have at least MAX_LENGTH characters free from the offset.
+     * @param offset
+     *            The position in the buffer of the first character to be written.
+     * @return The position in the buffer following the last character written.
+     */
+    public int format(long epochMillis, char[] buffer, int offset)
+    {
+        long day = Math.floorDiv(epochMillis, MILLIS_PER_DAY);
+        if (day != cachedDay)
+        {
+            cachedDate = DATE_FORMAT.format(LocalDate.ofEpochDay(day)).toCharArray();
+            cachedDay = day;
+        }
+        System.arraycopy(cachedDate, 0, buffer, offset, cachedDate.length);
+        int pos = offset + cachedDate.length;
+
+        int millisOfDay = (int) Math.floorMod(epochMillis, MILLIS_PER_DAY);
+        pos = appendTwoDigits(millisOfDay / MILLIS_PER_HOUR, buffer, pos);
+        buffer[pos++] = ':';
+        pos = appendTwoDigits(millisOfDay / MILLIS_PER_MINUTE % MINUTES_PER_HOUR, buffer, pos);
+        buffer[pos++] = ':';
+        pos = appendTwoDigits(millisOfDay / MILLIS_PER_SECOND % SECONDS_PER_MINUTE, buffer, pos);
+        buffer[pos++] = '.';
+        int millis = millisOfDay % MILLIS_PER_SECOND;
+        buffer[pos++] = digit(millis / HUNDRED);
+        pos = appendTwoDigits(millis % HUNDRED, buffer, pos);
+        buffer[pos++] = 'Z';
+        return pos;
+    }
+
+    private static int appendTwoDigits(int value, char[] buffer, int pos)
+    {
+        buffer[pos] = digit(value / TEN);
+        buffer[pos + 1] = digit(value % TEN);
+        return pos + 2;
+    }
+
+    private static char digit(int value)
+    {
+        return (char) ('0' + value);
+    }
+}
@@ -0,0 +1,423 @@
+package au.csiro.casda.votools.result;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Outputs query results as a VOTable using the BINARY2 serialization. Each row is a bitmap flagging the null columns
+ * followed by the binary value of each column, and the rows are streamed as base64 text inside a STREAM element. The
+ * binary form of each column is chosen from the datatype and arraysize of the FIELD definition output in the header,
+ * so the values always match their description. Instances are not reusable.
+ *
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class VoTableBinary2ResultsExtractor extends VoTableResultsExtractor
+{
+    private static final Pattern DATATYPE = Pattern.compile("datatype\\s*=\\s*[\"']([^\"']*)[\"']");
+
+    private static final Pattern ARRAYSIZE = Pattern.compile("arraysize\\s*=\\s*[\"']([^\"']*)[\"']");
+
+    /** Column values are written to the row before the null flags are known, so they are collected here first */
+    private final ByteArrayOutputStream rowBytes = new ByteArrayOutputStream();
+
+    private final DataOutputStream rowData = new DataOutputStream(rowBytes);
+
+    private OutputStream base64Stream;
+
+    private FieldWriter[] fieldWriters = new FieldWriter[0];
+
+    private byte[] nullFlags = new byte[0];
+
+    /**
+     * Writes the binary value of a column for the current row.
+     */
+    @FunctionalInterface
+    interface FieldWriter
+    {
+        /**
+         * Write the value of a column in the current row. A placeholder value is written for nulls.
+         *
+         * @param rs
+         *            The result set positioned at the row to be output.
+         * @param columnIndex
+         *            The index of the column to be written.
+         * @param out
+         *            The destination for the binary value.
+         * @return false if the value is null, true otherwise.
+         * @throws SQLException
+         *             If the value cannot be read.
+         * @throws IOException
+         *             If the value cannot be written.
+         */
+        boolean write(ResultSet rs, int columnIndex, DataOutputStream out) throws SQLException, IOException;
+    }
+
+    /**
+     * Creates a new instance of VoTableBinary2ResultsExtractor for use outputting a single query only.
+     *
+     * @param writer
+     *            The writer to output the query results to.
+     * @param maxRec
+     *            The maximum number of records the user has requested.
+     * @param votableFieldMap
+     *            The map of field types for this query
+     * @param resourceName
+     *            The name to use in the VOtable resource element
+     * @param serviceMetaDataMap
+     *            a map of the meta data properties from the configuration file
+     * @param baseUrl
+     *            The web address at which this VO Tools instance can be found.
+     * @param proxyUrl
+     *            The web address at which this VO Proxy instance can be found.
+     * @param proxiedOutput
+     *            Whether the out should being catered for vo_proxy or to the user.
+     * @param votableXsl
+     *            The address of the votable XSL stylesheet, NULL to default to the base or proxy address, or "None" to
+     *            suppress the stylesheet directive.
+     */
+    public VoTableBinary2ResultsExtractor(Writer writer, int maxRec, Map<String, String> votableFieldMap,
+            String resourceName, Map<String, String[]> serviceMetaDataMap, String baseUrl, String proxyUrl,
+            boolean proxiedOutput, String votableXsl)
+    {
+        super(writer, maxRec, votableFieldMap, resourceName, serviceMetaDataMap, baseUrl, proxyUrl, proxiedOutput,
+                votableXsl);
+    }
+
+    /**
+     * Starts the BINARY2 stream and chooses the binary form for each column from its FIELD definition.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    protected void outputDataStart(ResultSetMetaData metaData) throws SQLException, IOException
+    {
+        getWriter().append("<BINARY2>\r\n");
+        getWriter().append("<STREAM encoding=\"base64\">\r\n");
+        base64Stream = Base64.getMimeEncoder().wrap(new AsciiOutputStream(getWriter()));
+
+        ColumnEncoder[] encoders = getColumnEncoders(metaData);
+        int columnCount = metaData.getColumnCount();
+        fieldWriters = new FieldWriter[columnCount + 1];
+        for (int i = 1; i <= columnCount; i++)
+        {
+            fieldWriters[i] = getFieldWriter(getFieldDefs()[i], metaData.getColumnType(i), encoders[i]);
+        }
+        final int bitsPerByte = 8;
+        nullFlags = new byte[(columnCount + bitsPerByte - 1) / bitsPerByte];
+    }
+
+    /**
+     * Outputs a single row as its null flags followed by the column values.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    protected void outputRow(ResultSet rs, int columnCount, ColumnEncoder[] encoders) throws SQLException, IOException
+    {
+        final int bitsPerByte = 8;
+        final int firstColumnFlag = 0x80;
+        Arrays.fill(nullFlags, (byte) 0);
+        rowBytes.reset();
+        for (int i = 1; i <= columnCount; i++)
+        {
+            if (!fieldWriters[i].write(rs, i, rowData))
+            {
+                nullFlags[(i - 1) / bitsPerByte] |= firstColumnFlag >>> ((i - 1) % bitsPerByte);
+            }
+        }
+        base64Stream.write(nullFlags);
+        rowBytes.writeTo(base64Stream);
+    }
+
+    /**
+     * Completes the base64 stream and closes off the BINARY2 element.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    protected void outputDataEnd() throws IOException
+    {
+        if (base64Stream != null)
+        {
+            // Writes out any final partial group, the writer itself is left open
+            base64Stream.close();
+            base64Stream = null;
+        }
+        getWriter().append("\r\n</STREAM>\r\n");
+        getWriter().append("</BINARY2>\r\n");
+    }
+
+    /**
+     * Chooses how to write a column based on the datatype and arraysize of its FIELD definition.
+     *
+     * @param fieldDef
+     *            The FIELD element describing the column.
+     * @param sqlType
+     *            The SQL type of the column.
+     * @param encoder
+     *            The text encoder for the column, used for character values and values with no binary JDBC form.
+     * @return The writer for the column.
+     */
+    static FieldWriter getFieldWriter(String fieldDef, int sqlType, ColumnEncoder encoder)
+    {
+        String datatype = getAttribute(DATATYPE, fieldDef);
+        String arraysize = getAttribute(ARRAYSIZE, fieldDef);
+        // Types such as bit varying can only be read as text
+        boolean fromText = sqlType == Types.OTHER;
+        final int shortBytes = 2;
+        final int intBytes = 4;
+        final int longBytes = 8;
+
+        switch (StringUtils.defaultString(datatype))
+        {
+        case "boolean":
+            return VoTableBinary2ResultsExtractor::writeBoolean;
+
+        case "unsignedByte":
+            return integerField(1, fromText, encoder);
+
+        case "short":
+            return integerField(shortBytes, fromText, encoder);
+
+        case "int":
+            return integerField(intBytes, fromText, encoder);
+
+        case "long":
+            return integerField(longBytes, fromText, encoder);
+
+        case "float":
+            return floatField(fromText, encoder);
+
+        case "double":
+            return doubleField(fromText, encoder);
+
+        case "unicodeChar":
+            return charField(arraysize, true, encoder);
+
+        default:
+            return charField(arraysize, false, encoder);
+        }
+    }
+
+    private static String getAttribute(Pattern pattern, String fieldDef)
+    {
+        Matcher matcher = pattern.matcher(StringUtils.defaultString(fieldDef));
+        return matcher.find() ? matcher.group(1).trim() : null;
+    }
+
+    private static boolean writeBoolean(ResultSet rs, int columnIndex, DataOutputStream out)
+            throws SQLException, IOException
+    {
+        boolean value = rs.getBoolean(columnIndex);
+        if (rs.wasNull())
+        {
+            out.writeByte('?');
+            return false;
+        }
+        out.writeByte(value ? 'T' : 'F');
+        return true;
+    }
+
+    private static FieldWriter integerField(int bytes, boolean fromText, ColumnEncoder encoder)
+    {
+        final int bitsPerByte = 8;
+        return (rs, columnIndex, out) -> {
+            long value;
+            boolean isNull;
+            if (fromText)
+            {
+                String text = encoder.encode(rs, columnIndex);
+                isNull = StringUtils.isBlank(text);
+                value = isNull ? 0 : Long.parseLong(text.trim());
+            }
+            else
+            {
+                value = rs.getLong(columnIndex);
+                isNull = rs.wasNull();
+            }
+            // big endian, as for DataOutputStream
+            for (int shift = (bytes - 1) * bitsPerByte; shift >= 0; shift -= bitsPerByte)
+            {
+                out.writeByte((int) (value >>> shift));
+            }
+            return !isNull;
+        };
+    }
+
+    private static FieldWriter floatField(boolean fromText, ColumnEncoder encoder)
+    {
+        return (rs, columnIndex, out) -> {
+            float value;
+            boolean isNull;
+            if (fromText)
+            {
+                String text = encoder.encode(rs, columnIndex);
+                isNull = StringUtils.isBlank(text);
+                value = isNull ? Float.NaN : Float.parseFloat(text.trim());
+            }
+            else
+            {
+                value = rs.getFloat(columnIndex);
+                isNull = rs.wasNull();
+            }
+            out.writeFloat(isNull ? Float.NaN : value);
+            return !isNull;
+        };
+    }
+
+    private static FieldWriter doubleField(boolean fromText, ColumnEncoder encoder)
+    {
+        return (rs, columnIndex, out) -> {
+            double value;
+            boolean isNull;
+            if (fromText)
+            {
+                String text = encoder.encode(rs, columnIndex);
+                isNull = StringUtils.isBlank(text);
+                value = isNull ? Double.NaN : Double.parseDouble(text.trim());
+            }
+            else
+            {
+                value = rs.getDouble(columnIndex);
+                isNull = rs.wasNull();
+            }
+            out.writeDouble(isNull ? Double.NaN : value);
+            return !isNull;
+        };
+    }
+
+    /**
+     * Builds the writer for a character column. A fixed arraysize is padded with nulls or truncated to fit, while a
+     * variable arraysize (* or n*) is preceded by its length. char values are written as UTF-8 and unicodeChar values
+     * as UCS-2.
+     */
+    private static FieldWriter charField(String arraysize, boolean unicode, ColumnEncoder encoder)
+    {
+        boolean variable;
+        int size;
+        if (StringUtils.isBlank(arraysize))
+        {
+            variable = false;
+            size = 1;
+        }
+        else if (StringUtils.isNumeric(arraysize))
+        {
+            variable = false;
+            size = Integer.parseInt(arraysize);
+        }
+        else
+        {
+            // n* gives an upper limit, anything else such as a multi-dimensional size is treated as unlimited
+            variable = true;
+            String limit = StringUtils.removeEnd(arraysize, "*");
+            size = StringUtils.isNumeric(limit) && !limit.isEmpty() ? Integer.parseInt(limit) : Integer.MAX_VALUE;
+        }
+
+        return (rs, columnIndex, out) -> {
+            String text = encoder.encode(rs, columnIndex);
+            if (unicode)
+            {
+                int length = text == null ? 0 : Math.min(text.length(), size);
+                if (variable)
+                {
+                    out.writeInt(length);
+                }
+                for (int i = 0; i < length; i++)
+                {
+                    out.writeChar(text.charAt(i));
+                }
+                for (int i = length; !variable && i < size; i++)
+                {
+                    out.writeChar(0);
+                }
+            }
+            else
+            {
+                byte[] bytes = text == null ? new byte[0] : text.getBytes(StandardCharsets.UTF_8);
+                int length = Math.min(bytes.length, size);
+                if (variable)
+                {
+                    out.writeInt(length);
+                }
+                out.write(bytes, 0, length);
+                for (int i = length; !variable && i < size; i++)
+                {
+                    out.writeByte(0);
+                }
+            }
+            return text != null;
+        };
+    }
+
+    /**
+     * Passes the base64 text, which is plain ASCII, through to a writer. Closing the stream leaves the writer open.
+     */
+    private static class AsciiOutputStream extends OutputStream
+    {
+        private static final int BUFFER_SIZE = 4096;
+
+        private final Writer writer;
+
+        private final char[] buffer = new char[BUFFER_SIZE];
+
+        AsciiOutputStream(Writer writer)
+        {
+            this.writer = writer;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            writer.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            int done = 0;
+            while (done < len)
+            {
+                int chunk = Math.min(len - done, buffer.length);
+                for (int i = 0; i < chunk; i++)
+                {
+                    buffer[i] = (char) b[off + done + i];
+                }
+                writer.write(buffer, 0, chunk);
+                done += chunk;
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            // The writer is still needed for the rest of the VOTable
+        }
+    }
+}
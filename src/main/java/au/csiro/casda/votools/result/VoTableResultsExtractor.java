@@ -11,7 +11,6 @@ import java.time.ZonedDateTime;
 import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
-import org.postgresql.jdbc.PgResultSetMetaData;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataAccessException;
@@ -54,6 +53,11 @@ public class VoTableResultsExtractor extends ResultsExtractor implements ResultS
 
     private String votableXsl;
 
+    /** The FIELD definition output for each result column, indexed by column number. */
+    private String[] fieldDefs = new String[0];
+
+    private CellWriter cellWriter;
+
     /**
      * Creates a new instance of OutputTapQueryToVoTable for use outputting a single query only. Instances are not
      * reusable.
@@ -152,13 +156,13 @@ public class VoTableResultsExtractor extends ResultsExtractor implements ResultS
         String error = "";
         try
         {
-            int[] dataTypes = getDataTypes(rs.getMetaData());
             outputHeader(rs.getMetaData());
+            ColumnEncoder[] encoders = getColumnEncoders(rs.getMetaData());
             try
             {
                 while (getProcessedCount() < maxRec && rs.next())
                 {
-                    writer.append(buildRowOutput(rs, columnCount, dataTypes));
+                    outputRow(rs, columnCount, encoders);
                     setProcessedCount(getProcessedCount() + 1);
                     if (getProcessedCount() % memoryReportInterval == 0)
                     {
@@ -166,12 +170,7 @@ public class VoTableResultsExtractor extends ResultsExtractor implements ResultS
                         Utils.reportMemory(logger);
                     }
                 }
-                setCutoff(getProcessedCount() >= maxRec && !(rs.isLast() || rs.isAfterLast()));
-                setResultSize(getProcessedCount());
-                if (isCutoff())
-                {
-                    setResultSize(rs);
-                }
+                checkForOverflow(rs, maxRec);
             }
             catch (SQLException e)
             {
@@ -189,29 +188,56 @@ public class VoTableResultsExtractor extends ResultsExtractor implements ResultS
     }
 
     /**
-     * Build up the response for a single row of data. This is done in a builder to avoid invalid XML output in the
-     * event of an error.
+     * Outputs a single row of data as a TABLEDATA TR element.
+     * 
+     * @param rs
+     *            The ResultSet to extract data from, positioned at the row to be output
+     * @param columnCount
+     *            The number of columns in the result.
+     * @param encoders
+     *            The encoder for each column
+     * @throws SQLException
+     *             If the data cannot be read
+     * @throws IOException
+     *             If the row cannot be written.
+     */
+    protected void outputRow(ResultSet rs, int columnCount, ColumnEncoder[] encoders) throws SQLException, IOException
+    {
+        if (cellWriter == null)
+        {
+            cellWriter = new CellWriter(writer);
+        }
+        buildRowOutput(cellWriter, rs, columnCount, encoders);
+        cellWriter.writeRow();
+    }
+
+    /**
+     * Build up the response for a single row of data. This is done in the cell writer's buffer to avoid invalid XML
+     * output in the event of an error.
      * 
+     * @param cellWriter
+     *            The cell writer to build the row in
      * @param rs
      *            The ResultSet to extract data from
      * @param columnCount
      *            The number of columns in the result.
-     * @param dataTypes
-     *            A list of the data types for each column
-     * @return The text of the row to be output.
+     * @param encoders
+     *            The encoder for each column
      * @throws SQLException
      *             If the data cannot be read
      */
-    private String buildRowOutput(ResultSet rs, int columnCount, int[] dataTypes) throws SQLException
+    private void buildRowOutput(CellWriter cellWriter, ResultSet rs, int columnCount, ColumnEncoder[] encoders)
+            throws SQLException
     {
-        StringBuilder rowOutput = new StringBuilder("           <TR>");
+        cellWriter.discardRow();
+        cellWriter.append("           <TR>");
         for (int i = 1; i <= columnCount; i++)
         {
-            String value = getFieldValue(rs, dataTypes[i], i);
-            rowOutput.append("<TD>" + value + "</TD>");
+            cellWriter.append("<TD>");
+            encoders[i].appendTo(rs, i, cellWriter);
+            cellWriter.append("</TD>");
         }
-        rowOutput.append("</TR>\n");
-        return rowOutput.toString();
+        cellWriter.append("</TR>\n");
     }
 
     /**
@@ -245,34 +271,90 @@ public class VoTableResultsExtractor extends ResultsExtractor implements ResultS
         // Note: we could add further entries here such as a license entry.
         writer.append("<TABLE name=\"results\">\r\n");
         int columnCount = metaData.getColumnCount();
+        fieldDefs = new String[columnCount + 1];
         for (int i = 1; i <= columnCount; i++)
         {
-            String name = metaData.getColumnName(i).toLowerCase();
-            int type = metaData.getColumnType(i);
-            String schema = metaData.getSchemaName(i).toLowerCase();
-            if (StringUtils.isBlank(schema) && metaData instanceof PgResultSetMetaData)
-            {
-                schema = ((PgResultSetMetaData) metaData).getBaseSchemaName(i).toLowerCase();
-            }
-            String table = metaData.getTableName(i).toLowerCase();
-            String fieldDef = votableFieldMap.get("scs|" + name);
-            // using scs| because we are hard coding UCD1 values for scs (prefer UCD1.1 in the tables)
-            // If we get a table from postgres, lookup the field info.
-            if (fieldDef == null && StringUtils.isNotBlank(table))
-            {
-                fieldDef = votableFieldMap.get(schema + "|" + table + "|" + name);
-            }
-            // Provided in case no field definition can be found.
-            if (fieldDef == null)
-            {
-                fieldDef = getFieldDef(name, type, null);
-            }
+            String fieldDef = findFieldDef(votableFieldMap, metaData, i);
             writer.append(fieldDef);
+            fieldDefs[i] = fieldDef;
         }
         writer.append("<DATA>\r\n");
+        outputDataStart(metaData);
+    }
+
+    /**
+     * Finds the FIELD definition describing a result column, from the field map if the column is known or else from
+     * the column's SQL type.
+     * 
+     * @param votableFieldMap
+     *            The map of field definitions for the query.
+     * @param metaData
+     *            The result set metadata.
+     * @param columnIndex
+     *            The index of the column.
+     * @return The FIELD element for the column.
+     * @throws SQLException
+     *             If the metadata cannot be retrieved.
+     */
+    static String findFieldDef(Map<String, String> votableFieldMap, ResultSetMetaData metaData, int columnIndex)
+            throws SQLException
+    {
+        String name = metaData.getColumnName(columnIndex).toLowerCase();
+        String table = metaData.getTableName(columnIndex);
+        String fieldDef = votableFieldMap.get("scs|" + name);
+        // using scs| because we are hard coding UCD1 values for scs (prefer UCD1.1 in the tables)
+        // If we get a table from postgres, lookup the field info.
+        if (fieldDef == null && StringUtils.isNotBlank(table))
+        {
+            fieldDef = votableFieldMap.get(getColumnKey(metaData, columnIndex));
+        }
+        // Provided in case no field definition can be found.
+        if (fieldDef == null)
+        {
+            fieldDef = getFieldDef(name, metaData.getColumnType(columnIndex), null);
+        }
+        return fieldDef;
+    }
+
+    /**
+     * Starts the serialization of the rows inside the DATA element.
+     * 
+     * @param metaData
+     *            The result set metadata.
+     * @throws SQLException
+     *             If the metadata cannot be retrieved.
+     * @throws IOException
+     *             If the output cannot be written.
+     */
+    protected void outputDataStart(ResultSetMetaData metaData) throws SQLException, IOException
+    {
         writer.append("<TABLEDATA>\r\n");
     }
 
+    /**
+     * Ends the serialization of the rows inside the DATA element.
+     * 
+     * @throws IOException
+     *             If the output cannot be written.
+     */
+    protected void outputDataEnd() throws IOException
+    {
+        writer.append("</TABLEDATA>\r\n");
+    }
+
+    /**
+     * @return The FIELD definition output for each result column, indexed by column number.
+     */
+    protected String[] getFieldDefs()
+    {
+        return fieldDefs;
+    }
+
+    protected Writer getWriter()
+    {
+        return writer;
+    }
+
     private String getStylesheetDirective()
     {
         if ("none".equalsIgnoreCase(votableXsl))
@@ -395,7 +477,7 @@ public class VoTableResultsExtractor extends ResultsExtractor implements ResultS
     @Override
     protected void outputFooter(boolean overflow, String error) throws IOException
     {
-        writer.append("</TABLEDATA>\r\n");
+        outputDataEnd();
         writer.append("</DATA>\r\n");
         writer.append("</TABLE>\r\n");
         if (StringUtils.isNotBlank(error))
@@ -405,6 +487,11 @@ public class VoTableResultsExtractor extends ResultsExtractor implements ResultS
         else if (overflow)
         {
             writer.append("<INFO name=\"QUERY_STATUS\" value=\"OVERFLOW\" />\r\n");
+            if (getRowCountEstimate() != null)
+            {
+                writer.append("<INFO name=\"ROW_COUNT_ESTIMATE\" value=\"" + getRowCountEstimate()
+                        + "\">Estimated total number of rows matching the query</INFO>\r\n");
+            }
         }
         writer.append("</RESOURCE>\r\n");
         writer.append("</VOTABLE>\r\n");
@@ -521,6 +608,8 @@ public class VoTableResultsExtractor extends ResultsExtractor implements ResultS
         case "TIMESTAMP":
         case "TEXT":
         case "SPOLY":
+        case "SCIRCLE":
+        case "SPOINT":
             datatype = "char";
             break;
 
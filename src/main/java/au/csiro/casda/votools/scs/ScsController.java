@@ -53,6 +53,8 @@ public class ScsController
 
     private static final String CONTENT_DISPOSITION_HEADER_FORMAT = "attachment; filename=\"%s.%s\"";
 
+    private static final String SCS_CONTENT_TYPE = "text/xml;content=x-votable";
+
     @Autowired
     private ScsService scsService;
 
@@ -78,14 +80,19 @@ public class ScsController
         paramsMap.putAll(Utils.getAuthParams(request, scsService.trustAuthHeader(request)));
         try
         {
-            // all responses are in votable format
-            response.setContentType(OutputFormat.VOTABLE.getDefaultContentType());
+            // responses are in votable format unless JSON was requested
+            OutputFormat outputFormat = OutputFormat.findResponseFormat(paramsMap.get(VoKeys.RESPONSE_FORMAT));
             // set this header as a hint to the browser for the filename and extension
             response.setHeader(CONTENT_DISPOSITION, String.format(CONTENT_DISPOSITION_HEADER_FORMAT, RESULTS_FILENAME,
-                    OutputFormat.VOTABLE.getFileExtension()));
-            response.setContentType("text/xml;content=x-votable");
+                    outputFormat.getFileExtension()));
+            response.setContentType(outputFormat == OutputFormat.JSON ? outputFormat.getDefaultContentType()
+                    : SCS_CONTENT_TYPE);
             PrintWriter writer = response.getWriter();
-            scsService.processQuery(writer, paramsMap);
+            if (!scsService.processQuery(writer, paramsMap) && outputFormat == OutputFormat.JSON)
+            {
+                // errors are always reported as a VOTable
+                response.setContentType(SCS_CONTENT_TYPE);
+            }
         }
         catch (IOException e)
         {
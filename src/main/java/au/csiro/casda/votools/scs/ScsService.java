@@ -5,7 +5,12 @@ import java.io.Writer;
 import java.time.Duration;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -21,7 +26,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.context.annotation.ScopedProxyMode;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.SqlProvider;
 import org.springframework.stereotype.Service;
 
 import au.csiro.casda.logging.CasdaFormatter;
@@ -30,11 +37,14 @@ import au.csiro.casda.votools.config.Configurable;
 import au.csiro.casda.votools.config.Configuration;
 import au.csiro.casda.votools.config.ConfigurationException;
 import au.csiro.casda.votools.config.ConfigurationRegistry;
+import au.csiro.casda.votools.config.ConnectionPool;
 import au.csiro.casda.votools.config.EndPoint;
+import au.csiro.casda.votools.config.SessionProfile;
 import au.csiro.casda.votools.jpa.TapColumn;
 import au.csiro.casda.votools.jpa.TapTable;
 import au.csiro.casda.votools.jpa.repository.VoTableRepositoryService;
 import au.csiro.casda.votools.logging.CasdaVoToolsEvents;
+import au.csiro.casda.votools.result.JsonResultsExtractor;
 import au.csiro.casda.votools.result.OutputFormat;
 import au.csiro.casda.votools.result.ResultsExtractor;
 import au.csiro.casda.votools.result.VoTableResultsExtractor;
@@ -105,6 +115,9 @@ public class ScsService extends Configurable
 
     private JdbcTemplate jdbcTemplate;
 
+    /** Database session settings applied to each cone search */
+    private Map<String, String> sessionSettings = Collections.emptyMap();
+
     private float maxRadius;
 
     private int maxRecords;
@@ -181,7 +194,7 @@ public class ScsService extends Configurable
         {
             authTrustedIp = config.getList("auth.trusted.ip");
 
-            setJdbcTemplate(config.gtDao().getTemplate());
+            setJdbcTemplate(config.gtDao().getTemplate(ConnectionPool.SYNC));
             EndPoint scsEndPoint = config.getEndPoint("SCS");
             if (scsEndPoint == null)
             {
@@ -189,6 +202,7 @@ public class ScsService extends Configurable
             }
             maxRadius = config.getEndPoint("SCS").getFloat("max.radius", DEFAULT_MAX_RADIUS);
             maxRecords = config.getEndPoint("SCS").getInt("max.records", DEFAULT_MAX_RECORDS);
+            sessionSettings = SessionProfile.SCS.getSettings(config);
             ready = true;
             try
             {
@@ -385,7 +399,7 @@ public class ScsService extends Configurable
 
         String statement = String.format(queryFormat, fields, tableName, raName, decName);
 
-        jdbcTemplate.query(statement, new Object[] { ra, dec, sr }, extractor);
+        jdbcTemplate.query(new ScsStatementCreator(statement, sessionSettings, ra, dec, sr), extractor);
 
         ZonedDateTime finished = ZonedDateTime.now(ZoneId.of("UTC"));
 
@@ -423,6 +437,11 @@ public class ScsService extends Configurable
     private ResultSetExtractor<Boolean> getExtractor(String formatStr, Writer writer, int maxrecs,
             Map<String, String> votableFieldMap)
     {
+        if (OutputFormat.findMatchingFormat(formatStr) == OutputFormat.JSON)
+        {
+            return new JsonResultsExtractor(writer, maxrecs, votableFieldMap, config.get(ConfigValueKeys.APP_BASE_URL),
+                    null);
+        }
         ResultSetExtractor<Boolean> extractor = new VoTableResultsExtractor(writer, maxrecs, votableFieldMap,
                 CASDA_SCS_RESULT_NAME, config.get(ConfigValueKeys.APP_BASE_URL));
         return extractor;
@@ -550,8 +569,8 @@ public class ScsService extends Configurable
      */
     public boolean processQuery(Writer writer, Map<String, String> paramsMap) throws InterruptedException, IOException
     {
-        // only one format for SCS
-        String format = OutputFormat.VOTABLE.getDefaultContentType();
+        // SCS results are VOTable unless JSON is requested
+        String format = OutputFormat.findResponseFormat(paramsMap.get(VoKeys.RESPONSE_FORMAT)).getDefaultContentType();
 
         ZonedDateTime start = ZonedDateTime.now();
 
@@ -634,4 +653,67 @@ public class ScsService extends Configurable
         this.configRegistry = configRegistry;
     }
 
+
+    /**
+     * Creates the cone search statement, applying the SCS session profile to the query's transaction first.
+     */
+    static class ScsStatementCreator implements PreparedStatementCreator, SqlProvider
+    {
+        private static final int RESULT_FETCH_SIZE_ROWS = 1000;
+
+        private final String query;
+
+        private final Map<String, String> sessionSettings;
+
+        private final double[] position;
+
+        /**
+         * Create a new ScsStatementCreator instance for a cone search.
+         * 
+         * @param query
+         *            The cone search query, with placeholders for the ra, dec and radius.
+         * @param sessionSettings
+         *            The database settings to apply for the query's transaction.
+         * @param ra
+         *            The right ascension of the cone centre in degrees.
+         * @param dec
+         *            The declination of the cone centre in degrees.
+         * @param sr
+         *            The search radius in degrees.
+         */
+        ScsStatementCreator(String query, Map<String, String> sessionSettings, double ra, double dec, double sr)
+        {
+            this.query = query;
+            this.sessionSettings = sessionSettings;
+            this.position = new double[] { ra, dec, sr };
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public String getSql()
+        {
+            return query;
+        }
+
+        double[] getPosition()
+        {
+            return position;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public PreparedStatement createPreparedStatement(Connection con) throws SQLException
+        {
+            con.setAutoCommit(false);
+            SessionProfile.apply(con, sessionSettings);
+            PreparedStatement preparedStatement = con.prepareStatement(query);
+            for (int i = 0; i < position.length; i++)
+            {
+                preparedStatement.setDouble(i + 1, position[i]);
+            }
+            preparedStatement.setFetchDirection(ResultSet.FETCH_FORWARD);
+            preparedStatement.setFetchSize(RESULT_FETCH_SIZE_ROWS);
+            return preparedStatement;
+        }
+    }
 }
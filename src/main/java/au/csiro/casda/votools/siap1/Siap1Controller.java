@@ -21,6 +21,7 @@ import au.csiro.casda.services.dto.MessageDTO;
 import au.csiro.casda.votools.config.ConfigurationException;
 import au.csiro.casda.votools.result.OutputFormat;
 import au.csiro.casda.votools.utils.Utils;
+import au.csiro.casda.votools.utils.VoKeys;
 
 /*
  * #%L
@@ -75,6 +76,7 @@ public class Siap1Controller
             Map<String, String[]> paramsMap = Utils.buildParamsMap(request.getParameterMap());
 
             // Unless they have asked for it in a particular format send the response back in line.
+            OutputFormat outputFormat = OutputFormat.VOTABLE;
             if (siap1Service.isMetadataRequest(paramsMap))
             {
                 response.setContentType("text/xml");
@@ -82,16 +84,22 @@ public class Siap1Controller
             else if (paramsMap.containsKey("responseformat")
                     || RequestMethod.PUT.toString().equals(request.getMethod()))
             {
-                response.setContentType(OutputFormat.VOTABLE.getDefaultContentType());
+                String[] responseFormat = paramsMap.get(VoKeys.RESPONSE_FORMAT);
+                outputFormat = OutputFormat.findResponseFormat(responseFormat == null ? null : responseFormat[0]);
+                response.setContentType(outputFormat.getDefaultContentType());
                 // set this header as a hint to the browser for the filename and extension
                 response.setHeader(CONTENT_DISPOSITION, String.format(CONTENT_DISPOSITION_HEADER_FORMAT,
-                        RESULTS_FILENAME, OutputFormat.VOTABLE.getFileExtension()));
+                        RESULTS_FILENAME, outputFormat.getFileExtension()));
             }
             else
             {
                 response.setContentType("text/xml");
             }
-            siap1Service.processQuery(writer, paramsMap);
+            if (!siap1Service.processQuery(writer, paramsMap) && outputFormat == OutputFormat.JSON)
+            {
+                // errors are always reported as a VOTable
+                response.setContentType(OutputFormat.VOTABLE.getDefaultContentType());
+            }
         }
         catch (IOException e)
         {
@@ -415,7 +415,10 @@ public class Siap1Service extends Configurable
             tapParams.put(VoKeys.STR_KEY_ADQL_QUERY, query);
             tapParams.put(VoKeys.STR_KEY_SIAP_QUERY, buildSiap1QueryText(paramsMap));
             tapParams.put(TapService.STR_KEY_LANG, TapService.STR_ADQL_2_0);
-            tapParams.put(TapService.STR_KEY_FORMAT, OutputFormat.VOTABLE.getDefaultContentType());
+            String[] responseFormat = paramsMap.get(VoKeys.RESPONSE_FORMAT);
+            tapParams.put(TapService.STR_KEY_FORMAT, OutputFormat
+                    .findResponseFormat(ArrayUtils.isEmpty(responseFormat) ? null : responseFormat[0])
+                    .getDefaultContentType());
             tapParams.put(VoKeys.VO_TABLE_HEADING, Siap1Service.CASDA_SIAP1_RESULT_NAME);
             tapParams.put(VoKeys.USER_ID, userId);
             tapParams.put(VoKeys.USER_PROJECTS,
@@ -19,6 +19,7 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import au.csiro.casda.votools.config.ConfigurationException;
 import au.csiro.casda.votools.result.OutputFormat;
 import au.csiro.casda.votools.utils.Utils;
+import au.csiro.casda.votools.utils.VoKeys;
 
 /*
  * #%L
@@ -88,18 +89,25 @@ public class Siapv2Controller
                     Utils.getAuthParams(request, siapv2Service.trustAuthHeader(request)));
 
             // Unless they have asked for it in a particular format send the response back in line.
+            OutputFormat outputFormat = OutputFormat.VOTABLE;
             if (paramsMap.containsKey("responseformat") || RequestMethod.PUT.toString().equals(request.getMethod()))
             {
-                response.setContentType(OutputFormat.VOTABLE.getDefaultContentType());
+                String[] responseFormat = paramsMap.get(VoKeys.RESPONSE_FORMAT);
+                outputFormat = OutputFormat.findResponseFormat(responseFormat == null ? null : responseFormat[0]);
+                response.setContentType(outputFormat.getDefaultContentType());
                 // set this header as a hint to the browser for the filename and extension
                 response.setHeader(CONTENT_DISPOSITION, String.format(CONTENT_DISPOSITION_HEADER_FORMAT,
-                        RESULTS_FILENAME, OutputFormat.VOTABLE.getFileExtension()));
+                        RESULTS_FILENAME, outputFormat.getFileExtension()));
             }
             else
             {
                 response.setContentType("text/xml");
             }
-            siapv2Service.processQuery(writer, paramsMap);
+            if (!siapv2Service.processQuery(writer, paramsMap) && outputFormat == OutputFormat.JSON)
+            {
+                // errors are always reported as a VOTable
+                response.setContentType(OutputFormat.VOTABLE.getDefaultContentType());
+            }
         }
         catch (IOException e)
         {
@@ -103,6 +103,7 @@ public class SsapController
                     Utils.getAuthParams(request, ssapService.trustAuthHeader(request)));
 
             // Unless they have asked for it in a particular format send the response back in line.
+            OutputFormat outputFormat = OutputFormat.VOTABLE;
             if (ssapService.isMetadataRequest(paramsMap))
             {
                 response.setContentType("text/xml");
@@ -110,16 +111,22 @@ public class SsapController
             else if (paramsMap.containsKey("responseformat")
                     || RequestMethod.PUT.toString().equals(request.getMethod()))
             {
-                response.setContentType(OutputFormat.VOTABLE.getDefaultContentType());
+                String[] responseFormat = paramsMap.get(VoKeys.RESPONSE_FORMAT);
+                outputFormat = OutputFormat.findResponseFormat(responseFormat == null ? null : responseFormat[0]);
+                response.setContentType(outputFormat.getDefaultContentType());
                 // set this header as a hint to the browser for the filename and extension
                 response.setHeader(CONTENT_DISPOSITION, String.format(CONTENT_DISPOSITION_HEADER_FORMAT,
-                        RESULTS_FILENAME, OutputFormat.VOTABLE.getFileExtension()));
+                        RESULTS_FILENAME, outputFormat.getFileExtension()));
             }
             else
             {
                 response.setContentType("text/xml");
             }
-            ssapService.processQuery(writer, paramsMap);
+            if (!ssapService.processQuery(writer, paramsMap) && outputFormat == OutputFormat.JSON)
+            {
+                // errors are always reported as a VOTable
+                response.setContentType(OutputFormat.VOTABLE.getDefaultContentType());
+            }
         }
         catch (IOException e)
         {
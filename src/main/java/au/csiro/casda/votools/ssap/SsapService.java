@@ -356,7 +356,10 @@ public class SsapService extends Configurable
             tapParams.put(VoKeys.STR_KEY_ADQL_QUERY, query);
             tapParams.put(VoKeys.STR_KEY_SSAP_QUERY, buildSsapQueryText(paramsMap));
             tapParams.put(TapService.STR_KEY_LANG, TapService.STR_ADQL_2_0);
-            tapParams.put(TapService.STR_KEY_FORMAT, OutputFormat.VOTABLE.getDefaultContentType());
+            String[] responseFormat = paramsMap.get(VoKeys.RESPONSE_FORMAT);
+            tapParams.put(TapService.STR_KEY_FORMAT, OutputFormat
+                    .findResponseFormat(ArrayUtils.isEmpty(responseFormat) ? null : responseFormat[0])
+                    .getDefaultContentType());
             tapParams.put(VoKeys.VO_TABLE_HEADING, SsapService.CASDA_SSAP_RESULT_NAME);
             tapParams.put(VoKeys.USER_ID, userId);
             tapParams.put(VoKeys.USER_PROJECTS,
@@ -0,0 +1,45 @@
+package au.csiro.casda.votools.tap;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Thrown when a synchronous TAP query is too expensive to run straight away and the client has agreed to it being run
+ * as an asynchronous job instead. Nothing has been written to the response when this is thrown.
+ * 
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class AsyncPromotionException extends RuntimeException
+{
+    private static final long serialVersionUID = -1L;
+
+    private final double cost;
+
+    /**
+     * Constructor
+     * 
+     * @param cost
+     *            the estimated cost of the query
+     * @param maxCost
+     *            the most a synchronous query may cost
+     */
+    public AsyncPromotionException(double cost, double maxCost)
+    {
+        super(String.format("Query cost %.0f is over the synchronous limit of %.0f", cost, maxCost));
+        this.cost = cost;
+    }
+
+    public double getCost()
+    {
+        return cost;
+    }
+}
@@ -0,0 +1,196 @@
+package au.csiro.casda.votools.tap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * A bounded, least recently used cache of ADQL queries which have already been parsed, checked and translated to
+ * SQL. Queries are keyed on their normalised text together with the authorisation context they were translated for,
+ * as the authorisation constraints are part of the generated SQL.
+ * <p>
+ * Entries also expire a fixed time after they were created. The embargo constraints embed the time the query was
+ * translated, so a stale entry can only ever hide data that has since been released, never expose embargoed data.
+ * <p>
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class CompiledQueryCache
+{
+    /** The name the cache statistics are published under. */
+    public static final String METRIC_NAME = "tap.compiled.query";
+
+    private final Cache<Key, CompiledTapQuery> cache;
+
+    /**
+     * Create a new cache and register its hit and miss statistics with the global metrics registry.
+     * 
+     * @param maxSize
+     *            the maximum number of queries to hold
+     * @param ttlSeconds
+     *            the time an entry may be used for after it is created, in seconds
+     */
+    public CompiledQueryCache(long maxSize, long ttlSeconds)
+    {
+        cache = CacheBuilder.newBuilder().maximumSize(maxSize).expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats().build();
+        GuavaCacheMetrics.monitor(Metrics.globalRegistry, cache, METRIC_NAME);
+    }
+
+    /**
+     * Look up a previously compiled query.
+     * 
+     * @param adql
+     *            the ADQL query text
+     * @param isAdmin
+     *            true if the query was translated without authorisation constraints
+     * @param projectIds
+     *            the projects the user has access to
+     * @return the compiled query, or null if it is not in the cache
+     */
+    public CompiledTapQuery get(String adql, boolean isAdmin, List<Long> projectIds)
+    {
+        return cache.getIfPresent(new Key(adql, isAdmin, projectIds));
+    }
+
+    /**
+     * Add a compiled query to the cache.
+     * 
+     * @param adql
+     *            the ADQL query text
+     * @param isAdmin
+     *            true if the query was translated without authorisation constraints
+     * @param projectIds
+     *            the projects the user has access to
+     * @param compiledQuery
+     *            the successfully compiled query
+     */
+    public void put(String adql, boolean isAdmin, List<Long> projectIds, CompiledTapQuery compiledQuery)
+    {
+        cache.put(new Key(adql, isAdmin, projectIds), compiledQuery);
+    }
+
+    /**
+     * Drop all cached queries, e.g. because the TAP metadata they were checked against has changed.
+     */
+    public void clear()
+    {
+        cache.invalidateAll();
+    }
+
+    /**
+     * @return the number of queries currently held
+     */
+    public long size()
+    {
+        return cache.size();
+    }
+
+    /**
+     * Normalise an ADQL query for use as a cache key. Runs of whitespace outside of quoted strings and identifiers are
+     * collapsed to a single space and leading and trailing whitespace is removed. A comment runs to the end of its
+     * line, so the line breaks matter from the first comment on and the rest of the query is kept as it is.
+     * 
+     * @param adql
+     *            the ADQL query text
+     * @return the normalised text
+     */
+    static String normalise(String adql)
+    {
+        StringBuilder normalised = new StringBuilder(adql.length());
+        char quote = 0;
+        boolean pendingSpace = false;
+        for (int i = 0; i < adql.length(); i++)
+        {
+            char c = adql.charAt(i);
+            if (quote == 0 && Character.isWhitespace(c))
+            {
+                pendingSpace = normalised.length() > 0;
+                continue;
+            }
+            if (pendingSpace)
+            {
+                normalised.append(' ');
+                pendingSpace = false;
+            }
+            if (quote == 0 && c == '-' && adql.startsWith("-", i + 1))
+            {
+                normalised.append(adql, i, adql.length());
+                break;
+            }
+            if (quote == 0 && (c == '\'' || c == '"'))
+            {
+                quote = c;
+            }
+            else if (c == quote)
+            {
+                // a doubled quote is an escaped quote and leaves us inside the string
+                quote = 0;
+            }
+            normalised.append(c);
+        }
+        return normalised.toString();
+    }
+
+    /**
+     * The cache key - the normalised query and the authorisation context it was translated for.
+     */
+    private static final class Key
+    {
+        private final String adql;
+
+        private final boolean isAdmin;
+
+        private final List<Long> projectIds;
+
+        Key(String adql, boolean isAdmin, List<Long> projectIds)
+        {
+            this.adql = normalise(adql);
+            this.isAdmin = isAdmin;
+            // admins are not restricted by project, and the order of the user's projects does not matter
+            this.projectIds = isAdmin || projectIds == null ? Collections.emptyList()
+                    : new ArrayList<>(new TreeSet<>(projectIds));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(adql, isAdmin, projectIds);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (!(obj instanceof Key))
+            {
+                return false;
+            }
+            Key other = (Key) obj;
+            return isAdmin == other.isAdmin && adql.equals(other.adql) && projectIds.equals(other.projectIds);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package au.csiro.casda.votools.tap;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+
+import adql.query.ADQLQuery;
+import au.csiro.casda.votools.jpa.TapTable;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * The result of compiling an ADQL query for a particular user: the parsed query with the user's authorisation
+ * constraints added, the equivalent SQL and the TAP tables the query reads from. If the query could not be compiled,
+ * the errors are held instead.
+ * <p>
+ * Instances are shared between requests (see {@link CompiledQueryCache}) so the parsed query must not be modified.
+ * <p>
+ * The SQL may include parameters for the ids of the user's projects (see {@link ProjectIdsConstraint}), these are
+ * supplied to the statement by {@link #setParameters(PreparedStatement)}.
+ * <p>
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public final class CompiledTapQuery
+{
+    private final String adql;
+
+    private final ADQLQuery query;
+
+    private final String sql;
+
+    /** The number of rows requested with TOP in the ADQL, or -1 if there is no TOP */
+    private final int top;
+
+    private final List<TapTable> tables;
+
+    private final String singleTableName;
+
+    private final TapTable singleTable;
+
+    private final int projectIdsParameterCount;
+
+    private final List<Long> projectIds;
+
+    private final List<String> errors;
+
+    private final Throwable cause;
+
+    /**
+     * Create a successfully compiled query.
+     * 
+     * @param adql
+     *            the ADQL query text
+     * @param query
+     *            the parsed query, including any authorisation constraints
+     * @param sql
+     *            the SQL equivalent of the query
+     * @param tables
+     *            the TAP tables referenced by the query, including in sub queries
+     * @param singleTableName
+     *            the name of the table if the query reads from only one table, otherwise blank
+     * @param singleTable
+     *            the TAP table if the query reads from only one table, otherwise null
+     */
+    public CompiledTapQuery(String adql, ADQLQuery query, String sql, List<TapTable> tables, String singleTableName,
+            TapTable singleTable)
+    {
+        this(adql, query, sql, tables, singleTableName, singleTable, 0, null);
+    }
+
+    /**
+     * Create a successfully compiled query whose SQL has project id array parameters.
+     * 
+     * @param adql
+     *            the ADQL query text
+     * @param query
+     *            the parsed query, including any authorisation constraints
+     * @param sql
+     *            the SQL equivalent of the query
+     * @param tables
+     *            the TAP tables referenced by the query, including in sub queries
+     * @param singleTableName
+     *            the name of the table if the query reads from only one table, otherwise blank
+     * @param singleTable
+     *            the TAP table if the query reads from only one table, otherwise null
+     * @param projectIdsParameterCount
+     *            the number of project id array parameters in the SQL
+     * @param projectIds
+     *            the ids of the projects the user has access to, may be null if the user has none
+     */
+    public CompiledTapQuery(String adql, ADQLQuery query, String sql, List<TapTable> tables, String singleTableName,
+            TapTable singleTable, int projectIdsParameterCount, List<Long> projectIds)
+    {
+        this.adql = adql;
+        this.query = query;
+        this.sql = sql;
+        this.top = query != null && query.getSelect().hasLimit() ? query.getSelect().getLimit() : -1;
+        this.tables = Collections.unmodifiableList(new ArrayList<>(tables));
+        this.singleTableName = singleTableName;
+        this.singleTable = singleTable;
+        this.projectIdsParameterCount = projectIdsParameterCount;
+        this.projectIds = projectIds == null ? Collections.emptyList()
+                : Collections.unmodifiableList(new ArrayList<>(projectIds));
+        this.errors = Collections.emptyList();
+        this.cause = null;
+    }
+
+    private CompiledTapQuery(String adql, List<String> errors, Throwable cause)
+    {
+        this.adql = adql;
+        this.query = null;
+        this.sql = null;
+        this.top = -1;
+        this.tables = Collections.emptyList();
+        this.singleTableName = StringUtils.EMPTY;
+        this.singleTable = null;
+        this.projectIdsParameterCount = 0;
+        this.projectIds = Collections.emptyList();
+        this.errors = Collections.unmodifiableList(new ArrayList<>(errors));
+        this.cause = cause;
+    }
+
+    /**
+     * Create a record of a query which could not be compiled.
+     * 
+     * @param adql
+     *            the ADQL query text
+     * @param errors
+     *            the problems found with the query
+     * @param cause
+     *            the exception raised while compiling the query
+     * @return the failed query
+     */
+    public static CompiledTapQuery failed(String adql, List<String> errors, Throwable cause)
+    {
+        return new CompiledTapQuery(adql, errors, cause);
+    }
+
+    /**
+     * @return true if the query compiled without errors
+     */
+    public boolean isValid()
+    {
+        return errors.isEmpty();
+    }
+
+    public String getAdql()
+    {
+        return adql;
+    }
+
+    public ADQLQuery getQuery()
+    {
+        return query;
+    }
+
+    public String getSql()
+    {
+        return sql;
+    }
+
+    /**
+     * Get the SQL to be run when no more than a set number of rows will be read from the results. A limit is added so
+     * that the database can plan for only the rows needed, e.g. with a top-N sort or by stopping an index scan early. A
+     * smaller TOP in the ADQL is left as is.
+     * 
+     * @param maxRows
+     *            the most rows that will be read, usually one more than the rows to be returned so that it can be
+     *            seen if the results were cut off
+     * @return the SQL with a limit of at most maxRows
+     */
+    public String getSql(long maxRows)
+    {
+        if (sql == null || (top >= 0 && top <= maxRows))
+        {
+            return sql;
+        }
+        String limit = "\nLimit " + maxRows;
+        String topLimit = "\nLimit " + top;
+        if (top >= 0 && sql.endsWith(topLimit))
+        {
+            return sql.substring(0, sql.length() - topLimit.length()) + limit;
+        }
+        return sql + limit;
+    }
+
+    public int getTop()
+    {
+        return top;
+    }
+
+    public List<TapTable> getTables()
+    {
+        return tables;
+    }
+
+    public String getSingleTableName()
+    {
+        return singleTableName;
+    }
+
+    public TapTable getSingleTable()
+    {
+        return singleTable;
+    }
+
+    public int getProjectIdsParameterCount()
+    {
+        return projectIdsParameterCount;
+    }
+
+    public List<Long> getProjectIds()
+    {
+        return projectIds;
+    }
+
+    /**
+     * Supply the user's project ids to each of the project id parameters of a statement prepared from the SQL.
+     * 
+     * @param preparedStatement
+     *            the statement prepared from {@link #getSql()}
+     * @throws SQLException
+     *             if the parameters could not be set
+     */
+    public void setParameters(PreparedStatement preparedStatement) throws SQLException
+    {
+        if (projectIdsParameterCount == 0)
+        {
+            return;
+        }
+        Array projectIdArray =
+                preparedStatement.getConnection().createArrayOf("bigint", projectIds.toArray(new Long[0]));
+        for (int i = 1; i <= projectIdsParameterCount; i++)
+        {
+            preparedStatement.setArray(i, projectIdArray);
+        }
+    }
+
+    public List<String> getErrors()
+    {
+        return errors;
+    }
+
+    /**
+     * @return all errors as a single message, one error per line
+     */
+    public String getErrorMessage()
+    {
+        return StringUtils.join(errors, StringUtils.LF);
+    }
+
+    public Throwable getCause()
+    {
+        return cause;
+    }
+}
@@ -0,0 +1,94 @@
+package au.csiro.casda.votools.tap;
+
+import adql.query.ADQLIterator;
+import adql.query.ADQLObject;
+import adql.query.NullADQLIterator;
+import adql.query.constraint.ADQLConstraint;
+import adql.query.operand.ADQLColumn;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * A constraint limiting a project_id column to the projects a user is a member of, where the list of project ids is
+ * supplied as a single array parameter when the query is run. This keeps the text of the query the same no matter how
+ * many projects the user has access to.
+ * <p>
+ * This is not part of ADQL so can only be added to a query after it has been parsed and checked. It is translated to
+ * SQL by {@link TapSqlTranslator}.
+ * <p>
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class ProjectIdsConstraint implements ADQLConstraint
+{
+    private final ADQLColumn column;
+
+    /**
+     * Create a new ProjectIdsConstraint instance.
+     * 
+     * @param column
+     *            the project id column to be constrained
+     */
+    public ProjectIdsConstraint(ADQLColumn column)
+    {
+        this.column = column;
+    }
+
+    public ADQLColumn getColumn()
+    {
+        return column;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see adql.query.ADQLObject#getName()
+     */
+    @Override
+    public String getName()
+    {
+        return "= ANY";
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see adql.query.ADQLObject#toADQL()
+     */
+    @Override
+    public String toADQL()
+    {
+        return column.toADQL() + " = ANY(?)";
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see adql.query.ADQLObject#getCopy()
+     */
+    @Override
+    public ADQLObject getCopy() throws Exception
+    {
+        return new ProjectIdsConstraint((ADQLColumn) column.getCopy());
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see adql.query.ADQLObject#adqlIterator()
+     */
+    @Override
+    public ADQLIterator adqlIterator()
+    {
+        return new NullADQLIterator();
+    }
+}
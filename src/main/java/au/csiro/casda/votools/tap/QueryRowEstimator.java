@@ -0,0 +1,185 @@
+package au.csiro.casda.votools.tap;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import au.csiro.casda.votools.result.RowCountEstimator;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Estimates the total number of rows a compiled TAP query would return, either from the query planner's estimate or
+ * by counting the rows up to a limit.
+ * <p>
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class QueryRowEstimator implements RowCountEstimator
+{
+    /**
+     * The ways the total rows can be estimated.
+     */
+    public enum Method
+    {
+        /** No estimate is made. */
+        NONE,
+
+        /** Use the row estimate of the query plan. Cheap, but can be well out. */
+        EXPLAIN,
+
+        /** Count the rows, stopping at a limit. Accurate below the limit, but the query is run a second time. */
+        COUNT;
+
+        /**
+         * Find the method matching a configuration value, ignoring case.
+         * 
+         * @param value
+         *            The configured value.
+         * @return The matching method, NONE if the value is blank or not recognised.
+         */
+        public static Method fromValue(String value)
+        {
+            for (Method method : values())
+            {
+                if (method.name().equalsIgnoreCase(StringUtils.trimToEmpty(value)))
+                {
+                    return method;
+                }
+            }
+            return NONE;
+        }
+    }
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final CompiledTapQuery compiledQuery;
+
+    private final Method method;
+
+    private final long countLimit;
+
+    /**
+     * Create a new QueryRowEstimator instance.
+     * 
+     * @param compiledQuery
+     *            The query to be estimated.
+     * @param method
+     *            The way to make the estimate.
+     * @param countLimit
+     *            The most rows that will be counted when using the COUNT method.
+     */
+    public QueryRowEstimator(CompiledTapQuery compiledQuery, Method method, long countLimit)
+    {
+        this.compiledQuery = compiledQuery;
+        this.method = method;
+        this.countLimit = countLimit;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Long estimateRowCount(Connection connection) throws SQLException
+    {
+        switch (method)
+        {
+        case EXPLAIN:
+            String plan = querySingleValue(connection, "EXPLAIN (FORMAT JSON) " + compiledQuery.getSql());
+            return plan == null ? null : getPlanRows(plan);
+
+        case COUNT:
+            String count = querySingleValue(connection,
+                    "SELECT count(*) FROM (" + compiledQuery.getSql(countLimit) + ") AS counted_rows");
+            return count == null ? null : Long.valueOf(count);
+
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Estimate the cost of running the query when no more than a set number of rows will be read, from the query
+     * planner, in the planner's arbitrary units. The limit is planned as well, as it can make a sorted query much
+     * cheaper.
+     * 
+     * @param connection
+     *            The connection to plan the query on.
+     * @param maxRows
+     *            The most rows that will be read from the results.
+     * @return The total cost of the query plan, or null if the plan could not be read.
+     * @throws SQLException
+     *             If the query could not be planned.
+     */
+    public Double estimatePlanCost(Connection connection, long maxRows) throws SQLException
+    {
+        String plan = querySingleValue(connection, "EXPLAIN (FORMAT JSON) " + compiledQuery.getSql(maxRows));
+        return plan == null ? null : getPlanCost(plan);
+    }
+
+    private String querySingleValue(Connection connection, String sql) throws SQLException
+    {
+        try (PreparedStatement statement = connection.prepareStatement(sql))
+        {
+            compiledQuery.setParameters(statement);
+            try (ResultSet rs = statement.executeQuery())
+            {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    /**
+     * Read the estimated number of rows from a JSON format query plan, as produced by EXPLAIN (FORMAT JSON).
+     * 
+     * @param plan
+     *            The query plan.
+     * @return The number of rows the planner expects the query to return, or null if the plan could not be read.
+     */
+    static Long getPlanRows(String plan)
+    {
+        try
+        {
+            JsonNode planRows = OBJECT_MAPPER.readTree(plan).path(0).path("Plan").path("Plan Rows");
+            return planRows.isNumber() ? planRows.asLong() : null;
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Read the estimated total cost from a JSON format query plan, as produced by EXPLAIN (FORMAT JSON).
+     * 
+     * @param plan
+     *            The query plan.
+     * @return The planner's total cost for the query, or null if the plan could not be read.
+     */
+    static Double getPlanCost(String plan)
+    {
+        try
+        {
+            JsonNode totalCost = OBJECT_MAPPER.readTree(plan).path(0).path("Plan").path("Total Cost");
+            return totalCost.isNumber() ? totalCost.asDouble() : null;
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+}
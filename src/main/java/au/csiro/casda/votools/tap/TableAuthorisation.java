@@ -0,0 +1,81 @@
+package au.csiro.casda.votools.tap;
+
+import org.joda.time.DateTime;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * The access rules for a TAP table which requires release, worked out once when the TAP metadata is loaded so that
+ * the authorisation constraints can be added to a query without searching the metadata or the database.
+ * <p>
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public final class TableAuthorisation
+{
+    private final String projectCode;
+
+    private final boolean releasedDateColumn;
+
+    private final DateTime releaseDate;
+
+    private final Long owningProjectId;
+
+    private final boolean owningProjectResolved;
+
+    /**
+     * @param projectCode
+     *            the code of the project owning the table, being its TAP schema name
+     * @param releasedDateColumn
+     *            true if access is controlled per row by a released_date column
+     * @param releaseDate
+     *            the date the whole table is released, may be null
+     * @param owningProjectId
+     *            the id of the project owning the table, null if there is no such project
+     * @param owningProjectResolved
+     *            false if the owning project could not be looked up and must be found at query time
+     */
+    public TableAuthorisation(String projectCode, boolean releasedDateColumn, DateTime releaseDate,
+            Long owningProjectId, boolean owningProjectResolved)
+    {
+        this.projectCode = projectCode;
+        this.releasedDateColumn = releasedDateColumn;
+        this.releaseDate = releaseDate;
+        this.owningProjectId = owningProjectId;
+        this.owningProjectResolved = owningProjectResolved;
+    }
+
+    public String getProjectCode()
+    {
+        return projectCode;
+    }
+
+    public boolean hasReleasedDateColumn()
+    {
+        return releasedDateColumn;
+    }
+
+    public DateTime getReleaseDate()
+    {
+        return releaseDate;
+    }
+
+    public Long getOwningProjectId()
+    {
+        return owningProjectId;
+    }
+
+    public boolean isOwningProjectResolved()
+    {
+        return owningProjectResolved;
+    }
+}
@@ -5,13 +5,22 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
+import java.time.Instant;
+import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
@@ -19,25 +28,34 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.io.Charsets;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataAccessException;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.View;
 
 import adql.parser.ParseException;
 import au.csiro.casda.services.dto.Message.MessageCode;
 import au.csiro.casda.services.dto.MessageDTO;
 import au.csiro.casda.votools.config.ConfigurationException;
 import au.csiro.casda.votools.result.OutputFormat;
+import au.csiro.casda.votools.result.ResultStreamWriter;
 import au.csiro.casda.votools.utils.Utils;
 import au.csiro.casda.votools.utils.VoKeys;
+import au.csiro.casda.votools.uws.JobListWriter;
+import au.csiro.casda.votools.uws.PhaseChangeObserver;
 import au.csiro.casda.votools.uws.UWServiceInterface;
 import uws.UWSException;
 import uws.UWSToolBox;
+import uws.job.ExecutionPhase;
+import uws.job.UWSJob;
 
 /*
  * #%L
@@ -66,6 +84,16 @@ public class TapController
 
     private static final String CONTENT_DISPOSITION_HEADER_FORMAT = "attachment; filename=\"%s.%s\"";
 
+    private static final String PHASE_RESOURCE = "/phase";
+
+    private static final String STR_KEY_WAIT = "wait";
+
+    private static final String STR_KEY_PHASE = "phase";
+
+    private static final String STR_KEY_AFTER = "after";
+
+    private static final String STR_KEY_LAST = "last";
+
     @Autowired
     private UWServiceInterface uwService;
 
@@ -95,7 +123,7 @@ public class TapController
         try
         {
             String requestParam = paramsMap.get("request");
-            if ("doQuery".equals(requestParam))
+            if ("doQuery".equals(requestParam) || TapService.REQUEST_VALIDATE_QUERY.equals(requestParam))
             {
                 List<UploadedTable> uploadParams;
                 try
@@ -128,13 +156,23 @@ public class TapController
                             outputFormat.getFileExtension()));
                 }
 
-                PrintWriter writer = response.getWriter();
-                if (!tapService.processQuery(writer, paramsMap, null, uploadParams))
+                // results are encoded straight to the byte stream, which binary formats also need
+                ResultStreamWriter writer = tapService.createResultWriter(response.getOutputStream());
+                try
                 {
-                    // job.processQuery returns false is error occured and writes error to the writer
-                    // errors are returned in votable format. - May be too late to change the content type...
-                    response.setContentType(OutputFormat.VOTABLE.getDefaultContentType());
-                    return;
+                    if (!tapService.processQuery(writer, paramsMap, null, uploadParams))
+                    {
+                        // job.processQuery returns false is error occured and writes error to the writer
+                        // errors are returned in votable format. - May be too late to change the content type...
+                        response.setContentType(OutputFormat.VOTABLE.getDefaultContentType());
+                    }
+                    writer.flush();
+                }
+                catch (AsyncPromotionException e)
+                {
+                    logger.info("Running sync query as an async job: {}", e.getMessage());
+                    response.reset();
+                    asyncTapRequest(new PromotedRequest(request, tapService.trustAuthHeader(request)), response);
                 }
             }
             else if ("getCapabilities".equals(requestParam))
@@ -244,46 +282,109 @@ public class TapController
     }
 
     /**
-     * Async endpoint as per the TAP standard. For GET &amp; DELETE method with jobID
+     * Async endpoint as per the TAP standard. For GET &amp; DELETE method with jobID. A GET of the job or its phase
+     * with a WAIT parameter is held until the job changes phase.
      * 
      * 
+     * @param jobId
+     *            the id of the job
      * @param request
      *            http request containing query parameters
      * @param response
      *            should return a 303 seeOther response to the created job
+     * @return the result of waiting for the job to change phase, or null if the request has been answered
      * @throws IOException
      *             if problems occur writing the request
      * 
      * @see asyncTapRequest
      */
     @RequestMapping(value = "/tap/async/{jobId}/**", method = { RequestMethod.GET, RequestMethod.DELETE })
-    public void asyncJobRequest(HttpServletRequest request, HttpServletResponse response) throws IOException
+    public DeferredResult<View> asyncJobRequest(@PathVariable("jobId") String jobId, HttpServletRequest request,
+            HttpServletResponse response) throws IOException
     {
-        asyncTapRequest(request, response);
+        DeferredResult<View> phaseChange = waitForPhaseChange(jobId, request);
+        if (phaseChange == null)
+        {
+            asyncTapRequest(request, response);
+        }
+        return phaseChange;
     }
 
     /**
-     * Async endpoint as per the TAP standard. For admin to GET jobID list
+     * Hold a request for a job or its phase until the job leaves its current phase, as asked for with the UWS 1.1 WAIT
+     * and PHASE parameters. The request thread is released while waiting. Once the job changes phase, or the wait
+     * times out, the request is answered in the usual way.
+     * 
+     * @param jobId
+     *            the id of the job
+     * @param request
+     *            http request containing query parameters
+     * @return the result to be set when the wait is over, or null if the request is to be answered straight away
+     */
+    private DeferredResult<View> waitForPhaseChange(String jobId, HttpServletRequest request)
+    {
+        String resource = StringUtils.substringAfter(request.getRequestURI(), "/" + jobId);
+        if (!RequestMethod.GET.name().equals(request.getMethod())
+                || !(StringUtils.isEmpty(resource) || "/".equals(resource) || PHASE_RESOURCE.equals(resource)))
+        {
+            return null;
+        }
+        Map<String, String> paramsMap = UWSToolBox.getParamsMap(request);
+        long waitSeconds = getWaitSeconds(paramsMap.get(STR_KEY_WAIT));
+        UWSJob job = waitSeconds > 0 ? uwService.getJob(jobId) : null;
+        if (job == null)
+        {
+            return null;
+        }
+        // Jobs are only waited on in an active phase, and only while in the phase the client knows it to be in
+        ExecutionPhase phase = job.getPhase();
+        String phaseParam = paramsMap.get(STR_KEY_PHASE);
+        if (!PhaseChangeObserver.ACTIVE_PHASES.contains(phase)
+                || (StringUtils.isNotBlank(phaseParam) && !phase.name().equalsIgnoreCase(phaseParam)))
+        {
+            return null;
+        }
+
+        View jobView = (model, waitedRequest, waitedResponse) -> asyncTapRequest(waitedRequest, waitedResponse);
+        DeferredResult<View> phaseChange = new DeferredResult<>(TimeUnit.SECONDS.toMillis(waitSeconds), jobView);
+        PhaseChangeObserver observer = new PhaseChangeObserver(phase, () -> phaseChange.setResult(jobView));
+        phaseChange.onCompletion(() -> job.removeObserver(observer));
+        logger.debug("Waiting up to {} seconds for job {} to leave phase {}", waitSeconds, jobId, phase);
+        observer.observe(job);
+        return phaseChange;
+    }
+
+    /**
+     * Work out how long to wait for a job to change phase. Negative waits are for as long as the server allows.
+     * 
+     * @param wait
+     *            the value of the WAIT parameter
+     * @return the seconds to wait, 0 for no wait
+     */
+    private long getWaitSeconds(String wait)
+    {
+        long maxWait = tapService.getAsyncMaxWait();
+        long waitSeconds = NumberUtils.toLong(StringUtils.trim(wait), 0);
+        return Math.max(0, waitSeconds < 0 ? maxWait : Math.min(waitSeconds, maxWait));
+    }
+
+    /**
+     * Async endpoint as per the TAP standard. For admin to GET jobID list. The list may be filtered with the UWS 1.1
+     * PHASE, AFTER and LAST parameters, and is written out as the jobs are found.
      *
      * 
      * @param request
      *            http request containing query parameters
      * @param response
-     *            should return a 303 seeOther response to the created job
+     *            the list of jobs
      * @throws IOException
      *             if problems occur writing the request
-     * 
-     * @see asyncTapRequest
      */
     @RequestMapping(value = "/tap/async", method = { RequestMethod.GET })
     public void asyncJobListRequest(HttpServletRequest request, HttpServletResponse response) throws IOException
     {
         checkReady();
-        if (tapService.isTrustedUserId(request))
-        {
-            asyncTapRequest(request, response);
-        }
-        else
+        if (!tapService.isTrustedUserId(request))
         {
             // If not authorised just return an empty job list
             logger.debug("UNAUTHORIZED to process async request: " + request.getHeader(VoKeys.VO_AUTH_HEADER_USER_ID));
@@ -295,9 +396,117 @@ public class TapController
                     + "xsi:schemaLocation=\"http://www.ivoa.net/xml/UWS/v1.0 http://www.ivoa.net/xml/UWS/v1.0\"> "
                     + "</uws:jobList>");
             out.flush();
+            return;
+        }
+
+        List<ExecutionPhase> phases;
+        Long after;
+        int last;
+        try
+        {
+            Map<String, String> paramsMap = UWSToolBox.getParamsMap(request);
+            phases = getPhaseFilter(request);
+            after = getAfterFilter(paramsMap.get(STR_KEY_AFTER));
+            last = getLastFilter(paramsMap.get(STR_KEY_LAST));
+        }
+        catch (UWSException uwsEx)
+        {
+            response.sendError(uwsEx.getHttpErrorCode(), uwsEx.getMessage());
+            return;
+        }
+        logger.debug("Listing async jobs in phases {} created after {}, last {}", phases, after, last);
+        response.setContentType("text/xml");
+        response.setCharacterEncoding(Charsets.UTF_8.name());
+        Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), Charsets.UTF_8));
+        new JobListWriter(request.getRequestURL().toString())
+                .write(uwService.getAsyncJobList().getJobs(null, phases, after, last), writer);
+    }
+
+    /**
+     * Read the phases to list jobs in from the PHASE parameters, which may be repeated.
+     * 
+     * @param request
+     *            http request containing query parameters
+     * @return the phases, empty for all phases
+     * @throws UWSException
+     *             if a phase is not known
+     */
+    private static List<ExecutionPhase> getPhaseFilter(HttpServletRequest request) throws UWSException
+    {
+        List<ExecutionPhase> phases = new ArrayList<>();
+        for (Map.Entry<String, String[]> param : request.getParameterMap().entrySet())
+        {
+            if (!STR_KEY_PHASE.equalsIgnoreCase(param.getKey()))
+            {
+                continue;
+            }
+            for (String value : param.getValue())
+            {
+                String phaseName = StringUtils.upperCase(StringUtils.trim(value));
+                ExecutionPhase phase = ExecutionPhase.getPhase(phaseName);
+                if (phase == ExecutionPhase.UNKNOWN && !ExecutionPhase.UNKNOWN.name().equals(phaseName))
+                {
+                    throw new UWSException(UWSException.BAD_REQUEST, "Unknown PHASE: " + value);
+                }
+                phases.add(phase);
+            }
+        }
+        return phases;
+    }
+
+    /**
+     * Read the time jobs must have been created after from the AFTER parameter. Times without a zone are in UTC.
+     * 
+     * @param after
+     *            the value of the AFTER parameter
+     * @return the time in milliseconds since the epoch, or null for all times
+     * @throws UWSException
+     *             if the time is not an ISO 8601 date and time
+     */
+    private static Long getAfterFilter(String after) throws UWSException
+    {
+        if (StringUtils.isBlank(after))
+        {
+            return null;
+        }
+        try
+        {
+            TemporalAccessor time = DateTimeFormatter.ISO_DATE_TIME.parseBest(after.trim(), ZonedDateTime::from,
+                    LocalDateTime::from);
+            Instant instant = time instanceof ZonedDateTime ? ((ZonedDateTime) time).toInstant()
+                    : ((LocalDateTime) time).toInstant(ZoneOffset.UTC);
+            return instant.toEpochMilli();
+        }
+        catch (DateTimeParseException e)
+        {
+            throw new UWSException(UWSException.BAD_REQUEST, "Invalid AFTER, expected an ISO 8601 date and time: "
+                    + after);
         }
     }
 
+    /**
+     * Read the number of most recently created jobs to list from the LAST parameter.
+     * 
+     * @param last
+     *            the value of the LAST parameter
+     * @return the number of jobs, or 0 for all jobs
+     * @throws UWSException
+     *             if the number is not a positive integer
+     */
+    private static int getLastFilter(String last) throws UWSException
+    {
+        if (StringUtils.isBlank(last))
+        {
+            return 0;
+        }
+        int jobs = NumberUtils.toInt(last.trim(), 0);
+        if (jobs <= 0)
+        {
+            throw new UWSException(UWSException.BAD_REQUEST, "Invalid LAST, expected a positive integer: " + last);
+        }
+        return jobs;
+    }
+
     /**
      * Request that the TAP metadata is refreshed from the database.
      * 
@@ -353,7 +562,7 @@ public class TapController
     public static class TimedRequest extends HttpServletRequestWrapper
     {
         /** Parameters container replacement */
-        private Map<String, String[]> parameters;
+        protected Map<String, String[]> parameters;
 
         /**
          * Create a new request wrapper that will add submission time to the original request parameters.
@@ -406,4 +615,65 @@ public class TapController
         }
     }
 
+    /**
+     * Presents a sync TAP request as a request to create an async job for the same query and run it straight away.
+     * 
+     * Copyright 2015, CSIRO Australia All rights reserved.
+     */
+    public static class PromotedRequest extends TimedRequest
+    {
+        private static final String SYNC_PATH = "/sync";
+
+        private static final String ASYNC_PATH = "/async";
+
+        /**
+         * Create a new request wrapper for an async job from a sync request.
+         * 
+         * @param request
+         *            the sync request
+         * @param trustAuthHeader
+         *            true if the request has been received from a trusted IP address
+         */
+        public PromotedRequest(HttpServletRequest request, boolean trustAuthHeader)
+        {
+            super(request, TapService.SUBMITTED_MODE_ASYNC, trustAuthHeader);
+            parameters.put("PHASE", new String[] { "RUN" });
+        }
+
+        @Override
+        public String getMethod()
+        {
+            return RequestMethod.POST.name();
+        }
+
+        @Override
+        public String getRequestURI()
+        {
+            return toAsyncPath(super.getRequestURI());
+        }
+
+        @Override
+        public StringBuffer getRequestURL()
+        {
+            return new StringBuffer(toAsyncPath(super.getRequestURL().toString()));
+        }
+
+        @Override
+        public String getServletPath()
+        {
+            return toAsyncPath(super.getServletPath());
+        }
+
+        @Override
+        public String getPathInfo()
+        {
+            return toAsyncPath(super.getPathInfo());
+        }
+
+        private static String toAsyncPath(String path)
+        {
+            return StringUtils.endsWith(path, SYNC_PATH) ? StringUtils.removeEnd(path, SYNC_PATH) + ASYNC_PATH
+                    : path;
+        }
+    }
 }
@@ -1,10 +1,12 @@
 package au.csiro.casda.votools.tap;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.time.Duration;
 import java.time.ZoneId;
@@ -15,15 +17,19 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.PostConstruct;
 import javax.servlet.http.HttpServletRequest;
-import javax.sql.DataSource;
 
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringEscapeUtils;
@@ -37,7 +43,9 @@ import org.springframework.context.annotation.Scope;
 import org.springframework.context.annotation.ScopedProxyMode;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
 import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.stereotype.Service;
@@ -69,8 +77,7 @@ import adql.query.operand.ADQLColumn;
 import adql.query.operand.ADQLOperand;
 import adql.query.operand.NumericConstant;
 import adql.query.operand.StringConstant;
-import adql.translator.ADQLTranslator;
-import adql.translator.PgSphereTranslator;
+import adql.search.SimpleSearchHandler;
 import adql.translator.TranslationException;
 import au.csiro.casda.logging.CasdaFormatter;
 import au.csiro.casda.votools.config.ConfigKeys;
@@ -79,20 +86,28 @@ import au.csiro.casda.votools.config.Configurable;
 import au.csiro.casda.votools.config.Configuration;
 import au.csiro.casda.votools.config.ConfigurationException;
 import au.csiro.casda.votools.config.ConfigurationRegistry;
+import au.csiro.casda.votools.config.ConnectionPool;
 import au.csiro.casda.votools.config.EndPoint;
+import au.csiro.casda.votools.config.SessionProfile;
 import au.csiro.casda.votools.jpa.TapColumn;
 import au.csiro.casda.votools.jpa.TapColumnPK;
 import au.csiro.casda.votools.jpa.TapTable;
 import au.csiro.casda.votools.jpa.repository.VoTableRepositoryService;
 import au.csiro.casda.votools.logging.CasdaVoToolsEvents;
+import au.csiro.casda.votools.result.ArrowResultsExtractor;
 import au.csiro.casda.votools.result.CsvTsvResultsExtractor;
 import au.csiro.casda.votools.result.CsvTsvResultsExtractor.OutputType;
+import au.csiro.casda.votools.result.FitsResultsExtractor;
+import au.csiro.casda.votools.result.JsonResultsExtractor;
 import au.csiro.casda.votools.result.OutputFormat;
+import au.csiro.casda.votools.result.ResultStreamWriter;
 import au.csiro.casda.votools.result.ResultsExtractor;
+import au.csiro.casda.votools.result.VoTableBinary2ResultsExtractor;
 import au.csiro.casda.votools.result.VoTableResultsExtractor;
 import au.csiro.casda.votools.result.VotableError;
 import au.csiro.casda.votools.utils.VoKeys;
 import au.csiro.casda.votools.utils.SystemTime;
+import au.csiro.casda.votools.uws.AdaptiveConcurrencyLimit;
 
 /*
  * #%L
@@ -136,6 +151,13 @@ public class TapService extends Configurable implements SystemTime
 
     private static final String TEXT_XML_FORMAT = "text/xml";
     private static final String MAXIMUM_RECORDS = "tap.max.records";
+    private static final long DEFAULT_QUERY_CACHE_SIZE = 1000;
+    private static final long DEFAULT_QUERY_CACHE_TTL = 60;
+    private static final long DEFAULT_ROW_ESTIMATE_COUNT_LIMIT = 1000000;
+    private static final int DEFAULT_FITS_STRING_WIDTH = 256;
+    private static final int DEFAULT_ARROW_BATCH_ROWS = 65536;
+    private static final long DEFAULT_ARROW_BATCH_BYTES = 16777216;
+    private static final int DEFAULT_ASYNC_MAX_WAIT = 60;
 
     /**
      * TAP request parameter map's key for version
@@ -145,6 +167,14 @@ public class TapService extends Configurable implements SystemTime
      * TAP request parameter map's key for language of the query
      */
     public static final String STR_KEY_LANG = "lang";
+    /**
+     * TAP request parameter map's key for the type of request
+     */
+    public static final String STR_KEY_REQUEST = "request";
+    /**
+     * Request value to check a query and describe its result columns without running it
+     */
+    public static final String REQUEST_VALIDATE_QUERY = "validateQuery";
     /**
      * TAP request parameter map's key for the format of the output requested
      */
@@ -171,6 +201,8 @@ public class TapService extends Configurable implements SystemTime
     private static final String STR_FORMAT_UNEXPECTED_EXCEPTION = "Unexpected exception: %s";
     private static final String STR_MISSING_QUERY_PARAMETER = "Missing QUERY parameter";
     private static final String STR_FORMAT_UNSUPPORTED_FORMAT = "Unsupported FORMAT requested: %s";
+    private static final String STR_FORMAT_QUERY_TOO_EXPENSIVE = "Query is too expensive to run synchronously "
+            + "(estimated cost %.0f, limit %.0f). Please submit it as an asynchronous job%s.";
 
     // configurable parameters
     /** log timezone */
@@ -194,8 +226,53 @@ public class TapService extends Configurable implements SystemTime
 
     private JdbcTemplate jdbcTemplateAsync;
 
+    private AdaptiveConcurrencyLimit asyncConcurrencyLimit;
+
     private QueryChecker queryChecker;
 
+    private CompiledQueryCache queryCache;
+
+    /** Supply the user's project ids as one array parameter rather than listing them in the SQL */
+    private boolean bindProjectIds = false;
+
+    /** How to estimate the total rows of results which are cut off */
+    private QueryRowEstimator.Method rowEstimateMethod = QueryRowEstimator.Method.NONE;
+
+    private long rowEstimateCountLimit = DEFAULT_ROW_ESTIMATE_COUNT_LIMIT;
+
+    /** The most a sync query may cost by its query plan, 0 for no limit */
+    private double syncMaxCost = 0;
+
+    /** The most seconds a request for an async job may wait for the job to change phase */
+    private int asyncMaxWait = DEFAULT_ASYNC_MAX_WAIT;
+
+    /** The most characters output for each character value in FITS results */
+    private int fitsStringWidth = DEFAULT_FITS_STRING_WIDTH;
+
+    /** The most rows in each record batch of Arrow results */
+    private int arrowBatchRows = DEFAULT_ARROW_BATCH_ROWS;
+
+    /** The most bytes of values in each record batch of Arrow results */
+    private long arrowBatchBytes = DEFAULT_ARROW_BATCH_BYTES;
+
+    /** The number of bytes of results buffered before they are written out */
+    private int resultBufferSize = ResultStreamWriter.DEFAULT_BUFFER_SIZE;
+
+    /** Database session settings for each type of query run by the service */
+    private Map<SessionProfile, Map<String, String>> sessionSettings = new EnumMap<>(SessionProfile.class);
+
+    private Map<String, TapTable> tapTablesByDbName = Collections.emptyMap();
+
+    /** Access rules of the tables requiring release, keyed by db schema and db table name */
+    private Map<String, List<TableAuthorisation>> authorisationPlan = Collections.emptyMap();
+
+    /** Parsers are not thread safe but can be reused, so each thread keeps its own. */
+    private static final ThreadLocal<ADQLParser> PARSERS = ThreadLocal.withInitial(() -> {
+        ADQLParser parser = new ADQLParser();
+        parser.disable_tracing();
+        return parser;
+    });
+
     private boolean ready = false;
 
     private Configuration config;
@@ -287,22 +364,48 @@ public class TapService extends Configurable implements SystemTime
             authTrustedIp = config.getList("auth.trusted.ip");
             authTrustedUserId = config.getList("auth.trusted.userId");
 
-            DataSource dataSource = config.gtDao().getTemplate().getDataSource();
             EndPoint tapEndPoint = config.getEndPoint("TAP");
             if (tapEndPoint == null)
             {
             	logger.error("No TAP endpoint is defined.");
                 return false;
             }
-            jdbcTemplateSync = new JdbcTemplate(dataSource);
+            jdbcTemplateSync = new JdbcTemplate(config.gtDao().getTemplate(ConnectionPool.SYNC).getDataSource());
             jdbcTemplateSync.setQueryTimeout(tapEndPoint.getInt("tap.sync.timeout"));
-            jdbcTemplateAsync = new JdbcTemplate(dataSource);
+            jdbcTemplateAsync = new JdbcTemplate(config.gtDao().getTemplate(ConnectionPool.ASYNC).getDataSource());
             jdbcTemplateAsync.setQueryTimeout(tapEndPoint.getInt("tap.async.timeout"));
             maxRecords = tapEndPoint.getInt("tap.max.records");
             logTimezone = tapEndPoint.get("log.timezone");
             executionDurationDefault = tapEndPoint.getInt("tap.execution.duration.default");
             retentionPeriodDefault = tapEndPoint.getInt(ConfigKeys.TAP_RETENTION_PERIOD_DEFAULT.getKey());
             votableXsl = tapEndPoint.get(ConfigKeys.TAP_VOTABLE_XSL.getKey());
+            bindProjectIds = tapEndPoint.getBoolean(ConfigKeys.TAP_BIND_PROJECT_IDS.getKey(), false);
+            rowEstimateMethod =
+                    QueryRowEstimator.Method.fromValue(tapEndPoint.get(ConfigKeys.TAP_ROW_ESTIMATE.getKey()));
+            rowEstimateCountLimit = tapEndPoint.getLong(ConfigKeys.TAP_ROW_ESTIMATE_COUNT_LIMIT.getKey(),
+                    DEFAULT_ROW_ESTIMATE_COUNT_LIMIT);
+            syncMaxCost = tapEndPoint.getDouble(ConfigKeys.TAP_SYNC_MAX_COST.getKey(), 0);
+            asyncMaxWait = tapEndPoint.getInt(ConfigKeys.TAP_ASYNC_MAX_WAIT.getKey(), DEFAULT_ASYNC_MAX_WAIT);
+            fitsStringWidth =
+                    tapEndPoint.getInt(ConfigKeys.TAP_FITS_STRING_WIDTH.getKey(), DEFAULT_FITS_STRING_WIDTH);
+            arrowBatchRows = tapEndPoint.getInt(ConfigKeys.TAP_ARROW_BATCH_ROWS.getKey(), DEFAULT_ARROW_BATCH_ROWS);
+            arrowBatchBytes =
+                    tapEndPoint.getLong(ConfigKeys.TAP_ARROW_BATCH_BYTES.getKey(), DEFAULT_ARROW_BATCH_BYTES);
+            resultBufferSize = tapEndPoint.getInt(ConfigKeys.TAP_RESULT_BUFFER_SIZE.getKey(),
+                    ResultStreamWriter.DEFAULT_BUFFER_SIZE);
+            Map<SessionProfile, Map<String, String>> settings = new EnumMap<>(SessionProfile.class);
+            for (SessionProfile profile : EnumSet.of(SessionProfile.TAP_SYNC, SessionProfile.TAP_ASYNC,
+                    SessionProfile.SIAP))
+            {
+                settings.put(profile, profile.getSettings(config));
+            }
+            sessionSettings = settings;
+            if (queryCache == null)
+            {
+                queryCache = new CompiledQueryCache(
+                        tapEndPoint.getLong(ConfigKeys.TAP_QUERY_CACHE_SIZE.getKey(), DEFAULT_QUERY_CACHE_SIZE),
+                        tapEndPoint.getLong(ConfigKeys.TAP_QUERY_CACHE_TTL.getKey(), DEFAULT_QUERY_CACHE_TTL));
+            }
             ready = true;
             createDbChecker();
             createVotableFieldMap();
@@ -360,8 +463,100 @@ public class TapService extends Configurable implements SystemTime
     protected String generateSqlForQuery(String query, boolean isAdmin, List<Long> projectIds)
             throws ParseException, TranslationException
     {
-        String sql = StringUtils.EMPTY;
-        ADQLQuery adqlQuery = createAdqlquery(query);
+        return translateQuery(query, isAdmin, projectIds).getSql();
+    }
+
+    /**
+     * Compiles an ADQL query for a user. The query is parsed and checked against the TAP metadata, the user's
+     * authorisation constraints are added and it is translated into SQL. A previous compilation of the same query for
+     * the same user access is reused if one is available. Problems with the query are recorded in the result rather
+     * than thrown.
+     * 
+     * @param query
+     *            The ADQL query to be compiled.
+     * @param isAdmin
+     *            if true, the user has access to all data (released and unreleased); if false, the user has access only
+     *            to the given project ids
+     * @param projectIds
+     *            List of project_ids that the user has access to, that will match the project table id.
+     * @return The compiled query, which will hold the errors if the query is not valid.
+     * @throws ConfigurationException
+     *             if there were configuration problems reloading the TAP metadata
+     */
+    CompiledTapQuery compileQuery(String query, boolean isAdmin, List<Long> projectIds) throws ConfigurationException
+    {
+        CompiledTapQuery compiledQuery = queryCache == null ? null : queryCache.get(query, isAdmin, projectIds);
+        if (compiledQuery != null)
+        {
+            return compiledQuery;
+        }
+
+        try
+        {
+            try
+            {
+                compiledQuery = translateQuery(query, isAdmin, projectIds);
+            }
+            catch (UnresolvedIdentifiersException uie)
+            {
+                // CASDA-4489 if the table is new, the dbChecker could need a refresh
+                if (!isUnresolvedTableKnown(uie))
+                {
+                    throw uie;
+                }
+                // updates the cache of database tables for adql query parsing
+                createDbChecker();
+                compiledQuery = translateQuery(query, isAdmin, projectIds);
+            }
+        }
+        catch (UnresolvedIdentifiersException uie)
+        {
+            List<String> errors = new ArrayList<>();
+            for (Iterator<ParseException> iterator = uie.getErrors(); iterator.hasNext();)
+            {
+                ParseException ex = iterator.next();
+                errors.add(ex.getMessage() + StringUtils.SPACE + ex.getPosition());
+            }
+            if (errors.isEmpty())
+            {
+                errors.add(uie.getMessage());
+            }
+            return CompiledTapQuery.failed(query, errors, uie);
+        }
+        catch (ParseException | TranslationException | TokenMgrError e)
+        {
+            return CompiledTapQuery.failed(query, Collections.singletonList(e.getMessage()), e);
+        }
+
+        if (queryCache != null)
+        {
+            queryCache.put(query, isAdmin, projectIds, compiledQuery);
+        }
+        return compiledQuery;
+    }
+
+    private boolean isUnresolvedTableKnown(UnresolvedIdentifiersException uie)
+    {
+        if (uie.getErrors() != null && uie.getErrors().hasNext())
+        {
+            String message = uie.getErrors().next().getMessage();
+            for (TapTable table : voTableRepositoryService.getTables())
+            {
+                if (message.contains(table.getTableName()))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private CompiledTapQuery translateQuery(String query, boolean isAdmin, List<Long> projectIds)
+            throws ParseException, TranslationException
+    {
+        ADQLQuery adqlQuery = parseQuery(query);
+        String singleTableName = getSingleTableName(adqlQuery);
+        List<TapTable> tables = findReferencedTables(adqlQuery);
 
         if (!isAdmin)
         {
@@ -371,16 +566,21 @@ public class TapService extends Configurable implements SystemTime
 
         // Translate:
         // creates a translator that will ignore case
-        ADQLTranslator translator = new PgSphereTranslator(false);
-        sql = translator.translate(adqlQuery);
+        TapSqlTranslator translator = new TapSqlTranslator();
+        String sql = translator.translate(adqlQuery);
 
-        return sql;
+        TapTable singleTable = null;
+        if (StringUtils.isNotBlank(singleTableName))
+        {
+            singleTable = voTableRepositoryService.getTableByName(singleTableName);
+        }
+        return new CompiledTapQuery(query, adqlQuery, sql, tables, singleTableName, singleTable,
+                translator.getProjectIdsParameterCount(), projectIds);
     }
 
-    private ADQLQuery createAdqlquery(String query) throws ParseException, TranslationException
+    private ADQLQuery parseQuery(String query) throws ParseException
     {
-        ADQLParser parser = new ADQLParser();
-        parser.disable_tracing();
+        ADQLParser parser = PARSERS.get();
         parser.setQueryChecker(queryChecker);
 
         return parser.parseQuery(query);
@@ -389,17 +589,12 @@ public class TapService extends Configurable implements SystemTime
     /**
      * Identify single table queries and return table name else return blank
      * 
-     * @param query
-     *            Query to be processed
+     * @param adqlQuery
+     *            Parsed query to be processed
      * @return Table name if single table query
-     * @throws ParseException
-     *             If the ADQL cannot be parsed.
-     * @throws TranslationException
-     *             If the parsed query cannot be translated into SQL.
      */
-    private String getSingleTableName(String query) throws ParseException, TranslationException
+    private String getSingleTableName(ADQLQuery adqlQuery)
     {
-        ADQLQuery adqlQuery = createAdqlquery(query);
         int size = adqlQuery.getFrom().getTables().size();
         if (size > 1)
         {
@@ -408,6 +603,38 @@ public class TapService extends Configurable implements SystemTime
         return adqlQuery.getFrom().getTables().get(0).getFullTableName();
     }
 
+    /**
+     * Find the TAP tables read by a checked query, including those read in sub queries.
+     * 
+     * @param adqlQuery
+     *            Parsed query to be processed
+     * @return The tables referenced by the query, in the order they are first used
+     */
+    private List<TapTable> findReferencedTables(ADQLQuery adqlQuery)
+    {
+        SimpleSearchHandler tableSearch = new SimpleSearchHandler(true)
+        {
+            @Override
+            protected boolean match(ADQLObject obj)
+            {
+                return obj instanceof ADQLTable && ((ADQLTable) obj).getDBLink() != null;
+            }
+        };
+        tableSearch.search(adqlQuery);
+
+        Set<TapTable> tables = new LinkedHashSet<>();
+        for (Iterator<ADQLObject> iterator = tableSearch.iterator(); iterator.hasNext();)
+        {
+            DBTable dbTable = ((ADQLTable) iterator.next()).getDBLink();
+            TapTable tapTable = tapTablesByDbName.get(getDbTableKey(dbTable.getDBSchemaName(), dbTable.getDBName()));
+            if (tapTable != null)
+            {
+                tables.add(tapTable);
+            }
+        }
+        return new ArrayList<>(tables);
+    }
+
     private void addAuthorisationConstraintsToQuery(ADQLQuery query, List<Long> projectIds)
     {
         // update the query to only include released data or data
@@ -467,88 +694,120 @@ public class TapService extends Configurable implements SystemTime
             }
             else
             {
-                for (TapTable tapTable : voTableRepositoryService.getTables())
+                for (TableAuthorisation tableAuthorisation : getTableAuthorisations(table))
                 {
-                    if (table.getDBLink() != null
-                            && tapTable.getDbSchemaName().equals(table.getDBLink().getDBSchemaName())
-                            && tapTable.getDbTableName().equals(table.getDBLink().getDBName())
-                            && Boolean.TRUE.equals(tapTable.getReleaseRequired()))
+                    String tableref = (StringUtils.isNotBlank(table.getAlias())) ? table.getAlias()
+                            : table.getFullTableName();
+
+                    ADQLColumn releaseDateColumn = new ADQLColumn(tableref, STR_RELEASED_DATE_COLUMN);
+                    if (tableAuthorisation.hasReleasedDateColumn())
                     {
+                        // Table access is controlled at row level by a released_date column in the table.
+                        ADQLConstraint includeReleasedData = new IsNull(releaseDateColumn, true);
 
-                        String tableref = (StringUtils.isNotBlank(table.getAlias())) ? table.getAlias()
-                                : table.getFullTableName();
+                        // for embargo'd ASKAP Level 7 collections we want records 
+                        // that have a released date and are less than or equal to today's date
+                        ADQLConstraint embargoReleasedData =
+                                new Comparison(releaseDateColumn, ComparisonOperator.LESS_OR_EQUAL,
+                                        new StringConstant(getCurrentUTCDateTime().toString()));
 
-                        ADQLColumn releaseDateColumn = new ADQLColumn(tableref, STR_RELEASED_DATE_COLUMN);
-                        if (hasReleasedDateCol(tapTable))
+                        ConstraintsGroup embargoReleaseDateAndIncludeReleasedDataConstraint = new ConstraintsGroup();
+                        embargoReleaseDateAndIncludeReleasedDataConstraint.add(includeReleasedData);
+                        embargoReleaseDateAndIncludeReleasedDataConstraint.add(ConstraintsGroup.AND,
+                                embargoReleasedData);
+
+                        if (bindProjectIds)
                         {
-                            // Table access is controlled at row level by a released_date column in the table.
-                            ADQLConstraint includeReleasedData = new IsNull(releaseDateColumn, true);
-    
-                            // for embargo'd ASKAP Level 7 collections we want records 
-                            // that have a released date and are less than or equal to today's date
-                            ADQLConstraint embargoReleasedData =
-                                    new Comparison(releaseDateColumn, ComparisonOperator.LESS_OR_EQUAL,
-                                            new StringConstant(getCurrentUTCDateTime().toString()));
-    
-                            ConstraintsGroup embargoReleaseDateAndIncludeReleasedDataConstraint = new ConstraintsGroup();
-                            embargoReleaseDateAndIncludeReleasedDataConstraint.add(includeReleasedData);
-                            embargoReleaseDateAndIncludeReleasedDataConstraint.add(ConstraintsGroup.AND,
-                                    embargoReleasedData);
-    
-                            if (CollectionUtils.isNotEmpty(projectIds))
-                            {
-                                ADQLList<ADQLOperand> adqlList = new ClauseADQL<>();
-                                for (Long projectId : projectIds)
-                                {
-                                    NumericConstant id = new NumericConstant(projectId);
-                                    adqlList.add(id);
-                                }
-                                ConstraintsGroup projectOrReleasedConstraint = new ConstraintsGroup();
-                                ADQLConstraint includeProjectData =
-                                        new In(new ADQLColumn(tableref, STR_PROJECT_ID_COLUMN), adqlList);
-                                projectOrReleasedConstraint.add(includeProjectData);
-                                projectOrReleasedConstraint.add(ConstraintsGroup.OR,
-                                        embargoReleaseDateAndIncludeReleasedDataConstraint);
-                                constraints.add(projectOrReleasedConstraint);
-                            }
-                            else
+                            // Always constrain on the project ids, even if the user has none, so the query is the
+                            // same for every user
+                            ConstraintsGroup projectOrReleasedConstraint = new ConstraintsGroup();
+                            projectOrReleasedConstraint
+                                    .add(new ProjectIdsConstraint(new ADQLColumn(tableref, STR_PROJECT_ID_COLUMN)));
+                            projectOrReleasedConstraint.add(ConstraintsGroup.OR,
+                                    embargoReleaseDateAndIncludeReleasedDataConstraint);
+                            constraints.add(projectOrReleasedConstraint);
+                        }
+                        else if (CollectionUtils.isNotEmpty(projectIds))
+                        {
+                            ADQLList<ADQLOperand> adqlList = new ClauseADQL<>();
+                            for (Long projectId : projectIds)
                             {
-                                constraints.add(embargoReleaseDateAndIncludeReleasedDataConstraint);
+                                NumericConstant id = new NumericConstant(projectId);
+                                adqlList.add(id);
                             }
+                            ConstraintsGroup projectOrReleasedConstraint = new ConstraintsGroup();
+                            ADQLConstraint includeProjectData =
+                                    new In(new ADQLColumn(tableref, STR_PROJECT_ID_COLUMN), adqlList);
+                            projectOrReleasedConstraint.add(includeProjectData);
+                            projectOrReleasedConstraint.add(ConstraintsGroup.OR,
+                                    embargoReleaseDateAndIncludeReleasedDataConstraint);
+                            constraints.add(projectOrReleasedConstraint);
                         }
                         else
                         {
-                            // Table access is controlled by the released_date in the table metadata
-                            if (isWholeTableEmbargoedForUser(tapTable, projectIds))
-                            {
-                                // Add a 'false' constraint (2 < 1) to block any data from being returned
-                                ADQLConstraint emptyResultConstraint = new Comparison(new NumericConstant(2),
-                                        ComparisonOperator.LESS_THAN, new NumericConstant(1));
-                                constraints.add(emptyResultConstraint);
-                            }
-
+                            constraints.add(embargoReleaseDateAndIncludeReleasedDataConstraint);
                         }
                     }
+                    else
+                    {
+                        // Table access is controlled by the released_date in the table metadata
+                        if (isWholeTableEmbargoedForUser(tableAuthorisation, projectIds))
+                        {
+                            // Add a 'false' constraint (2 < 1) to block any data from being returned
+                            ADQLConstraint emptyResultConstraint = new Comparison(new NumericConstant(2),
+                                    ComparisonOperator.LESS_THAN, new NumericConstant(1));
+                            constraints.add(emptyResultConstraint);
+                        }
+
+                    }
                 }
             }
         }
         return constraints;
     }
 
-    private boolean isWholeTableEmbargoedForUser(TapTable tapTable, List<Long> userProjectIds)
+    /**
+     * Find the access rules for a table referenced in a query.
+     * 
+     * @param table
+     *            the checked table reference
+     * @return the rules of each TAP table requiring release which maps to the database table, usually only one
+     */
+    private List<TableAuthorisation> getTableAuthorisations(ADQLTable table)
+    {
+        if (table.getDBLink() == null)
+        {
+            return Collections.emptyList();
+        }
+        List<TableAuthorisation> tableAuthorisations = authorisationPlan
+                .get(getDbTableKey(table.getDBLink().getDBSchemaName(), table.getDBLink().getDBName()));
+        return tableAuthorisations == null ? Collections.emptyList() : tableAuthorisations;
+    }
+
+    private static String getDbTableKey(String dbSchemaName, String dbTableName)
+    {
+        return dbSchemaName + "." + dbTableName;
+    }
+
+    private boolean isWholeTableEmbargoedForUser(TableAuthorisation tableAuthorisation, List<Long> userProjectIds)
     {
         // Check if the embargo has expired
-        if (tapTable.getReleaseDate() != null && getCurrentUTCDateTime().isAfter(tapTable.getReleaseDate()))
+        if (tableAuthorisation.getReleaseDate() != null
+                && getCurrentUTCDateTime().isAfter(tableAuthorisation.getReleaseDate()))
         {
             return false;
         }
-        
-        // For level 7 tables we can get project code from schema name - but need to translate to numeric proj id
-        List<String> projectCodes = Collections.singletonList(tapTable.getSchema().getSchemaName());
-        List<Long> idsFromCodes =
-                voTableRepositoryService.fetchProjectIdsFromCodes(projectCodes, config.gtDao().getSchema());
-        
-        if (!idsFromCodes.isEmpty() && userProjectIds != null && userProjectIds.contains(idsFromCodes.get(0)))
+
+        Long owningProjectId = tableAuthorisation.getOwningProjectId();
+        if (!tableAuthorisation.isOwningProjectResolved())
+        {
+            // For level 7 tables we can get project code from schema name - but need to translate to numeric proj id
+            List<Long> idsFromCodes = voTableRepositoryService.fetchProjectIdsFromCodes(
+                    Collections.singletonList(tableAuthorisation.getProjectCode()), config.gtDao().getSchema());
+            owningProjectId = idsFromCodes.isEmpty() ? null : idsFromCodes.get(0);
+        }
+
+        if (owningProjectId != null && userProjectIds != null && userProjectIds.contains(owningProjectId))
         {
             // The user has access to this project's data
             return false;
@@ -573,8 +832,8 @@ public class TapService extends Configurable implements SystemTime
     /**
      * Runs a query against our database.
      * 
-     * @param sqlQuery
-     *            The SQL query to be run.
+     * @param compiledQuery
+     *            The compiled query to be run.
      * @param format
      *            The output format in which the results should be returned.
      * @param writer
@@ -585,8 +844,6 @@ public class TapService extends Configurable implements SystemTime
      *            The parameter map.
      * @param started
      *            The time the job processing was started.
-     * @param singleTableName
-     *            Name of the table if the query includes only one table.
      * @param extraMetaDataMap
      *            The map of metadata to be included in the query result. May be null
      * @param customVotableFieldMap 
@@ -596,8 +853,8 @@ public class TapService extends Configurable implements SystemTime
      * @throws IOException
      *             If the result cannot be written to the writer.
      */
-    void runTapQuery(String sqlQuery, OutputFormat format, Writer writer, int maxrecs, Map<String, String> params,
-            ZonedDateTime started, String singleTableName, Map<String, String[]> extraMetaDataMap, 
+    void runTapQuery(CompiledTapQuery compiledQuery, OutputFormat format, Writer writer, int maxrecs,
+            Map<String, String> params, ZonedDateTime started, Map<String, String[]> extraMetaDataMap,
             Map<String, String> customVotableFieldMap)
             throws InterruptedException, IOException
     {
@@ -646,14 +903,8 @@ public class TapService extends Configurable implements SystemTime
         metaDataMap.put("datetimeRequested",
                 new String[] { this.format.format(started), "Date and time that the request was received" });
 
-        // singleTableName is not blank only when single table query is requested
-
-        TapTable tapTable = null;
-        if (StringUtils.isNotBlank(singleTableName))
-        {
-            tapTable = voTableRepositoryService.getTableByName(singleTableName);
-        }
-
+        // the single table is only present when a single table query is requested
+        TapTable tapTable = compiledQuery.getSingleTable();
         if (tapTable != null)
         {
             // @formatter:off
@@ -683,6 +934,7 @@ public class TapService extends Configurable implements SystemTime
         switch (format)
         {
         case VOTABLE:
+        case VOTABLE_BINARY2:
             String voTableHeading = params.get(VoKeys.VO_TABLE_HEADING);
             if (StringUtils.isBlank(voTableHeading))
             {
@@ -690,8 +942,16 @@ public class TapService extends Configurable implements SystemTime
             }
             boolean proxiedOutput = StringUtils.isNotBlank(params.get(VoKeys.USER_ID))
                     && !VoKeys.ANONYMOUS_USER.equalsIgnoreCase(params.get(VoKeys.USER_ID));
-            extractor = new VoTableResultsExtractor(writer, maxrecs, customVotableFieldMap, voTableHeading, metaDataMap,
-                    baseUrl, proxyUrl, proxiedOutput, votableXsl);
+            if (format == OutputFormat.VOTABLE_BINARY2)
+            {
+                extractor = new VoTableBinary2ResultsExtractor(writer, maxrecs, customVotableFieldMap, voTableHeading,
+                        metaDataMap, baseUrl, proxyUrl, proxiedOutput, votableXsl);
+            }
+            else
+            {
+                extractor = new VoTableResultsExtractor(writer, maxrecs, customVotableFieldMap, voTableHeading,
+                        metaDataMap, baseUrl, proxyUrl, proxiedOutput, votableXsl);
+            }
             break;
 
         case CSV:
@@ -702,9 +962,39 @@ public class TapService extends Configurable implements SystemTime
             extractor = new CsvTsvResultsExtractor(writer, maxrecs, OutputType.TSV, baseUrl, proxyUrl);
             break;
 
+        case JSON:
+            extractor = new JsonResultsExtractor(writer, maxrecs, customVotableFieldMap, baseUrl, proxyUrl);
+            break;
+
+        case FITS:
+            if (!(writer instanceof ResultStreamWriter))
+            {
+                throw new IllegalArgumentException(String.format(STR_FORMAT_IS_NOT_SUPPORTED, format.toString()));
+            }
+            // Output which cannot be rewritten once the rows are known has the rows counted first
+            extractor = new FitsResultsExtractor(((ResultStreamWriter) writer).getOutputStream(), maxrecs,
+                    customVotableFieldMap,
+                    new QueryRowEstimator(compiledQuery, QueryRowEstimator.Method.COUNT, maxrecs + 1L),
+                    fitsStringWidth, baseUrl, proxyUrl);
+            break;
+
+        case ARROW:
+            if (!(writer instanceof ResultStreamWriter))
+            {
+                throw new IllegalArgumentException(String.format(STR_FORMAT_IS_NOT_SUPPORTED, format.toString()));
+            }
+            extractor = new ArrowResultsExtractor(((ResultStreamWriter) writer).getOutputStream(), maxrecs,
+                    customVotableFieldMap, arrowBatchRows, arrowBatchBytes, baseUrl, proxyUrl);
+            break;
+
         default:
             throw new IllegalArgumentException(String.format(STR_FORMAT_IS_NOT_SUPPORTED, format.toString()));
         }
+        if (rowEstimateMethod != QueryRowEstimator.Method.NONE)
+        {
+            ((ResultsExtractor) extractor).setRowCountEstimator(
+                    new QueryRowEstimator(compiledQuery, rowEstimateMethod, rowEstimateCountLimit));
+        }
         if (Thread.currentThread().isInterrupted())
         {
             throw new InterruptedException();
@@ -712,14 +1002,46 @@ public class TapService extends Configurable implements SystemTime
 
         String mode = params.get(VoKeys.SUBMITTED_MODE);
 
-        TapStatementCreator tsc = new TapStatementCreator(sqlQuery);
-        if (TapService.SUBMITTED_MODE_SYNC.equals(mode))
+        SessionProfile sessionProfile;
+        if (params.get(VoKeys.STR_KEY_SIAP_QUERY) != null)
+        {
+            sessionProfile = SessionProfile.SIAP;
+        }
+        else
+        {
+            sessionProfile = TapService.SUBMITTED_MODE_SYNC.equals(mode) ? SessionProfile.TAP_SYNC
+                    : SessionProfile.TAP_ASYNC;
+        }
+
+        // read one row past the limit so we can tell if the results were cut off
+        TapStatementCreator tsc = new TapStatementCreator(compiledQuery, maxrecs + 1L,
+                sessionSettings.getOrDefault(sessionProfile, Collections.emptyMap()));
+        JdbcTemplate jdbcTemplate = TapService.SUBMITTED_MODE_SYNC.equals(mode) ? jdbcTemplateSync : jdbcTemplateAsync;
+        boolean validateOnly = REQUEST_VALIDATE_QUERY.equals(params.get(STR_KEY_REQUEST));
+        if (validateOnly || maxrecs == 0)
+        {
+            // Only the result columns are needed, so the statement is described rather than run. With MAXREC=0 we
+            // cannot tell if there are rows, so report an overflow as the client asked for none.
+            final ResultSetExtractor<Boolean> describeExtractor = extractor;
+            jdbcTemplate.execute(tsc, (PreparedStatementCallback<Boolean>) ps -> describeQuery(ps, describeExtractor,
+                    !validateOnly));
+        }
+        else if (jdbcTemplate == jdbcTemplateAsync && asyncConcurrencyLimit != null)
         {
-            jdbcTemplateSync.query(tsc, extractor);
+            // Time how long the database takes to return the first rows and the rest, to adjust the async job limit
+            final ResultSetExtractor<Boolean> timedExtractor = extractor;
+            long[] firstRowTime = new long[1];
+            long queryStart = System.nanoTime();
+            jdbcTemplate.query(tsc, (ResultSetExtractor<Boolean>) rs -> {
+                firstRowTime[0] = System.nanoTime();
+                return timedExtractor.extractData(rs);
+            });
+            asyncConcurrencyLimit.recordQuery(firstRowTime[0] - queryStart,
+                    ((ResultsExtractor) extractor).getProcessedCount(), System.nanoTime() - firstRowTime[0]);
         }
         else
         {
-            jdbcTemplateAsync.query(tsc, extractor);
+            jdbcTemplate.query(tsc, extractor);
         }
 
         ZonedDateTime submitted = ZonedDateTime.parse(params.get(VoKeys.SUBMITTED_TIME));
@@ -745,6 +1067,34 @@ public class TapService extends Configurable implements SystemTime
                         .toString());
     }
 
+    /**
+     * Output the description of a query's results using the metadata of its prepared statement, without running the
+     * query. If the driver cannot describe the statement the query is run instead.
+     * 
+     * @param preparedStatement
+     *            The prepared, but not executed, query.
+     * @param extractor
+     *            The extractor to write the results.
+     * @param overflow
+     *            Whether the results should be reported as cut off.
+     * @return true if the results were reported as cut off
+     * @throws SQLException
+     *             If the statement could not be described.
+     */
+    private Boolean describeQuery(PreparedStatement preparedStatement, ResultSetExtractor<Boolean> extractor,
+            boolean overflow) throws SQLException
+    {
+        ResultSetMetaData metaData = preparedStatement.getMetaData();
+        if (metaData == null)
+        {
+            try (ResultSet rs = preparedStatement.executeQuery())
+            {
+                return extractor.extractData(rs);
+            }
+        }
+        return ((ResultsExtractor) extractor).extractMetaData(metaData, overflow);
+    }
+
     /**
      * Reports an error in a TAP request by outputting a VOTABLE to the writer.
      *
@@ -766,6 +1116,10 @@ public class TapService extends Configurable implements SystemTime
     public void refresh()
     {
         voTableRepositoryService.refreshObjectCache();
+        if (queryCache != null)
+        {
+            queryCache.clear();
+        }
         setReady(false);
     }
 
@@ -780,6 +1134,7 @@ public class TapService extends Configurable implements SystemTime
     {
         // List all available tables:
         List<DBTable> dbTableList = new ArrayList<DBTable>();
+        Map<String, TapTable> tablesByDbName = new HashMap<>();
         if (isReady())
         {
             List<TapTable> tapTables = voTableRepositoryService.getTables();
@@ -795,6 +1150,7 @@ public class TapService extends Configurable implements SystemTime
                 OrderedDbTable dbTable = new OrderedDbTable(null, null, tapTable.getDbSchemaName(),
                         tapTable.getSchema().getSchemaName(), tapTable.getDbTableName(), tableName);
                 dbTableList.add(dbTable);
+                tablesByDbName.put(getDbTableKey(tapTable.getDbSchemaName(), tapTable.getDbTableName()), tapTable);
 
                 // make sure the columns are added in order
                 tapColumns.sort(new Comparator<TapColumn>()
@@ -823,6 +1179,66 @@ public class TapService extends Configurable implements SystemTime
             }
         }
         queryChecker = new DBChecker(dbTableList);
+        tapTablesByDbName = tablesByDbName;
+        authorisationPlan = isReady() ? createAuthorisationPlan(voTableRepositoryService.getTables())
+                : Collections.emptyMap();
+        // previously translated queries were checked against the old metadata
+        if (queryCache != null)
+        {
+            queryCache.clear();
+        }
+    }
+
+    /**
+     * Work out the access rules for each table which requires release, so that queries can be restricted to the data
+     * a user may see without searching the TAP metadata.
+     * 
+     * @param tapTables
+     *            all TAP tables
+     * @return the rules for each table requiring release, keyed by db schema and db table name
+     */
+    private Map<String, List<TableAuthorisation>> createAuthorisationPlan(List<TapTable> tapTables)
+    {
+        List<TapTable> releaseRequiredTables = new ArrayList<>();
+        Set<String> projectCodes = new HashSet<>();
+        for (TapTable tapTable : tapTables)
+        {
+            if (Boolean.TRUE.equals(tapTable.getReleaseRequired()))
+            {
+                releaseRequiredTables.add(tapTable);
+                if (!hasReleasedDateCol(tapTable))
+                {
+                    // For level 7 tables we can get project code from schema name
+                    projectCodes.add(tapTable.getSchema().getSchemaName());
+                }
+            }
+        }
+
+        Map<String, Long> projectIds = null;
+        if (!projectCodes.isEmpty())
+        {
+            try
+            {
+                projectIds =
+                        voTableRepositoryService.fetchProjectIdMapFromCodes(projectCodes, config.gtDao().getSchema());
+            }
+            catch (DataAccessException e)
+            {
+                logger.warn("Unable to look up the projects owning embargoed tables, will look up at query time", e);
+            }
+        }
+
+        Map<String, List<TableAuthorisation>> plan = new HashMap<>();
+        for (TapTable tapTable : releaseRequiredTables)
+        {
+            String projectCode = tapTable.getSchema().getSchemaName();
+            TableAuthorisation tableAuthorisation = new TableAuthorisation(projectCode, hasReleasedDateCol(tapTable),
+                    tapTable.getReleaseDate(), projectIds == null ? null : projectIds.get(projectCode),
+                    projectIds != null);
+            plan.computeIfAbsent(getDbTableKey(tapTable.getDbSchemaName(), tapTable.getDbTableName()),
+                    key -> new ArrayList<>()).add(tableAuthorisation);
+        }
+        return plan;
     }
 
     /**
@@ -848,10 +1264,9 @@ public class TapService extends Configurable implements SystemTime
             List<TapColumn> tapColumns = voTableRepositoryService.getColumns();
             for (TapColumn tapColumn : tapColumns)
             {
-                fieldMap.put(
-                        tapColumn.getTable().getDbSchemaName() + "|" + tapColumn.getTable().getDbTableName() + "|"
-                                + tapColumn.getId().getColumnName().toLowerCase(),
-                        VoTableResultsExtractor.buildVoTableFieldHeader(tapColumn));
+                String key = tapColumn.getTable().getDbSchemaName() + "|" + tapColumn.getTable().getDbTableName() + "|"
+                        + tapColumn.getId().getColumnName().toLowerCase();
+                fieldMap.put(key, VoTableResultsExtractor.buildVoTableFieldHeader(tapColumn));
             }
         }
         votableFieldMap = fieldMap;
@@ -875,86 +1290,31 @@ public class TapService extends Configurable implements SystemTime
      *            The time query processing was started.
      * @param projectIds
      *            List of allowed project to fetch data from .
-     * @return true if the query is valid, false if errors were reported.
+     * @return the compiled query if it is valid, null if errors were reported.
      * @throws ConfigurationException
      *             if there were configuration problems
      */
-    boolean validateQuery(boolean isAdmin, String query, Map<String, String> params, Writer writer,
+    CompiledTapQuery validateQuery(boolean isAdmin, String query, Map<String, String> params, Writer writer,
             ZonedDateTime started, List<Long> projectIds) throws ConfigurationException
     {
-        boolean result = false;
-        StringBuilder errMsg = null;
-
-        try
+        CompiledTapQuery compiledQuery = compileQuery(query, isAdmin, projectIds);
+        if (compiledQuery.isValid())
         {
-            try
-            {
-                generateSqlForQuery(query, isAdmin, projectIds);
-                result = true;
-            }
-            catch (UnresolvedIdentifiersException uie)
-            {
-                // CASDA-4489 if the table is new, the dbChecker could need a refresh
-                if (uie.getErrors() != null && uie.getErrors().hasNext())
-                {
-                    String message = uie.getErrors().next().getMessage();
-                    for (TapTable table : voTableRepositoryService.getTables())
-                    {
-                        if (message.contains(table.getTableName()))
-                        {
-                            // updates the cache of database tables for adql query parsing
-                            createDbChecker();
-                            try
-                            {
-                                generateSqlForQuery(query, isAdmin, projectIds);
-                                result = true;
-                                uie = null;
-                            }
-                            catch (UnresolvedIdentifiersException uie2)
-                            {
-                                uie = uie2;
-                            }
-                            break;
-                        }
-                    }
-                }
-
-                if (uie != null)
-                {
-                    errMsg = new StringBuilder();
-                    for (Iterator<ParseException> iterator = uie.getErrors(); iterator.hasNext();)
-                    {
-                        ParseException ex = iterator.next();
-                        errMsg.append(ex.getMessage() + StringUtils.SPACE + ex.getPosition());
-                        if (iterator.hasNext())
-                        {
-                            errMsg.append(StringUtils.LF);
-                        }
-                    }
-                    logger.info(formFailedMsg(CasdaVoToolsEvents.E061, params, started, errMsg.toString()), uie);
-                }
-            }
+            return compiledQuery;
         }
-        catch (ParseException | TranslationException | TokenMgrError e1)
+
+        String errMsg = compiledQuery.getErrorMessage();
+        logger.info(formFailedMsg(CasdaVoToolsEvents.E061, params, started, errMsg), compiledQuery.getCause());
+        try
         {
-            errMsg = new StringBuilder().append(e1.getMessage());
-            logger.info(formFailedMsg(CasdaVoToolsEvents.E061, params, started, errMsg.toString()), e1);
+            this.reportTapError(writer, String.format(STR_FORMAT_UNABLE_TO_INTERPRET_QUERY, errMsg));
         }
-
-        if (!result && errMsg != null)
+        catch (IOException e)
         {
-            try
-            {
-                this.reportTapError(writer, String.format(STR_FORMAT_UNABLE_TO_INTERPRET_QUERY, errMsg.toString()));
-            }
-            catch (IOException e)
-            {
-                logger.error(formFailedMsg(CasdaVoToolsEvents.E098, params, started,
-                        String.format(STR_FORMAT_UNEXPECTED_EXCEPTION, e.getMessage())), e);
-            }
+            logger.error(formFailedMsg(CasdaVoToolsEvents.E098, params, started,
+                    String.format(STR_FORMAT_UNEXPECTED_EXCEPTION, e.getMessage())), e);
         }
-
-        return result;
+        return null;
     }
 
     /**
@@ -973,11 +1333,11 @@ public class TapService extends Configurable implements SystemTime
      *            The time query processing was started.
      * @param projectIds
      *            List of allowed project to fetch data from .
-     * @return true if the job is valid, false if not.
+     * @return the compiled query if the job is valid, null if errors were reported.
      * @throws ConfigurationException
      *             if there were configuration problems
      */
-    protected boolean validateTapJob(boolean isAdmin, Map<String, String> params, OutputFormat outputFormat,
+    protected CompiledTapQuery validateTapJob(boolean isAdmin, Map<String, String> params, OutputFormat outputFormat,
             Writer writer, ZonedDateTime started, List<Long> projectIds) throws ConfigurationException
     {
         String version = params.get(STR_KEY_VERSION);
@@ -1011,11 +1371,17 @@ public class TapService extends Configurable implements SystemTime
 
         if (StringUtils.isNotBlank(maxRecValue))
         {
+            int maxRec;
             try
             {
-                Integer.parseInt(maxRecValue);
+                maxRec = Integer.parseInt(maxRecValue);
             }
             catch (NumberFormatException e)
+            {
+                maxRec = -1;
+            }
+            // The query is limited to MAXREC + 1 rows, so a negative value is not a valid limit
+            if (maxRec < 0)
             {
                 errMsg = String.format(STR_FORMAT_INVALID_MAXREC_VALUE, maxRecValue);
                 logger.info(formFailedMsg(CasdaVoToolsEvents.E061, params, started, errMsg));
@@ -1033,7 +1399,7 @@ public class TapService extends Configurable implements SystemTime
                 logger.error(formFailedMsg(CasdaVoToolsEvents.E098, params, started,
                         String.format(STR_FORMAT_UNEXPECTED_EXCEPTION, e.getMessage())), e);
             }
-            return false;
+            return null;
         }
 
         return validateQuery(isAdmin, query, params, writer, started, projectIds);
@@ -1107,46 +1473,33 @@ public class TapService extends Configurable implements SystemTime
         String errMsg = null;
         boolean result = false;
 
-        List<String> projectCodes = new ArrayList<String>();
-
         // if the user has access to projects, these will be in the the params map. The user details are only added to
         // the params by the controller if the request is from a trusted IP address.
         String projectCodesStr = paramsMap.get(VoKeys.USER_PROJECTS);
         boolean isCasdaAdmin = isCasdaAdministrator(projectCodesStr);
+        List<Long> projectIds = getProjectIds(isCasdaAdmin, projectCodesStr);
 
-        // compose projects id for codes if any (and if the user isn't an admin)
-        List<Long> projectIds = null;
-        if (!isCasdaAdmin && StringUtils.isNotBlank(projectCodesStr))
-        {
-            projectCodes.addAll(Arrays.asList(projectCodesStr.replace(" ", "").split(",")));
-            projectIds = voTableRepositoryService.fetchProjectIdsFromCodes(projectCodes, config.gtDao().getSchema());
-        }
-
-        String sqlForQuery = null;
         try
         {
             // Parameters to be validated
-            if (this.validateTapJob(isCasdaAdmin, paramsMap, outputFormat, writer, started, projectIds))
+            CompiledTapQuery compiledQuery =
+                    this.validateTapJob(isCasdaAdmin, paramsMap, outputFormat, writer, started, projectIds);
+            if (compiledQuery != null)
             {
                 int maxRec = config.getEndPoint("TAP").getInt(MAXIMUM_RECORDS);
                 if (StringUtils.isNotBlank(maxRecValue))
                 {
                     maxRec = Integer.parseInt(maxRecValue);
                 }
-                sqlForQuery = this.generateSqlForQuery(query, isCasdaAdmin, projectIds);
-                String singleTableName = getSingleTableName(query);
-
-                logger.debug("Updated query for isCasdaAdmin={}: {}", isCasdaAdmin, sqlForQuery);
-                runTapQuery(sqlForQuery, outputFormat, writer, maxRec, paramsMap, started, singleTableName,
-                        metaDataMap, customVotableFieldMap);
-                result = true;
+                logger.debug("Updated query for isCasdaAdmin={}: {}", isCasdaAdmin, compiledQuery.getSql());
+                if (maxRec == 0 || admitQuery(compiledQuery, maxRec, paramsMap, uploadedTables, writer, started))
+                {
+                    runTapQuery(compiledQuery, outputFormat, writer, maxRec, paramsMap, started, metaDataMap,
+                            customVotableFieldMap);
+                    result = true;
+                }
             }
         }
-        catch (ParseException | TranslationException | TokenMgrError e1)
-        {
-            errMsg = String.format(STR_FORMAT_UNABLE_TO_INTERPRET_QUERY, e1.getMessage());
-            logger.error(formFailedMsg(CasdaVoToolsEvents.E060, paramsMap, started, errMsg), e1);
-        }
         catch (InterruptedException | IOException | DataAccessException e2)
         {
             errMsg = String.format(STR_FORMAT_UNABLE_TO_RUN_QUERY, e2.getMessage());
@@ -1174,6 +1527,147 @@ public class TapService extends Configurable implements SystemTime
         return result;
     }
 
+    /**
+     * Check that a sync query is cheap enough, by its query plan, to be run straight away. If it is not, either the
+     * client is told to submit it as an async job, or, if the client has agreed to it and no tables were uploaded, an
+     * AsyncPromotionException is thrown so the query can be run as an async job instead. Queries are admitted if the
+     * cost cannot be estimated.
+     * 
+     * @param compiledQuery
+     *            The query to be run.
+     * @param maxRec
+     *            The most rows that will be returned, the query is planned with this limit.
+     * @param params
+     *            The parameters of the request.
+     * @param uploadedTables
+     *            The tables the user has uploaded for the query.
+     * @param writer
+     *            The destination for any error.
+     * @param started
+     *            The time query processing was started.
+     * @return true if the query may be run, false if an error has been reported.
+     * @throws AsyncPromotionException
+     *             If the query is to be run as an async job.
+     */
+    private boolean admitQuery(CompiledTapQuery compiledQuery, int maxRec, Map<String, String> params,
+            List<UploadedTable> uploadedTables, Writer writer, ZonedDateTime started)
+    {
+        if (syncMaxCost <= 0 || !SUBMITTED_MODE_SYNC.equals(params.get(VoKeys.SUBMITTED_MODE))
+                || REQUEST_VALIDATE_QUERY.equals(params.get(STR_KEY_REQUEST)))
+        {
+            return true;
+        }
+
+        Double cost;
+        try
+        {
+            QueryRowEstimator estimator = new QueryRowEstimator(compiledQuery, QueryRowEstimator.Method.NONE, 0);
+            // The query is run with a limit of one more row than will be returned, see runTapQuery
+            cost = jdbcTemplateSync.execute(
+                    (ConnectionCallback<Double>) connection -> estimator.estimatePlanCost(connection, maxRec + 1L));
+        }
+        catch (DataAccessException e)
+        {
+            logger.warn("Unable to estimate the cost of query: " + compiledQuery.getSql(), e);
+            return true;
+        }
+        if (cost == null || cost <= syncMaxCost)
+        {
+            return true;
+        }
+
+        // Only direct TAP requests can become async jobs, not the SIAP and SSAP queries built on TAP
+        boolean canPromote = CollectionUtils.isEmpty(uploadedTables) && params.get(VoKeys.STR_KEY_SIAP_QUERY) == null
+                && params.get(VoKeys.STR_KEY_SSAP_QUERY) == null;
+        if (canPromote && Boolean.parseBoolean(params.get(VoKeys.STR_KEY_ALLOW_ASYNC)))
+        {
+            throw new AsyncPromotionException(cost, syncMaxCost);
+        }
+
+        String errMsg = String.format(STR_FORMAT_QUERY_TOO_EXPENSIVE, cost, syncMaxCost,
+                canPromote ? ", or add ALLOW_ASYNC=true to the request to have it run as one" : "");
+        logger.info(formFailedMsg(CasdaVoToolsEvents.E061, params, started, errMsg));
+        try
+        {
+            this.reportTapError(writer, errMsg);
+        }
+        catch (IOException e)
+        {
+            logger.error(formFailedMsg(CasdaVoToolsEvents.E098, params, started,
+                    String.format(STR_FORMAT_UNEXPECTED_EXCEPTION, e.getMessage())), e);
+        }
+        return false;
+    }
+
+    /**
+     * Compose the ids of the projects a user has access to from their project codes.
+     * 
+     * @param isCasdaAdmin
+     *            if true, the user has access to all data and no project ids are needed
+     * @param projectCodesStr
+     *            the comma separated project codes of the user, may be blank
+     * @return the project ids, or null if the user is an administrator or has no projects
+     */
+    private List<Long> getProjectIds(boolean isCasdaAdmin, String projectCodesStr)
+    {
+        if (isCasdaAdmin || StringUtils.isBlank(projectCodesStr))
+        {
+            return null;
+        }
+        List<String> projectCodes = Arrays.asList(projectCodesStr.replace(" ", "").split(","));
+        return voTableRepositoryService.fetchProjectIdsFromCodes(projectCodes, config.gtDao().getSchema());
+    }
+
+    /**
+     * Estimate the cost of running a TAP query asynchronously, from the query planner's estimate. The query is only
+     * planned, not run, with the same row limit it will be run with.
+     * 
+     * @param query
+     *            the ADQL query
+     * @param maxRecValue
+     *            the MAXREC of the job, may be blank to use the default
+     * @param projectCodesStr
+     *            the comma separated project codes the user has access to, may be blank
+     * @return the planner's total cost for the query, or null if the query or MAXREC is not valid or the query could
+     *         not be planned
+     */
+    public Double estimateQueryCost(String query, String maxRecValue, String projectCodesStr)
+    {
+        if (StringUtils.isBlank(query) || jdbcTemplateAsync == null)
+        {
+            return null;
+        }
+        try
+        {
+            boolean isCasdaAdmin = isCasdaAdministrator(projectCodesStr);
+            CompiledTapQuery compiledQuery =
+                    compileQuery(query, isCasdaAdmin, getProjectIds(isCasdaAdmin, projectCodesStr));
+            if (!compiledQuery.isValid())
+            {
+                return null;
+            }
+            int maxRec = StringUtils.isBlank(maxRecValue) ? config.getEndPoint("TAP").getInt(MAXIMUM_RECORDS)
+                    : Integer.parseInt(maxRecValue);
+            if (maxRec < 0)
+            {
+                return null;
+            }
+            // The query is run with a limit of one more row than will be returned, see runTapQuery
+            QueryRowEstimator estimator = new QueryRowEstimator(compiledQuery, QueryRowEstimator.Method.NONE, 0);
+            return jdbcTemplateAsync.execute(
+                    (ConnectionCallback<Double>) connection -> estimator.estimatePlanCost(connection, maxRec + 1L));
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+        catch (ConfigurationException | DataAccessException e)
+        {
+            logger.warn("Unable to estimate the cost of query: " + query, e);
+            return null;
+        }
+    }
+
     /**
      * Identify which, if any, version of the IVOA ObsCore spec that this database exports. 
      * @return The version string (1.1 or 1.0) if obscore is implemented, or null if it isn't implemented.
@@ -1332,6 +1826,73 @@ public class TapService extends Configurable implements SystemTime
         this.jdbcTemplateAsync = jdbcTemplateAsync;
     }
 
+    public double getSyncMaxCost()
+    {
+        return syncMaxCost;
+    }
+
+    public void setSyncMaxCost(double syncMaxCost)
+    {
+        this.syncMaxCost = syncMaxCost;
+    }
+
+    public int getAsyncMaxWait()
+    {
+        return asyncMaxWait;
+    }
+
+    public void setAsyncMaxWait(int asyncMaxWait)
+    {
+        this.asyncMaxWait = asyncMaxWait;
+    }
+
+    public AdaptiveConcurrencyLimit getAsyncConcurrencyLimit()
+    {
+        return asyncConcurrencyLimit;
+    }
+
+    /**
+     * @param asyncConcurrencyLimit
+     *            the limit to report the timings of async queries to, may be null
+     */
+    public void setAsyncConcurrencyLimit(AdaptiveConcurrencyLimit asyncConcurrencyLimit)
+    {
+        this.asyncConcurrencyLimit = asyncConcurrencyLimit;
+    }
+
+    /**
+     * Create a writer for query results which encodes them directly to a byte stream, using the configured buffer
+     * size.
+     *
+     * @param outputStream
+     *            The response or result file stream to write to.
+     * @return The new writer.
+     */
+    public ResultStreamWriter createResultWriter(OutputStream outputStream)
+    {
+        return new ResultStreamWriter(outputStream, resultBufferSize);
+    }
+
+    public QueryRowEstimator.Method getRowEstimateMethod()
+    {
+        return rowEstimateMethod;
+    }
+
+    public void setRowEstimateMethod(QueryRowEstimator.Method rowEstimateMethod)
+    {
+        this.rowEstimateMethod = rowEstimateMethod;
+    }
+
+    public boolean isBindProjectIds()
+    {
+        return bindProjectIds;
+    }
+
+    public void setBindProjectIds(boolean bindProjectIds)
+    {
+        this.bindProjectIds = bindProjectIds;
+    }
+
     /**
      * A prepared statement creator configured to allow streaming of results. Each instance is responsible for creating
      * the statement for a specific query. They should not be reused.
@@ -1340,6 +1901,10 @@ public class TapService extends Configurable implements SystemTime
     {
         private String query;
 
+        private CompiledTapQuery compiledQuery;
+
+        private Map<String, String> sessionSettings = Collections.emptyMap();
+
         /**
          * Create a new TapStatementCreator instance for a specific query.
          * 
@@ -1351,12 +1916,39 @@ public class TapService extends Configurable implements SystemTime
             this.query = query;
         }
 
+        /**
+         * Create a new TapStatementCreator instance for a compiled query, supplying any parameters it needs.
+         * 
+         * @param compiledQuery
+         *            The query to be run.
+         * @param maxRows
+         *            The most rows that will be read from the results, the query will be limited to this.
+         * @param sessionSettings
+         *            The database settings to apply for the query's transaction.
+         */
+        public TapStatementCreator(CompiledTapQuery compiledQuery, long maxRows, Map<String, String> sessionSettings)
+        {
+            this.query = compiledQuery.getSql(maxRows);
+            this.compiledQuery = compiledQuery;
+            this.sessionSettings = sessionSettings;
+        }
+
+        String getQuery()
+        {
+            return query;
+        }
+
         /** {@inheritDoc} */
         @Override
         public PreparedStatement createPreparedStatement(Connection con) throws SQLException
         {
             con.setAutoCommit(false);
+            SessionProfile.apply(con, sessionSettings);
             PreparedStatement preparedStatement = con.prepareStatement(query);
+            if (compiledQuery != null)
+            {
+                compiledQuery.setParameters(preparedStatement);
+            }
             preparedStatement.setFetchDirection(ResultSet.FETCH_FORWARD);
             final int resultFetchSizeRows = 1000;
             preparedStatement.setFetchSize(resultFetchSizeRows);
@@ -0,0 +1,63 @@
+package au.csiro.casda.votools.tap;
+
+import adql.query.constraint.ADQLConstraint;
+import adql.translator.PgSphereTranslator;
+import adql.translator.TranslationException;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Translates checked ADQL queries into PostgreSQL (with pgSphere) queries, including any {@link ProjectIdsConstraint}
+ * authorisation constraints. The number of project id parameters written is counted so that they can be bound when
+ * the query is run. Case is ignored in identifiers.
+ * <p>
+ * An instance keeps count of the parameters in the last query so should only be used to translate one query.
+ * <p>
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class TapSqlTranslator extends PgSphereTranslator
+{
+    private int projectIdsParameterCount = 0;
+
+    /**
+     * Create a new TapSqlTranslator instance.
+     */
+    public TapSqlTranslator()
+    {
+        super(false);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see adql.translator.JDBCTranslator#translate(adql.query.constraint.ADQLConstraint)
+     */
+    @Override
+    public String translate(ADQLConstraint cons) throws TranslationException
+    {
+        if (cons instanceof ProjectIdsConstraint)
+        {
+            projectIdsParameterCount++;
+            return translate(((ProjectIdsConstraint) cons).getColumn()) + " = ANY(?)";
+        }
+        return super.translate(cons);
+    }
+
+    /**
+     * @return the number of project id array parameters in the translated query
+     */
+    public int getProjectIdsParameterCount()
+    {
+        return projectIdsParameterCount;
+    }
+}
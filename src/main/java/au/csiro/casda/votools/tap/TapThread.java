@@ -1,6 +1,7 @@
 package au.csiro.casda.votools.tap;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.util.HashMap;
 import java.util.Map;
@@ -12,6 +13,7 @@ import uws.UWSException;
 import uws.job.UWSJob;
 import au.csiro.casda.votools.config.ConfigurationException;
 import au.csiro.casda.votools.result.OutputFormat;
+import au.csiro.casda.votools.result.ResultStreamWriter;
 import au.csiro.casda.votools.utils.VoKeys;
 import au.csiro.casda.votools.uws.BaseThread;
 
@@ -103,6 +105,12 @@ public class TapThread extends BaseThread
         }
     }
 
+    @Override
+    protected ResultStreamWriter createResultWriter(OutputStream outStream)
+    {
+        return tapService.createResultWriter(outStream);
+    }
+
     @Override
     public OutputFormat getOutputFormat()
     {
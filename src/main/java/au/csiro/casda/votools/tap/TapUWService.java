@@ -15,22 +15,34 @@ package au.csiro.casda.votools.tap;
 
 import java.io.File;
 import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Service;
 
+import au.csiro.casda.votools.config.ConfigKeys;
 import au.csiro.casda.votools.config.Configurable;
 import au.csiro.casda.votools.config.Configuration;
 import au.csiro.casda.votools.config.ConfigurationException;
 import au.csiro.casda.votools.config.ConfigurationRegistry;
 import au.csiro.casda.votools.config.EndPoint;
+import au.csiro.casda.votools.utils.VoKeys;
+import au.csiro.casda.votools.uws.AdaptiveConcurrencyLimit;
+import au.csiro.casda.votools.uws.FairShareExecutionManager;
+import au.csiro.casda.votools.uws.IndexedJobList;
 import au.csiro.casda.votools.uws.UWSLogger;
 import au.csiro.casda.votools.uws.UWServiceInterface;
 import uws.UWSException;
@@ -38,7 +50,6 @@ import uws.job.ErrorSummary;
 import uws.job.JobList;
 import uws.job.Result;
 import uws.job.UWSJob;
-import uws.job.manager.QueuedExecutionManager;
 import uws.job.serializer.UWSSerializer;
 import uws.job.serializer.XMLSerializer;
 import uws.job.user.JobOwner;
@@ -71,11 +82,17 @@ public class TapUWService extends Configurable implements UWServiceInterface
     private static final String DEFAULT_ASYNC_DESCRIPTION = "UWS for CASDA";
     private static final String DEFAULT_ASYNC_JOB_LIST_NAME = "async";
     private static final int DEFAULT_MAX_RUNNING_JOBS = 4;
+    private static final int DEFAULT_MAX_EXPENSIVE_JOBS = 2;
+    private static final double DEFAULT_EXPENSIVE_COST = 1000000;
+    private static final int DEFAULT_CONCURRENCY_MIN = 2;
+    private static final int DEFAULT_CONCURRENCY_MAX = 12;
 
     private boolean ready;
 
     private Configuration config;
 
+    private String asyncJobListName;
+
     /**
      * Constructor
      * 
@@ -153,7 +170,7 @@ public class TapUWService extends Configurable implements UWServiceInterface
         File resultsDir = new File(resultsDirName);
         String asyncBaseUrl = endPoint.get("async.base.url", DEFAULT_ASYNC_BASE_URL);
         String asyncDescription = endPoint.get("async.description", DEFAULT_ASYNC_DESCRIPTION);
-        String asyncJobListName = endPoint.get("async.job.list.name", DEFAULT_ASYNC_JOB_LIST_NAME);
+        asyncJobListName = endPoint.get("async.job.list.name", DEFAULT_ASYNC_JOB_LIST_NAME);
         int maxRunningJobs = endPoint.getInt("max.running.jobs", DEFAULT_MAX_RUNNING_JOBS);
 
         if (uws == null) // create new service, changing configuration parameters requires restart
@@ -183,7 +200,10 @@ public class TapUWService extends Configurable implements UWServiceInterface
             uws = new UWSService(new TapUWSFactory(tapService), fileManager,
                      new UWSLogger(), new TapUWSUrl(asyncBaseUrl));
             uws.setDescription(asyncDescription);
-            JobList jobList = new JobList(asyncJobListName, new QueuedExecutionManager(uws.getLogger(), maxRunningJobs));
+            FairShareExecutionManager executionManager = createExecutionManager(endPoint, maxRunningJobs);
+            tapService.setAsyncConcurrencyLimit(createConcurrencyLimit(endPoint, executionManager));
+            JobList jobList = new IndexedJobList(asyncJobListName, executionManager, TapUWService::getJobOwner,
+                    TapUWService::getJobCreationTime);
             uws.addJobList(jobList);
             uws.addSerializer(new TextXmlSerializer());
             // Taplint prefers this mime type to be default
@@ -194,6 +214,119 @@ public class TapUWService extends Configurable implements UWServiceInterface
         }
     }
 
+    private FairShareExecutionManager createExecutionManager(EndPoint endPoint, int maxRunningJobs)
+    {
+        int maxExpensiveJobs = endPoint.getInt(ConfigKeys.TAP_ASYNC_MAX_EXPENSIVE_JOBS.getKey(),
+                DEFAULT_MAX_EXPENSIVE_JOBS);
+        double expensiveCost = endPoint.getDouble(ConfigKeys.TAP_ASYNC_EXPENSIVE_COST.getKey(), DEFAULT_EXPENSIVE_COST);
+        Map<String, Double> ownerWeights =
+                parseOwnerWeights(endPoint.getList(ConfigKeys.TAP_ASYNC_OWNER_WEIGHTS.getKey()));
+        boolean estimateCost = endPoint.getBoolean(ConfigKeys.TAP_ASYNC_COST_ESTIMATE.getKey(), true);
+        logger.info("Running up to {} async jobs, {} of which may cost at least {}, with owner weights {}",
+                maxRunningJobs, maxExpensiveJobs, expensiveCost, ownerWeights);
+
+        return new FairShareExecutionManager(uws.getLogger(), maxRunningJobs, maxExpensiveJobs, expensiveCost,
+                ownerWeights, TapUWService::getJobOwner, estimateCost ? this::estimateJobCost : null);
+    }
+
+    private AdaptiveConcurrencyLimit createConcurrencyLimit(EndPoint endPoint,
+            FairShareExecutionManager executionManager)
+    {
+        if (!endPoint.getBoolean(ConfigKeys.TAP_ASYNC_CONCURRENCY_ADAPTIVE.getKey(), false))
+        {
+            return null;
+        }
+        int floor = endPoint.getInt(ConfigKeys.TAP_ASYNC_CONCURRENCY_MIN.getKey(), DEFAULT_CONCURRENCY_MIN);
+        int ceiling = endPoint.getInt(ConfigKeys.TAP_ASYNC_CONCURRENCY_MAX.getKey(), DEFAULT_CONCURRENCY_MAX);
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(executionManager.getMaxRunningJobs(), floor,
+                ceiling, executionManager::setMaxRunningJobs);
+        executionManager.setMaxRunningJobs(limit.getLimit());
+        logger.info("Adjusting the async job limit between {} and {} by database response times", floor, ceiling);
+        return limit;
+    }
+
+    /**
+     * Identify who a TAP job is being run for, to share the running job slots fairly. This is the CASDA user if the
+     * request came through the data access portal, otherwise the address the job was submitted from.
+     * 
+     * @param job
+     *            the job
+     * @return the owner of the job, or null if it is not known
+     */
+    static String getJobOwner(UWSJob job)
+    {
+        Object userId = job.getParameter(VoKeys.USER_ID);
+        if (userId != null && StringUtils.isNotBlank(userId.toString()))
+        {
+            return userId.toString();
+        }
+        Object ipAddress = job.getParameter(VoKeys.KEY_REQUESTER_IP_ADDRESS);
+        return ipAddress == null ? null : ipAddress.toString();
+    }
+
+    /**
+     * Find when a TAP job was created, from the time it was submitted. Jobs without a valid submission time are taken
+     * to have been created when they started, or now if they have not.
+     * 
+     * @param job
+     *            the job
+     * @return the creation time in milliseconds since the epoch
+     */
+    static long getJobCreationTime(UWSJob job)
+    {
+        Object submitted = job.getParameter(VoKeys.SUBMITTED_TIME);
+        if (submitted != null)
+        {
+            try
+            {
+                return ZonedDateTime.parse(submitted.toString()).toInstant().toEpochMilli();
+            }
+            catch (DateTimeParseException e)
+            {
+                logger.debug("Invalid submission time '{}' for job {}", submitted, job.getJobId());
+            }
+        }
+        return job.getStartTime() == null ? System.currentTimeMillis() : job.getStartTime().getTime();
+    }
+
+    private Double estimateJobCost(UWSJob job)
+    {
+        Object query = job.getParameter("query");
+        Object maxRec = job.getParameter(VoKeys.STR_KEY_MAXREC);
+        Object projectCodes = job.getParameter(VoKeys.USER_PROJECTS);
+        return query == null ? null
+                : tapService.estimateQueryCost(query.toString(), maxRec == null ? null : maxRec.toString(),
+                        projectCodes == null ? null : projectCodes.toString());
+    }
+
+    /**
+     * Parse a list of owner=weight pairs. Entries which are not valid are logged and skipped.
+     * 
+     * @param entries
+     *            the configured entries
+     * @return the weight of each owner listed
+     */
+    static Map<String, Double> parseOwnerWeights(List<String> entries)
+    {
+        Map<String, Double> weights = new HashMap<>();
+        for (String entry : entries)
+        {
+            if (StringUtils.isBlank(entry))
+            {
+                continue;
+            }
+            String owner = StringUtils.substringBefore(entry, "=");
+            String weight = StringUtils.substringAfter(entry, "=");
+            if (StringUtils.isBlank(owner) || !NumberUtils.isCreatable(weight) || NumberUtils.toDouble(weight) <= 0)
+            {
+                logger.warn("Ignoring invalid async owner weight '{}'", entry);
+                continue;
+            }
+            weights.put(owner, NumberUtils.toDouble(weight));
+        }
+        return weights;
+    }
+
     @Override
     public boolean executeRequest(HttpServletRequest request, HttpServletResponse response) throws UWSException,
             IOException
@@ -201,6 +334,19 @@ public class TapUWService extends Configurable implements UWServiceInterface
         return this.uws.executeRequest(request, response);
     }
 
+    @Override
+    public UWSJob getJob(String jobId)
+    {
+        JobList jobList = uws.getJobList(asyncJobListName);
+        return jobList == null ? null : jobList.getJob(jobId);
+    }
+
+    @Override
+    public IndexedJobList getAsyncJobList()
+    {
+        return (IndexedJobList) uws.getJobList(asyncJobListName);
+    }
+
     /**
      * @return the UWS Backup manager - so can manually trigger backups.
      */
@@ -132,6 +132,17 @@ public class VoKeys
      */
     public static final String STR_KEY_MAXREC = "maxrec";
 
+    /**
+     * TAP request parameter map's key for the client's consent to a sync query too expensive to run straight away
+     * being turned into an async job
+     */
+    public static final String STR_KEY_ALLOW_ASYNC = "allow_async";
+
+    /**
+     * SCS, SIAP and SSAP request parameter map's key for the requested output format
+     */
+    public static final String RESPONSE_FORMAT = "responseformat";
+
     /** SSAP service protocol info parameter key */
     public static final String STR_KEY_SERVICE_PROTOCOL = "SERVICE_PROTOCOL";
     
@@ -0,0 +1,210 @@
+package au.csiro.casda.votools.uws;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.util.function.IntConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Adjusts the number of jobs allowed to run at once according to how quickly the database is answering them.
+ * <p>
+ * Each completed query reports its time to first row and, if it returned rows, its fetch throughput. Short and long
+ * term averages are kept of both. While the recent values are no worse than the long term ones, allowing for the
+ * tolerance, the limit grows by the square root of the limit. As recent values worsen the limit is scaled down in
+ * proportion, by no more than half. Changes are smoothed and the limit is kept between the floor and the ceiling.
+ * This is the gradient approach to concurrency limits, using the database's responsiveness as the signal of load.
+ * <p>
+ * The limit and its inputs are published as gauges to the global metrics registry.
+ *
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class AdaptiveConcurrencyLimit
+{
+    /** The prefix of the names the limit and its inputs are published under. */
+    public static final String METRIC_NAME = "tap.async.concurrency";
+
+    private static Logger logger = LoggerFactory.getLogger(AdaptiveConcurrencyLimit.class);
+
+    /** How much worse recent queries may be than the long term average before the limit is reduced */
+    private static final double TOLERANCE = 1.5;
+
+    /** The most the limit is scaled down by for one query */
+    private static final double MIN_GRADIENT = 0.5;
+
+    /** The weight of each query in the short term averages, roughly the last 10 queries */
+    private static final double SHORT_SMOOTHING = 2.0 / 11;
+
+    /** The weight of each query in the long term averages, roughly the last 600 queries */
+    private static final double LONG_SMOOTHING = 2.0 / 601;
+
+    /** The weight of each new limit in the smoothed limit */
+    private static final double LIMIT_SMOOTHING = 0.2;
+
+    /** The long term average is let down at this rate when it is far above the recent values, so it can recover */
+    private static final double LONG_DECAY = 0.95;
+
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final int floor;
+
+    private final int ceiling;
+
+    private final IntConsumer listener;
+
+    private double limit;
+
+    private int currentLimit;
+
+    private final Average firstRowMillis = new Average();
+
+    private final Average rowsPerSecond = new Average();
+
+    /**
+     * Create a new AdaptiveConcurrencyLimit and register its gauges with the global metrics registry.
+     *
+     * @param initialLimit
+     *            The limit to start with.
+     * @param floor
+     *            The lowest the limit may go.
+     * @param ceiling
+     *            The highest the limit may go.
+     * @param listener
+     *            Told the new limit whenever it changes, may be null.
+     */
+    public AdaptiveConcurrencyLimit(int initialLimit, int floor, int ceiling, IntConsumer listener)
+    {
+        this.floor = Math.max(1, floor);
+        this.ceiling = Math.max(this.floor, ceiling);
+        this.listener = listener;
+        this.currentLimit = Math.min(this.ceiling, Math.max(this.floor, initialLimit));
+        this.limit = currentLimit;
+
+        Gauge.builder(METRIC_NAME + ".limit", this, AdaptiveConcurrencyLimit::getLimit)
+                .description("The number of async jobs allowed to run at once").register(Metrics.globalRegistry);
+        Gauge.builder(METRIC_NAME + ".first.row.short", firstRowMillis, average -> average.shortTerm)
+                .description("Recent average time to first row of async queries").baseUnit("milliseconds")
+                .register(Metrics.globalRegistry);
+        Gauge.builder(METRIC_NAME + ".first.row.long", firstRowMillis, average -> average.longTerm)
+                .description("Long term average time to first row of async queries").baseUnit("milliseconds")
+                .register(Metrics.globalRegistry);
+        Gauge.builder(METRIC_NAME + ".throughput.short", rowsPerSecond, average -> average.shortTerm)
+                .description("Recent average fetch rate of async queries").baseUnit("rows/second")
+                .register(Metrics.globalRegistry);
+        Gauge.builder(METRIC_NAME + ".throughput.long", rowsPerSecond, average -> average.longTerm)
+                .description("Long term average fetch rate of async queries").baseUnit("rows/second")
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * Get the number of jobs currently allowed to run at once.
+     *
+     * @return The limit.
+     */
+    public synchronized int getLimit()
+    {
+        return currentLimit;
+    }
+
+    /**
+     * Record the timings of a completed query and adjust the limit.
+     *
+     * @param firstRowNanos
+     *            The time from the query being sent to the first rows being returned, in nanoseconds.
+     * @param rows
+     *            The number of rows fetched.
+     * @param fetchNanos
+     *            The time taken to fetch the rows after the first were returned, in nanoseconds.
+     */
+    public void recordQuery(long firstRowNanos, long rows, long fetchNanos)
+    {
+        int newLimit;
+        int oldLimit;
+        synchronized (this)
+        {
+            double gradient = firstRowMillis.add(firstRowNanos / NANOS_PER_MILLI, false);
+            if (rows > 0 && fetchNanos > 0)
+            {
+                gradient = Math.min(gradient, rowsPerSecond.add(rows * NANOS_PER_SECOND / fetchNanos, true));
+            }
+
+            double target = limit * gradient + Math.sqrt(limit);
+            limit = (1 - LIMIT_SMOOTHING) * limit + LIMIT_SMOOTHING * target;
+            limit = Math.min(ceiling, Math.max(floor, limit));
+            oldLimit = currentLimit;
+            currentLimit = (int) limit;
+            newLimit = currentLimit;
+            if (newLimit != oldLimit)
+            {
+                logger.info("Async job limit changed from {} to {}, time to first row {} ms (long term {} ms), "
+                        + "throughput {} rows/s (long term {} rows/s)", oldLimit, newLimit,
+                        Math.round(firstRowMillis.shortTerm), Math.round(firstRowMillis.longTerm),
+                        Math.round(rowsPerSecond.shortTerm), Math.round(rowsPerSecond.longTerm));
+            }
+        }
+        if (newLimit != oldLimit && listener != null)
+        {
+            listener.accept(newLimit);
+        }
+    }
+
+    /**
+     * Short and long term exponentially weighted averages of one of the inputs.
+     */
+    private static final class Average
+    {
+        private double shortTerm = Double.NaN;
+
+        private double longTerm = Double.NaN;
+
+        /**
+         * Add a value to the averages.
+         *
+         * @param value
+         *            The value.
+         * @param higherIsBetter
+         *            Whether higher values show the database is less loaded.
+         * @return How far the limit should be scaled, 1 if recent values are within tolerance of the long term.
+         */
+        double add(double value, boolean higherIsBetter)
+        {
+            if (Double.isNaN(shortTerm))
+            {
+                shortTerm = value;
+                longTerm = value;
+                return 1;
+            }
+            shortTerm += SHORT_SMOOTHING * (value - shortTerm);
+            longTerm += LONG_SMOOTHING * (value - longTerm);
+            if (shortTerm <= 0 || longTerm <= 0)
+            {
+                return 1;
+            }
+
+            // Above 1 when recent values are better than the long term
+            double ratio = higherIsBetter ? shortTerm / longTerm : longTerm / shortTerm;
+            if (ratio > 2)
+            {
+                // The load has dropped for good, so let the long term average catch up
+                longTerm = higherIsBetter ? longTerm / LONG_DECAY : longTerm * LONG_DECAY;
+            }
+            return Math.max(MIN_GRADIENT, Math.min(1, TOLERANCE * ratio));
+        }
+    }
+}
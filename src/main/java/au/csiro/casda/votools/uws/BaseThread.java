@@ -13,10 +13,8 @@ package au.csiro.casda.votools.uws;
  */
 
 
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.Writer;
 
 import org.springframework.dao.DataAccessException;
@@ -27,6 +25,7 @@ import uws.job.JobThread;
 import uws.job.Result;
 import uws.job.UWSJob;
 import au.csiro.casda.votools.result.OutputFormat;
+import au.csiro.casda.votools.result.ResultStreamWriter;
 
 /**
  * Base UWS Thread that will handle the file level operations of saving and deleting the results while allowing
@@ -87,7 +86,7 @@ public abstract class BaseThread extends JobThread
             }
             try (OutputStream outStream = this.getResultOutput(result))
             {
-                BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outStream, "UTF-8"));
+                ResultStreamWriter writer = createResultWriter(outStream);
                 this.processQuery(writer);
                 writer.flush();
                 outStream.close();
@@ -103,6 +102,18 @@ public abstract class BaseThread extends JobThread
         }
     }
 
+    /**
+     * Create the writer the results of the job are written through.
+     *
+     * @param outStream
+     *            The stream for the result file.
+     * @return The writer to pass to processQuery.
+     */
+    protected ResultStreamWriter createResultWriter(OutputStream outStream)
+    {
+        return new ResultStreamWriter(outStream);
+    }
+
     /**
      * @return the OutputFormat that this thread is using.
      */
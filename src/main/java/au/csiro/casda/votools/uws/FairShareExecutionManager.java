@@ -0,0 +1,672 @@
+package au.csiro.casda.votools.uws;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uws.UWSException;
+import uws.job.ExecutionPhase;
+import uws.job.UWSJob;
+import uws.job.manager.ExecutionManager;
+import uws.service.log.UWSLog;
+import uws.service.log.UWSLog.LogLevel;
+
+/**
+ * An execution manager which shares the running job slots fairly between job owners, rather than starting jobs in the
+ * order they were submitted.
+ * <p>
+ * Each owner has their own queue. When a slot is free the next job is taken from the owner who has had the least
+ * service so far, measured as the estimated run time of the jobs they have started divided by their weight (start time
+ * fair queuing). Owners who have been idle start level with the busiest active owner rather than with banked credit.
+ * <p>
+ * Jobs are given a cost when they are queued, e.g. from the query planner. Jobs costing at least the expensive cost
+ * threshold go in the expensive lane, which may only use some of the slots, so cheap jobs never wait for a run of
+ * expensive ones. Jobs without a cost are treated as cheap. The run time of each lane is estimated from the jobs in it
+ * which have completed.
+ * <p>
+ * Whenever the queue changes the schedule is simulated forward and each waiting job's quote is set to the number of
+ * seconds until it is expected to complete, from its estimated start and the estimated run time of its lane.
+ *
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class FairShareExecutionManager implements ExecutionManager
+{
+    private static Logger logger = LoggerFactory.getLogger(FairShareExecutionManager.class);
+
+    /** The run time assumed for a cheap job until some have completed, seconds */
+    static final double DEFAULT_CHEAP_SECONDS = 60;
+
+    /** The run time assumed for an expensive job until some have completed, seconds */
+    static final double DEFAULT_EXPENSIVE_SECONDS = 1800;
+
+    /** The weight given to each completed job's run time in the lane's running average */
+    private static final double RUN_TIME_SMOOTHING = 0.2;
+
+    /** The least time a running job is expected to still take, seconds */
+    private static final double MIN_REMAINING_SECONDS = 1;
+
+    private static final double MILLIS_PER_SECOND = 1000.0;
+
+    private static final String ANONYMOUS_OWNER = "anonymous";
+
+    private final UWSLog uwsLogger;
+
+    private int maxRunningJobs;
+
+    private final int maxExpensiveJobs;
+
+    private final double expensiveCost;
+
+    private final Map<String, Double> ownerWeights;
+
+    private final Function<UWSJob, String> ownerFunction;
+
+    private final Function<UWSJob, Double> costFunction;
+
+    private final LongSupplier clock;
+
+    private final Map<String, RunningJob> runningJobs = new LinkedHashMap<>();
+
+    /** The queue of each owner with jobs waiting, or with service still ahead of the virtual clock */
+    private final Map<String, OwnerQueue> owners = new LinkedHashMap<>();
+
+    private final Map<String, Integer> queuePositions = new HashMap<>();
+
+    private final double[] laneSeconds = { DEFAULT_CHEAP_SECONDS, DEFAULT_EXPENSIVE_SECONDS };
+
+    /** The service of the most recently started job, which idle owners catch up to when they queue a job */
+    private double virtualClock;
+
+    private long sequence;
+
+    /**
+     * Create a new FairShareExecutionManager.
+     *
+     * @param uwsLogger
+     *            The UWS log, for problems starting jobs.
+     * @param maxRunningJobs
+     *            The most jobs which may run at once.
+     * @param maxExpensiveJobs
+     *            The most expensive jobs which may run at once.
+     * @param expensiveCost
+     *            The cost from which a job is expensive.
+     * @param ownerWeights
+     *            The share of each owner relative to the default of 1, keyed by owner.
+     * @param ownerFunction
+     *            Identifies the owner of a job, may return null for anonymous jobs.
+     * @param costFunction
+     *            Estimates the cost of a job, may return null if it is not known.
+     */
+    public FairShareExecutionManager(UWSLog uwsLogger, int maxRunningJobs, int maxExpensiveJobs,
+            double expensiveCost, Map<String, Double> ownerWeights, Function<UWSJob, String> ownerFunction,
+            Function<UWSJob, Double> costFunction)
+    {
+        this(uwsLogger, maxRunningJobs, maxExpensiveJobs, expensiveCost, ownerWeights, ownerFunction, costFunction,
+                System::currentTimeMillis);
+    }
+
+    /**
+     * Create a new FairShareExecutionManager with its own clock, for testing.
+     */
+    FairShareExecutionManager(UWSLog uwsLogger, int maxRunningJobs, int maxExpensiveJobs, double expensiveCost,
+            Map<String, Double> ownerWeights, Function<UWSJob, String> ownerFunction,
+            Function<UWSJob, Double> costFunction, LongSupplier clock)
+    {
+        this.uwsLogger = uwsLogger;
+        this.maxRunningJobs = Math.max(1, maxRunningJobs);
+        this.maxExpensiveJobs = Math.max(1, maxExpensiveJobs);
+        this.expensiveCost = expensiveCost;
+        this.ownerWeights = ownerWeights == null ? Collections.<String, Double>emptyMap() : ownerWeights;
+        this.ownerFunction = ownerFunction;
+        this.costFunction = costFunction;
+        this.clock = clock;
+    }
+
+    @Override
+    public synchronized Iterator<UWSJob> getRunningJobs()
+    {
+        List<UWSJob> jobs = new ArrayList<>(runningJobs.size());
+        for (RunningJob running : runningJobs.values())
+        {
+            jobs.add(running.job);
+        }
+        return jobs.iterator();
+    }
+
+    @Override
+    public synchronized int getNbRunningJobs()
+    {
+        return runningJobs.size();
+    }
+
+    /**
+     * {@inheritDoc} The jobs are listed in the order they are expected to start.
+     */
+    @Override
+    public synchronized Iterator<UWSJob> getQueuedJobs()
+    {
+        List<QueuedJob> queued = new ArrayList<>();
+        for (OwnerQueue owner : owners.values())
+        {
+            queued.addAll(owner.cheap);
+            queued.addAll(owner.expensive);
+        }
+        queued.sort((a, b) -> Integer.compare(getPosition(a), getPosition(b)));
+        List<UWSJob> jobs = new ArrayList<>(queued.size());
+        for (QueuedJob queuedJob : queued)
+        {
+            jobs.add(queuedJob.job);
+        }
+        return jobs.iterator();
+    }
+
+    @Override
+    public synchronized int getNbQueuedJobs()
+    {
+        int count = 0;
+        for (OwnerQueue owner : owners.values())
+        {
+            count += owner.cheap.size() + owner.expensive.size();
+        }
+        return count;
+    }
+
+    /**
+     * Get the place of a job in the expected start order of the waiting jobs.
+     *
+     * @param jobId
+     *            The id of the job.
+     * @return The position, starting from 1, or 0 if the job is not waiting.
+     */
+    public synchronized int getQueuePosition(String jobId)
+    {
+        Integer position = queuePositions.get(jobId);
+        return position == null ? 0 : position;
+    }
+
+    public synchronized int getMaxRunningJobs()
+    {
+        return maxRunningJobs;
+    }
+
+    /**
+     * Change the number of jobs which may run at once. Jobs are started straight away if the limit is raised. If it
+     * is lowered, running jobs are left to finish and no more are started until they are within the new limit.
+     *
+     * @param maxRunningJobs
+     *            The most jobs which may run at once.
+     */
+    public synchronized void setMaxRunningJobs(int maxRunningJobs)
+    {
+        this.maxRunningJobs = Math.max(1, maxRunningJobs);
+        refresh();
+    }
+
+    /**
+     * @return The most expensive jobs which may run at once, which is never more than the most jobs of any kind.
+     */
+    public synchronized int getMaxExpensiveJobs()
+    {
+        return Math.min(maxExpensiveJobs, maxRunningJobs);
+    }
+
+    @Override
+    public synchronized void refresh()
+    {
+        while (runningJobs.size() < maxRunningJobs)
+        {
+            QueuedJob next = takeNext(owners, runningExpensiveCount() < getMaxExpensiveJobs());
+            if (next == null)
+            {
+                break;
+            }
+            startJob(next);
+        }
+        removeIdleOwners();
+        updateQuotes();
+    }
+
+    /**
+     * {@inheritDoc} The cost of a job is estimated before it is queued, outside of the manager's lock.
+     */
+    @Override
+    public ExecutionPhase execute(UWSJob job)
+    {
+        if (job == null)
+        {
+            return null;
+        }
+        Double cost = null;
+        if (!job.isRunning() && !job.isFinished() && costFunction != null)
+        {
+            try
+            {
+                cost = costFunction.apply(job);
+            }
+            catch (RuntimeException e)
+            {
+                logger.warn("Unable to estimate the cost of job {}", job.getJobId(), e);
+            }
+        }
+        return execute(job, cost);
+    }
+
+    private synchronized ExecutionPhase execute(UWSJob job, Double cost)
+    {
+        refresh();
+        if (job.isRunning())
+        {
+            if (!runningJobs.containsKey(job.getJobId()))
+            {
+                long started = job.getStartTime() == null ? clock.getAsLong() : job.getStartTime().getTime();
+                runningJobs.put(job.getJobId(), new RunningJob(job, false, started));
+            }
+        }
+        else if (job.isFinished())
+        {
+            runningJobs.remove(job.getJobId());
+            removeQueued(job);
+        }
+        else
+        {
+            try
+            {
+                if (job.getPhase() != ExecutionPhase.QUEUED)
+                {
+                    job.setPhase(ExecutionPhase.QUEUED);
+                }
+                if (!isQueued(job))
+                {
+                    enqueue(job, cost);
+                    refresh();
+                }
+            }
+            catch (UWSException e)
+            {
+                uwsLogger.logJob(LogLevel.ERROR, job, "QUEUE",
+                        "Can not set the job \"" + job.getJobId() + "\" in the QUEUED phase!", e);
+            }
+        }
+        return job.getPhase();
+    }
+
+    @Override
+    public synchronized void remove(UWSJob job)
+    {
+        if (job == null)
+        {
+            return;
+        }
+        RunningJob running = runningJobs.remove(job.getJobId());
+        if (running != null && job.getPhase() == ExecutionPhase.COMPLETED)
+        {
+            // Only completed jobs show how long a job in the lane takes
+            double seconds = (clock.getAsLong() - running.started) / MILLIS_PER_SECOND;
+            int lane = running.expensive ? 1 : 0;
+            laneSeconds[lane] += RUN_TIME_SMOOTHING * (seconds - laneSeconds[lane]);
+        }
+        removeQueued(job);
+        refresh();
+    }
+
+    private void enqueue(UWSJob job, Double cost)
+    {
+        String ownerId = getOwnerId(job);
+        OwnerQueue owner = owners.get(ownerId);
+        if (owner == null)
+        {
+            owner = new OwnerQueue(ownerId, getWeight(ownerId));
+            owners.put(ownerId, owner);
+        }
+        if (owner.isEmpty())
+        {
+            // An owner who has been idle must not be able to catch up on the service they did not use
+            owner.virtualTime = Math.max(owner.virtualTime, virtualClock);
+        }
+        boolean expensive = cost != null && cost >= expensiveCost;
+        QueuedJob queuedJob = new QueuedJob(job, expensive, sequence++);
+        (expensive ? owner.expensive : owner.cheap).add(queuedJob);
+        logger.debug("Queued job {} of owner {} with cost {} in the {} lane", job.getJobId(), ownerId, cost,
+                expensive ? "expensive" : "cheap");
+    }
+
+    private String getOwnerId(UWSJob job)
+    {
+        String ownerId = ownerFunction == null ? null : ownerFunction.apply(job);
+        if (ownerId == null && job.getOwner() != null)
+        {
+            ownerId = job.getOwner().getID();
+        }
+        return ownerId == null ? ANONYMOUS_OWNER : ownerId;
+    }
+
+    private double getWeight(String ownerId)
+    {
+        Double weight = ownerWeights.get(ownerId);
+        return weight == null || weight <= 0 ? 1 : weight;
+    }
+
+    private boolean isQueued(UWSJob job)
+    {
+        for (OwnerQueue owner : owners.values())
+        {
+            if (owner.contains(job))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void removeQueued(UWSJob job)
+    {
+        for (OwnerQueue owner : owners.values())
+        {
+            owner.remove(job);
+        }
+        queuePositions.remove(job.getJobId());
+    }
+
+    private void removeIdleOwners()
+    {
+        owners.values().removeIf(owner -> owner.isEmpty() && owner.virtualTime <= virtualClock);
+    }
+
+    private int runningExpensiveCount()
+    {
+        int count = 0;
+        for (RunningJob running : runningJobs.values())
+        {
+            count += running.expensive ? 1 : 0;
+        }
+        return count;
+    }
+
+    private void startJob(QueuedJob queuedJob)
+    {
+        UWSJob job = queuedJob.job;
+        try
+        {
+            job.start(false);
+            runningJobs.put(job.getJobId(), new RunningJob(job, queuedJob.expensive, clock.getAsLong()));
+            queuePositions.remove(job.getJobId());
+        }
+        catch (UWSException e)
+        {
+            uwsLogger.logJob(LogLevel.ERROR, job, "START",
+                    "Can not start the job \"" + job.getJobId() + "\"! This job is not any more part of its "
+                            + "execution manager.", e);
+        }
+    }
+
+    /**
+     * Take the next job to start from the owner with the least service, and charge the owner for it.
+     *
+     * @param queues
+     *            The owners' queues.
+     * @param expensiveAllowed
+     *            Whether there is room for another expensive job.
+     * @return The job, or null if no job can start.
+     */
+    private QueuedJob takeNext(Map<String, OwnerQueue> queues, boolean expensiveAllowed)
+    {
+        OwnerQueue chosen = null;
+        QueuedJob chosenJob = null;
+        for (OwnerQueue owner : queues.values())
+        {
+            QueuedJob candidate = owner.peek(expensiveAllowed);
+            if (candidate != null && (chosen == null || owner.virtualTime < chosen.virtualTime
+                    || (owner.virtualTime == chosen.virtualTime && candidate.sequence < chosenJob.sequence)))
+            {
+                chosen = owner;
+                chosenJob = candidate;
+            }
+        }
+        if (chosen == null)
+        {
+            return null;
+        }
+        (chosenJob.expensive ? chosen.expensive : chosen.cheap).removeFirst();
+        if (queues == owners)
+        {
+            virtualClock = chosen.virtualTime;
+        }
+        chosen.virtualTime += getEstimatedSeconds(chosenJob.expensive) / chosen.weight;
+        return chosenJob;
+    }
+
+    private double getEstimatedSeconds(boolean expensive)
+    {
+        return laneSeconds[expensive ? 1 : 0];
+    }
+
+    private int getPosition(QueuedJob queuedJob)
+    {
+        Integer position = queuePositions.get(queuedJob.job.getJobId());
+        return position == null ? Integer.MAX_VALUE : position;
+    }
+
+    /**
+     * Run the schedule forward from now, using the estimated run time of each lane, to find when each waiting job is
+     * expected to start. Sets each job's quote and records its queue position.
+     */
+    private void updateQuotes()
+    {
+        queuePositions.clear();
+        long now = clock.getAsLong();
+        PriorityQueue<SimulatedJob> running = new PriorityQueue<>();
+        for (RunningJob job : runningJobs.values())
+        {
+            double elapsed = (now - job.started) / MILLIS_PER_SECOND;
+            double remaining = Math.max(getEstimatedSeconds(job.expensive) - elapsed, MIN_REMAINING_SECONDS);
+            running.add(new SimulatedJob(remaining, job.expensive));
+            setQuote(job.job, remaining);
+        }
+        Map<String, OwnerQueue> simulated = new LinkedHashMap<>();
+        for (OwnerQueue owner : owners.values())
+        {
+            if (!owner.isEmpty())
+            {
+                simulated.put(owner.id, owner.copy());
+            }
+        }
+
+        double time = 0;
+        int position = 0;
+        while (!simulated.isEmpty())
+        {
+            QueuedJob next = running.size() < maxRunningJobs
+                    ? takeNext(simulated, countExpensive(running) < getMaxExpensiveJobs()) : null;
+            if (next != null)
+            {
+                double finish = time + getEstimatedSeconds(next.expensive);
+                running.add(new SimulatedJob(finish, next.expensive));
+                queuePositions.put(next.job.getJobId(), ++position);
+                setQuote(next.job, finish);
+                simulated.values().removeIf(OwnerQueue::isEmpty);
+            }
+            else if (running.isEmpty())
+            {
+                break;
+            }
+            else
+            {
+                time = running.poll().finish;
+            }
+        }
+    }
+
+    private static int countExpensive(PriorityQueue<SimulatedJob> running)
+    {
+        int count = 0;
+        for (SimulatedJob job : running)
+        {
+            count += job.expensive ? 1 : 0;
+        }
+        return count;
+    }
+
+    private static void setQuote(UWSJob job, double seconds)
+    {
+        job.setQuote(Math.max(1, Math.round(seconds)));
+    }
+
+    /**
+     * The jobs waiting for one owner, in separate lanes for cheap and expensive jobs.
+     */
+    private static final class OwnerQueue
+    {
+        private final String id;
+
+        private final double weight;
+
+        private final Deque<QueuedJob> cheap = new ArrayDeque<>();
+
+        private final Deque<QueuedJob> expensive = new ArrayDeque<>();
+
+        /** The estimated run time of the jobs started for the owner, divided by the owner's weight */
+        private double virtualTime;
+
+        OwnerQueue(String id, double weight)
+        {
+            this.id = id;
+            this.weight = weight;
+        }
+
+        OwnerQueue copy()
+        {
+            OwnerQueue copy = new OwnerQueue(id, weight);
+            copy.cheap.addAll(cheap);
+            copy.expensive.addAll(expensive);
+            copy.virtualTime = virtualTime;
+            return copy;
+        }
+
+        boolean isEmpty()
+        {
+            return cheap.isEmpty() && expensive.isEmpty();
+        }
+
+        /**
+         * @return The owner's earliest queued job which may start, or null if there is none.
+         */
+        QueuedJob peek(boolean expensiveAllowed)
+        {
+            QueuedJob cheapJob = cheap.peekFirst();
+            QueuedJob expensiveJob = expensiveAllowed ? expensive.peekFirst() : null;
+            if (cheapJob == null || (expensiveJob != null && expensiveJob.sequence < cheapJob.sequence))
+            {
+                return expensiveJob;
+            }
+            return cheapJob;
+        }
+
+        boolean contains(UWSJob job)
+        {
+            return find(cheap, job) != null || find(expensive, job) != null;
+        }
+
+        void remove(UWSJob job)
+        {
+            cheap.remove(find(cheap, job));
+            expensive.remove(find(expensive, job));
+        }
+
+        private static QueuedJob find(Deque<QueuedJob> lane, UWSJob job)
+        {
+            for (QueuedJob queuedJob : lane)
+            {
+                if (queuedJob.job == job || queuedJob.job.getJobId().equals(job.getJobId()))
+                {
+                    return queuedJob;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A job waiting to start.
+     */
+    private static final class QueuedJob
+    {
+        private final UWSJob job;
+
+        private final boolean expensive;
+
+        /** The order the job was queued in */
+        private final long sequence;
+
+        QueuedJob(UWSJob job, boolean expensive, long sequence)
+        {
+            this.job = job;
+            this.expensive = expensive;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * A job which has been started.
+     */
+    private static final class RunningJob
+    {
+        private final UWSJob job;
+
+        private final boolean expensive;
+
+        private final long started;
+
+        RunningJob(UWSJob job, boolean expensive, long started)
+        {
+            this.job = job;
+            this.expensive = expensive;
+            this.started = started;
+        }
+    }
+
+    /**
+     * A job in the simulated schedule, ordered by when it is expected to finish.
+     */
+    private static final class SimulatedJob implements Comparable<SimulatedJob>
+    {
+        private final double finish;
+
+        private final boolean expensive;
+
+        SimulatedJob(double finish, boolean expensive)
+        {
+            this.finish = finish;
+            this.expensive = expensive;
+        }
+
+        @Override
+        public int compareTo(SimulatedJob other)
+        {
+            return Double.compare(finish, other.finish);
+        }
+    }
+}
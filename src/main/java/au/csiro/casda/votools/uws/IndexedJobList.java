@@ -0,0 +1,338 @@
+package au.csiro.casda.votools.uws;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import uws.UWSException;
+import uws.job.ExecutionPhase;
+import uws.job.JobList;
+import uws.job.JobObserver;
+import uws.job.UWSJob;
+import uws.job.manager.ExecutionManager;
+
+/**
+ * A UWS job list which also indexes its jobs by owner and by phase, newest first, so that a page of the list can be
+ * found without looking at every job. This supports the UWS 1.1 PHASE, AFTER and LAST filters of the job list. The
+ * phase index is kept up to date by observing each job.
+ * <p>
+ * The indexes are concurrent sets, so the jobs can be read while the list is changing. A job which changes phase
+ * while the jobs are being read may be missed, or seen in both phases.
+ * <p>
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class IndexedJobList extends JobList implements JobObserver
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Newest first, then by descending job id as generated ids increase. An entry without a job id comes before all
+     * others created at the same time.
+     */
+    private static final Comparator<Entry> NEWEST_FIRST =
+            Comparator.comparingLong((Entry entry) -> entry.created).reversed()
+                    .thenComparing(entry -> entry.jobId, Comparator.nullsFirst(Comparator.<String> reverseOrder()));
+
+    private final transient Function<UWSJob, String> ownerOf;
+
+    private final transient ToLongFunction<UWSJob> creationTimeOf;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final NavigableSet<Entry> allJobs = new ConcurrentSkipListSet<>(NEWEST_FIRST);
+
+    private final Map<ExecutionPhase, NavigableSet<Entry>> phaseIndex = new EnumMap<>(ExecutionPhase.class);
+
+    private final Map<String, NavigableSet<Entry>> ownerIndex = new ConcurrentHashMap<>();
+
+    /** Guards changes to the indexes, this is not the job list's lock as jobs change phase while holding others. */
+    private final Object indexLock = new Object();
+
+    /**
+     * Create a new IndexedJobList.
+     *
+     * @param jobListName
+     *            The name of the job list.
+     * @param executionManager
+     *            Runs the jobs of the list.
+     * @param ownerOf
+     *            Identifies who a job belongs to, may return null.
+     * @param creationTimeOf
+     *            Gives when a job was created, in milliseconds since the epoch.
+     */
+    public IndexedJobList(String jobListName, ExecutionManager executionManager, Function<UWSJob, String> ownerOf,
+            ToLongFunction<UWSJob> creationTimeOf)
+    {
+        super(jobListName, executionManager);
+        this.ownerOf = ownerOf;
+        this.creationTimeOf = creationTimeOf;
+        for (ExecutionPhase phase : ExecutionPhase.values())
+        {
+            phaseIndex.put(phase, new ConcurrentSkipListSet<>(NEWEST_FIRST));
+        }
+    }
+
+    @Override
+    public synchronized String addNewJob(UWSJob job) throws UWSException
+    {
+        if (job == null || getJob(job.getJobId()) != null)
+        {
+            return null;
+        }
+        // The job is indexed first, as it may be started, and so change phase, as it is added
+        Entry entry = new Entry(job, ownerOf.apply(job), creationTimeOf.applyAsLong(job));
+        job.addObserver(this);
+        synchronized (indexLock)
+        {
+            entries.put(entry.jobId, entry);
+            allJobs.add(entry);
+            if (entry.owner != null)
+            {
+                ownerIndex.computeIfAbsent(entry.owner, owner -> new ConcurrentSkipListSet<>(NEWEST_FIRST))
+                        .add(entry);
+            }
+            entry.phase = job.getPhase();
+            phaseIndex.get(entry.phase).add(entry);
+        }
+
+        String jobId = null;
+        try
+        {
+            jobId = super.addNewJob(job);
+        }
+        finally
+        {
+            if (jobId == null)
+            {
+                removeFromIndex(job.getJobId());
+            }
+        }
+        return jobId;
+    }
+
+    @Override
+    protected UWSJob removeJob(String jobId)
+    {
+        UWSJob job = super.removeJob(jobId);
+        if (job != null)
+        {
+            removeFromIndex(jobId);
+        }
+        return job;
+    }
+
+    private void removeFromIndex(String jobId)
+    {
+        Entry entry;
+        synchronized (indexLock)
+        {
+            entry = entries.remove(jobId);
+            if (entry == null)
+            {
+                return;
+            }
+            allJobs.remove(entry);
+            phaseIndex.get(entry.phase).remove(entry);
+            if (entry.owner != null)
+            {
+                NavigableSet<Entry> ownerJobs = ownerIndex.get(entry.owner);
+                ownerJobs.remove(entry);
+                if (ownerJobs.isEmpty())
+                {
+                    ownerIndex.remove(entry.owner);
+                }
+            }
+        }
+        entry.job.removeObserver(this);
+    }
+
+    @Override
+    public void update(UWSJob job, ExecutionPhase oldPhase, ExecutionPhase newPhase)
+    {
+        synchronized (indexLock)
+        {
+            Entry entry = entries.get(job.getJobId());
+            if (entry == null || entry.job != job)
+            {
+                return;
+            }
+            // Notifications may arrive out of order, so the job's phase is used rather than the one given
+            phaseIndex.get(entry.phase).remove(entry);
+            entry.phase = job.getPhase();
+            phaseIndex.get(entry.phase).add(entry);
+        }
+    }
+
+    /**
+     * Find the jobs matching the UWS 1.1 job list filters, newest first.
+     *
+     * @param owner
+     *            Only jobs belonging to this owner, or null for all owners.
+     * @param phases
+     *            Only jobs in one of these phases, or null or empty for all phases.
+     * @param after
+     *            Only jobs created after this time in milliseconds since the epoch, or null for all times.
+     * @param last
+     *            The most jobs to return, or 0 for no limit.
+     * @return The jobs, read as they are iterated.
+     */
+    public Iterator<UWSJob> getJobs(String owner, Collection<ExecutionPhase> phases, Long after, int last)
+    {
+        boolean allPhases = phases == null || phases.isEmpty();
+        List<NavigableSet<Entry>> sources = new ArrayList<>();
+        if (owner != null)
+        {
+            NavigableSet<Entry> ownerJobs = ownerIndex.get(owner);
+            if (ownerJobs == null)
+            {
+                return Collections.emptyIterator();
+            }
+            sources.add(ownerJobs);
+        }
+        else if (allPhases)
+        {
+            sources.add(allJobs);
+        }
+        else
+        {
+            phases.stream().distinct().forEach(phase -> sources.add(phaseIndex.get(phase)));
+        }
+        if (after != null)
+        {
+            Entry boundary = new Entry(null, null, after);
+            sources.replaceAll(jobs -> jobs.headSet(boundary, false));
+        }
+
+        Iterator<Entry> merged = sources.size() == 1 ? sources.get(0).iterator() : new MergedIterator(sources);
+        Stream<Entry> jobs = StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+        if (!allPhases)
+        {
+            jobs = jobs.filter(entry -> phases.contains(entry.phase));
+        }
+        if (sources.size() > 1)
+        {
+            jobs = jobs.distinct();
+        }
+        if (last > 0)
+        {
+            jobs = jobs.limit(last);
+        }
+        return jobs.map(entry -> entry.job).iterator();
+    }
+
+    /**
+     * A job's place in the indexes.
+     */
+    private static final class Entry
+    {
+        private final UWSJob job;
+
+        private final String jobId;
+
+        private final String owner;
+
+        private final long created;
+
+        private volatile ExecutionPhase phase;
+
+        Entry(UWSJob job, String owner, long created)
+        {
+            this.job = job;
+            this.jobId = job == null ? null : job.getJobId();
+            this.owner = owner;
+            this.created = created;
+        }
+    }
+
+    /**
+     * Merges several sets of entries, each newest first, into one sequence, newest first.
+     */
+    private static final class MergedIterator implements Iterator<Entry>
+    {
+        private final PriorityQueue<Head> heads = new PriorityQueue<>();
+
+        MergedIterator(List<NavigableSet<Entry>> sources)
+        {
+            for (NavigableSet<Entry> source : sources)
+            {
+                Iterator<Entry> iterator = source.iterator();
+                if (iterator.hasNext())
+                {
+                    heads.add(new Head(iterator.next(), iterator));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public Entry next()
+        {
+            Head head = heads.poll();
+            if (head == null)
+            {
+                throw new NoSuchElementException();
+            }
+            if (head.rest.hasNext())
+            {
+                heads.add(new Head(head.rest.next(), head.rest));
+            }
+            return head.entry;
+        }
+
+        /**
+         * The next entry of one of the sets, and the rest of that set.
+         */
+        private static final class Head implements Comparable<Head>
+        {
+            private final Entry entry;
+
+            private final Iterator<Entry> rest;
+
+            Head(Entry entry, Iterator<Entry> rest)
+            {
+                this.entry = entry;
+                this.rest = rest;
+            }
+
+            @Override
+            public int compareTo(Head other)
+            {
+                return NEWEST_FIRST.compare(entry, other.entry);
+            }
+        }
+    }
+}
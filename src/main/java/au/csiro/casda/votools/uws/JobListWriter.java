@@ -0,0 +1,78 @@
+package au.csiro.casda.votools.uws;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+
+import org.apache.commons.lang3.StringUtils;
+
+import uws.job.UWSJob;
+import uws.job.serializer.XMLSerializer;
+
+/**
+ * Writes a UWS job list as XML one job at a time, in the same form as the UWS library's XMLSerializer, which builds
+ * the whole list as one string. The links to the jobs are written as plain URLs.
+ * <p>
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class JobListWriter
+{
+    private final XMLSerializer serializer = new XMLSerializer();
+
+    private final String jobListUrl;
+
+    /**
+     * Create a new JobListWriter.
+     *
+     * @param jobListUrl
+     *            The URL of the job list, which each job's URL is made from.
+     */
+    public JobListWriter(String jobListUrl)
+    {
+        this.jobListUrl = StringUtils.removeEnd(jobListUrl, "/");
+    }
+
+    /**
+     * Write the job list.
+     *
+     * @param jobs
+     *            The jobs to list, read as they are written.
+     * @param writer
+     *            The destination for the list.
+     * @throws IOException
+     *             If the list cannot be written.
+     */
+    public void write(Iterator<UWSJob> jobs, Writer writer) throws IOException
+    {
+        writer.write(serializer.getHeader());
+        writer.write("<jobs ");
+        writer.write(serializer.getUWSNamespace());
+        writer.write(">");
+        while (jobs.hasNext())
+        {
+            UWSJob job = jobs.next();
+            writer.write("\n\t<jobref id=\"");
+            writer.write(XMLSerializer.escapeXMLAttribute(job.getJobId()));
+            writer.write("\" xlink:href=\"");
+            // The library URL encodes the whole link, which leaves it unusable
+            writer.write(XMLSerializer.escapeXMLAttribute(jobListUrl + "/" + job.getJobId()));
+            writer.write("\">\n\t\t");
+            writer.write(serializer.getPhase(job, false));
+            writer.write("\n\t</jobref>");
+        }
+        writer.write("\n</jobs>");
+        writer.flush();
+    }
+}
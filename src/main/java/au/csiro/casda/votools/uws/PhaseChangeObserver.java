@@ -0,0 +1,90 @@
+package au.csiro.casda.votools.uws;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import uws.job.ExecutionPhase;
+import uws.job.JobObserver;
+import uws.job.UWSJob;
+
+/**
+ * Observes a job for a request waiting on the job to leave its current phase, as with the UWS 1.1 WAIT parameter.
+ * The waiting request is woken once, on the first change of phase, and the observer then removes itself from the
+ * job.
+ * <p>
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class PhaseChangeObserver implements JobObserver
+{
+    /** The phases a request may wait on the job to leave, the others do not change without a client asking. */
+    public static final Set<ExecutionPhase> ACTIVE_PHASES =
+            EnumSet.of(ExecutionPhase.PENDING, ExecutionPhase.QUEUED, ExecutionPhase.EXECUTING);
+
+    private static final long serialVersionUID = 1L;
+
+    private final ExecutionPhase phase;
+
+    /** The waiting request is not kept if the job is saved. */
+    private final transient Runnable wakeUp;
+
+    /**
+     * Create a new PhaseChangeObserver.
+     *
+     * @param phase
+     *            the phase the job is in
+     * @param wakeUp
+     *            called once the job has left the phase
+     */
+    public PhaseChangeObserver(ExecutionPhase phase, Runnable wakeUp)
+    {
+        this.phase = phase;
+        this.wakeUp = wakeUp;
+    }
+
+    /**
+     * Start observing a job, waking the request straight away if the job has already left the phase.
+     *
+     * @param job
+     *            the job to observe
+     */
+    public void observe(UWSJob job)
+    {
+        job.addObserver(this);
+        // The phase may have changed before the observer was added
+        if (job.getPhase() != phase)
+        {
+            job.removeObserver(this);
+            wake();
+        }
+    }
+
+    @Override
+    public void update(UWSJob job, ExecutionPhase oldPhase, ExecutionPhase newPhase)
+    {
+        if (newPhase != phase)
+        {
+            job.removeObserver(this);
+            wake();
+        }
+    }
+
+    private void wake()
+    {
+        if (wakeUp != null)
+        {
+            wakeUp.run();
+        }
+    }
+}
@@ -20,6 +20,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import au.csiro.casda.votools.config.ConfigurationException;
 import uws.UWSException;
+import uws.job.UWSJob;
 
 /**
  * Interface for UWS to allow for different implementations in controller.
@@ -42,6 +43,22 @@ public interface UWServiceInterface
      */
     boolean executeRequest(HttpServletRequest request, HttpServletResponse response) throws UWSException, IOException;
 
+    /**
+     * Find an async job.
+     * 
+     * @param jobId
+     *            The id of the job
+     * @return The job, or null if there is no such job
+     */
+    UWSJob getJob(String jobId);
+
+    /**
+     * Get the list of async jobs, with its indexes for filtering the list.
+     * 
+     * @return The async job list
+     */
+    IndexedJobList getAsyncJobList();
+
     /**
      * Checks if the service is ready to serve requests.
      * @return true if the service is ready
@@ -57,6 +57,8 @@ public class ConfigurationDAOImplTest
                     Arguments.arguments("integer", "INTEGER"),
                     Arguments.arguments("bigint", "BIGINT"),
                     Arguments.arguments("spoly", "REGION"),
+                    Arguments.arguments("scircle", "REGION"),
+                    Arguments.arguments("spoint", "REGION"),
                     Arguments.arguments("geometry", "REGION"),
                     Arguments.arguments("timestamp with time zone", "TIMESTAMP"),
                     Arguments.arguments("TIMESTAMP WITHOUT TIME ZONE", "TIMESTAMP"));
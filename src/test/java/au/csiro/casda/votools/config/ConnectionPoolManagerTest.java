@@ -0,0 +1,109 @@
+package au.csiro.casda.votools.config;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Verify the sharing and rebuilding of connection pools by ConnectionPoolManager.
+ * <p>
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class ConnectionPoolManagerTest
+{
+    private Configuration config;
+
+    @BeforeEach
+    public void setUp()
+    {
+        config = new Configuration();
+        config.put(ConfigValueKeys.CONNECTION_URL, "jdbc:postgresql://localhost:1/none");
+        config.put("connection.username", "user");
+        config.put("connection.password", "secret");
+        config.put(ConfigKeys.CONNECTION_POOL_MIN_IDLE.getKey(), "0");
+    }
+
+    @AfterEach
+    public void tearDown()
+    {
+        ConnectionPoolManager.closeAll();
+    }
+
+    @Test
+    public void testPoolSettings()
+    {
+        config.put(ConfigKeys.CONNECTION_POOL_SYNC_SIZE.getKey(), "7");
+        config.put(ConfigKeys.CONNECTION_POOL_ACQUIRE_TIMEOUT.getKey(), "5000");
+        config.put(ConfigKeys.CONNECTION_POOL_MAX_LIFETIME.getKey(), "600000");
+
+        HikariDataSource sync = ConnectionPoolManager.getDataSource(ConnectionPool.SYNC, config);
+        assertThat(sync.getPoolName(), is("casda-vo-sync"));
+        assertThat(sync.getMaximumPoolSize(), is(7));
+        assertThat(sync.getMinimumIdle(), is(0));
+        assertThat(sync.getConnectionTimeout(), is(5000L));
+        assertThat(sync.getMaxLifetime(), is(600000L));
+
+        HikariDataSource async = ConnectionPoolManager.getDataSource(ConnectionPool.ASYNC, config);
+        assertThat(async.getPoolName(), is("casda-vo-async"));
+        assertThat(async.getMaximumPoolSize(), is(6));
+        assertThat(async.getConnectionTimeout(), is(5000L));
+    }
+
+    @Test
+    public void testPoolSharedBetweenConfigurations()
+    {
+        HikariDataSource first = ConnectionPoolManager.getDataSource(ConnectionPool.METADATA, config);
+
+        Configuration other = new Configuration();
+        other.getOptions().putAll(config.getOptions());
+        HikariDataSource second = ConnectionPoolManager.getDataSource(ConnectionPool.METADATA, other);
+
+        assertThat(second, is(sameInstance(first)));
+        assertThat(first.isClosed(), is(false));
+    }
+
+    @Test
+    public void testPoolReplacedWhenSettingsChange()
+    {
+        HikariDataSource first = ConnectionPoolManager.getDataSource(ConnectionPool.METADATA, config);
+
+        config.put(ConfigKeys.CONNECTION_POOL_METADATA_SIZE.getKey(), "2");
+        HikariDataSource second = ConnectionPoolManager.getDataSource(ConnectionPool.METADATA, config);
+
+        assertThat(second, is(not(sameInstance(first))));
+        assertThat(first.isClosed(), is(true));
+        assertThat(second.getMaximumPoolSize(), is(2));
+    }
+
+    @Test
+    public void testPoolsClosedOnShutdown()
+    {
+        HikariDataSource sync = ConnectionPoolManager.getDataSource(ConnectionPool.SYNC, config);
+        HikariDataSource async = ConnectionPoolManager.getDataSource(ConnectionPool.ASYNC, config);
+
+        new ConfigurationRegistry().shutdown();
+
+        assertThat(sync.isClosed(), is(true));
+        assertThat(async.isClosed(), is(true));
+        assertThat(ConnectionPoolManager.getDataSource(ConnectionPool.SYNC, config), is(not(sameInstance(sync))));
+    }
+}
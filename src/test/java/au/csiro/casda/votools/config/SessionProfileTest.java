@@ -0,0 +1,115 @@
+package au.csiro.casda.votools.config;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Verify the parsing and application of database session profiles by SessionProfile.
+ * <p>
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class SessionProfileTest
+{
+
+    @Test
+    public void testParseSettings()
+    {
+        Map<String, String> settings = SessionProfile.parseSettings(Arrays.asList("application_name=casda-vo-scs",
+                "work_mem=64MB", "", "pg_hint_plan.enable_hint=on", "statement_timeout=30s"));
+
+        assertThat(settings.keySet(),
+                contains("application_name", "work_mem", "pg_hint_plan.enable_hint", "statement_timeout"));
+        assertThat(settings.get("work_mem"), is("64MB"));
+        assertThat(settings.get("statement_timeout"), is("30s"));
+    }
+
+    @Test
+    public void testParseSettingsSkipsInvalidEntries()
+    {
+        Map<String, String> settings = SessionProfile.parseSettings(
+                Arrays.asList("jit", "work_mem;drop table x=1", "=off", "1jit=off", "jit=off"));
+
+        assertThat(settings.size(), is(1));
+        assertThat(settings.get("jit"), is("off"));
+    }
+
+    @Test
+    public void testGetSettings()
+    {
+        Configuration config = new Configuration();
+        assertThat(SessionProfile.SCS.getSettings(config).isEmpty(), is(true));
+
+        EndPoint tap = new EndPoint();
+        tap.setConfig(config);
+        tap.put(ConfigKeys.TAP_SESSION_PROFILE_ASYNC.getKey(), "work_mem=64MB, jit=off");
+        config.getEndPoints().put("TAP", tap);
+
+        Map<String, String> settings = SessionProfile.TAP_ASYNC.getSettings(config);
+        assertThat(settings.keySet(), contains("work_mem", "jit"));
+        assertThat(SessionProfile.TAP_SYNC.getSettings(config).isEmpty(), is(true));
+    }
+
+    @Test
+    public void testApply() throws Exception
+    {
+        Connection connection = mock(Connection.class);
+        PreparedStatement statement = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(rs);
+
+        Map<String, String> settings = new LinkedHashMap<>();
+        settings.put("application_name", "casda-vo-tap-sync");
+        settings.put("jit", "off");
+        SessionProfile.apply(connection, settings);
+
+        verify(connection).prepareStatement("SELECT set_config(?, ?, true), set_config(?, ?, true)");
+        InOrder order = inOrder(statement);
+        order.verify(statement).setString(1, "application_name");
+        order.verify(statement).setString(2, "casda-vo-tap-sync");
+        order.verify(statement).setString(3, "jit");
+        order.verify(statement).setString(4, "off");
+        order.verify(statement).executeQuery();
+        verify(statement).close();
+    }
+
+    @Test
+    public void testApplyNoSettings() throws Exception
+    {
+        Connection connection = mock(Connection.class);
+
+        SessionProfile.apply(connection, Collections.emptyMap());
+
+        verify(connection, never()).prepareStatement(anyString());
+    }
+}
@@ -244,7 +244,7 @@ public class DataLinkServiceTest extends BaseTest
         result.put("filesize", 1L);
         result.put("released_date", null);
         when(jdbcTemplate.queryForMap(any(), eq(123456L))).thenReturn(result);
-        when(jdbcTemplate.queryForObject(any(), eq(new Object[] { 123456L }), eq(String.class))).thenReturn("12345");
+        when(jdbcTemplate.queryForObject(any(), eq(new Object[] { 123456L, "{123,456,789}" }), eq(String.class))).thenReturn("12345");
 
         StringWriter writer = new StringWriter();
         dataLinkService.processQuery(writer, new String[] { "cube-123456" }, "pul052", "OPAL", PROJECT_CODE_SAMPLE_LIST,
@@ -272,6 +272,9 @@ public class DataLinkServiceTest extends BaseTest
         checkXmlAgainstTestCaseFile("service.error", writer.getBuffer().toString());
 
         testAppender.verifyLogMessage(Level.INFO, "Initialised connection");
+        // the lookups for the ids share a transaction
+        testAppender.verifyLogMessage(Level.INFO, "Executed SQL: BEGIN READ WRITE");
+        testAppender.verifyLogMessage(Level.INFO, "Executed SQL: COMMIT");
         testAppender.verifyLogMessage(Level.ERROR,
                 allOf(containsString("E150]"), containsString("requestIds: \"[cube-123456]\""),
                         containsString("userMessage: failed to build AccessData URI's"),
@@ -424,7 +427,7 @@ public class DataLinkServiceTest extends BaseTest
         result.put("filesize", 209717200L);
         result.put("released_date", null);
         when(jdbcTemplate.queryForMap(any(), eq(123456L))).thenReturn(result);
-        when(jdbcTemplate.queryForObject(any(), eq(new Object[] { 123456L }), eq(String.class))).thenReturn("12345");
+        when(jdbcTemplate.queryForObject(any(), eq(new Object[] { 123456L, "{123,456,789}" }), eq(String.class))).thenReturn("12345");
 
         StringWriter writer = new StringWriter();
         dataLinkService.processQuery(writer, new String[] { "cube-123456" }, "pul052", "OPAL", PROJECT_CODE_SAMPLE_LIST,
@@ -441,7 +444,7 @@ public class DataLinkServiceTest extends BaseTest
         result.put("filesize", 21474836485L);
         result.put("released_date", null);
         when(jdbcTemplate.queryForMap(any(), eq(123456L))).thenReturn(result);
-        when(jdbcTemplate.queryForObject(any(), eq(new Object[] { 123456L }), eq(String.class))).thenReturn("12345");
+        when(jdbcTemplate.queryForObject(any(), eq(new Object[] { 123456L, "{123,456,789}" }), eq(String.class))).thenReturn("12345");
 
         StringWriter writer = new StringWriter();
         dataLinkService.processQuery(writer, new String[] { "cube-123456" }, "pul052", "OPAL", PROJECT_CODE_SAMPLE_LIST,
@@ -0,0 +1,135 @@
+package au.csiro.casda.votools.jpa.repository;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import au.csiro.casda.votools.config.ConfigurationDAO;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Verify the loading and lookup of project ids by ProjectIdCache.
+ * <p>
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class ProjectIdCacheTest
+{
+    private static final String SCHEMA = "casda";
+
+    private ConfigurationDAO dao;
+
+    private ProjectIdCache cache;
+
+    @BeforeEach
+    public void setUp()
+    {
+        dao = mock(ConfigurationDAO.class);
+        Map<String, Long> allProjects = new HashMap<>();
+        allProjects.put("AS031", 31L);
+        allProjects.put("AS033", 33L);
+        when(dao.findProjectIdsByCode(isNull(), eq(SCHEMA))).thenReturn(allProjects);
+
+        cache = new ProjectIdCache(0, 900);
+        cache.setDao(dao);
+    }
+
+    @AfterEach
+    public void tearDown()
+    {
+        cache.shutdown();
+    }
+
+    @Test
+    public void testNoCodes()
+    {
+        assertThat(cache.getProjectIds(null, SCHEMA), is(nullValue()));
+        assertThat(cache.getProjectIds(Collections.emptyList(), SCHEMA), is(nullValue()));
+        verifyNoMoreInteractions(dao);
+    }
+
+    @Test
+    public void testBulkLoadedOnce()
+    {
+        assertThat(cache.getProjectIds(Arrays.asList("AS033", "AS031"), SCHEMA), contains(33L, 31L));
+        assertThat(cache.getProjectIds(Collections.singletonList("AS031"), SCHEMA), contains(31L));
+
+        verify(dao, times(1)).findProjectIdsByCode(isNull(), eq(SCHEMA));
+        verifyNoMoreInteractions(dao);
+    }
+
+    @Test
+    public void testMissingCodesQueriedTogether()
+    {
+        when(dao.findProjectIdsByCode(eq(Arrays.asList("AS099", "UNKNOWN")), eq(SCHEMA)))
+                .thenReturn(Collections.singletonMap("AS099", 99L));
+
+        assertThat(cache.getProjectIds(Arrays.asList("AS099", "AS031", "UNKNOWN"), SCHEMA), contains(99L, 31L));
+        // the new project is now in the map, the unknown code is still looked up
+        when(dao.findProjectIdsByCode(eq(Collections.singletonList("UNKNOWN")), eq(SCHEMA)))
+                .thenReturn(Collections.emptyMap());
+        assertThat(cache.getProjectIds(Arrays.asList("AS099", "UNKNOWN"), SCHEMA), contains(99L));
+        assertThat(cache.getProjectIds(Collections.singletonList("UNKNOWN"), SCHEMA), is(empty()));
+
+        verify(dao, times(1)).findProjectIdsByCode(isNull(), eq(SCHEMA));
+        verify(dao, times(1)).findProjectIdsByCode(eq(Arrays.asList("AS099", "UNKNOWN")), eq(SCHEMA));
+        verify(dao, times(2)).findProjectIdsByCode(eq(Collections.singletonList("UNKNOWN")), eq(SCHEMA));
+    }
+
+    @Test
+    public void testInvalidateReloads()
+    {
+        cache.getProjectIds(Collections.singletonList("AS031"), SCHEMA);
+        cache.invalidate();
+        cache.getProjectIds(Collections.singletonList("AS031"), SCHEMA);
+
+        verify(dao, times(2)).findProjectIdsByCode(isNull(), eq(SCHEMA));
+    }
+
+    @Test
+    public void testExpiredMapReloaded()
+    {
+        ProjectIdCache expiringCache = new ProjectIdCache(0, 0);
+        expiringCache.setDao(dao);
+        expiringCache.getProjectIds(Collections.singletonList("AS031"), SCHEMA);
+        try
+        {
+            Thread.sleep(5);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        expiringCache.getProjectIds(Collections.singletonList("AS031"), SCHEMA);
+
+        verify(dao, times(2)).findProjectIdsByCode(isNull(), eq(SCHEMA));
+    }
+}
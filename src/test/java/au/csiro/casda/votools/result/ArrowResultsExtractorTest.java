@@ -0,0 +1,236 @@
+package au.csiro.casda.votools.result;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowStreamReader;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Validates the ArrowResultsExtractor class.
+ *
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class ArrowResultsExtractorTest
+{
+    private static final String APP_BASE_URL = "http://localhost/";
+
+    @Test
+    public void testExtractDataInBatches() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResultSet mockResults = createResults();
+        Mockito.when(mockResults.next()).thenReturn(true, true, false);
+
+        Map<String, String> fieldMap = new HashMap<>();
+        fieldMap.put("|table|ra", "<FIELD name=\"ra\" datatype=\"double\" unit=\"deg\" ucd=\"pos.eq.ra\" />");
+        ArrowResultsExtractor extractor =
+                new ArrowResultsExtractor(out, 10, fieldMap, 1, 1024, APP_BASE_URL, null);
+        assertThat(extractor.extractData(mockResults), is(false));
+        assertThat(extractor.getProcessedCount(), is(2L));
+
+        try (BufferAllocator allocator = new RootAllocator();
+                ArrowStreamReader reader = new ArrowStreamReader(new ByteArrayInputStream(out.toByteArray()),
+                        allocator))
+        {
+            VectorSchemaRoot root = reader.getVectorSchemaRoot();
+            verifySchema(root.getSchema());
+            assertThat(root.getSchema().getFields().get(1).getMetadata().get("unit"), is("deg"));
+            assertThat(root.getSchema().getFields().get(1).getMetadata().get("ucd"), is("pos.eq.ra"));
+
+            assertThat(reader.loadNextBatch(), is(true));
+            assertThat(root.getRowCount(), is(1));
+            assertThat(((BigIntVector) root.getVector(0)).get(0), is(42L));
+            assertThat(((Float8Vector) root.getVector(1)).get(0), is(1.5));
+            assertThat(root.getVector(2).getObject(0).toString(), is("abcdefghijk"));
+            assertThat(((BitVector) root.getVector(3)).getObject(0), is(true));
+
+            assertThat(reader.loadNextBatch(), is(true));
+            assertThat(root.getRowCount(), is(1));
+            assertThat(root.getVector(0).isNull(0), is(true));
+            assertThat(root.getVector(1).isNull(0), is(true));
+            assertThat(root.getVector(2).getObject(0).toString(), is("caf\u00e9"));
+            assertThat(((BitVector) root.getVector(3)).getObject(0), is(false));
+
+            assertThat(reader.loadNextBatch(), is(false));
+        }
+    }
+
+    @Test
+    public void testExtractDataByteBudget() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResultSet mockResults = createResults();
+        Mockito.when(mockResults.next()).thenReturn(true, true, true);
+
+        // The first row fills the batch, the cutoff leaves the second row for the last batch
+        ArrowResultsExtractor extractor = new ArrowResultsExtractor(out, 2, null, 100, 20, APP_BASE_URL, null);
+        assertThat(extractor.extractData(mockResults), is(true));
+        assertThat(extractor.getProcessedCount(), is(2L));
+
+        List<Integer> batchSizes = readBatchSizes(out.toByteArray());
+        assertThat(batchSizes.size(), is(2));
+        assertThat(batchSizes.get(0), is(1));
+        assertThat(batchSizes.get(1), is(1));
+    }
+
+    @Test
+    public void testExtractDataSingleBatch() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResultSet mockResults = createResults();
+        Mockito.when(mockResults.next()).thenReturn(true, true, false);
+
+        ArrowResultsExtractor extractor = new ArrowResultsExtractor(out, 10, null, 100, 1024, APP_BASE_URL, null);
+        extractor.extractData(mockResults);
+
+        List<Integer> batchSizes = readBatchSizes(out.toByteArray());
+        assertThat(batchSizes.size(), is(1));
+        assertThat(batchSizes.get(0), is(2));
+    }
+
+    @Test
+    public void testExtractMetaData() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ArrowResultsExtractor extractor = new ArrowResultsExtractor(out, 10, null, 100, 1024, APP_BASE_URL, null);
+
+        extractor.extractMetaData(createResults().getMetaData(), false);
+
+        try (BufferAllocator allocator = new RootAllocator();
+                ArrowStreamReader reader = new ArrowStreamReader(new ByteArrayInputStream(out.toByteArray()),
+                        allocator))
+        {
+            verifySchema(reader.getVectorSchemaRoot().getSchema());
+            assertThat(reader.getVectorSchemaRoot().getSchema().getFields().get(1).getMetadata().get("unit"),
+                    is(nullValue()));
+            assertThat(reader.loadNextBatch(), is(false));
+        }
+    }
+
+    @Test
+    public void testColumnTypes() throws Exception
+    {
+        ResultSetMetaData mockMetaData = Mockito.mock(ResultSetMetaData.class);
+        Mockito.when(mockMetaData.getColumnType(1)).thenReturn(Types.TIMESTAMP);
+        Mockito.when(mockMetaData.getColumnType(2)).thenReturn(Types.INTEGER);
+        Mockito.when(mockMetaData.getColumnType(3)).thenReturn(Types.VARCHAR);
+        Mockito.when(mockMetaData.getColumnType(4)).thenReturn(Types.OTHER);
+        Mockito.when(mockMetaData.getColumnTypeName(4)).thenReturn("varbit");
+        Mockito.when(mockMetaData.getColumnType(5)).thenReturn(Types.REAL);
+        ArrowResultsExtractor extractor =
+                new ArrowResultsExtractor(new ByteArrayOutputStream(), 10, null, 100, 1024, APP_BASE_URL, null);
+
+        assertThat(extractor.getArrowColumn(mockMetaData, 1, "char", null).getType(),
+                is(new ArrowType.Timestamp(TimeUnit.MILLISECOND, "UTC")));
+        assertThat(extractor.getArrowColumn(mockMetaData, 2, "int", null).getType(),
+                is(new ArrowType.Int(32, true)));
+        assertThat(extractor.getArrowColumn(mockMetaData, 2, "char", null).getType(),
+                is(ArrowType.Utf8.INSTANCE));
+        // A numeric TAP type for a text column cannot be read as a number
+        assertThat(extractor.getArrowColumn(mockMetaData, 3, "long", null).getType(),
+                is(ArrowType.Utf8.INSTANCE));
+        assertThat(extractor.getArrowColumn(mockMetaData, 4, "char", null).getType(),
+                is(new ArrowType.Int(32, true)));
+        assertThat(extractor.getArrowColumn(mockMetaData, 5, "float", null).getType(),
+                is(new ArrowType.FloatingPoint(FloatingPointPrecision.SINGLE)));
+    }
+
+    @Test
+    public void testFormat()
+    {
+        assertThat(OutputFormat.findMatchingFormat("application/vnd.apache.arrow.stream"), is(OutputFormat.ARROW));
+        assertThat(OutputFormat.findMatchingFormat("arrow"), is(OutputFormat.ARROW));
+        assertThat(OutputFormat.ARROW.getFileExtension(), is("arrows"));
+        assertThat(OutputFormat.ARROW.isBinary(), is(true));
+    }
+
+    private void verifySchema(Schema schema)
+    {
+        assertThat(schema.getFields().size(), is(4));
+        assertThat(schema.getFields().get(0).getName(), is("id"));
+        assertThat(schema.getFields().get(0).getType(), is(new ArrowType.Int(64, true)));
+        assertThat(schema.getFields().get(1).getName(), is("ra"));
+        assertThat(schema.getFields().get(1).getType(),
+                is(new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE)));
+        assertThat(schema.getFields().get(2).getType(), is(ArrowType.Utf8.INSTANCE));
+        assertThat(schema.getFields().get(3).getType(), is(ArrowType.Bool.INSTANCE));
+        assertThat(schema.getFields().get(0).isNullable(), is(true));
+    }
+
+    private List<Integer> readBatchSizes(byte[] bytes) throws Exception
+    {
+        List<Integer> batchSizes = new ArrayList<>();
+        try (BufferAllocator allocator = new RootAllocator();
+                ArrowStreamReader reader = new ArrowStreamReader(new ByteArrayInputStream(bytes), allocator))
+        {
+            while (reader.loadNextBatch())
+            {
+                batchSizes.add(reader.getVectorSchemaRoot().getRowCount());
+                assertThat(reader.getVectorSchemaRoot().getVector(2) instanceof VarCharVector, is(true));
+            }
+        }
+        return batchSizes;
+    }
+
+    private ResultSet createResults() throws Exception
+    {
+        ResultSetMetaData mockMetaData = Mockito.mock(ResultSetMetaData.class);
+        Mockito.when(mockMetaData.getColumnCount()).thenReturn(4);
+        Mockito.when(mockMetaData.getColumnName(1)).thenReturn("id");
+        Mockito.when(mockMetaData.getColumnType(1)).thenReturn(Types.BIGINT);
+        Mockito.when(mockMetaData.getColumnName(2)).thenReturn("ra");
+        Mockito.when(mockMetaData.getTableName(2)).thenReturn("table");
+        Mockito.when(mockMetaData.getColumnType(2)).thenReturn(Types.DOUBLE);
+        Mockito.when(mockMetaData.getColumnName(3)).thenReturn("name");
+        Mockito.when(mockMetaData.getColumnType(3)).thenReturn(Types.VARCHAR);
+        Mockito.when(mockMetaData.getColumnName(4)).thenReturn("flag");
+        Mockito.when(mockMetaData.getColumnType(4)).thenReturn(Types.BOOLEAN);
+        Mockito.when(mockMetaData.getColumnTypeName(4)).thenReturn("bool");
+
+        ResultSet mockResults = Mockito.mock(ResultSet.class);
+        Mockito.when(mockResults.getMetaData()).thenReturn(mockMetaData);
+        Mockito.when(mockResults.getLong(1)).thenReturn(42L, 0L);
+        Mockito.when(mockResults.getDouble(2)).thenReturn(1.5, 0.0);
+        Mockito.when(mockResults.getString(3)).thenReturn("abcdefghijk", "caf\u00e9");
+        Mockito.when(mockResults.getBoolean(4)).thenReturn(true, false);
+        // id and ra are null in the second row
+        Mockito.when(mockResults.wasNull()).thenReturn(false, false, false, true, true, false);
+        return mockResults;
+    }
+}
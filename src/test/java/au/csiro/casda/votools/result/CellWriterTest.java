@@ -0,0 +1,123 @@
+package au.csiro.casda.votools.result;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.StringWriter;
+
+import org.apache.commons.text.StringEscapeUtils;
+import org.apache.commons.text.translate.CharSequenceTranslator;
+import org.apache.commons.text.translate.NumericEntityEscaper;
+import org.junit.jupiter.api.Test;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Validates the CellWriter class.
+ *
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class CellWriterTest
+{
+    /** The escaping previously used for every cell value, which the CellWriter must reproduce */
+    private static final CharSequenceTranslator ORIGINAL_ESCAPER =
+            StringEscapeUtils.ESCAPE_XML11.with(NumericEntityEscaper.between(0x7f, Integer.MAX_VALUE));
+
+    @Test
+    public void testEscapeMatchesOriginal() throws Exception
+    {
+        StringBuilder allChars = new StringBuilder();
+        for (char c = 0; c < Character.MAX_VALUE; c++)
+        {
+            allChars.append(c);
+        }
+        allChars.append(Character.MAX_VALUE);
+
+        String[] values = { "", "plain text 123", "a < b & c > \"d\" 'e'", "tab\tnew\nline\rreturn",
+                "ctrl\u0000\u0001\u000b\u000c\u001f\u007f\u0085\u009f", "caf\u00e9 \u00b0 \u2103",
+                "pair \ud83d\ude00 end", "lone \ud83d high", "lone \ude00 low", "\ud83d", "non-char \ufffe\uffff",
+                allChars.toString() };
+        for (String value : values)
+        {
+            assertThat(escape(value), is(ORIGINAL_ESCAPER.translate(value)));
+        }
+    }
+
+    @Test
+    public void testRowOutput() throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        CellWriter cellWriter = new CellWriter(writer);
+
+        cellWriter.append("<TR>");
+        cellWriter.append('!');
+        cellWriter.appendEscaped(null);
+        cellWriter.appendEscaped("a&b");
+        assertThat(writer.toString(), is(""));
+        cellWriter.writeRow();
+        cellWriter.append("partial");
+        cellWriter.discardRow();
+        cellWriter.append("next");
+        cellWriter.writeRow();
+
+        assertThat(writer.toString(), is("<TR>!a&amp;bnext"));
+    }
+
+    @Test
+    public void testDelimitedOutput() throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        CellWriter cellWriter = new CellWriter(writer);
+
+        cellWriter.appendEscapedDelimited("plain", ',');
+        cellWriter.append(',');
+        cellWriter.appendEscapedDelimited("a,b", ',');
+        cellWriter.append(',');
+        cellWriter.appendEscapedDelimited("two\nlines", ',');
+        cellWriter.append(',');
+        cellWriter.appendEscapedDelimited("tab\there \"quoted\"", ',');
+        cellWriter.append('\t');
+        cellWriter.appendEscapedDelimited("tab\there", '\t');
+        cellWriter.writeRow();
+
+        assertThat(writer.toString(),
+                is("plain,\"a,b\",\"two\nlines\",tab\there &quot;quoted&quot;\t\"tab\there\""));
+    }
+
+    @Test
+    public void testLongRows() throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        CellWriter cellWriter = new CellWriter(writer);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+        {
+            cellWriter.appendEscaped("<\u00e9>");
+            expected.append("&lt;&#233;&gt;");
+        }
+        cellWriter.appendEscapedDelimited("x,\ud83d\ude00", ',');
+        expected.append("\"x,&#128512;\"");
+        cellWriter.writeRow();
+
+        assertThat(writer.toString(), is(expected.toString()));
+    }
+
+    private String escape(String value) throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        CellWriter cellWriter = new CellWriter(writer);
+        cellWriter.appendEscaped(value);
+        cellWriter.writeRow();
+        return writer.toString();
+    }
+}
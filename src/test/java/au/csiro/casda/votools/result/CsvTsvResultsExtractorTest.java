@@ -203,6 +203,40 @@ public class CsvTsvResultsExtractorTest
                 + "\r\n\"Bar\tA\"\t\r\n"));
     }
 
+    /**
+     * Test the output of typed columns, where nulls are detected without reading the value again as a string.
+     * 
+     * @throws Exception
+     *             Not expected.
+     */
+    @Test
+    public void testExtractDataTypedColumns() throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        CsvTsvResultsExtractor extractor = new CsvTsvResultsExtractor(writer, 2, OutputType.CSV, APP_BASE_URL,
+                null);
+        ResultSetMetaData mockMetaData = Mockito.mock(ResultSetMetaData.class);
+        Mockito.when(mockMetaData.getColumnCount()).thenReturn(3);
+        Mockito.when(mockMetaData.getColumnName(1)).thenReturn("id");
+        Mockito.when(mockMetaData.getColumnType(1)).thenReturn(Types.BIGINT);
+        Mockito.when(mockMetaData.getColumnName(2)).thenReturn("freq");
+        Mockito.when(mockMetaData.getColumnType(2)).thenReturn(Types.DOUBLE);
+        Mockito.when(mockMetaData.getColumnName(3)).thenReturn("released");
+        Mockito.when(mockMetaData.getColumnType(3)).thenReturn(Types.BIT);
+        Mockito.when(mockMetaData.getColumnTypeName(3)).thenReturn("bool");
+        ResultSet mockResults = Mockito.mock(ResultSet.class);
+        Mockito.when(mockResults.getMetaData()).thenReturn(mockMetaData);
+        Mockito.when(mockResults.next()).thenReturn(true).thenReturn(true).thenReturn(false);
+        Mockito.when(mockResults.getLong(1)).thenReturn(12345678901L).thenReturn(2L);
+        Mockito.when(mockResults.getDouble(2)).thenReturn(1.4204E9).thenReturn(0.0);
+        Mockito.when(mockResults.getBoolean(3)).thenReturn(true).thenReturn(false);
+        Mockito.when(mockResults.wasNull()).thenReturn(false, false, false, false, true, true);
+
+        extractor.extractData(mockResults);
+        assertThat(writer.toString(), is("id,freq,released\r\n12345678901,1.4204E9,t\r\n2,,\r\n"));
+        Mockito.verify(mockResults, Mockito.never()).getString(Mockito.anyInt());
+    }
+
     /**
      * Test the output of data in CSV format when the url placeholder is substituted. When a proxy url is present
      * it should be used in the output.
@@ -0,0 +1,202 @@
+package au.csiro.casda.votools.result;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+
+import nom.tam.fits.BasicHDU;
+import nom.tam.fits.BinaryTableHDU;
+import nom.tam.fits.Fits;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Validates the FitsResultsExtractor class.
+ *
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class FitsResultsExtractorTest
+{
+    private static final String APP_BASE_URL = "http://localhost/";
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void testExtractDataToFile() throws Exception
+    {
+        File file = new File(tempDir, "result.fits");
+        ResultSet mockResults = createResults();
+        Mockito.when(mockResults.next()).thenReturn(true, true, true);
+
+        Map<String, String> fieldMap = new HashMap<>();
+        fieldMap.put("|table|ra", "<FIELD name=\"ra\" datatype=\"double\" unit=\"deg\" />");
+        try (FileOutputStream out = new FileOutputStream(file))
+        {
+            FitsResultsExtractor extractor = new FitsResultsExtractor(out, 2, fieldMap, null, 8, APP_BASE_URL, null);
+            assertThat(extractor.extractData(mockResults), is(true));
+            assertThat(extractor.getProcessedCount(), is(2L));
+        }
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        assertThat(bytes.length % 2880, is(0));
+        BinaryTableHDU table = readTable(bytes);
+        verifyTable(table);
+        assertThat(table.getHeader().getStringValue("TUNIT2"), is("deg"));
+    }
+
+    @Test
+    public void testExtractDataCountFirst() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResultSet mockResults = createResults();
+        Mockito.when(mockResults.next()).thenReturn(true, true, false);
+        Connection connection = Mockito.mock(Connection.class);
+        Statement statement = Mockito.mock(Statement.class);
+        Mockito.when(mockResults.getStatement()).thenReturn(statement);
+        Mockito.when(statement.getConnection()).thenReturn(connection);
+
+        FitsResultsExtractor extractor =
+                new FitsResultsExtractor(out, 10, null, conn -> 2L, 8, APP_BASE_URL, null);
+        assertThat(extractor.extractData(mockResults), is(false));
+
+        assertThat(out.size() % 2880, is(0));
+        BinaryTableHDU table = readTable(out.toByteArray());
+        verifyTable(table);
+        assertThat(table.getHeader().containsKey("TUNIT2"), is(false));
+    }
+
+    @Test
+    public void testExtractDataCountFirstFewerRows() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResultSet mockResults = createResults();
+        Mockito.when(mockResults.next()).thenReturn(true, false);
+        Statement statement = Mockito.mock(Statement.class);
+        Mockito.when(mockResults.getStatement()).thenReturn(statement);
+
+        FitsResultsExtractor extractor =
+                new FitsResultsExtractor(out, 10, null, conn -> 3L, 8, APP_BASE_URL, null);
+        extractor.extractData(mockResults);
+
+        assertThat(extractor.getProcessedCount(), is(1L));
+        BinaryTableHDU table = readTable(out.toByteArray());
+        assertThat(table.getNRows(), is(3));
+        assertThat(((long[]) table.getColumn(0))[2], is(Long.MIN_VALUE));
+        assertThat(Double.isNaN(((double[]) table.getColumn(1))[2]), is(true));
+        assertThat(((String[]) table.getColumn(2))[2], is(""));
+    }
+
+    @Test
+    public void testExtractDataCountFirstNoCounter() throws Exception
+    {
+        ResultSet mockResults = createResults();
+        Mockito.when(mockResults.getStatement()).thenReturn(Mockito.mock(Statement.class));
+
+        FitsResultsExtractor extractor = new FitsResultsExtractor(new ByteArrayOutputStream(), 10, null, null, 8,
+                APP_BASE_URL, null);
+        assertThrows(ProcessingException.class, () -> extractor.extractData(mockResults));
+    }
+
+    @Test
+    public void testExtractMetaData() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FitsResultsExtractor extractor = new FitsResultsExtractor(out, 10, null, null, 8, APP_BASE_URL, null);
+
+        extractor.extractMetaData(createResults().getMetaData(), false);
+
+        BinaryTableHDU table = readTable(out.toByteArray());
+        assertThat(table.getNRows(), is(0));
+        assertThat(table.getNCols(), is(4));
+        assertThat(table.getHeader().getStringValue("TFORM3"), is("8A"));
+    }
+
+    @Test
+    public void testFormat()
+    {
+        assertThat(OutputFormat.findMatchingFormat("application/fits"), is(OutputFormat.FITS));
+        assertThat(OutputFormat.findMatchingFormat("fits"), is(OutputFormat.FITS));
+        assertThat(OutputFormat.FITS.isBinary(), is(true));
+        assertThat(OutputFormat.VOTABLE.isBinary(), is(false));
+    }
+
+    private void verifyTable(BinaryTableHDU table) throws Exception
+    {
+        assertThat(table.getNRows(), is(2));
+        assertThat(table.getHeader().getStringValue("TTYPE1"), is("id"));
+        assertThat(table.getHeader().getStringValue("TFORM1"), is("K"));
+        assertThat(table.getHeader().getLongValue("TNULL1"), is(Long.MIN_VALUE));
+        assertThat(table.getHeader().getStringValue("TFORM2"), is("D"));
+        assertThat(table.getHeader().getStringValue("TFORM3"), is("8A"));
+        assertThat(table.getHeader().getStringValue("TFORM4"), is("L"));
+
+        assertThat((long[]) table.getColumn(0), is(new long[] { 42L, Long.MIN_VALUE }));
+        double[] ra = (double[]) table.getColumn(1);
+        assertThat(ra[0], is(1.5));
+        assertThat(Double.isNaN(ra[1]), is(true));
+        assertThat((String[]) table.getColumn(2), is(new String[] { "abcdefgh", "caf?" }));
+        assertThat((boolean[]) table.getColumn(3), is(new boolean[] { true, false }));
+    }
+
+    private BinaryTableHDU readTable(byte[] bytes) throws Exception
+    {
+        BasicHDU[] hdus = new Fits(new ByteArrayInputStream(bytes)).read();
+        assertThat(hdus.length, is(2));
+        return (BinaryTableHDU) hdus[1];
+    }
+
+    private ResultSet createResults() throws Exception
+    {
+        ResultSetMetaData mockMetaData = Mockito.mock(ResultSetMetaData.class);
+        Mockito.when(mockMetaData.getColumnCount()).thenReturn(4);
+        Mockito.when(mockMetaData.getColumnName(1)).thenReturn("id");
+        Mockito.when(mockMetaData.getColumnType(1)).thenReturn(Types.BIGINT);
+        Mockito.when(mockMetaData.getColumnName(2)).thenReturn("ra");
+        Mockito.when(mockMetaData.getTableName(2)).thenReturn("table");
+        Mockito.when(mockMetaData.getColumnType(2)).thenReturn(Types.DOUBLE);
+        Mockito.when(mockMetaData.getColumnName(3)).thenReturn("name");
+        Mockito.when(mockMetaData.getColumnType(3)).thenReturn(Types.VARCHAR);
+        Mockito.when(mockMetaData.getPrecision(3)).thenReturn(Integer.MAX_VALUE);
+        Mockito.when(mockMetaData.getColumnName(4)).thenReturn("flag");
+        Mockito.when(mockMetaData.getColumnType(4)).thenReturn(Types.BOOLEAN);
+        Mockito.when(mockMetaData.getColumnTypeName(4)).thenReturn("bool");
+
+        ResultSet mockResults = Mockito.mock(ResultSet.class);
+        Mockito.when(mockResults.getMetaData()).thenReturn(mockMetaData);
+        Mockito.when(mockResults.getLong(1)).thenReturn(42L, 0L);
+        Mockito.when(mockResults.getDouble(2)).thenReturn(1.5, 0.0);
+        Mockito.when(mockResults.getString(3)).thenReturn("abcdefghijk", "caf\u00e9");
+        Mockito.when(mockResults.getBoolean(4)).thenReturn(true, false);
+        // id and ra are null in the second row
+        Mockito.when(mockResults.wasNull()).thenReturn(false, false, false, true, true, false);
+        return mockResults;
+    }
+}
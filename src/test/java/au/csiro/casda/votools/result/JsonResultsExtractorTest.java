@@ -0,0 +1,141 @@
+package au.csiro.casda.votools.result;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.StringWriter;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Validates the JsonResultsExtractor class.
+ *
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class JsonResultsExtractorTest
+{
+    private static final String APP_BASE_URL = "http://localhost/";
+
+    @Test
+    public void testExtractData() throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        Map<String, String> fieldMap = new HashMap<>();
+        fieldMap.put("|table|ra", "<FIELD name=\"ra\" datatype=\"double\" unit=\"deg\" ucd=\"pos.eq.ra&amp;meta\" />");
+        JsonResultsExtractor extractor = new JsonResultsExtractor(writer, 10, fieldMap, APP_BASE_URL, null);
+        ResultSet mockResults = createResults();
+        Mockito.when(mockResults.next()).thenReturn(true, true, false);
+
+        assertThat(extractor.extractData(mockResults), is(false));
+
+        assertThat(writer.toString(), is("{\"metadata\":[{\"name\":\"id\",\"datatype\":\"long\"},"
+                + "{\"name\":\"ra\",\"datatype\":\"double\",\"unit\":\"deg\",\"ucd\":\"pos.eq.ra&meta\"},"
+                + "{\"name\":\"name\",\"datatype\":\"char\",\"arraysize\":\"*\"},"
+                + "{\"name\":\"flag\",\"datatype\":\"boolean\"}],"
+                + "\"data\":[[42,1.5,\"a \\\"quoted\\\" name\",true],[null,null,null,false]],\"status\":\"OK\"}"));
+        assertThat(extractor.getProcessedCount(), is(2L));
+    }
+
+    @Test
+    public void testExtractDataOverflow() throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        JsonResultsExtractor extractor = new JsonResultsExtractor(writer, 1, null, APP_BASE_URL, null);
+        ResultSet mockResults = createResults();
+        Mockito.when(mockResults.next()).thenReturn(true);
+
+        assertThat(extractor.extractData(mockResults), is(true));
+
+        assertThat(writer.toString().endsWith("\"data\":[[42,1.5,\"a \\\"quoted\\\" name\",true]],"
+                + "\"status\":\"OVERFLOW\"}"), is(true));
+    }
+
+    @Test
+    public void testExtractDataError() throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        JsonResultsExtractor extractor = new JsonResultsExtractor(writer, 10, null, APP_BASE_URL, null);
+        ResultSet mockResults = createResults();
+        Mockito.when(mockResults.next()).thenReturn(true).thenThrow(new SQLException("Query cancelled"));
+
+        extractor.extractData(mockResults);
+
+        assertThat(writer.toString().endsWith("\"data\":[[42,1.5,\"a \\\"quoted\\\" name\",true]],"
+                + "\"status\":\"ERROR\",\"error\":\"Query cancelled\"}"), is(true));
+    }
+
+    @Test
+    public void testExtractMetaData() throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        JsonResultsExtractor extractor = new JsonResultsExtractor(writer, 10, null, APP_BASE_URL, null);
+
+        extractor.extractMetaData(createResults().getMetaData(), false);
+
+        assertThat(writer.toString().endsWith("],\"data\":[],\"status\":\"OK\"}"), is(true));
+    }
+
+    @Test
+    public void testGetFieldAttributes()
+    {
+        Map<String, String> attributes = JsonResultsExtractor.getFieldAttributes(
+                "<FIELD name=\"s_region\" datatype=\"char\" xtype='adql:REGION'>"
+                        + "<DESCRIPTION>name=\"ignored\"</DESCRIPTION></FIELD>");
+        assertThat(attributes.get("name"), is("s_region"));
+        assertThat(attributes.get("xtype"), is("adql:REGION"));
+        assertThat(attributes.size(), is(3));
+    }
+
+    @Test
+    public void testFormat()
+    {
+        assertThat(OutputFormat.findMatchingFormat("application/json"), is(OutputFormat.JSON));
+        assertThat(OutputFormat.findMatchingFormat("json"), is(OutputFormat.JSON));
+        assertThat(OutputFormat.JSON.isBinary(), is(false));
+    }
+
+    private ResultSet createResults() throws Exception
+    {
+        ResultSetMetaData mockMetaData = Mockito.mock(ResultSetMetaData.class);
+        Mockito.when(mockMetaData.getColumnCount()).thenReturn(4);
+        Mockito.when(mockMetaData.getColumnName(1)).thenReturn("id");
+        Mockito.when(mockMetaData.getColumnType(1)).thenReturn(Types.BIGINT);
+        Mockito.when(mockMetaData.getColumnName(2)).thenReturn("ra");
+        Mockito.when(mockMetaData.getTableName(2)).thenReturn("table");
+        Mockito.when(mockMetaData.getColumnType(2)).thenReturn(Types.DOUBLE);
+        Mockito.when(mockMetaData.getColumnName(3)).thenReturn("name");
+        Mockito.when(mockMetaData.getColumnType(3)).thenReturn(Types.VARCHAR);
+        Mockito.when(mockMetaData.getColumnName(4)).thenReturn("flag");
+        Mockito.when(mockMetaData.getColumnType(4)).thenReturn(Types.BOOLEAN);
+        Mockito.when(mockMetaData.getColumnTypeName(4)).thenReturn("bool");
+
+        ResultSet mockResults = Mockito.mock(ResultSet.class);
+        Mockito.when(mockResults.getMetaData()).thenReturn(mockMetaData);
+        Mockito.when(mockResults.getLong(1)).thenReturn(42L, 0L);
+        Mockito.when(mockResults.getDouble(2)).thenReturn(1.5, 0.0);
+        Mockito.when(mockResults.getString(3)).thenReturn("a \"quoted\" name", (String) null);
+        Mockito.when(mockResults.getBoolean(4)).thenReturn(true, false);
+        // id and ra are null in the second row
+        Mockito.when(mockResults.wasNull()).thenReturn(false, false, false, true, true, false);
+        return mockResults;
+    }
+}
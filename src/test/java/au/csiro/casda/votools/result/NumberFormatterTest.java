@@ -0,0 +1,112 @@
+package au.csiro.casda.votools.result;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Validates the NumberFormatter class.
+ *
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class NumberFormatterTest
+{
+    private static final int RANDOM_VALUES = 500000;
+
+    @Test
+    public void testDoubleMatchesToString()
+    {
+        double[] values = { 0.0, -0.0, 1.0, -1.5, 100.0, 123.456, 0.1, 0.001, 1.0E-4, 9999999.0, 1.0E7, 12345678.9,
+                -187.70833333333334, 3.141592653589793, 2.0E-3, 5.0E-324, 4.9E-324, Double.MIN_NORMAL,
+                Double.MAX_VALUE, Double.MIN_VALUE, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Math.pow(2, 63), 1.0E-300, 2.2250738585072014E-308, -33.8688197 };
+        for (double value : values)
+        {
+            assertThat(NumberFormatter.toString(value), is(Double.toString(value)));
+        }
+    }
+
+    @Test
+    public void testFloatMatchesToString()
+    {
+        float[] values = { 0.0f, -0.0f, 1.0f, -1.5f, 100.0f, 123.456f, 0.1f, 0.001f, 1.0E-4f, 9999999.0f, 1.0E7f,
+                3.1415927f, Float.MAX_VALUE, Float.MIN_VALUE, Float.NaN, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY, -33.86882f };
+        for (float value : values)
+        {
+            assertThat(NumberFormatter.toString(value), is(Float.toString(value)));
+        }
+    }
+
+    @Test
+    public void testShorterThanJava8()
+    {
+        // Java 8 outputs 9.999999999999999E22 and 1.17549435E-38
+        assertThat(NumberFormatter.toString(1.0E23), is("1.0E23"));
+        assertThat(NumberFormatter.toString(Float.MIN_NORMAL), is("1.1754944E-38"));
+    }
+
+    @Test
+    public void testDoubleRoundTrip()
+    {
+        Random random = new Random(20151017L);
+        char[] buffer = new char[NumberFormatter.MAX_DOUBLE_LENGTH + 2];
+        for (int i = 0; i < RANDOM_VALUES; i++)
+        {
+            // random bit patterns cover all exponents, random doubles cover typical catalogue values
+            double value = i % 2 == 0 ? Double.longBitsToDouble(random.nextLong()) : (random.nextDouble() - 0.5) * 720;
+            if (Double.isNaN(value))
+            {
+                continue;
+            }
+            int end = NumberFormatter.format(value, buffer, 2);
+            String text = new String(buffer, 2, end - 2);
+            String expected = Double.toString(value);
+            assertThat(text, Double.parseDouble(text), is(value));
+            // the output is never longer than Java's, the last digit may differ where Java's is not the closest
+            assertTrue(text.length() <= expected.length(), text + " is longer than " + expected);
+        }
+    }
+
+    @Test
+    public void testFloatRoundTrip()
+    {
+        Random random = new Random(20151017L);
+        for (int i = 0; i < RANDOM_VALUES; i++)
+        {
+            float value = i % 2 == 0 ? Float.intBitsToFloat(random.nextInt()) : (random.nextFloat() - 0.5f) * 720;
+            if (Float.isNaN(value))
+            {
+                continue;
+            }
+            String text = NumberFormatter.toString(value);
+            String expected = Float.toString(value);
+            assertThat(text, Float.parseFloat(text), is(value));
+            assertTrue(text.length() <= expected.length(), text + " is longer than " + expected);
+        }
+    }
+
+    @Test
+    public void testMultiplyHigh()
+    {
+        assertThat(NumberFormatter.multiplyHigh(Long.MAX_VALUE, Long.MAX_VALUE), is(0x3fffffffffffffffL));
+        assertThat(NumberFormatter.multiplyHigh(1L << 40, 1L << 40), is(1L << 16));
+        assertThat(NumberFormatter.multiplyHigh(-1L, 1L), is(-1L));
+    }
+}
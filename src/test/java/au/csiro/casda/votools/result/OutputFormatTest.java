@@ -37,4 +37,15 @@ public class OutputFormatTest
         assertThat(OutputFormat.findMatchingFormat("xyz"), is(nullValue()));
         assertThat(OutputFormat.findMatchingFormat("csv").getFileExtension(), is("csv"));
     }
+
+    @Test
+    public void testFindResponseFormat()
+    {
+        assertThat(OutputFormat.findResponseFormat(null), is(OutputFormat.VOTABLE));
+        assertThat(OutputFormat.findResponseFormat("votable"), is(OutputFormat.VOTABLE));
+        assertThat(OutputFormat.findResponseFormat("csv"), is(OutputFormat.VOTABLE));
+        assertThat(OutputFormat.findResponseFormat("application/json"), is(OutputFormat.JSON));
+        assertThat(OutputFormat.findResponseFormat(" JSON "), is(OutputFormat.JSON));
+        assertThat(OutputFormat.JSON.getFileExtension(), is("json"));
+    }
 }
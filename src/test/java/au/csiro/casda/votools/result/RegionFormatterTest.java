@@ -0,0 +1,180 @@
+package au.csiro.casda.votools.result;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.io.ByteOrderValues;
+import com.vividsolutions.jts.io.WKBWriter;
+import com.vividsolutions.jts.io.WKTReader;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Validates the RegionFormatter class.
+ *
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class RegionFormatterTest
+{
+    private static final String[] WKT_SAMPLES = { "POINT (1 2)", "POINT (-122.123456789012 47.5)",
+            "LINESTRING (0 0, 1.5 2.25, 3 -4)", "LINESTRING EMPTY", "POLYGON EMPTY",
+            "POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0), (1 1, 2 1, 2 2, 1 1))",
+            "MULTIPOINT ((1 2), (3 4))", "MULTILINESTRING ((0 0, 1 1), (2 2, 3 3, 4 5))",
+            "MULTIPOLYGON (((0 0, 1 0, 1 1, 0 0)), ((5 5, 6 5, 6 6, 5 5), (5.1 5.1, 5.2 5.1, 5.2 5.2, 5.1 5.1)))",
+            "MULTIPOLYGON EMPTY", "GEOMETRYCOLLECTION EMPTY",
+            "GEOMETRYCOLLECTION (POINT (1 2), LINESTRING (0 0, 1 1), "
+                    + "GEOMETRYCOLLECTION (POLYGON ((0 0, 1 0, 1 1, 0 0))))",
+            "POLYGON ((333.75884925859975 -46.83807010503196, 333.75580377339975 -46.83803212696999, "
+                    + "333.7558603969898 -46.83594874849899, 333.75884925859975 -46.83807010503196))" };
+
+    private final RegionFormatter formatter = new RegionFormatter();
+
+    @Test
+    public void testFormatSpoint()
+    {
+        assertThat(formatter.formatSpoint("(0.1 , -0.2)").toString(),
+                is("POSITION ICRS " + Math.toDegrees(0.1) + " " + Math.toDegrees(-0.2)));
+        assertThat(formatter.formatSpoint("(3.14159265358979,1e-3)").toString(),
+                is("POSITION ICRS " + Math.toDegrees(3.14159265358979) + " " + Math.toDegrees(1e-3)));
+    }
+
+    @Test
+    public void testFormatScircle()
+    {
+        assertThat(formatter.formatScircle("<(5.82519082723 , -0.817478538612734) , 0.00872664625997165>")
+                .toString(), is("CIRCLE ICRS 333.75884925859975 -46.83807010503196 0.5000000000000001"));
+    }
+
+    @Test
+    public void testFormatSpoly()
+    {
+        String spoly = "{(5.82519082723 , -0.817478538612734),(5.82513767348594 , -0.817477875770509),"
+                + "(5.82513866175402 , -0.817441513956625),(5.8251918134379 , -0.817442176772671)}";
+        assertThat(formatter.formatSpoly(spoly).toString(),
+                is("POLYGON ICRS 333.75884925859975 -46.83807010503196 333.75580377339975 -46.83803212696999 "
+                        + "333.7558603969898 -46.83594874849899 333.7589057641501 -46.83598672506102"));
+    }
+
+    @Test
+    public void testSpolyMatchesSplitAndParse()
+    {
+        Random random = new Random(20151017L);
+        for (int i = 0; i < 10000; i++)
+        {
+            StringBuilder spoly = new StringBuilder("{");
+            StringBuilder expected = new StringBuilder("POLYGON ICRS");
+            for (int j = 0; j < 3 + i % 5; j++)
+            {
+                // pgsphere outputs 15 significant digits, longer values take the Double.parseDouble path
+                String ra = String.format(j % 2 == 0 ? "%.15g" : "%.17g", random.nextDouble() * 2 * Math.PI);
+                String dec = String.format("%.14e", (random.nextDouble() - 0.5) * Math.PI);
+                spoly.append(j > 0 ? "," : "").append("(").append(ra).append(" , ").append(dec).append(")");
+                expected.append(" ").append(Math.toDegrees(Double.parseDouble(ra)));
+                expected.append(" ").append(Math.toDegrees(Double.parseDouble(dec)));
+            }
+            spoly.append("}");
+            assertThat(spoly.toString(), formatter.formatSpoly(spoly.toString()).toString(),
+                    is(expected.toString()));
+        }
+    }
+
+    @Test
+    public void testInvalidPgsphere()
+    {
+        assertThat(formatter.formatSpoint("(10d , 20d)"), is(nullValue()));
+        assertThat(formatter.formatSpoint("(0.1 , 0.2) extra"), is(nullValue()));
+        assertThat(formatter.formatScircle("<(0.1 , 0.2)>"), is(nullValue()));
+        assertThat(formatter.formatSpoly("{(0.1 , 0.2),}"), is(nullValue()));
+        assertThat(formatter.formatSpoly(""), is(nullValue()));
+    }
+
+    @Test
+    public void testGeometryMatchesJts() throws Exception
+    {
+        WKTReader reader = new WKTReader();
+        for (String wkt : WKT_SAMPLES)
+        {
+            Geometry geometry = reader.read(wkt);
+            assertThat(wkt, geometry.toText(), is(wkt));
+            for (int byteOrder : new int[] { ByteOrderValues.BIG_ENDIAN, ByteOrderValues.LITTLE_ENDIAN })
+            {
+                geometry.setSRID(4326);
+                assertGeometry(new WKBWriter(2, byteOrder).write(geometry), wkt);
+                assertGeometry(new WKBWriter(2, byteOrder, true).write(geometry), wkt);
+                assertGeometry(new WKBWriter(3, byteOrder, true).write(geometry), wkt);
+            }
+        }
+    }
+
+    @Test
+    public void testRandomGeometryMatchesJts()
+    {
+        GeometryFactory factory = new GeometryFactory();
+        Random random = new Random(20151017L);
+        for (int i = 0; i < 2000; i++)
+        {
+            Coordinate[] coordinates = new Coordinate[4 + i % 10];
+            for (int j = 0; j < coordinates.length - 1; j++)
+            {
+                double scale = Math.pow(10, random.nextInt(12) - 4);
+                coordinates[j] = new Coordinate((random.nextDouble() - 0.5) * scale, random.nextDouble() * scale);
+            }
+            coordinates[coordinates.length - 1] = coordinates[0];
+            LinearRing ring = factory.createLinearRing(coordinates);
+            Polygon polygon = factory.createPolygon(ring, null);
+            byte[] wkb = new WKBWriter(2, ByteOrderValues.LITTLE_ENDIAN).write(polygon);
+            assertThat(formatter.formatGeometry(WKBWriter.toHex(wkb)).toString(), is(polygon.toText()));
+        }
+    }
+
+    @Test
+    public void testGeometryLeftToJts() throws Exception
+    {
+        // Non finite coordinates
+        assertThat(formatter.formatGeometry("0101000000000000000000F87F000000000000F87F"), is(nullValue()));
+        // Measures
+        assertThat(formatter.formatGeometry("0101000040000000000000F03F00000000000000400000000000000840"),
+                is(nullValue()));
+        // ISO type code for a point with z
+        assertThat(formatter.formatGeometry("01E9030000000000000000F03F00000000000000400000000000000840"),
+                is(nullValue()));
+        // Unclosed ring
+        assertThat(formatter.formatGeometry("010300000001000000040000000000000000000000000000000000000000000000"
+                + "0000F03F0000000000000000000000000000F03F000000000000F03F000000000000F03F000000000000F03F"),
+                is(nullValue()));
+        // Truncated, not hex, or a point inside a multi line string
+        assertThat(formatter.formatGeometry("0101000000000000000000F03F"), is(nullValue()));
+        assertThat(formatter.formatGeometry("zz01000000000000000000F03F000000000000F03F"), is(nullValue()));
+        assertThat(formatter.formatGeometry("01050000000100000001010000000000000000000000000000000000000000"),
+                is(nullValue()));
+        // An empty member of a collection
+        String emptyMember = WKBWriter.toHex(new WKBWriter().write(
+                new WKTReader().read("GEOMETRYCOLLECTION (POINT (1 2), LINESTRING EMPTY)")));
+        assertThat(formatter.formatGeometry(emptyMember), is(nullValue()));
+    }
+
+    private void assertGeometry(byte[] wkb, String wkt)
+    {
+        assertThat(wkt, formatter.formatGeometry(WKBWriter.toHex(wkb)).toString(), is(wkt));
+    }
+}
@@ -0,0 +1,108 @@
+package au.csiro.casda.votools.result;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Validates the ResultStreamWriter class.
+ *
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class ResultStreamWriterTest
+{
+    private static final String[] SAMPLES = { "", "<TD>plain ascii</TD>\r\n", "caf\u00e9 \u00b0 \u00c5ngstr\u00f6m",
+            "\u4e2d\u6587 \u20ac", "emoji \ud83d\ude00 done", "lone \ud800 high", "lone \udc00 low",
+            "trailing high \ud83d" };
+
+    @Test
+    public void testMatchesStandardEncoder() throws Exception
+    {
+        for (int bufferSize : new int[] { 1, 4, 5, 7, ResultStreamWriter.DEFAULT_BUFFER_SIZE })
+        {
+            for (String sample : SAMPLES)
+            {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try (ResultStreamWriter writer = new ResultStreamWriter(out, bufferSize))
+                {
+                    writer.write(sample);
+                }
+                assertThat(sample + " with buffer " + bufferSize, out.toByteArray(), is(encode(sample)));
+
+                out.reset();
+                try (ResultStreamWriter writer = new ResultStreamWriter(out, bufferSize))
+                {
+                    writer.write(sample.toCharArray());
+                }
+                assertThat(sample + " as chars with buffer " + bufferSize, out.toByteArray(), is(encode(sample)));
+            }
+        }
+    }
+
+    @Test
+    public void testCharactersWrittenSeparately() throws Exception
+    {
+        String text = String.join("|", SAMPLES);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ResultStreamWriter writer = new ResultStreamWriter(out, 8))
+        {
+            for (int i = 0; i < text.length(); i++)
+            {
+                writer.write(text.charAt(i));
+            }
+        }
+        assertThat(out.toByteArray(), is(encode(text)));
+    }
+
+    @Test
+    public void testSurrogatePairSplitAcrossWrites() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResultStreamWriter writer = new ResultStreamWriter(out);
+        writer.append("a\ud83d");
+        writer.flush();
+        writer.append("\ude00b");
+        writer.flush();
+        assertThat(out.toByteArray(), is(encode("a\ud83d\ude00b")));
+    }
+
+    @Test
+    public void testGetOutputStream() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResultStreamWriter writer = new ResultStreamWriter(out);
+        writer.append("text");
+        writer.getOutputStream().write(new byte[] { 1, 2 });
+        writer.append("more");
+        writer.flush();
+        assertThat(out.toByteArray(), is(new byte[] { 't', 'e', 'x', 't', 1, 2, 'm', 'o', 'r', 'e' }));
+    }
+
+    private byte[] encode(String text) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8))
+        {
+            writer.write(text);
+        }
+        return out.toByteArray();
+    }
+}
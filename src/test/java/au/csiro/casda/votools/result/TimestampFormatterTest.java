@@ -0,0 +1,74 @@
+package au.csiro.casda.votools.result;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Validates the TimestampFormatter class.
+ *
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class TimestampFormatterTest
+{
+    private static final DateTimeFormatter EXPECTED_FORMAT = DateTimeFormatter
+            .ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+
+    @Test
+    public void testKnownValues()
+    {
+        TimestampFormatter formatter = new TimestampFormatter();
+        assertThat(formatter.toString(0L), is("1970-01-01T00:00:00.000Z"));
+        assertThat(formatter.toString(1444996800123L), is("2015-10-16T12:00:00.123Z"));
+        assertThat(formatter.toString(1444996800123L + 43199876L), is("2015-10-16T23:59:59.999Z"));
+        assertThat(formatter.toString(-1L), is("1969-12-31T23:59:59.999Z"));
+    }
+
+    @Test
+    public void testMatchesDateTimeFormatter()
+    {
+        TimestampFormatter formatter = new TimestampFormatter();
+        Random random = new Random(20151017L);
+        char[] buffer = new char[TimestampFormatter.MAX_LENGTH + 3];
+        long millis = 1420070400000L;
+        for (int i = 0; i < 200000; i++)
+        {
+            // mostly nearby times so the cached date is reused, with occasional jumps anywhere
+            millis = i % 100 == 0 ? random.nextLong() / 1000 : millis + random.nextInt(3600000);
+            int end = formatter.format(millis, buffer, 3);
+            assertThat(new String(buffer, 3, end - 3), is(expected(Instant.ofEpochMilli(millis))));
+        }
+    }
+
+    @Test
+    public void testTimestampWithNanos()
+    {
+        Timestamp timestamp = Timestamp.valueOf("1900-03-04 05:06:07.891234567");
+        assertThat(new TimestampFormatter().toString(timestamp.getTime()), is(expected(timestamp.toInstant())));
+    }
+
+    private String expected(Instant instant)
+    {
+        return EXPECTED_FORMAT.format(ZonedDateTime.ofInstant(instant, ZoneId.of("UTC")));
+    }
+}
@@ -0,0 +1,188 @@
+package au.csiro.casda.votools.result;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.StringWriter;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.Base64;
+import java.util.HashMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.postgresql.util.PGobject;
+
+import au.csiro.casda.votools.result.VoTableBinary2ResultsExtractor.FieldWriter;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Validates the VoTableBinary2ResultsExtractor class.
+ *
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class VoTableBinary2ResultsExtractorTest
+{
+    private static final String APP_BASE_URL = "http://localhost/";
+
+    @Test
+    public void testExtractData() throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        VoTableBinary2ResultsExtractor extractor = createExtractor(writer, 2);
+        ResultSetMetaData mockMetaData = create4ColMetadata();
+        ResultSet mockResults = Mockito.mock(ResultSet.class);
+        Mockito.when(mockResults.getMetaData()).thenReturn(mockMetaData);
+        Mockito.when(mockResults.next()).thenReturn(true).thenReturn(true).thenReturn(false);
+        Mockito.when(mockResults.getLong(1)).thenReturn(42L).thenReturn(7L);
+        Mockito.when(mockResults.getDouble(2)).thenReturn(1.5).thenReturn(0.0);
+        Mockito.when(mockResults.getObject(3)).thenReturn(varbit("10")).thenReturn(varbit("101"));
+        Mockito.when(mockResults.getString(4)).thenReturn("Foo").thenReturn(null);
+        // ra is null in the second row
+        Mockito.when(mockResults.wasNull()).thenReturn(false, false, false, true);
+
+        extractor.extractData(mockResults);
+
+        String output = writer.toString();
+        assertThat(output, containsString("<FIELD ID=\"id\" name=\"id\" datatype=\"long\">"));
+        assertThat(output, containsString("<FIELD ID=\"name\" name=\"name\" datatype=\"char\" arraysize=\"*\">"));
+        assertThat(output, containsString("<DATA>\r\n<BINARY2>\r\n<STREAM encoding=\"base64\">\r\n"));
+        assertThat(output, containsString("\r\n</STREAM>\r\n</BINARY2>\r\n</DATA>\r\n</TABLE>\r\n"));
+        assertThat(output, containsString("<INFO name=\"QUERY_STATUS\" value=\"OK\">"));
+
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(getStream(output)));
+        assertThat(data.readUnsignedByte(), is(0));
+        assertThat(data.readLong(), is(42L));
+        assertThat(data.readDouble(), is(1.5));
+        assertThat(data.readShort(), is((short) 2));
+        assertThat(data.readInt(), is(3));
+        assertThat(data.readByte(), is((byte) 'F'));
+        assertThat(data.readByte(), is((byte) 'o'));
+        assertThat(data.readByte(), is((byte) 'o'));
+
+        assertThat(data.readUnsignedByte(), is(0x50));
+        assertThat(data.readLong(), is(7L));
+        assertThat(Double.isNaN(data.readDouble()), is(true));
+        assertThat(data.readShort(), is((short) 5));
+        assertThat(data.readInt(), is(0));
+        assertThat(data.available(), is(0));
+    }
+
+    @Test
+    public void testExtractDataOverflow() throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        VoTableBinary2ResultsExtractor extractor = createExtractor(writer, 1);
+        ResultSetMetaData mockMetaData = create4ColMetadata();
+        ResultSet mockResults = Mockito.mock(ResultSet.class);
+        Mockito.when(mockResults.getMetaData()).thenReturn(mockMetaData);
+        Mockito.when(mockResults.next()).thenReturn(true);
+        Mockito.when(mockResults.getLong(1)).thenReturn(42L);
+        Mockito.when(mockResults.getObject(3)).thenReturn(varbit("1"));
+
+        assertThat(extractor.extractData(mockResults), is(true));
+
+        assertThat(writer.toString(), containsString("</BINARY2>\r\n</DATA>\r\n</TABLE>\r\n"
+                + "<INFO name=\"QUERY_STATUS\" value=\"OVERFLOW\" />\r\n"));
+        // null flags, long, double, short and the length of the string
+        assertThat(getStream(writer.toString()).length, is(1 + 8 + 8 + 2 + 4));
+    }
+
+    @Test
+    public void testExtractMetaData() throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        VoTableBinary2ResultsExtractor extractor = createExtractor(writer, 10);
+
+        extractor.extractMetaData(create4ColMetadata(), false);
+
+        assertThat(writer.toString(), containsString("<STREAM encoding=\"base64\">\r\n\r\n</STREAM>\r\n"));
+    }
+
+    @Test
+    public void testFixedSizeCharFields() throws Exception
+    {
+        ResultSet mockResults = Mockito.mock(ResultSet.class);
+        Mockito.when(mockResults.getString(1)).thenReturn("abcdef").thenReturn("ab").thenReturn(null);
+
+        FieldWriter fixed = VoTableBinary2ResultsExtractor.getFieldWriter(
+                "<FIELD name=\"c\" datatype=\"char\" arraysize=\"4\" />", Types.VARCHAR, ResultSet::getString);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        assertThat(fixed.write(mockResults, 1, out), is(true));
+        assertThat(fixed.write(mockResults, 1, out), is(true));
+        assertThat(fixed.write(mockResults, 1, out), is(false));
+        assertThat(bytes.toByteArray(), is(new byte[] { 'a', 'b', 'c', 'd', 'a', 'b', 0, 0, 0, 0, 0, 0 }));
+
+        Mockito.when(mockResults.getString(1)).thenReturn("xyz");
+        FieldWriter unicode = VoTableBinary2ResultsExtractor.getFieldWriter(
+                "<FIELD name=\"u\" datatype=\"unicodeChar\" arraysize=\"2*\" />", Types.VARCHAR,
+                ResultSet::getString);
+        bytes.reset();
+        assertThat(unicode.write(mockResults, 1, out), is(true));
+        assertThat(bytes.toByteArray(), is(new byte[] { 0, 0, 0, 2, 0, 'x', 0, 'y' }));
+    }
+
+    @Test
+    public void testFormat()
+    {
+        assertThat(OutputFormat.findMatchingFormat("votable/b2"), is(OutputFormat.VOTABLE_BINARY2));
+        assertThat(OutputFormat.findMatchingFormat("application/x-votable+xml;serialization=binary2"),
+                is(OutputFormat.VOTABLE_BINARY2));
+        assertThat(OutputFormat.VOTABLE_BINARY2.getFileExtension(), is("xml"));
+    }
+
+    private VoTableBinary2ResultsExtractor createExtractor(StringWriter writer, int maxRec)
+    {
+        return new VoTableBinary2ResultsExtractor(writer, maxRec, new HashMap<>(), "CASDA TAP Result", null,
+                APP_BASE_URL, null, false, "none");
+    }
+
+    private byte[] getStream(String output)
+    {
+        String base64 = StringUtils.substringBetween(output, "<STREAM encoding=\"base64\">", "</STREAM>");
+        return Base64.getMimeDecoder().decode(base64.trim());
+    }
+
+    private PGobject varbit(String value) throws Exception
+    {
+        PGobject pgObject = new PGobject();
+        pgObject.setType("varbit");
+        pgObject.setValue(value);
+        return pgObject;
+    }
+
+    private ResultSetMetaData create4ColMetadata() throws Exception
+    {
+        ResultSetMetaData mockMetaData = Mockito.mock(ResultSetMetaData.class);
+        Mockito.when(mockMetaData.getColumnCount()).thenReturn(4);
+        Mockito.when(mockMetaData.getColumnName(1)).thenReturn("id");
+        Mockito.when(mockMetaData.getColumnType(1)).thenReturn(Types.BIGINT);
+        Mockito.when(mockMetaData.getColumnName(2)).thenReturn("ra");
+        Mockito.when(mockMetaData.getColumnType(2)).thenReturn(Types.DOUBLE);
+        Mockito.when(mockMetaData.getColumnName(3)).thenReturn("flags");
+        Mockito.when(mockMetaData.getColumnType(3)).thenReturn(Types.OTHER);
+        Mockito.when(mockMetaData.getColumnTypeName(3)).thenReturn("varbit");
+        Mockito.when(mockMetaData.getColumnName(4)).thenReturn("name");
+        Mockito.when(mockMetaData.getColumnType(4)).thenReturn(Types.VARCHAR);
+        return mockMetaData;
+    }
+}
@@ -2,6 +2,7 @@ package au.csiro.casda.votools.result;
 
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.CoreMatchers.startsWith;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.text.MatchesPattern.matchesPattern;
@@ -9,9 +10,11 @@ import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.anyInt;
 
 import java.io.StringWriter;
+import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Types;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
@@ -420,7 +423,7 @@ public class VoTableResultsExtractorTest
                 TapService.CASDA_TAP_RESULT_NAME, metadataMap, APP_BASE_URL);
         ResultSetMetaData mockMetaData = create4ColMetadata();
         ResultSet mockResults = create4ColResultSet(mockMetaData);
-        Mockito.when(mockResults.isAfterLast()).thenReturn(true);
+        Mockito.when(mockResults.next()).thenReturn(true).thenReturn(false);
 
         extractor.extractData(mockResults);
         assertThat(writer.toString(), matchesPattern(BASE_HEADER_PART1 + FIELD_DEFS + BASE_HEADER_PART2
@@ -441,7 +444,7 @@ public class VoTableResultsExtractorTest
                 TapService.CASDA_TAP_RESULT_NAME, metadataMap, APP_BASE_URL);
         ResultSetMetaData mockMetaData = create4ColMetadata();
         ResultSet mockResults = create4ColResultSetNonUtf8(mockMetaData);
-        Mockito.when(mockResults.isAfterLast()).thenReturn(true);
+        Mockito.when(mockResults.next()).thenReturn(true).thenReturn(false);
 
         extractor.extractData(mockResults);
         assertThat(writer.toString(), matchesPattern(BASE_HEADER_PART1 + FIELD_DEFS + BASE_HEADER_PART2
@@ -451,7 +454,7 @@ public class VoTableResultsExtractorTest
     }
 
     @Test
-    public void testGetFieldValueSPoly() throws Exception 
+    public void testEncodeSPoly() throws Exception 
     {
         StringWriter writer = new StringWriter();
         VoTableResultsExtractor extractor = new VoTableResultsExtractor(writer, 1, votableFieldMap,
@@ -462,7 +465,7 @@ public class VoTableResultsExtractorTest
         ResultSet mockResults = createSPolyColResultSet(mockMetaData, spolyData);
         Mockito.when(mockResults.isAfterLast()).thenReturn(true);
 
-        String fieldValue = extractor.getFieldValue(mockResults, Types.OTHER, 1);
+        String fieldValue = extractor.getColumnEncoders(mockMetaData)[1].encode(mockResults, 1);
         assertThat(fieldValue,
                 is("POLYGON ICRS 333.75884925859975 -46.83807010503196 333.75580377339975 -46.83803212696999 "
                         + "333.7558603969898 -46.83594874849899 333.7589057641501 -46.83598672506102"));
@@ -583,6 +586,61 @@ public class VoTableResultsExtractorTest
                         + "$"));
     }
 
+    /**
+     * Tests that overflow is decided by reading one more row, and that the estimated total rows are reported.
+     * 
+     * @throws Exception
+     *             Not expected.
+     */
+    @Test
+    public void testExtractDataOverflowWithRowCountEstimate() throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        VoTableResultsExtractor extractor = new VoTableResultsExtractor(writer, 1, votableFieldMap,
+                TapService.CASDA_TAP_RESULT_NAME, metadataMap, APP_BASE_URL);
+        ResultSetMetaData mockMetaData = create4ColMetadata();
+        ResultSet mockResults = create4ColResultSet(mockMetaData);
+        Statement mockStatement = Mockito.mock(Statement.class);
+        Connection mockConnection = Mockito.mock(Connection.class);
+        Mockito.when(mockResults.getStatement()).thenReturn(mockStatement);
+        Mockito.when(mockStatement.getConnection()).thenReturn(mockConnection);
+        extractor.setRowCountEstimator(connection -> connection == mockConnection ? 12345L : null);
+
+        extractor.extractData(mockResults);
+        assertThat(writer.toString(), containsString("<INFO name=\"QUERY_STATUS\" value=\"OVERFLOW\" />\r\n"
+                + "<INFO name=\"ROW_COUNT_ESTIMATE\" value=\"12345\">"
+                + "Estimated total number of rows matching the query</INFO>\r\n</RESOURCE>"));
+        assertThat(extractor.isCutoff(), is(true));
+        assertThat(extractor.getProcessedCount(), is(1L));
+        assertThat(extractor.getResultSize(), is(2L));
+        Mockito.verify(mockResults, Mockito.never()).last();
+    }
+
+    /**
+     * Tests that a failed row count estimate does not stop the results being output.
+     * 
+     * @throws Exception
+     *             Not expected.
+     */
+    @Test
+    public void testExtractDataOverflowRowCountEstimateFailed() throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        VoTableResultsExtractor extractor = new VoTableResultsExtractor(writer, 1, votableFieldMap,
+                TapService.CASDA_TAP_RESULT_NAME, metadataMap, APP_BASE_URL);
+        ResultSetMetaData mockMetaData = create4ColMetadata();
+        ResultSet mockResults = create4ColResultSet(mockMetaData);
+        Mockito.when(mockResults.getStatement()).thenThrow(new SQLException("closed"));
+        extractor.setRowCountEstimator(connection -> 12345L);
+
+        extractor.extractData(mockResults);
+        assertThat(writer.toString(),
+                matchesPattern(BASE_HEADER_PART1 + FIELD_DEFS + BASE_HEADER_PART2
+                        + "           <TR><TD>Foo</TD><TD>1</TD><TD>2</TD><TD>211.1</TD></TR>\n" + OVERFLOW_FOOTER
+                        + "$"));
+        assertThat(extractor.getRowCountEstimate(), is(nullValue()));
+    }
+
     /**
      * Tests outputting a result set with more records than requested.
      * 
@@ -635,6 +693,7 @@ public class VoTableResultsExtractorTest
         assertEquals("char", VoTableResultsExtractor.translateTapColumnTypeToVoTableType("CHARACTER VARYING (13)"));
         assertEquals("char", VoTableResultsExtractor.translateTapColumnTypeToVoTableType("character varying(255)"));
         assertEquals("char", VoTableResultsExtractor.translateTapColumnTypeToVoTableType("spoly"));
+        assertEquals("char", VoTableResultsExtractor.translateTapColumnTypeToVoTableType("scircle"));
         assertEquals("char", VoTableResultsExtractor.translateTapColumnTypeToVoTableType("CHARACTER(100)"));
         assertEquals("double", VoTableResultsExtractor.translateTapColumnTypeToVoTableType("DOUBLE PRECISION"));
         assertEquals("double", VoTableResultsExtractor.translateTapColumnTypeToVoTableType("double precision"));
@@ -694,6 +753,7 @@ public class VoTableResultsExtractorTest
         Mockito.when(mockMetaData.getColumnType(2)).thenReturn(Types.INTEGER);
         Mockito.when(mockMetaData.getColumnName(3)).thenReturn("flags");
         Mockito.when(mockMetaData.getColumnType(3)).thenReturn(Types.OTHER);
+        Mockito.when(mockMetaData.getColumnTypeName(3)).thenReturn("varbit");
         Mockito.when(mockMetaData.getColumnName(4)).thenReturn("y_ave");
         Mockito.when(mockMetaData.getColumnType(4)).thenReturn(Types.REAL);
         return mockMetaData;
@@ -718,7 +778,9 @@ public class VoTableResultsExtractorTest
         Mockito.when(mockResults.getMetaData()).thenReturn(mockMetaData);
         Mockito.when(mockResults.next()).thenReturn(true).thenReturn(true).thenReturn(false);
         Mockito.when(mockResults.getString(1)).thenReturn("Foo").thenReturn("Bar");
-        Mockito.when(mockResults.getString(2)).thenReturn("1").thenReturn(null);
+        Mockito.when(mockResults.getInt(2)).thenReturn(1).thenReturn(0);
+        // column 2 is null in the second row
+        Mockito.when(mockResults.wasNull()).thenReturn(false, false, true, false);
         PGobject pgo1 = new PGobject();
         pgo1.setType("varbit");
         pgo1.setValue("10");
@@ -739,7 +801,9 @@ public class VoTableResultsExtractorTest
         Mockito.when(mockResults.getMetaData()).thenReturn(mockMetaData);
         Mockito.when(mockResults.next()).thenReturn(true).thenReturn(true).thenReturn(false);
         Mockito.when(mockResults.getString(1)).thenReturn("\"finan\u010Dn\u00E9 slu\u017Eby\"").thenReturn("Bar");
-        Mockito.when(mockResults.getString(2)).thenReturn("1").thenReturn(null);
+        Mockito.when(mockResults.getInt(2)).thenReturn(1).thenReturn(0);
+        // column 2 is null in the second row
+        Mockito.when(mockResults.wasNull()).thenReturn(false, false, true, false);
         PGobject pgo1 = new PGobject();
         pgo1.setType("varbit");
         pgo1.setValue("10");
@@ -97,6 +97,27 @@ public class ScsControllerTest extends BaseTest
         assertEquals(queryString, mapCaptor.getValue().get(VoKeys.PARAM_QUERY_STRING));
     }
 
+    /**
+     * Test that JSON output can be requested from the SCS endpoint, with any errors still reported as a VOTable.
+     * 
+     * @throws Exception
+     *             from performing get request
+     */
+    @Test
+    public void testSCSEndpointJson() throws Exception
+    {
+        String queryString = "ra=1&dec=2&sr=1&RESPONSEFORMAT=application/json";
+
+        doReturn(true).when(mockService).processQuery(any(Writer.class), any());
+        this.mockMvc.perform(get("/scs/obscore?" + queryString)).andExpect(status().isOk())
+                .andExpect(content().contentType("application/json"))
+                .andExpect(header().string("content-disposition", CoreMatchers.endsWith(".json\"")));
+
+        doReturn(false).when(mockService).processQuery(any(Writer.class), any());
+        this.mockMvc.perform(get("/scs/obscore?" + queryString)).andExpect(status().isOk())
+                .andExpect(content().contentType("text/xml;content=x-votable"));
+    }
+
     /**
      * Test of the sync endpoint. Checks the error handling returns correct content type
      * 
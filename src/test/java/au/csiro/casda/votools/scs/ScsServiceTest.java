@@ -24,7 +24,7 @@ import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
-import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
@@ -37,6 +37,7 @@ import java.io.StringWriter;
 import java.io.Writer;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -52,6 +53,7 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
@@ -65,6 +67,7 @@ import au.csiro.casda.votools.config.ConfigurationDAO;
 import au.csiro.casda.votools.config.ConfigurationDAOImpl;
 import au.csiro.casda.votools.config.ConfigurationException;
 import au.csiro.casda.votools.config.ConfigurationRegistry;
+import au.csiro.casda.votools.config.ConnectionPool;
 import au.csiro.casda.votools.config.ConfigurationTest;
 import au.csiro.casda.votools.config.EndPoint;
 import au.csiro.casda.votools.jpa.TapColumn;
@@ -72,6 +75,7 @@ import au.csiro.casda.votools.jpa.TapSchema;
 import au.csiro.casda.votools.jpa.TapTable;
 import au.csiro.casda.votools.jpa.repository.VoTableRepositoryService;
 import au.csiro.casda.votools.scs.ConeSearchTable.Verbosity;
+import au.csiro.casda.votools.scs.ScsService.ScsStatementCreator;
 import au.csiro.casda.votools.utils.VoKeys;
 
 /**
@@ -330,9 +334,9 @@ public class ScsServiceTest extends BaseTest
 
         assertThat(writer.toString(), is(""));
         verify(config.gtDao().getTemplate())
-                .query(eq("SELECT obs_id,s_ra,s_dec FROM casda.obs_core WHERE '1' = "
-                        + "(spoint(radians(s_ra),radians(s_dec)) @ scircle(spoint(radians(?),radians(?)),radians(?)))"),
-                        eq(new Object[] { 149.0, -63.0, 0.5 }), (ResultSetExtractor<Boolean>) any());
+                .query(scsStatement("SELECT obs_id,s_ra,s_dec FROM casda.obs_core WHERE '1' = "
+                        + "(spoint(radians(s_ra),radians(s_dec)) @ scircle(spoint(radians(?),radians(?)),radians(?)))",
+                        149.0, -63.0, 0.5), (ResultSetExtractor<Boolean>) any());
         testAppender.verifyLogMessage(
                 Level.INFO,
                 allOf(containsString("E144]"), containsString("duration:"), containsString("scsTable: obscore"),
@@ -423,9 +427,9 @@ public class ScsServiceTest extends BaseTest
 
         assertThat(writer.toString(), is(""));
         verify(config.gtDao().getTemplate()).query(
-                eq("SELECT obs_id,s_dec,s_ra FROM casda.continuum_component WHERE '1' = "
+                scsStatement("SELECT obs_id,s_dec,s_ra FROM casda.continuum_component WHERE '1' = "
                         + "(spoint(radians(s_ra),radians(s_dec)) @ scircle(spoint(radians(?),radians(?)),radians(?)))"
-                        + " AND released_date is not null"), eq(new Object[] { 149.0, -63.0, 0.5 }),
+                        + " AND released_date is not null", 149.0, -63.0, 0.5),
                 (ResultSetExtractor<Boolean>) any());
         testAppender
                 .verifyLogMessage(
@@ -508,6 +512,7 @@ public class ScsServiceTest extends BaseTest
         when(config.gtDao()).thenReturn(mockConfigDAO);
         JdbcTemplate mockTemplate = mock(JdbcTemplate.class);
         when(mockConfigDAO.getTemplate()).thenReturn(mockTemplate);
+        when(mockConfigDAO.getTemplate(any(ConnectionPool.class))).thenReturn(mockTemplate);
         DataSource mockDataSource = mock(DataSource.class);
         when(mockTemplate.getDataSource()).thenReturn(mockDataSource);
         config.setDao(mock(ConfigurationDAO.class));
@@ -523,4 +528,10 @@ public class ScsServiceTest extends BaseTest
         when(requestFromAnonymous.getRemoteAddr()).thenReturn(TEST_IP_ADDRESS_ANONYMOUS);
         assertFalse(scsService.trustAuthHeader(requestFromAnonymous));
     }
+
+    private static PreparedStatementCreator scsStatement(String sql, double... position)
+    {
+        return argThat(psc -> psc instanceof ScsStatementCreator && sql.equals(((ScsStatementCreator) psc).getSql())
+                && Arrays.equals(position, ((ScsStatementCreator) psc).getPosition()));
+    }
 }
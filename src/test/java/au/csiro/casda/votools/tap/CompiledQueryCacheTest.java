@@ -0,0 +1,107 @@
+package au.csiro.casda.votools.tap;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import adql.query.ADQLQuery;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Verify the key handling of the CompiledQueryCache.
+ * <p>
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class CompiledQueryCacheTest
+{
+    private static final String QUERY = "select * from ivoa.obscore where obs_id = 'a  b'";
+
+    private CompiledQueryCache cache;
+
+    private CompiledTapQuery translated;
+
+    @BeforeEach
+    public void setUp()
+    {
+        cache = new CompiledQueryCache(10, 60);
+        translated = new CompiledTapQuery(QUERY, new ADQLQuery(), "SELECT * FROM casda.obscore",
+                Collections.emptyList(), "ivoa.obscore", null);
+    }
+
+    @Test
+    public void testNormalise()
+    {
+        assertThat(CompiledQueryCache.normalise("  select\t TOP \r\n100 * \n  from ivoa.obscore \n"),
+                is("select TOP 100 * from ivoa.obscore"));
+        assertThat(CompiledQueryCache.normalise("select \"a  b\"  from t where x = 'it''s   here'  "),
+                is("select \"a  b\" from t where x = 'it''s   here'"));
+    }
+
+    @Test
+    public void testCommentsKeepLineBreaks()
+    {
+        assertThat(CompiledQueryCache.normalise("select  *  from t -- note\nwhere x = '--'"),
+                is("select * from t -- note\nwhere x = '--'"));
+        assertThat(CompiledQueryCache.normalise("select * from t where x = '--'  and  y = 1"),
+                is("select * from t where x = '--' and y = 1"));
+
+        cache.put("SELECT * FROM t -- note\nWHERE x = 1", true, null, translated);
+        assertThat(cache.get("SELECT * FROM t -- note WHERE x = 1", true, null), is(nullValue()));
+        assertThat(cache.get("SELECT  * FROM t -- note\nWHERE x = 1", true, null), is(sameInstance(translated)));
+    }
+
+    @Test
+    public void testWhitespaceDifferencesShareEntry()
+    {
+        cache.put(QUERY, true, null, translated);
+        assertThat(cache.get("select *\n  from ivoa.obscore\twhere obs_id = 'a  b'", true, null),
+                is(sameInstance(translated)));
+        assertThat(cache.get("select * from ivoa.obscore where obs_id = 'a b'", true, null), is(nullValue()));
+    }
+
+    @Test
+    public void testAuthorisationContextIsPartOfKey()
+    {
+        cache.put(QUERY, false, Arrays.asList(3L, 1L, 2L), translated);
+
+        assertThat(cache.get(QUERY, false, Arrays.asList(1L, 2L, 3L)), is(sameInstance(translated)));
+        assertThat(cache.get(QUERY, false, Arrays.asList(1L, 2L)), is(nullValue()));
+        assertThat(cache.get(QUERY, false, null), is(nullValue()));
+        assertThat(cache.get(QUERY, true, null), is(nullValue()));
+    }
+
+    @Test
+    public void testAdminIgnoresProjects()
+    {
+        cache.put(QUERY, true, Collections.singletonList(5L), translated);
+        assertThat(cache.get(QUERY, true, null), is(sameInstance(translated)));
+    }
+
+    @Test
+    public void testClear()
+    {
+        cache.put(QUERY, true, null, translated);
+        assertThat(cache.size(), is(1L));
+        cache.clear();
+        assertThat(cache.size(), is(0L));
+        assertThat(cache.get(QUERY, true, null), is(nullValue()));
+    }
+}
@@ -16,10 +16,12 @@ package au.csiro.casda.votools.tap;
 import java.io.File;
 
 import au.csiro.casda.votools.config.ConfigurationException;
+import au.csiro.casda.votools.uws.IndexedJobList;
 import au.csiro.casda.votools.uws.UWSLogger;
 import au.csiro.casda.votools.uws.UWServiceInterface;
 import uws.UWSException;
-import uws.job.JobList;
+import uws.job.UWSJob;
+import uws.job.manager.DefaultExecutionManager;
 import uws.service.UWSService;
 import uws.service.file.LocalUWSFileManager;
 
@@ -37,7 +39,20 @@ public class DummyUWService extends UWSService implements UWServiceInterface
         super(new DummyUWSFactory(),  new LocalUWSFileManager(new File("temp")), new UWSLogger(), "/tap");
 
         this.setDescription("desc");
-        this.addJobList(new JobList("async"));
+        this.addJobList(new IndexedJobList("async", new DefaultExecutionManager(), TapUWService::getJobOwner,
+                TapUWService::getJobCreationTime));
+    }
+
+    @Override
+    public UWSJob getJob(String jobId)
+    {
+        return getJobList("async").getJob(jobId);
+    }
+
+    @Override
+    public IndexedJobList getAsyncJobList()
+    {
+        return (IndexedJobList) getJobList("async");
     }
 
     /* (non-Javadoc)
@@ -0,0 +1,137 @@
+package au.csiro.casda.votools.tap;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Collections;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import adql.query.ADQLQuery;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Verify the estimation of the total rows of a query by QueryRowEstimator.
+ * <p>
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class QueryRowEstimatorTest
+{
+    private static final String SQL = "SELECT id FROM casda.obs_core";
+
+    private CompiledTapQuery compiledQuery;
+
+    private Connection connection;
+
+    private PreparedStatement statement;
+
+    private ResultSet resultSet;
+
+    @BeforeEach
+    public void setUp() throws Exception
+    {
+        compiledQuery = new CompiledTapQuery("select id from ivoa.obscore", new ADQLQuery(), SQL,
+                Collections.emptyList(), "ivoa.obscore", null);
+        connection = mock(Connection.class);
+        statement = mock(PreparedStatement.class);
+        resultSet = mock(ResultSet.class);
+        when(statement.executeQuery()).thenReturn(resultSet);
+    }
+
+    @Test
+    public void testExplain() throws Exception
+    {
+        when(connection.prepareStatement("EXPLAIN (FORMAT JSON) " + SQL)).thenReturn(statement);
+        when(resultSet.next()).thenReturn(true);
+        when(resultSet.getString(1)).thenReturn("[{\"Plan\": {\"Node Type\": \"Seq Scan\", \"Startup Cost\": 0.00, "
+                + "\"Total Cost\": 1234.50, \"Plan Rows\": 52000, \"Plan Width\": 8}}]");
+
+        QueryRowEstimator estimator =
+                new QueryRowEstimator(compiledQuery, QueryRowEstimator.Method.EXPLAIN, 1000);
+
+        assertThat(estimator.estimateRowCount(connection), is(52000L));
+        verify(statement).close();
+    }
+
+    @Test
+    public void testEstimatePlanCost() throws Exception
+    {
+        when(connection.prepareStatement("EXPLAIN (FORMAT JSON) " + SQL + "\nLimit 11")).thenReturn(statement);
+        when(resultSet.next()).thenReturn(true);
+        when(resultSet.getString(1)).thenReturn("[{\"Plan\": {\"Node Type\": \"Limit\", \"Startup Cost\": 0.00, "
+                + "\"Total Cost\": 0.25, \"Plan Rows\": 11, \"Plan Width\": 8}}]");
+
+        QueryRowEstimator estimator = new QueryRowEstimator(compiledQuery, QueryRowEstimator.Method.NONE, 1000);
+
+        assertThat(estimator.estimatePlanCost(connection, 11), is(0.25));
+        verify(statement).close();
+    }
+
+    @Test
+    public void testCount() throws Exception
+    {
+        when(connection.prepareStatement("SELECT count(*) FROM (" + SQL + "\nLimit 1000) AS counted_rows"))
+                .thenReturn(statement);
+        when(resultSet.next()).thenReturn(true);
+        when(resultSet.getString(1)).thenReturn("1000");
+
+        QueryRowEstimator estimator = new QueryRowEstimator(compiledQuery, QueryRowEstimator.Method.COUNT, 1000);
+
+        assertThat(estimator.estimateRowCount(connection), is(1000L));
+    }
+
+    @Test
+    public void testNone() throws Exception
+    {
+        QueryRowEstimator estimator = new QueryRowEstimator(compiledQuery, QueryRowEstimator.Method.NONE, 1000);
+
+        assertThat(estimator.estimateRowCount(connection), is(nullValue()));
+        verifyNoInteractions(connection);
+    }
+
+    @Test
+    public void testGetPlanRows()
+    {
+        assertThat(QueryRowEstimator.getPlanRows("[{\"Plan\": {\"Plan Rows\": 17}}]"), is(17L));
+        assertThat(QueryRowEstimator.getPlanRows("[{\"Plan\": {}}]"), is(nullValue()));
+        assertThat(QueryRowEstimator.getPlanRows("not json"), is(nullValue()));
+    }
+
+    @Test
+    public void testGetPlanCost()
+    {
+        assertThat(QueryRowEstimator.getPlanCost("[{\"Plan\": {\"Total Cost\": 1234.5, \"Plan Rows\": 17}}]"),
+                is(1234.5));
+        assertThat(QueryRowEstimator.getPlanCost("[{\"Plan\": {}}]"), is(nullValue()));
+        assertThat(QueryRowEstimator.getPlanCost("not json"), is(nullValue()));
+    }
+
+    @Test
+    public void testMethodFromValue()
+    {
+        assertThat(QueryRowEstimator.Method.fromValue("explain"), is(QueryRowEstimator.Method.EXPLAIN));
+        assertThat(QueryRowEstimator.Method.fromValue(" COUNT "), is(QueryRowEstimator.Method.COUNT));
+        assertThat(QueryRowEstimator.Method.fromValue(null), is(QueryRowEstimator.Method.NONE));
+        assertThat(QueryRowEstimator.Method.fromValue("guess"), is(QueryRowEstimator.Method.NONE));
+    }
+}
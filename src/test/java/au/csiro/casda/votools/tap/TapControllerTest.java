@@ -12,19 +12,23 @@ package au.csiro.casda.votools.tap;
  * #L%
  */
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.matchesPattern;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.xpath;
 
@@ -57,6 +61,7 @@ import org.w3c.dom.Document;
 
 import au.csiro.BaseTest;
 import au.csiro.casda.votools.result.OutputFormat;
+import au.csiro.casda.votools.result.ResultStreamWriter;
 import au.csiro.casda.votools.utils.VoKeys;
 
 /**
@@ -94,6 +99,8 @@ public class TapControllerTest extends BaseTest
     {
         doReturn(true).when(mockService).isReady();
         doReturn(true).when(uploadParamProcessor).isReady();
+        when(mockService.createResultWriter(any()))
+                .thenAnswer(invocation -> new ResultStreamWriter(invocation.getArgument(0), 16));
         this.mockMvc = MockMvcBuilders.standaloneSetup(tapController).build();
     }
 
@@ -146,6 +153,31 @@ public class TapControllerTest extends BaseTest
         assertEquals("", mapCaptor.getAllValues().get(3).get(VoKeys.USER_PROJECTS));
     }
 
+    /**
+     * Test that binary formats are written to the response's byte stream.
+     * 
+     * @throws Exception
+     *             from performing get request
+     */
+    @Test
+    public void testSyncBinaryFormat() throws Exception
+    {
+        String queryString = "request=doQuery&LANG=ADQL&query=select * from obs_core&format=fits";
+
+        when(mockService.getFormat("fits")).thenReturn(OutputFormat.FITS);
+        when(mockService.processQuery((Writer) any(), any(), any(), any())).thenAnswer(invocation -> {
+            Writer writer = invocation.getArgument(0);
+            assertThat(writer instanceof ResultStreamWriter, is(true));
+            ((ResultStreamWriter) writer).getOutputStream().write(new byte[] { 0, 1, (byte) 0xff });
+            return true;
+        });
+
+        MvcResult result = this.mockMvc.perform(get("/tap/sync?" + queryString)).andExpect(status().isOk())
+                .andExpect(content().contentType("application/fits"))
+                .andExpect(header().string("content-disposition", CoreMatchers.endsWith(".fits\""))).andReturn();
+        assertThat(result.getResponse().getContentAsByteArray(), is(new byte[] { 0, 1, (byte) 0xff }));
+    }
+
     @SuppressWarnings({ "rawtypes", "unchecked" })
     @Test
     public void testSyncViaEndpointAddsUserInfoIfProxiedRequest() throws Exception
@@ -250,6 +282,20 @@ public class TapControllerTest extends BaseTest
 
     }
 
+    @Test
+    public void testSyncPromotedToAsync() throws Exception
+    {
+        when(mockService.getFormat(null)).thenReturn(OutputFormat.VOTABLE);
+        when(mockService.processQuery((Writer) any(), any(), any(), any()))
+                .thenThrow(new AsyncPromotionException(2500, 1000));
+
+        MockHttpServletResponse response = this.mockMvc
+                .perform(get("/tap/sync?request=doQuery&LANG=ADQL&query=select * from obs_core&ALLOW_ASYNC=true"))
+                .andExpect(status().isSeeOther()).andReturn().getResponse();
+        assertThat(response.getHeader("Location"), CoreMatchers.containsString("/tap/async/"));
+        assertThat(response.getHeader("content-disposition"), CoreMatchers.nullValue());
+    }
+
     /**
      * Test of the sync endpoint with invalid format requested.
      *
@@ -311,6 +357,59 @@ public class TapControllerTest extends BaseTest
         assertThat(endTime, matchesPattern("^\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}$"));
     }
 
+    /**
+     * Test a request for a job with WAIT is held until the job changes phase.
+     *
+     * @throws Exception
+     *             from performing requests
+     */
+    @Test
+    public void testAsyncWaitForPhaseChange() throws Exception
+    {
+        when(mockService.getAsyncMaxWait()).thenReturn(60);
+        String loc = this.mockMvc.perform(post("/tap/async/").param("eRRor", "false"))
+                .andExpect(status().isSeeOther()).andReturn().getResponse().getHeader("Location");
+
+        MvcResult waiting = this.mockMvc.perform(get(loc + "/phase").param("WAIT", "30").param("PHASE", "PENDING"))
+                .andExpect(request().asyncStarted()).andReturn();
+        this.mockMvc.perform(post(loc + "/phase").param("PHASE", "RUN")).andExpect(status().isSeeOther());
+
+        waiting.getAsyncResult(TimeUnit.SECONDS.toMillis(SECONDS_TO_WAIT_FOR_JOB));
+        String phase = this.mockMvc.perform(asyncDispatch(waiting)).andExpect(status().isOk()).andReturn()
+                .getResponse().getContentAsString();
+        assertThat(phase, CoreMatchers.not(CoreMatchers.containsString("PENDING")));
+    }
+
+    /**
+     * Test a request for a job with WAIT is answered straight away when the job is not in the phase the client asked
+     * about, has finished, or waiting is turned off.
+     *
+     * @throws Exception
+     *             from performing requests
+     */
+    @Test
+    public void testAsyncWaitAnsweredStraightAway() throws Exception
+    {
+        when(mockService.getAsyncMaxWait()).thenReturn(60);
+        String loc = this.mockMvc.perform(post("/tap/async/").param("eRRor", "false"))
+                .andExpect(status().isSeeOther()).andReturn().getResponse().getHeader("Location");
+
+        this.mockMvc.perform(get(loc).param("WAIT", "30").param("PHASE", "EXECUTING"))
+                .andExpect(request().asyncNotStarted()).andExpect(status().isOk())
+                .andExpect(xpath("/job/phase").string("PENDING"));
+        this.mockMvc.perform(get(loc + "/results").param("WAIT", "30")).andExpect(request().asyncNotStarted());
+        this.mockMvc.perform(get(loc).param("WAIT", "soon")).andExpect(request().asyncNotStarted());
+
+        when(mockService.getAsyncMaxWait()).thenReturn(0);
+        this.mockMvc.perform(get(loc).param("WAIT", "-1")).andExpect(request().asyncNotStarted());
+
+        when(mockService.getAsyncMaxWait()).thenReturn(60);
+        this.mockMvc.perform(post(loc + "/phase").param("PHASE", "RUN")).andExpect(status().isSeeOther());
+        this.waitForStatus(loc, "COMPLETED", SECONDS_TO_WAIT_FOR_JOB);
+        this.mockMvc.perform(get(loc).param("WAIT", "-1")).andExpect(request().asyncNotStarted())
+                .andExpect(xpath("/job/phase").string("COMPLETED"));
+    }
+
     @Test
     public void testAsyncJobListWithUntrustedUser() throws Exception
     {
@@ -319,6 +418,46 @@ public class TapControllerTest extends BaseTest
         this.mockMvc.perform(get("/tap/async/")).andExpect(status().isOk()).andDo(print());
     }
     
+    /**
+     * Test the job list can be filtered, and is only listed for admin users.
+     *
+     * @throws Exception
+     *             from performing requests
+     */
+    @Test
+    public void testAsyncJobListFilters() throws Exception
+    {
+        when(mockService.trustAuthHeader(any(HttpServletRequest.class))).thenReturn(true);
+        this.mockMvc.perform(post("/tap/async/").header(VoKeys.VO_AUTH_HEADER_USER_ID, "user1"))
+                .andExpect(status().isSeeOther());
+        String second = this.mockMvc.perform(post("/tap/async/").header(VoKeys.VO_AUTH_HEADER_USER_ID, "user2"))
+                .andExpect(status().isSeeOther()).andReturn().getResponse().getHeader("Location");
+        String secondId = second.substring(second.lastIndexOf("/") + 1);
+
+        when(mockService.isTrustedUserId(any(HttpServletRequest.class))).thenReturn(true);
+        this.mockMvc.perform(get("/tap/async").param("LAST", "1")).andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith("text/xml"))
+                .andExpect(xpath("count(/jobs/jobref)").number(is(1.0)))
+                .andExpect(xpath("/jobs/jobref/@id").string(secondId))
+                .andExpect(xpath("/jobs/jobref/@href").string(second))
+                .andExpect(xpath("/jobs/jobref/phase").string("PENDING"));
+        this.mockMvc.perform(get("/tap/async").param("phase", "PENDING").param("PHASE", "QUEUED")
+                .param("AFTER", "2015-10-16T12:00:00Z")).andExpect(xpath("count(/jobs/jobref)").number(is(2.0)));
+        this.mockMvc.perform(get("/tap/async").param("PHASE", "COMPLETED"))
+                .andExpect(xpath("count(/jobs/jobref)").number(is(0.0)));
+        this.mockMvc.perform(get("/tap/async").param("AFTER", "2100-01-01T00:00:00"))
+                .andExpect(xpath("count(/jobs/jobref)").number(is(0.0)));
+        this.mockMvc.perform(get("/tap/async").param("LAST", "0")).andExpect(status().isBadRequest());
+        this.mockMvc.perform(get("/tap/async").param("AFTER", "yesterday")).andExpect(status().isBadRequest());
+        this.mockMvc.perform(get("/tap/async").param("PHASE", "RUNNING")).andExpect(status().isBadRequest());
+
+        when(mockService.isTrustedUserId(any(HttpServletRequest.class))).thenReturn(false);
+        // A user of the data access portal does not see their jobs
+        this.mockMvc.perform(get("/tap/async").header(VoKeys.VO_AUTH_HEADER_USER_ID, "user1"))
+                .andExpect(status().isOk()).andExpect(content().string(containsString("<uws:jobList")))
+                .andExpect(content().string(not(containsString("jobref"))));
+    }
+
     /**
      * Basic test of a failed async endpoint add a job show a job - check errored Also ensure parameters are case
      * insensitive as per Tap spec.
@@ -13,12 +13,19 @@ package au.csiro.casda.votools.tap;
  */
 
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -30,6 +37,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.springframework.dao.QueryTimeoutException;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 
 import au.csiro.BaseTest;
@@ -593,8 +601,10 @@ public class TapServiceGenerateSqlQueryTest extends BaseTest
     @Test
     public void testGenerateSqlForQueryWholeTableEmbargoed() throws Exception
     {
-        when(voTableRepositoryService.fetchProjectIdsFromCodes(any(), any()))
-                .thenReturn(Collections.singletonList(15L));
+        // project owning the table is resolved when the metadata is loaded
+        when(voTableRepositoryService.fetchProjectIdMapFromCodes(any(), any()))
+                .thenReturn(Collections.singletonMap("AS033", 15L));
+        tapService.createDbChecker();
         
         // Admin user has access
         assertThat(tapService.generateSqlForQuery("select * from AS033.targets", true, null),
@@ -611,12 +621,44 @@ public class TapServiceGenerateSqlQueryTest extends BaseTest
                         + "FROM casda.AS033_targets\nWHERE 2 < 1"));
     }
 
+    @Test
+    public void testGenerateSqlForQueryWholeTableEmbargoedNoDbAccess() throws Exception
+    {
+        when(voTableRepositoryService.fetchProjectIdMapFromCodes(any(), any()))
+                .thenReturn(Collections.singletonMap("AS033", 15L));
+        tapService.createDbChecker();
+
+        tapService.generateSqlForQuery("select * from AS033.targets", false, Collections.singletonList(15L));
+        tapService.generateSqlForQuery("select * from AS033.targets", false, null);
+
+        verify(voTableRepositoryService, never()).fetchProjectIdsFromCodes(any(), any());
+    }
 
     @Test
-    public void testGenerateSqlForQueryWholeTableOutOfEmbargo() throws Exception
+    public void testGenerateSqlForQueryWholeTableEmbargoedProjectLookupFailed() throws Exception
     {
+        when(voTableRepositoryService.fetchProjectIdMapFromCodes(any(), any()))
+                .thenThrow(new QueryTimeoutException("timeout"));
+        tapService.createDbChecker();
         when(voTableRepositoryService.fetchProjectIdsFromCodes(any(), any()))
                 .thenReturn(Collections.singletonList(15L));
+
+        // the owning project is looked up when the query is run instead
+        assertThat(tapService.generateSqlForQuery("select * from AS033.targets", false, Collections.singletonList(15L)),
+                is("SELECT casda.AS033_targets.id AS \"id\"\n"
+                        + "FROM casda.AS033_targets"));
+        assertThat(tapService.generateSqlForQuery("select * from AS033.targets", false, null),
+                is("SELECT casda.AS033_targets.id AS \"id\"\n"
+                        + "FROM casda.AS033_targets\nWHERE 2 < 1"));
+    }
+
+
+    @Test
+    public void testGenerateSqlForQueryWholeTableOutOfEmbargo() throws Exception
+    {
+        when(voTableRepositoryService.fetchProjectIdMapFromCodes(any(), any()))
+                .thenReturn(Collections.singletonMap("AS033", 15L));
+        tapService.createDbChecker();
         
         // Admin user has access
         assertThat(tapService.generateSqlForQuery("select * from AS033.public_targets", true, null),
@@ -634,4 +676,113 @@ public class TapServiceGenerateSqlQueryTest extends BaseTest
                         + "FROM casda.AS033_public_targets"));
     }
 
+    @Test
+    public void testCompileQueryReferencedTables() throws Exception
+    {
+        CompiledTapQuery compiledQuery = tapService.compileQuery("select c.id from casda.continuum_component c "
+                + "where c.catalogue_id in (select id from casda.catalogue)", true, null);
+
+        assertThat(compiledQuery.isValid(), is(true));
+        assertThat(compiledQuery.getSingleTableName(), is("casda.continuum_component"));
+        assertThat(compiledQuery.getSql(), is(tapService.generateSqlForQuery("select c.id from "
+                + "casda.continuum_component c where c.catalogue_id in (select id from casda.catalogue)", true, null)));
+        assertThat(compiledQuery.getTables().size(), is(2));
+        assertThat(compiledQuery.getTables().get(0).getDbTableName(), is("continuum_component"));
+        assertThat(compiledQuery.getTables().get(1).getDbTableName(), is("catalogue"));
+    }
+
+    @Test
+    public void testCompileQueryInvalid() throws Exception
+    {
+        CompiledTapQuery compiledQuery = tapService.compileQuery("select * from casda.no_such_table", true, null);
+
+        assertThat(compiledQuery.isValid(), is(false));
+        assertThat(compiledQuery.getSql(), is(nullValue()));
+        assertThat(compiledQuery.getErrors().size(), is(1));
+        assertThat(compiledQuery.getErrorMessage(), containsString("Unknown table \"casda.no_such_table\""));
+    }
+
+    @Test
+    public void testGenerateSqlForQueryBoundProjectIds() throws Exception
+    {
+        tapService.setBindProjectIds(true);
+        String query = "select * from casda.continuum_component WHERE EXISTS "
+                + "(select ca.id from casda.catalogue as ca WHERE ca.image_id < 100 "
+                + "AND casda.continuum_component.catalogue_id=ca.id)";
+        String expectedSql = "SELECT casda.continuum_component.id AS \"id\",casda.continuum_component.released_date AS "
+                + "\"released_date\",casda.continuum_component.catalogue_id AS \"catalogue_id\"\nFROM "
+                + "casda.continuum_component\nWHERE EXISTS(SELECT ca.id AS \"id\"\nFROM casda.catalogue "
+                + "AS ca\nWHERE ca.image_id < 100 AND casda.continuum_component.catalogue_id = ca.id "
+                + "AND (ca.project_id = ANY(?) OR (ca.released_date IS NOT NULL AND "
+                + "ca.released_date <= '" + date + "'))) AND "
+                + "(casda.continuum_component.project_id = ANY(?) OR "
+                + "(casda.continuum_component.released_date IS NOT NULL AND "
+                + "casda.continuum_component.released_date <= '" + date + "'))";
+
+        // The query is the same no matter how many projects the user has access to
+        assertThat(tapService.generateSqlForQuery(query, false, Arrays.asList(1L, 2L, 3L, 4L)), is(expectedSql));
+        assertThat(tapService.generateSqlForQuery(query, false, Arrays.asList(5L)), is(expectedSql));
+        assertThat(tapService.generateSqlForQuery(query, false, null), is(expectedSql));
+
+        // Admin users are not constrained
+        assertThat(tapService.generateSqlForQuery(query, true, Arrays.asList(1L, 2L)), containsString("< 100 AND "
+                + "casda.continuum_component.catalogue_id = ca.id)"));
+    }
+
+    @Test
+    public void testCompileQueryBoundProjectIdsParameters() throws Exception
+    {
+        tapService.setBindProjectIds(true);
+        CompiledTapQuery compiledQuery = tapService.compileQuery("select c.id from casda.continuum_component c "
+                + "where c.catalogue_id in (select id from casda.catalogue)", false, Arrays.asList(7L, 9L));
+
+        assertThat(compiledQuery.isValid(), is(true));
+        assertThat(compiledQuery.getProjectIdsParameterCount(), is(2));
+
+        PreparedStatement preparedStatement = Mockito.mock(PreparedStatement.class);
+        Connection connection = Mockito.mock(Connection.class);
+        Array array = Mockito.mock(Array.class);
+        when(preparedStatement.getConnection()).thenReturn(connection);
+        when(connection.createArrayOf("bigint", new Long[] { 7L, 9L })).thenReturn(array);
+
+        compiledQuery.setParameters(preparedStatement);
+
+        verify(preparedStatement).setArray(1, array);
+        verify(preparedStatement).setArray(2, array);
+    }
+
+    @Test
+    public void testCompileQueryAdminHasNoParameters() throws Exception
+    {
+        tapService.setBindProjectIds(true);
+        CompiledTapQuery compiledQuery =
+                tapService.compileQuery("select c.id from casda.continuum_component c", true, null);
+        PreparedStatement preparedStatement = Mockito.mock(PreparedStatement.class);
+
+        compiledQuery.setParameters(preparedStatement);
+
+        assertThat(compiledQuery.getProjectIdsParameterCount(), is(0));
+        Mockito.verifyNoInteractions(preparedStatement);
+    }
+
+    @Test
+    public void testCompiledQueryLimitedSql() throws Exception
+    {
+        CompiledTapQuery compiledQuery = tapService.compileQuery("select * from ivoa.obscore", true, null);
+        assertThat(compiledQuery.getTop(), is(-1));
+        assertThat(compiledQuery.getSql(11), is(compiledQuery.getSql() + "\nLimit 11"));
+
+        // a larger TOP is reduced to the limit
+        compiledQuery = tapService.compileQuery("select top 100 * from ivoa.obscore order by dataproduct_type", true,
+                null);
+        assertThat(compiledQuery.getTop(), is(100));
+        assertThat(compiledQuery.getSql(11),
+                is("SELECT casda.obs_core.dataproduct_type AS \"dataproduct_type\",casda.obs_core.obs_publisher_did "
+                        + "AS \"obs_publisher_did\"\nFROM casda.obs_core\n"
+                        + "ORDER BY casda.obs_core.dataproduct_type ASC\nLimit 11"));
+
+        // a smaller TOP is left alone
+        assertThat(compiledQuery.getSql(101), is(compiledQuery.getSql()));
+        assertThat(compiledQuery.getSql(100), is(compiledQuery.getSql()));
+    }
 }
@@ -4,19 +4,24 @@ import static org.hamcrest.CoreMatchers.allOf;
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -25,13 +30,18 @@ import static org.mockito.Mockito.when;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -45,17 +55,21 @@ import org.apache.logging.log4j.Level;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
 import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 import adql.parser.ParseException;
+import adql.query.ADQLQuery;
 import au.csiro.BaseTest;
 import au.csiro.casda.Log4JTestAppender;
 import au.csiro.casda.logging.CasdaFormatter;
@@ -63,6 +77,7 @@ import au.csiro.casda.votools.config.Configuration;
 import au.csiro.casda.votools.config.ConfigurationDAO;
 import au.csiro.casda.votools.config.ConfigurationException;
 import au.csiro.casda.votools.config.ConfigurationRegistry;
+import au.csiro.casda.votools.config.ConnectionPool;
 import au.csiro.casda.votools.config.ConfigurationTest;
 import au.csiro.casda.votools.config.EndPoint;
 import au.csiro.casda.votools.jpa.TapColumn;
@@ -332,6 +347,22 @@ public class TapServiceTest extends BaseTest
                         containsString(STR_UNSUPPORTED_FORMAT_REQUESTED_XXX)), (Throwable) null);
     }
 
+    @Test
+    public void testProcessQueryNegativeMaxrec() throws Exception
+    {
+        String mode = TapService.SUBMITTED_MODE_SYNC;
+        StringWriter writer = new StringWriter();
+        Map<String, String> params = createValidParamsForUser(mode, STR_QUERY_SELECT_STAR_FROM_DSFDFDASF, false);
+        params.put(VoKeys.STR_KEY_MAXREC, "-5");
+
+        assertThat(tapService.processQuery(writer, params), is(false));
+        assertThat(writer.toString(), containsString("Invalid MAXREC parameter value: -5"));
+        verify(tapService, never()).runTapQuery(any(), any(), any(), anyInt(), any(), any(), any(), any());
+        testAppender.verifyLogMessage(Level.INFO, "Initialised connection");
+        testAppender.verifyLogMessage(Level.INFO, allOf(containsString("E061]"), containsString("mode: " + mode),
+                containsString("Invalid MAXREC parameter value: -5")), (Throwable) null);
+    }
+
     @Test
     public void testProcessQueryMissingQuery() throws Exception
     {
@@ -369,7 +400,7 @@ public class TapServiceTest extends BaseTest
                         containsString("submittedTime: " + SUBMITTED_FORMATTED), containsString("startTime: "
                                 + STARTED_FORMATTED), containsString("mode: " + mode),
                         containsString("userId: anonymous")), ParseException.class, containsString("Encountered "));
-        verify(tapService, times(1)).generateSqlForQuery(eq(STR_BAD_QUERY_SELECTSELECT), eq(false), eq(null));
+        verify(tapService, times(1)).compileQuery(eq(STR_BAD_QUERY_SELECTSELECT), eq(false), eq(null));
 
     }
 
@@ -382,8 +413,8 @@ public class TapServiceTest extends BaseTest
         params.put(TapService.STR_KEY_FORMAT, STR_FORMAT_TSV);
 
         assertThat(tapService.processQuery(writer, params), is(true));
-        // calls generate sql for query once to validate, and once to run
-        verify(tapService, times(2)).generateSqlForQuery(eq(STR_QUERY_SELECT_STAR_FROM_DSFDFDASF), eq(false), eq(null));
+        // the query is compiled once and the result used to run it
+        verify(tapService, times(1)).compileQuery(eq(STR_QUERY_SELECT_STAR_FROM_DSFDFDASF), eq(false), eq(null));
         // no results due to mock JdbcTemplate
         testAppender.verifyLogMessage(Level.INFO, "Initialised connection");
         assertThat(writer.toString(), containsString(""));
@@ -407,7 +438,7 @@ public class TapServiceTest extends BaseTest
 
         assertThat(tapService.processQuery(writer, params), is(true));
         testAppender.verifyLogMessage(Level.INFO, "Initialised connection");
-        verify(tapService, times(2)).generateSqlForQuery(eq(STR_QUERY_SELECT_STAR_FROM_DSFDFDASF), eq(false),
+        verify(tapService, times(1)).compileQuery(eq(STR_QUERY_SELECT_STAR_FROM_DSFDFDASF), eq(false),
                 eq(PROJECT_IDS_SAMPLE));
         testAppender.verifyLogMessage(
                 Level.INFO,
@@ -429,7 +460,7 @@ public class TapServiceTest extends BaseTest
 
         assertThat(tapService.processQuery(writer, params), is(true));
         testAppender.verifyLogMessage(Level.INFO, "Initialised connection");
-        verify(tapService, times(2)).generateSqlForQuery(eq(STR_QUERY_SELECT_STAR_FROM_DSFDFDASF), eq(true), eq(null));
+        verify(tapService, times(1)).compileQuery(eq(STR_QUERY_SELECT_STAR_FROM_DSFDFDASF), eq(true), eq(null));
         testAppender.verifyLogMessage(
                 Level.INFO,
                 allOf(containsString("E062]"), containsString("duration:"), containsString("adqlQuery: \""
@@ -447,13 +478,13 @@ public class TapServiceTest extends BaseTest
         StringWriter writer = new StringWriter();
         Map<String, String> params = createValidParamsForUser(mode, STR_QUERY_SELECT_STAR_FROM_DSFDFDASF, true);
 
-        doThrow(new IOException(STR_MSG_IO_PROBLEM)).when(tapService).runTapQuery(any(String.class),
+        doThrow(new IOException(STR_MSG_IO_PROBLEM)).when(tapService).runTapQuery(any(CompiledTapQuery.class),
                 any(OutputFormat.class), any(Writer.class), any(Integer.class), anyMap(), any(ZonedDateTime.class),
-                any(String.class), eq(null), eq(null));
+                eq(null), eq(null));
         assertFalse(tapService.processQuery(writer, params));
         // no results due to mock JdbcTemplate
         assertThat(writer.toString(), containsString(StringUtils.EMPTY));
-        verify(tapService, times(2)).generateSqlForQuery(eq(STR_QUERY_SELECT_STAR_FROM_DSFDFDASF), eq(false),
+        verify(tapService, times(1)).compileQuery(eq(STR_QUERY_SELECT_STAR_FROM_DSFDFDASF), eq(false),
                 eq(PROJECT_IDS_SAMPLE));
         testAppender.verifyLogMessage(Level.INFO, "Initialised connection");
         testAppender
@@ -475,9 +506,9 @@ public class TapServiceTest extends BaseTest
 
         DataAccessResourceFailureException dataAccessResourceFailureException =
                 new DataAccessResourceFailureException("canceling statement due to user request");
-        doThrow(dataAccessResourceFailureException).when(tapService).runTapQuery(any(String.class),
+        doThrow(dataAccessResourceFailureException).when(tapService).runTapQuery(any(CompiledTapQuery.class),
                 any(OutputFormat.class), any(Writer.class), any(Integer.class), anyMap(), any(ZonedDateTime.class),
-                any(String.class), eq(null), eq(null));
+                eq(null), eq(null));
         assertFalse(tapService.processQuery(writer, params));
         assertThat(writer.toString(), containsString("Could not finish query due to timeout."));
         testAppender.verifyLogMessage(Level.INFO, "Initialised connection");
@@ -486,6 +517,127 @@ public class TapServiceTest extends BaseTest
 
     }
     
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testProcessQueryRejectsExpensiveSyncQuery() throws Exception
+    {
+        tapService.setSyncMaxCost(1000);
+        when(syncJdbcTemplate.execute(any(ConnectionCallback.class))).thenReturn(2500.0);
+        StringWriter writer = new StringWriter();
+        Map<String, String> params =
+                createValidParamsForUser(TapService.SUBMITTED_MODE_SYNC, STR_QUERY_SELECT_STAR_FROM_DSFDFDASF, false);
+
+        assertFalse(tapService.processQuery(writer, params));
+        assertThat(writer.toString(), containsString("Query is too expensive to run synchronously "
+                + "(estimated cost 2500, limit 1000). Please submit it as an asynchronous job, or add "
+                + "ALLOW_ASYNC=true to the request to have it run as one."));
+        verify(tapService, never()).runTapQuery(any(CompiledTapQuery.class), any(OutputFormat.class),
+                any(Writer.class), any(Integer.class), anyMap(), any(ZonedDateTime.class), eq(null), eq(null));
+        testAppender.verifyLogMessage(Level.INFO, "Initialised connection");
+        testAppender.verifyLogMessage(Level.INFO, allOf(containsString("E061]"), containsString("too expensive")),
+                (Throwable) null);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testProcessQueryPromotesExpensiveSyncQuery() throws Exception
+    {
+        tapService.setSyncMaxCost(1000);
+        when(syncJdbcTemplate.execute(any(ConnectionCallback.class))).thenReturn(2500.0);
+        Map<String, String> params =
+                createValidParamsForUser(TapService.SUBMITTED_MODE_SYNC, STR_QUERY_SELECT_STAR_FROM_DSFDFDASF, false);
+        params.put(VoKeys.STR_KEY_ALLOW_ASYNC, "true");
+
+        AsyncPromotionException e =
+                assertThrows(AsyncPromotionException.class, () -> tapService.processQuery(new StringWriter(), params));
+        assertThat(e.getCost(), is(2500.0));
+
+        // Queries made for SIAP cannot become async jobs
+        params.put(VoKeys.STR_KEY_SIAP_QUERY, "POS=CIRCLE 1 2 3");
+        StringWriter writer = new StringWriter();
+        assertFalse(tapService.processQuery(writer, params));
+        assertThat(writer.toString(), containsString("Please submit it as an asynchronous job."));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testProcessQueryAdmitsCheapOrAsyncQuery() throws Exception
+    {
+        tapService.setSyncMaxCost(1000);
+        when(syncJdbcTemplate.execute(any(ConnectionCallback.class))).thenReturn(500.0);
+        Map<String, String> params =
+                createValidParamsForUser(TapService.SUBMITTED_MODE_SYNC, STR_QUERY_SELECT_STAR_FROM_DSFDFDASF, false);
+        assertTrue(tapService.processQuery(new StringWriter(), params));
+        verify(syncJdbcTemplate).execute(any(ConnectionCallback.class));
+
+        // async jobs are not checked
+        params.put(VoKeys.SUBMITTED_MODE, TapService.SUBMITTED_MODE_ASYNC);
+        when(syncJdbcTemplate.execute(any(ConnectionCallback.class))).thenReturn(2500.0);
+        assertTrue(tapService.processQuery(new StringWriter(), params));
+        verify(syncJdbcTemplate).execute(any(ConnectionCallback.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testProcessQueryCostsLimitedSyncQuery() throws Exception
+    {
+        tapService.setSyncMaxCost(1000);
+        List<String> plannedSql = new ArrayList<>();
+        Connection connection = mockPlanningConnection(plannedSql);
+        doAnswer(invocation -> invocation.getArgument(0, ConnectionCallback.class).doInConnection(connection))
+                .when(syncJdbcTemplate).execute(any(ConnectionCallback.class));
+        Map<String, String> params =
+                createValidParamsForUser(TapService.SUBMITTED_MODE_SYNC, STR_QUERY_SELECT_STAR_FROM_DSFDFDASF, false);
+        params.put(VoKeys.STR_KEY_MAXREC, "10");
+
+        assertTrue(tapService.processQuery(new StringWriter(), params));
+        assertThat(plannedSql.size(), is(1));
+        assertThat(plannedSql.get(0), allOf(containsString("EXPLAIN (FORMAT JSON) "), containsString("\nLimit 11")));
+        verify(tapService).runTapQuery(any(CompiledTapQuery.class), any(OutputFormat.class), any(Writer.class),
+                eq(10), anyMap(), any(ZonedDateTime.class), eq(null), eq(null));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testEstimateQueryCostUsesMaxrec() throws Exception
+    {
+        List<String> plannedSql = new ArrayList<>();
+        Connection connection = mockPlanningConnection(plannedSql);
+        doAnswer(invocation -> invocation.getArgument(0, ConnectionCallback.class).doInConnection(connection))
+                .when(asyncJdbcTemplate).execute(any(ConnectionCallback.class));
+
+        assertThat(tapService.estimateQueryCost(STR_QUERY_SELECT_STAR_FROM_DSFDFDASF, "10", null), is(12.5));
+        assertThat(plannedSql.get(0), containsString("\nLimit 11"));
+        assertThat(tapService.estimateQueryCost(STR_QUERY_SELECT_STAR_FROM_DSFDFDASF, null, null), is(2500.0));
+        assertThat(plannedSql.get(1), containsString("\nLimit 20000001"));
+
+        assertThat(tapService.estimateQueryCost(STR_QUERY_SELECT_STAR_FROM_DSFDFDASF, "-5", null), is(nullValue()));
+        assertThat(tapService.estimateQueryCost(STR_QUERY_SELECT_STAR_FROM_DSFDFDASF, "many", null), is(nullValue()));
+        assertThat(plannedSql.size(), is(2));
+    }
+
+    /**
+     * Mock a connection which plans queries, they are cheap when limited to 11 rows.
+     */
+    private Connection mockPlanningConnection(List<String> plannedSql) throws SQLException
+    {
+        Connection connection = mock(Connection.class);
+        when(connection.prepareStatement(anyString())).thenAnswer(invocation ->
+        {
+            String sql = invocation.getArgument(0);
+            plannedSql.add(sql);
+            // Without the limit the whole table would be read
+            String cost = sql.endsWith("\nLimit 11") ? "12.5" : "2500.0";
+            ResultSet plan = mock(ResultSet.class);
+            when(plan.next()).thenReturn(true);
+            when(plan.getString(1)).thenReturn("[{\"Plan\": {\"Total Cost\": " + cost + "}}]");
+            PreparedStatement statement = mock(PreparedStatement.class);
+            when(statement.executeQuery()).thenReturn(plan);
+            return statement;
+        });
+        return connection;
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void testProcessQueryVoTableHeader() throws Exception
@@ -509,12 +661,77 @@ public class TapServiceTest extends BaseTest
                         return extractor.extractData(emptyResultSet);
                     }
                 });
-        tapService.runTapQuery("sqlQuery", OutputFormat.VOTABLE, writer, 10, params, ZonedDateTime.now(), null, null, 
+        CompiledTapQuery compiledQuery = new CompiledTapQuery("select * from ivoa.obscore", new ADQLQuery(), "sqlQuery",
+                Collections.emptyList(), "", null);
+        tapService.runTapQuery(compiledQuery, OutputFormat.VOTABLE, writer, 10, params, ZonedDateTime.now(), null,
                 null);
+        ArgumentCaptor<TapStatementCreator> statementCaptor = ArgumentCaptor.forClass(TapStatementCreator.class);
+        verify(syncJdbcTemplate).query(statementCaptor.capture(), any(ResultSetExtractor.class));
+        assertThat(statementCaptor.getValue().getQuery(), is("sqlQuery\nLimit 11"));
 
         assertThat(writer.toString(), containsString("Vo heading"));
     }
     
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testRunTapQueryMaxrecZeroDescribesQuery() throws Exception
+    {
+        Writer writer = new StringWriter();
+        Map<String, String> params = new HashMap<>();
+        params.put(VoKeys.SUBMITTED_TIME, ZonedDateTime.now().toString());
+        params.put(VoKeys.SUBMITTED_MODE, TapService.SUBMITTED_MODE_SYNC);
+        PreparedStatement preparedStatement = mockDescribedStatement();
+
+        CompiledTapQuery compiledQuery = new CompiledTapQuery("select * from ivoa.obscore", new ADQLQuery(), "sqlQuery",
+                Collections.emptyList(), "", null);
+        tapService.runTapQuery(compiledQuery, OutputFormat.VOTABLE, writer, 0, params, ZonedDateTime.now(), null,
+                new HashMap<>());
+
+        verify(syncJdbcTemplate, never()).query(any(TapStatementCreator.class), any(ResultSetExtractor.class));
+        verify(preparedStatement, never()).executeQuery();
+        assertThat(writer.toString(), containsString("<FIELD ID=\"obs_id\" name=\"obs_id\""));
+        assertThat(writer.toString(), containsString("<INFO name=\"QUERY_STATUS\" value=\"OVERFLOW\" />"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testRunTapQueryValidateOnly() throws Exception
+    {
+        Writer writer = new StringWriter();
+        Map<String, String> params = new HashMap<>();
+        params.put(VoKeys.SUBMITTED_TIME, ZonedDateTime.now().toString());
+        params.put(VoKeys.SUBMITTED_MODE, TapService.SUBMITTED_MODE_SYNC);
+        params.put(TapService.STR_KEY_REQUEST, TapService.REQUEST_VALIDATE_QUERY);
+        PreparedStatement preparedStatement = mockDescribedStatement();
+
+        CompiledTapQuery compiledQuery = new CompiledTapQuery("select * from ivoa.obscore", new ADQLQuery(), "sqlQuery",
+                Collections.emptyList(), "", null);
+        tapService.runTapQuery(compiledQuery, OutputFormat.CSV, writer, 10, params, ZonedDateTime.now(), null, null);
+
+        verify(syncJdbcTemplate, never()).query(any(TapStatementCreator.class), any(ResultSetExtractor.class));
+        verify(preparedStatement, never()).executeQuery();
+        assertThat(writer.toString(), is("obs_id\r\n"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private PreparedStatement mockDescribedStatement() throws SQLException
+    {
+        PreparedStatement preparedStatement = mock(PreparedStatement.class);
+        ResultSetMetaData metadata = mock(ResultSetMetaData.class);
+        when(preparedStatement.getMetaData()).thenReturn(metadata);
+        when(metadata.getColumnCount()).thenReturn(1);
+        when(metadata.getColumnName(1)).thenReturn("obs_id");
+        when(metadata.getColumnLabel(1)).thenReturn("obs_id");
+        when(metadata.getColumnType(1)).thenReturn(Types.VARCHAR);
+        when(metadata.getColumnTypeName(1)).thenReturn("varchar");
+        when(metadata.getSchemaName(1)).thenReturn("ivoa");
+        when(metadata.getTableName(1)).thenReturn("obscore");
+        when(syncJdbcTemplate.execute(any(TapStatementCreator.class), any(PreparedStatementCallback.class)))
+                .thenAnswer(invocation -> invocation.getArgument(1, PreparedStatementCallback.class)
+                        .doInPreparedStatement(preparedStatement));
+        return preparedStatement;
+    }
+
 
     @Test
     public void testGetOutputFormat()
@@ -615,16 +832,16 @@ public class TapServiceTest extends BaseTest
         StringWriter writer = new StringWriter();
 
         tapService.createDbChecker();
-        boolean result =
+        CompiledTapQuery result =
                 tapService.validateQuery(true, rightQuery, params, writer, ZonedDateTime.now(), PROJECT_IDS_SAMPLE);
-        assertTrue(result);
+        assertThat(result, is(notNullValue()));
         assertThat(writer.toString(), not(containsString("Unknown table &quot;unknown.table&quot;")));
         tapService.refresh();
         when(voTableRepositoryService.getTables()).thenReturn(tableList2);
         when(voTableRepositoryService.getColumns()).thenReturn(columnList2);
         tapService.createDbChecker();
         result = tapService.validateQuery(true, wrongQuery, params, writer, ZonedDateTime.now(), PROJECT_IDS_SAMPLE);
-        assertFalse(result);
+        assertThat(result, is(nullValue()));
         assertThat(writer.toString(), containsString("Unknown table &quot;wrong.table&quot;"));
 
         verify(tapService, times(2)).createDbChecker();
@@ -642,6 +859,7 @@ public class TapServiceTest extends BaseTest
         when(config.gtDao()).thenReturn(mockConfigDAO);
         JdbcTemplate mockTemplate = mock(JdbcTemplate.class);
         when(mockConfigDAO.getTemplate()).thenReturn(mockTemplate);
+        when(mockConfigDAO.getTemplate(any(ConnectionPool.class))).thenReturn(mockTemplate);
         DataSource mockDataSource = mock(DataSource.class);
         when(mockTemplate.getDataSource()).thenReturn(mockDataSource);
         tapService.getConfig().setDao(mock(ConfigurationDAO.class));
@@ -676,6 +894,7 @@ public class TapServiceTest extends BaseTest
         when(config.gtDao()).thenReturn(mockConfigDAO);
         JdbcTemplate mockTemplate = mock(JdbcTemplate.class);
         when(mockConfigDAO.getTemplate()).thenReturn(mockTemplate);
+        when(mockConfigDAO.getTemplate(any(ConnectionPool.class))).thenReturn(mockTemplate);
         DataSource mockDataSource = mock(DataSource.class);
         when(mockTemplate.getDataSource()).thenReturn(mockDataSource);
         tapService.getConfig().setDao(mock(ConfigurationDAO.class));
@@ -16,8 +16,10 @@ package au.csiro.casda.votools.tap;
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
@@ -39,10 +41,12 @@ import au.csiro.casda.votools.config.ConfigurationException;
 import au.csiro.casda.votools.config.ConfigurationRegistry;
 import au.csiro.casda.votools.config.ConfigurationTest;
 import au.csiro.casda.votools.config.EndPoint;
+import au.csiro.casda.votools.utils.VoKeys;
+import au.csiro.casda.votools.uws.FairShareExecutionManager;
+import au.csiro.casda.votools.uws.IndexedJobList;
 import uws.UWSException;
 import uws.job.JobList;
 import uws.job.UWSJob;
-import uws.job.manager.QueuedExecutionManager;
 import uws.job.parameters.UWSParameters;
 
 /**
@@ -136,7 +140,41 @@ public class TapUWServiceTest extends BaseTest
         TapUWService service = new TapUWService(tapService, configRegistry);
         service.isReady();
         JobList list = service.getJobList("async");
-        assertThat(list.getExecutionManager(), is(instanceOf(QueuedExecutionManager.class)));
-        assertThat(((QueuedExecutionManager) list.getExecutionManager()).getMaxRunningJobs(), is(6));
+        assertThat(list, is(instanceOf(IndexedJobList.class)));
+        assertThat(list.getExecutionManager(), is(instanceOf(FairShareExecutionManager.class)));
+        assertThat(((FairShareExecutionManager) list.getExecutionManager()).getMaxRunningJobs(), is(6));
+    }
+
+    @Test
+    public void testParseOwnerWeights()
+    {
+        Map<String, Double> weights =
+                TapUWService.parseOwnerWeights(Arrays.asList("alice=2", "", "bob=0.5", "carol", "dave=0", "=3"));
+        assertThat(weights.size(), is(2));
+        assertThat(weights.get("alice"), is(2.0));
+        assertThat(weights.get("bob"), is(0.5));
+    }
+
+    @Test
+    public void testGetJobOwner()
+    {
+        UWSJob job = Mockito.mock(UWSJob.class);
+        Mockito.when(job.getParameter(VoKeys.KEY_REQUESTER_IP_ADDRESS)).thenReturn("10.0.0.1");
+        assertThat(TapUWService.getJobOwner(job), is("10.0.0.1"));
+        Mockito.when(job.getParameter(VoKeys.USER_ID)).thenReturn("user1");
+        assertThat(TapUWService.getJobOwner(job), is("user1"));
+    }
+
+    @Test
+    public void testGetJobCreationTime()
+    {
+        UWSJob job = Mockito.mock(UWSJob.class);
+        Mockito.when(job.getParameter(VoKeys.SUBMITTED_TIME)).thenReturn("2015-10-16T12:00:00.500Z[UTC]");
+        assertThat(TapUWService.getJobCreationTime(job), is(1444996800500L));
+
+        // a job without a valid submission time was created no later than now
+        Mockito.when(job.getParameter(VoKeys.SUBMITTED_TIME)).thenReturn("yesterday");
+        long before = System.currentTimeMillis();
+        assertThat(TapUWService.getJobCreationTime(job), is(greaterThanOrEqualTo(before)));
     }
 }
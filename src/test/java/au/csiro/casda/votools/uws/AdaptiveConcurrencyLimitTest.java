@@ -0,0 +1,114 @@
+package au.csiro.casda.votools.uws;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Verify the adjustment of the number of running jobs by AdaptiveConcurrencyLimit.
+ * <p>
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class AdaptiveConcurrencyLimitTest
+{
+    private static final long MILLIS = 1000000L;
+
+    private static final long SECONDS = 1000000000L;
+
+    @Test
+    public void testInitialLimitWithinBounds()
+    {
+        assertThat(new AdaptiveConcurrencyLimit(4, 2, 12, null).getLimit(), is(4));
+        assertThat(new AdaptiveConcurrencyLimit(1, 2, 12, null).getLimit(), is(2));
+        assertThat(new AdaptiveConcurrencyLimit(20, 2, 12, null).getLimit(), is(12));
+        assertThat(new AdaptiveConcurrencyLimit(4, 0, 0, null).getLimit(), is(1));
+    }
+
+    @Test
+    public void testSteadyLatencyRaisesLimitToCeiling()
+    {
+        List<Integer> changes = new ArrayList<>();
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 2, 12, changes::add);
+        for (int i = 0; i < 100; i++)
+        {
+            limit.recordQuery(200 * MILLIS, 10000, SECONDS);
+        }
+        assertThat(limit.getLimit(), is(12));
+        assertThat(changes.get(0), is(5));
+        assertThat(changes.get(changes.size() - 1), is(12));
+    }
+
+    @Test
+    public void testSlowFirstRowLowersLimit()
+    {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 2, 12, null);
+        for (int i = 0; i < 100; i++)
+        {
+            limit.recordQuery(200 * MILLIS, 0, 0);
+        }
+        assertThat(limit.getLimit(), is(12));
+        for (int i = 0; i < 5; i++)
+        {
+            limit.recordQuery(5 * SECONDS, 0, 0);
+        }
+        assertThat(limit.getLimit(), lessThan(12));
+        for (int i = 0; i < 30; i++)
+        {
+            limit.recordQuery(5 * SECONDS, 0, 0);
+        }
+        assertThat(limit.getLimit(), lessThan(6));
+    }
+
+    @Test
+    public void testFallingThroughputLowersLimit()
+    {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(12, 2, 12, null);
+        for (int i = 0; i < 50; i++)
+        {
+            limit.recordQuery(200 * MILLIS, 100000, SECONDS);
+        }
+        for (int i = 0; i < 30; i++)
+        {
+            limit.recordQuery(200 * MILLIS, 1000, SECONDS);
+        }
+        assertThat(limit.getLimit(), lessThan(6));
+    }
+
+    @Test
+    public void testLimitRecoversOnceLoadDrops()
+    {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(12, 2, 12, null);
+        for (int i = 0; i < 100; i++)
+        {
+            limit.recordQuery(100 * MILLIS, 0, 0);
+        }
+        for (int i = 0; i < 30; i++)
+        {
+            limit.recordQuery(5 * SECONDS, 0, 0);
+        }
+        int loaded = limit.getLimit();
+        for (int i = 0; i < 100; i++)
+        {
+            limit.recordQuery(100 * MILLIS, 0, 0);
+        }
+        assertThat(limit.getLimit(), greaterThan(loaded));
+    }
+}
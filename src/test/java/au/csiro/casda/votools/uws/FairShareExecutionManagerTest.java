@@ -0,0 +1,255 @@
+package au.csiro.casda.votools.uws;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import uws.UWSException;
+import uws.job.ExecutionPhase;
+import uws.job.UWSJob;
+import uws.job.parameters.UWSParameters;
+import uws.service.log.UWSLog;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Verify the scheduling of jobs by FairShareExecutionManager.
+ * <p>
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class FairShareExecutionManagerTest
+{
+    private static final double EXPENSIVE = 1000;
+
+    private final Map<UWSJob, String> owners = new HashMap<>();
+
+    private final Map<UWSJob, Double> costs = new HashMap<>();
+
+    private long now;
+
+    @BeforeEach
+    public void setUp()
+    {
+        now = 1444996800000L;
+    }
+
+    @Test
+    public void testOwnersShareSlots() throws Exception
+    {
+        FairShareExecutionManager manager = createManager(1, 1, Collections.emptyMap());
+        UWSJob a1 = submit(manager, "alice", null);
+        UWSJob a2 = submit(manager, "alice", null);
+        UWSJob a3 = submit(manager, "alice", null);
+        UWSJob b1 = submit(manager, "bob", null);
+
+        assertThat(a1.getPhase(), is(ExecutionPhase.EXECUTING));
+        assertThat(names(manager.getQueuedJobs()), contains(b1.getJobId(), a2.getJobId(), a3.getJobId()));
+        assertThat(manager.getQueuePosition(b1.getJobId()), is(1));
+        assertThat(manager.getQueuePosition(a3.getJobId()), is(3));
+        assertThat(manager.getQueuePosition(a1.getJobId()), is(0));
+
+        // Quotes are the seconds until each job is expected to complete
+        long runTime = (long) FairShareExecutionManager.DEFAULT_CHEAP_SECONDS;
+        assertThat(a1.getQuote(), is(runTime));
+        assertThat(b1.getQuote(), is(2 * runTime));
+        assertThat(a2.getQuote(), is(3 * runTime));
+        assertThat(a3.getQuote(), is(4 * runTime));
+
+        complete(manager, a1, 10);
+        assertThat(b1.getPhase(), is(ExecutionPhase.EXECUTING));
+        complete(manager, b1, 10);
+        assertThat(a2.getPhase(), is(ExecutionPhase.EXECUTING));
+        assertThat(manager.getNbQueuedJobs(), is(1));
+    }
+
+    @Test
+    public void testOwnerWeights() throws Exception
+    {
+        FairShareExecutionManager manager = createManager(1, 1, Collections.singletonMap("alice", 2.0));
+        UWSJob running = submit(manager, "carol", null);
+        List<UWSJob> jobs = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+        {
+            jobs.add(submit(manager, "alice", null));
+            jobs.add(submit(manager, "bob", null));
+        }
+
+        List<String> startOrder = new ArrayList<>();
+        complete(manager, running, 0);
+        while (manager.getNbRunningJobs() > 0)
+        {
+            UWSJob job = manager.getRunningJobs().next();
+            startOrder.add(owners.get(job));
+            complete(manager, job, 0);
+        }
+        assertThat(startOrder, contains("alice", "bob", "alice", "bob", "alice", "alice", "bob", "bob"));
+    }
+
+    @Test
+    public void testIdleOwnerGetsNoCredit() throws Exception
+    {
+        FairShareExecutionManager manager = createManager(1, 1, Collections.emptyMap());
+        UWSJob running = submit(manager, "alice", null);
+        List<UWSJob> bobJobs = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+        {
+            bobJobs.add(submit(manager, "bob", null));
+        }
+        complete(manager, running, 0);
+        complete(manager, bobJobs.get(0), 0);
+        complete(manager, bobJobs.get(1), 0);
+
+        // alice was idle while bob ran, so she does not get to run all her jobs ahead of bob's
+        UWSJob a2 = submit(manager, "alice", null);
+        UWSJob a3 = submit(manager, "alice", null);
+        assertThat(names(manager.getQueuedJobs()), contains(a2.getJobId(), bobJobs.get(3).getJobId(), a3.getJobId()));
+    }
+
+    @Test
+    public void testExpensiveLane() throws Exception
+    {
+        FairShareExecutionManager manager = createManager(3, 1, Collections.emptyMap());
+        UWSJob e1 = submit(manager, "alice", EXPENSIVE * 2);
+        UWSJob e2 = submit(manager, "alice", EXPENSIVE);
+        UWSJob c1 = submit(manager, "alice", EXPENSIVE / 2);
+        UWSJob unknown = submit(manager, "bob", null);
+
+        assertThat(e1.getPhase(), is(ExecutionPhase.EXECUTING));
+        assertThat(e2.getPhase(), is(ExecutionPhase.QUEUED));
+        assertThat(c1.getPhase(), is(ExecutionPhase.EXECUTING));
+        assertThat(unknown.getPhase(), is(ExecutionPhase.EXECUTING));
+
+        // e2 waits for the expensive slot, not for a free slot
+        complete(manager, c1, 10);
+        assertThat(e2.getPhase(), is(ExecutionPhase.QUEUED));
+        assertThat(e2.getQuote(), is(2 * (long) FairShareExecutionManager.DEFAULT_EXPENSIVE_SECONDS - 10));
+        complete(manager, e1, 100);
+        assertThat(e2.getPhase(), is(ExecutionPhase.EXECUTING));
+
+        // The expensive lane's run time now takes the completed job into account
+        double expected = FairShareExecutionManager.DEFAULT_EXPENSIVE_SECONDS
+                + 0.2 * (110 - FairShareExecutionManager.DEFAULT_EXPENSIVE_SECONDS);
+        assertThat(e2.getQuote(), is(Math.round(expected)));
+    }
+
+    @Test
+    public void testChangeMaxRunningJobs() throws Exception
+    {
+        FairShareExecutionManager manager = createManager(1, 1, Collections.emptyMap());
+        UWSJob first = submit(manager, "alice", EXPENSIVE);
+        UWSJob second = submit(manager, "bob", EXPENSIVE);
+        UWSJob third = submit(manager, "carol", null);
+        assertThat(manager.getNbRunningJobs(), is(1));
+
+        // Only one expensive job may run, however many slots there are
+        manager.setMaxRunningJobs(3);
+        assertThat(third.getPhase(), is(ExecutionPhase.EXECUTING));
+        assertThat(second.getPhase(), is(ExecutionPhase.QUEUED));
+
+        // Lowering the limit leaves running jobs alone
+        manager.setMaxRunningJobs(1);
+        assertThat(manager.getNbRunningJobs(), is(2));
+        complete(manager, first, 10);
+        assertThat(second.getPhase(), is(ExecutionPhase.QUEUED));
+        complete(manager, third, 10);
+        assertThat(second.getPhase(), is(ExecutionPhase.EXECUTING));
+    }
+
+    @Test
+    public void testCostFailureIsCheap() throws Exception
+    {
+        FairShareExecutionManager manager = new FairShareExecutionManager(mock(UWSLog.class), 2, 1, EXPENSIVE,
+                Collections.emptyMap(), owners::get, job -> {
+                    throw new IllegalStateException("no database");
+                }, () -> now);
+        UWSJob first = submit(manager, "alice", null);
+        UWSJob second = submit(manager, "alice", null);
+        assertThat(first.getPhase(), is(ExecutionPhase.EXECUTING));
+        assertThat(second.getPhase(), is(ExecutionPhase.EXECUTING));
+    }
+
+    @Test
+    public void testRemoveQueuedJob() throws Exception
+    {
+        FairShareExecutionManager manager = createManager(1, 1, Collections.emptyMap());
+        submit(manager, "alice", null);
+        UWSJob queued = submit(manager, "bob", null);
+        UWSJob other = submit(manager, "carol", null);
+        assertThat(manager.getNbQueuedJobs(), is(2));
+
+        queued.setPhase(ExecutionPhase.ABORTED);
+        manager.remove(queued);
+        assertThat(manager.getNbQueuedJobs(), is(1));
+        assertThat(manager.getQueuePosition(queued.getJobId()), is(0));
+        assertThat(manager.getQueuePosition(other.getJobId()), is(1));
+    }
+
+    private FairShareExecutionManager createManager(int maxRunning, int maxExpensive, Map<String, Double> weights)
+    {
+        return new FairShareExecutionManager(mock(UWSLog.class), maxRunning, maxExpensive, EXPENSIVE, weights,
+                owners::get, costs::get, () -> now);
+    }
+
+    private UWSJob submit(FairShareExecutionManager manager, String owner, Double cost) throws UWSException
+    {
+        UWSJob job = new TestJob("job" + owners.size());
+        owners.put(job, owner);
+        costs.put(job, cost);
+        manager.execute(job);
+        return job;
+    }
+
+    private void complete(FairShareExecutionManager manager, UWSJob job, int seconds) throws UWSException
+    {
+        now += seconds * 1000L;
+        job.setPhase(ExecutionPhase.COMPLETED);
+        manager.remove(job);
+    }
+
+    private static List<String> names(Iterator<UWSJob> jobs)
+    {
+        List<String> ids = new ArrayList<>();
+        jobs.forEachRemaining(job -> ids.add(job.getJobId()));
+        return ids;
+    }
+
+    /**
+     * A job which only records that it has been started.
+     */
+    private static class TestJob extends UWSJob
+    {
+        private static final long serialVersionUID = 1L;
+
+        TestJob(String jobId)
+        {
+            super(jobId, null, new UWSParameters(), -1, -1, -1, null, null);
+        }
+
+        @Override
+        public void start(boolean useManager) throws UWSException
+        {
+            setPhase(ExecutionPhase.EXECUTING);
+        }
+    }
+}
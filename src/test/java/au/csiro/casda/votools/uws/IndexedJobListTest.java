@@ -0,0 +1,139 @@
+package au.csiro.casda.votools.uws;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import uws.UWSException;
+import uws.job.ExecutionPhase;
+import uws.job.UWSJob;
+import uws.job.manager.DefaultExecutionManager;
+import uws.job.parameters.UWSParameters;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Verify the filtering of jobs by IndexedJobList.
+ * <p>
+ * Copyright 2015, CSIRO Australia All rights reserved.
+ */
+public class IndexedJobListTest
+{
+    private final Map<UWSJob, String> owners = new HashMap<>();
+
+    private final Map<UWSJob, Long> created = new HashMap<>();
+
+    private IndexedJobList jobList;
+
+    private UWSJob a1;
+
+    private UWSJob b1;
+
+    private UWSJob a2;
+
+    private UWSJob b2;
+
+    @BeforeEach
+    public void setUp() throws Exception
+    {
+        jobList = new IndexedJobList("async", new DefaultExecutionManager(), owners::get, created::get);
+        a1 = add("a1", "alice", 1000);
+        b1 = add("b1", "bob", 2000);
+        a2 = add("a2", "alice", 3000);
+        b2 = add("b2", null, 3000);
+    }
+
+    @Test
+    public void testAllJobsNewestFirst()
+    {
+        assertThat(ids(jobList.getJobs(null, null, null, 0)), contains("b2", "a2", "b1", "a1"));
+        assertThat(ids(jobList.getJobs(null, Collections.emptyList(), null, 2)), contains("b2", "a2"));
+    }
+
+    @Test
+    public void testOwnerFilter()
+    {
+        assertThat(ids(jobList.getJobs("alice", null, null, 0)), contains("a2", "a1"));
+        assertThat(ids(jobList.getJobs("bob", null, null, 0)), contains("b1"));
+        assertThat(ids(jobList.getJobs("carol", null, null, 0)), is(empty()));
+    }
+
+    @Test
+    public void testPhaseFilter() throws Exception
+    {
+        a1.setPhase(ExecutionPhase.COMPLETED, true);
+        b1.setPhase(ExecutionPhase.EXECUTING, true);
+        b1.setPhase(ExecutionPhase.ERROR, true);
+
+        assertThat(ids(jobList.getJobs(null, Arrays.asList(ExecutionPhase.PENDING), null, 0)), contains("b2", "a2"));
+        assertThat(ids(jobList.getJobs(null, Arrays.asList(ExecutionPhase.COMPLETED, ExecutionPhase.ERROR), null, 0)),
+                contains("b1", "a1"));
+        assertThat(ids(jobList.getJobs(null, Arrays.asList(ExecutionPhase.EXECUTING), null, 0)), is(empty()));
+        assertThat(ids(jobList.getJobs("alice", Arrays.asList(ExecutionPhase.COMPLETED), null, 0)), contains("a1"));
+        assertThat(ids(jobList.getJobs(null, Arrays.asList(ExecutionPhase.PENDING, ExecutionPhase.COMPLETED,
+                ExecutionPhase.ERROR), null, 3)), contains("b2", "a2", "b1"));
+    }
+
+    @Test
+    public void testAfterFilter()
+    {
+        assertThat(ids(jobList.getJobs(null, null, 2000L, 0)), contains("b2", "a2"));
+        assertThat(ids(jobList.getJobs(null, null, 1999L, 0)), contains("b2", "a2", "b1"));
+        assertThat(ids(jobList.getJobs("alice", null, 500L, 1)), contains("a2"));
+        assertThat(ids(jobList.getJobs(null, Arrays.asList(ExecutionPhase.PENDING), 3000L, 0)), is(empty()));
+    }
+
+    @Test
+    public void testDestroyedJobsRemoved() throws Exception
+    {
+        jobList.destroyJob("a2");
+        assertThat(ids(jobList.getJobs(null, null, null, 0)), contains("b2", "b1", "a1"));
+        assertThat(ids(jobList.getJobs("alice", Arrays.asList(ExecutionPhase.PENDING), null, 0)), contains("a1"));
+
+        // the removed job is no longer observed
+        a2.setPhase(ExecutionPhase.ABORTED, true);
+        assertThat(ids(jobList.getJobs(null, Arrays.asList(ExecutionPhase.ABORTED), null, 0)), is(empty()));
+
+        // nor is a job added twice indexed twice
+        assertThat(jobList.addNewJob(b1), is((String) null));
+        assertThat(ids(jobList.getJobs("bob", null, null, 0)), contains("b1"));
+    }
+
+    private UWSJob add(String jobId, String owner, long creationTime) throws UWSException
+    {
+        UWSJob job = new UWSJob(jobId, null, new UWSParameters(), -1, -1, -1, null, null);
+        owners.put(job, owner);
+        created.put(job, creationTime);
+        jobList.addNewJob(job);
+        return job;
+    }
+
+    private static List<String> ids(Iterator<UWSJob> jobs)
+    {
+        List<String> ids = new ArrayList<>();
+        jobs.forEachRemaining(job -> ids.add(job.getJobId()));
+        return ids;
+    }
+}